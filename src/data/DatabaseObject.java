@@ -24,8 +24,11 @@ package data;
 public class DatabaseObject {
     public String date; /*!< Date database was created. This will be reset if the database file needs to be reconstructed. */
     public String location; /*!< Location of the *name*.about.txt file on the hard drive. */
+    public String memberChecksums[]; /*!< SHA-256 checksum of each member file, recorded when the database is loaded or reconstructed. Null if the database file does not record them. */
     public String memberLocations[]; /*!< Stores the locations of each organisms file in the database. It is empty if the object describes a weather database. */
+    public long memberModified[]; /*!< Modification time of each member file when its checksum was recorded, or 0 if the file failed validation. Null if the database file does not record them. */
     public String memberNames[]; /*!< Stores the names of the organisms in the database. It is empty if the object describes a weather database.*/
+    public int memberRows[]; /*!< Number of data rows in each member file, recorded when the database is loaded or reconstructed. Null if the database file does not record them. */
     public String memberStages[]; /*!< List of the names used for the stages in the organism.*/
     public String name; /*!< Name of the database. */
     public int size; /*!< How many organisms are in the database. This is 0 if the object describes a weather database. */
@@ -38,8 +41,11 @@ public class DatabaseObject {
     */
     public DatabaseObject() {
         date = "Unknown";
+        memberChecksums = null;
         memberLocations = null;
+        memberModified = null;
         memberNames = null;
+        memberRows = null;
         name = "Unknown";
         stages = 0;
         size = 0;
@@ -0,0 +1,68 @@
+package data;
+
+/**
+ * Holds the settings and results of a simulation of sampling designs.
+ * A design is a sampling schedule, a set of days on which the same number
+ * of individuals is caught and staged. Each design is simulated many times
+ * from a fitted model: the counts in each stage are drawn from the
+ * proportions the model predicts for each day, and the model is fitted to
+ * them again. How widely the refitted parameters spread shows how precisely
+ * the design would estimate the model, before any insects are caught.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class DesignObject {
+    /**
+     * @brief Relative bias of each parameter for each design.
+     * @details Indexed as [design][parameter]. The mean of the converged
+     * refits divided by the model's value, less 1.
+     */
+    public double bias[][];
+    public int converged[]; /*!< Number of simulations of each design whose refit converged. */
+    /**
+     * @brief Coefficient of variation of each parameter for each design.
+     * @details Indexed as [design][parameter]. The standard deviation of the
+     * converged refits divided by the model's value. This is the precision
+     * the designs are compared by.
+     */
+    public double cv[][];
+    public double days[][]; /*!< Sampling days of each design, as days of the weather dataset. */
+    public int insects[]; /*!< Number of individuals sampled on each day of each design. */
+    public String names[]; /*!< Names of the model parameters: A1 to An and V. */
+    public String optim; /*!< The method of optimization used to refit the simulations. */
+    public double params[]; /*!< Parameters of the model the simulations are drawn from. */
+    public int simulations; /*!< Number of simulations of each design. */
+    /**
+     * @brief One row per simulation.
+     * @details Each row holds the design and the simulation, both counting
+     * from 0, the convergence code from optim, and the refitted parameters.
+     * The rows are ordered by design and then by simulation. The parameters
+     * are NaN if the refit failed.
+     */
+    public double table[][];
+    /**
+     * @brief Relative width of the interval holding the central 95% of each
+     * parameter for each design.
+     * @details Indexed as [design][parameter]. The width is divided by the
+     * model's value.
+     */
+    public double width[][];
+
+    /**
+     * @brief Basic constructor to set all values to their defaults.
+     */
+    public DesignObject() {
+        bias = new double[0][0];
+        converged = new int[0];
+        cv = new double[0][0];
+        days = new double[0][0];
+        insects = new int[0];
+        names = new String[0];
+        optim = "";
+        params = new double[0];
+        simulations = 1000;
+        table = new double[0][0];
+        width = new double[0][0];
+    }
+}
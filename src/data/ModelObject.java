@@ -19,6 +19,10 @@ import java.util.Date;
 public class ModelObject {
     public String aic; /*!< The model's Akaike Information Criterion. */
     public String date; /*!< Date of model's creation. */
+    public boolean fitThresholds; /*!< Whether the thresholds are fitted along with the parameters rather than fixed. */
+    public String joint; /*!< Name of the joint fit whose V this model shares with the other organisms fitted with it, or empty if the model was fitted alone. */
+    public String jointAic; /*!< Akaike Information Criterion of the whole joint fit, counting the shared V once, or empty if the model was fitted alone. */
+    public String jointLogLikelihood; /*!< Log likelihood of the whole joint fit, or empty if the model was fitted alone. */
     /**
      * @brief List of the elements in the model.
      * @details These are the values used to produce predictive graphs or run 
@@ -29,16 +33,22 @@ public class ModelObject {
      */
     public String params[];
     public String logLikelihood; /*!< Stores the computed log likelihood of the model. */
+    public String lower; /*!< Lower developmental threshold in degrees Celsius used to calculate the degree days. */
     public String optim; /*!< The method of optimization. */
     public String OrganismDatabaseLocation; /*!< Location of the organism database used. */
     public String OrganismDatabaseName; /*!< Name of the organism database used. */
     public String OrganismFiles[]; /*!< List of organism files used. @note This does not have to include all possible files in the dataset. */
+    public String parent; /*!< Name of the model this one was refitted from, or empty if it was fitted from scratch. */
     public int paramCount; /*!< Number of parameters in the model (includes V as well as the A values). */
     public int organismCount; /*!< Number of organisms used in the model. */
     public String name; /*!< The model's name.*/
     public ArrayList<String> stageMap; /*!< Maps the stages on to each other. */
+    public String starts; /*!< Number of starting points tried by a multi-start fit, or empty for other methods. */
+    public String startsAgreed; /*!< Number of starting points of a multi-start fit which reached the kept fit, or empty for other methods. */
     public StatsObject stats; /*!< Holds the models statistical information if it  has been calculated. */
     public String time; /*!< Time of the model's creation. */
+    public String upper; /*!< Upper developmental threshold in degrees Celsius used to calculate the degree days. */
+    public ValidationObject validation; /*!< Holds the model's cross-validation if it has been run. */
     public String weatherDatabaseLocation; /*!< Location of the weather database used.*/
     public String weatherDatabaseName; /*!< Name of weather database used. */ 
 
@@ -59,11 +69,21 @@ public class ModelObject {
         OrganismDatabaseName = "Unknown";
         OrganismDatabaseLocation ="Unknown";
         optim = "Nelder-Mead";
+        fitThresholds = false;
+        joint = "";
+        jointAic = "";
+        jointLogLikelihood = "";
+        lower = "4";
+        upper = "40";
         paramCount = 0;
+        parent = "";
         organismCount = 0;
         logLikelihood = "";
         stageMap = new ArrayList<>();
         aic = "";
+        starts = "";
+        startsAgreed = "";
         stats = new StatsObject();
+        validation = new ValidationObject();
     }
 }
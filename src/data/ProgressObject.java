@@ -0,0 +1,31 @@
+package data;
+
+/**
+ * Describes how far a long running script operation has come.
+ * Scripts report their progress while they run, e.g. after each bootstrap
+ * iteration in `stats.r` or each evaluation of the likelihood in `model.r`,
+ * and ScriptManager passes each report on to a ProgressListener in this form.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research 
+ * Service (US Government Public Domain)
+ */
+public class ProgressObject {
+    public long done; /*!< Number of steps finished. */
+    public long elapsed; /*!< Milliseconds since the operation was started. */
+    public long eta; /*!< Estimated milliseconds until the operation finishes, or -1 if it can not be estimated. */
+    public double logLikelihood; /*!< Log likelihood of the most recent fit, or NaN if the script did not report one. */
+    public String task; /*!< Name of the script doing the work. */
+    public long total; /*!< Total number of steps, or -1 if the script does not know how many it will take. */
+    
+    /**
+     * Default constructor.
+     */
+    public ProgressObject() {
+        done = 0;
+        elapsed = 0;
+        eta = -1;
+        logLikelihood = Double.NaN;
+        task = "";
+        total = -1;
+    }
+}
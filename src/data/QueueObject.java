@@ -0,0 +1,24 @@
+package data;
+
+/**
+ * Describes the jobs waiting for and running on the R workers.
+ * The arrays are indexed by the priority classes of JobScheduler: 
+ * JobScheduler.INTERACTIVE, JobScheduler.MODEL, and JobScheduler.BATCH.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research 
+ * Service (US Government Public Domain)
+ */
+public class QueueObject {
+    public int[] limits; /*!< Most jobs of each class allowed to run at the same time. */
+    public int[] queued; /*!< Jobs of each class waiting for a worker. */
+    public int[] running; /*!< Jobs of each class running on a worker. */
+    
+    /**
+     * Default constructor.
+     */
+    public QueueObject() {
+        limits = new int[3];
+        queued = new int[3];
+        running = new int[3];
+    }
+}
@@ -17,6 +17,7 @@ import java.util.ArrayList;
  * Service (US Government Public Domain)
  */
 public class SettingsObject {
+    public int cacheSize; /*!< Largest size, in megabytes, the cache of script results in "./Temp/Cache" may grow to. 0 turns the cache off. */
     public String defaultFigureLocation; /*!< Default location for the program to suggest saving figures. */
     public String defaultModelLocation; /*!< Location of the XML database listed all previously created models. */
     public String defaultOrganismLoad; /*!< Default location to look for organism databases to load. */
@@ -31,10 +32,15 @@ public class SettingsObject {
     public ArrayList<String> organismLocations; /*!< List of all previously loaded organism data set locations. */
     public ArrayList<String> organismNames; /*!< Names of all previously loaded organism data sets. */
     public int organismCount; /*!< Number of all previously loaded organism data sets*/
+    public int scriptMemory; /*!< Largest memory, in megabytes, an R process may use while running a script before it is stopped. 0 for no limit. */
+    public int scriptTimeout; /*!< Longest time, in seconds, a single script run may take before it is stopped. 0 for no limit. */
+    public String statsWorkers; /*!< Addresses of other computers running the `worker` command which statistics shards are sent to, as `host:port` separated by commas. Empty to run every shard locally. */
     public boolean tooltips; /*!< Whether the program should show tooltips when the user hovers their mouse over a GUI element. */
     public ArrayList<String> weatherLocations;/*!< List of all previously loaded weather data set locations. */
     public ArrayList<String> weatherNames; /*!< Names of all previously loaded weather data sets. */
     public int weatherCount; /*!< Number of all previously loaded weather data sets*/
+    public int workerCount; /*!< Number of R worker processes used to run scripts. 0 uses one per available processor. */
+    public int workerJobs; /*!< Number of scripts an R worker runs before it is replaced with a fresh process. 0 never replaces a healthy worker. */
 	
     /**
     * Default constructor.
@@ -93,6 +99,7 @@ public class SettingsObject {
         } else {
             defaultModelLocation = "models.xml";
         }
+        cacheSize = 256;
         loadedOrganism = "";
         loadedWeather = "";
         loadedModel = "";
@@ -100,8 +107,13 @@ public class SettingsObject {
         weatherCount = 0;
         organismLocations = new ArrayList<>();
         organismNames = new ArrayList<>();
+        scriptMemory = 4096;
+        scriptTimeout = 7200;
         tooltips = true;
         weatherLocations = new ArrayList<>();
         weatherNames = new ArrayList<>();
+        statsWorkers = "";
+        workerCount = 0;
+        workerJobs = 25;
     }
 }
@@ -23,22 +23,30 @@ import java.util.ArrayList;
  */
 public class StatsObject {
     public String[] a; /*!< Basic model parameters. (for elements [0,...,n-1]) */
+    public String accept; /*!< Mean share of proposals accepted by the chains of an MCMC run after their burn-in. */
     public String[] aHigh; /*!< High estimates for the model parameters. */
     public String[] aLow; /*!< Low estimates for the model parameters. */
     public String alpha; /*!< The alpha value used in the calculations. */
-    public String[][] aStar; /*!< Output as part of the calculations but not currently used by the program. */
+    public String[][] aStar; /*!< Bootstrap or posterior draws of the A values, one row per draw, used for the error bars of forecasts. */
+    public String chains; /*!< Number of chains of an MCMC run. */
+    public String[] ess; /*!< Effective sample size of each parameter of an MCMC run, the A values followed by V. */
     public String gg; /*!< The g-squared value. */
     public String[] ggci; /*!< The confidence interval for the g-squared value. The high value is element 0 and the low value is element 1.  */
     public String ggPval; /*!< The p-value for g-squared. */
     public String[] ggStar; /*!< Output as part of the calculations but not currently used by the program. */
     public String iterations; /*!< Number of iterations used to produce the final output. */
+    public String lower; /*!< Lower developmental threshold in degrees Celsius. The thresholds are kept fixed during the bootstrap. */
+    public String method; /*!< How the intervals were found: "Bootstrap", "Profile Likelihood", which makes no draws, or "MCMC". */
     public String optim;
+    public String[] rHat; /*!< Potential scale reduction factor of each parameter of an MCMC run, the A values followed by V. */
     public String stages; /*!< Number of stages in the chosen organism dataset. */
     public ArrayList<String> stageMap; /*!< Maps the stages on to each other. */
+    public String thin; /*!< Number of steps of an MCMC chain between kept draws. */
+    public String upper; /*!< Upper developmental threshold in degrees Celsius. */
     public String v; /*!< Basic model parameter. (for element [n]) */
     public String vHigh; /*!< High estimates for the model parameter. */
     public String vLow; /*!< Low estimates for the model parameter. */
-    public String[] vStar; /*!< Output as part of the calculations but not currently used by the program. */
+    public String[] vStar; /*!< Bootstrap or posterior draws of the V value, used for the error bars of forecasts. */
     public String xx; /*!< The chi-squared statistic. */
     public String xxHigh; /*!< High estimate for the chi-squared p-value. */
     public String xxLow; /*!< Low estimate for the chi-squared p-value. */
@@ -49,10 +57,13 @@ public class StatsObject {
      */
     public StatsObject() {
         a = new String[0];
+        accept = "";
         aHigh = new String[0];
         aLow = new String[0];
         alpha = "0.05";
         aStar = new String[0][0];
+        chains = "4";
+        ess = new String[0];
         gg = "";
         ggci = new String[2];
         ggci[0] = "";
@@ -60,8 +71,13 @@ public class StatsObject {
         ggPval = "";
         ggStar = new String[0];
         iterations = "1000";
+        lower = "4";
+        method = "Bootstrap";
         optim = "";
+        rHat = new String[0];
         stages = "0";
+        thin = "10";
+        upper = "40";
         v = "";
         vHigh = "";
         vLow = "";
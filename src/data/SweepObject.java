@@ -0,0 +1,64 @@
+package data;
+
+/**
+ * Holds the settings and results of a parameter sensitivity sweep.
+ * A sweep moves each model parameter and each developmental threshold
+ * around its fitted value and finds the forecast target, the day on which
+ * the targeted proportion of the population has reached the chosen stage,
+ * for every point. The points are either a grid which moves one value at a
+ * time or a random sample which moves every value at once.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class SweepObject {
+    public double baselineDay; /*!< Forecast target of the fitted model, as a day of the weather dataset. */
+    public double baselineTau; /*!< Forecast target of the fitted model, in degree days. */
+    public double high[]; /*!< Highest value swept for each of the values named in names. */
+    public double low[]; /*!< Lowest value swept for each of the values named in names. */
+    public String names[]; /*!< Names of the swept values: A1 to An, V, lower, and upper. */
+    public int points; /*!< Number of grid points for each value, including both ends of its range. */
+    public String proportionPercent; /*!< Targeted proportion, from 0 to 1. */
+    public String proportionStage; /*!< Stage the target is found for, counting from 1. */
+    public boolean random; /*!< Draw a random sample of points rather than a grid. */
+    public int samples; /*!< Number of random points. */
+    public String spread; /*!< Fraction of its fitted value each model parameter is moved up and down by. */
+    /**
+     * @brief One row per point of the sweep.
+     * @details Each row holds the swept values in the order of names, then
+     * the forecast target in degree days and as a day. The day is NaN if the
+     * weather dataset ends before the target is reached. The first row is
+     * always the fitted model.
+     */
+    public double table[][];
+    public String thresholdSpread; /*!< Number of degrees Celsius each threshold is moved up and down by. */
+    /**
+     * @brief One row per swept value, with the widest swing first.
+     * @details Each row holds the index of the value in names, the mean day
+     * of the target at the low and at the high end of the value's range, and
+     * the swing from low to high. For a grid the ends are its first and last
+     * points. For a random sample they are the points in the lowest and
+     * highest quarter of the range.
+     */
+    public double tornado[][];
+
+    /**
+     * @brief Basic constructor to set all values to their defaults.
+     */
+    public SweepObject() {
+        baselineDay = Double.NaN;
+        baselineTau = Double.NaN;
+        high = new double[0];
+        low = new double[0];
+        names = new String[0];
+        points = 11;
+        proportionPercent = "0.5";
+        proportionStage = "1";
+        random = false;
+        samples = 1000;
+        spread = "0.1";
+        table = new double[0][0];
+        thresholdSpread = "2";
+        tornado = new double[0][0];
+    }
+}
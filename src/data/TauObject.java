@@ -0,0 +1,28 @@
+package data;
+
+/**
+ * Describes the time by which a share of a population has reached a stage.
+ * This is the value drawn on the stage prediction figure of `forecast.r`,
+ * calculated for a model by the Tau class.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research 
+ * Service (US Government Public Domain)
+ */
+public class TauObject {
+    public double high; /*!< 97.5% quantile of tau over the bootstrap draws, or NaN if the model has no statistics. */
+    public double low; /*!< 2.5% quantile of tau over the bootstrap draws, or NaN if the model has no statistics. */
+    public double proportion; /*!< Share of the population, between 0 and 1. */
+    public int stage; /*!< Stage, counted from 1, which the share has reached or passed. */
+    public double tau; /*!< Time in degree days. */
+    
+    /**
+     * Default constructor.
+     */
+    public TauObject() {
+        high = Double.NaN;
+        low = Double.NaN;
+        proportion = 0;
+        stage = 0;
+        tau = Double.NaN;
+    }
+}
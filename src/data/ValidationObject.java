@@ -0,0 +1,43 @@
+package data;
+
+/**
+ * Holds the cross-validation of a model.
+ * The sampling dates of the model's organism dataset are split in to folds.
+ * The model is refitted once without each fold and scored on the dates it
+ * left out, which shows how well it predicts dates it has not seen rather
+ * than how well it fits the dates it was made from. Leaving out one date at
+ * a time gives one fold per date.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class ValidationObject {
+    public String converged; /*!< Number of folds whose refit converged. */
+    public String failed; /*!< Number of folds whose refit failed. They are left out of log, mae, and rmse. */
+    public String foldDates[]; /*!< Number of sampling dates left out of each fold. */
+    public String foldLog[]; /*!< Log likelihood of the dates left out of each fold. */
+    public String foldMae[]; /*!< Mean absolute error of the predicted stage proportions on the dates left out of each fold. */
+    public String foldRmse[]; /*!< Root mean square error of the predicted stage proportions on the dates left out of each fold. */
+    public String folds; /*!< Number of folds, or 0 if the model has not been cross-validated. */
+    public String log; /*!< Sum of the held out log likelihood of every fold which did not fail. */
+    public String mae; /*!< Mean absolute error of the predicted stage proportions over every held out date of the folds which did not fail. */
+    public String optim; /*!< The method of optimization used to refit the folds. */
+    public String rmse; /*!< Root mean square error of the predicted stage proportions over every held out date of the folds which did not fail. */
+
+    /**
+     * @brief Basic constructor to set all values to their defaults.
+     */
+    public ValidationObject() {
+        converged = "";
+        failed = "0";
+        foldDates = new String[0];
+        foldLog = new String[0];
+        foldMae = new String[0];
+        foldRmse = new String[0];
+        folds = "0";
+        log = "";
+        mae = "";
+        optim = "";
+        rmse = "";
+    }
+}
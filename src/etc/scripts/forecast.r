@@ -22,23 +22,157 @@ rm(list=ls(all=TRUE))
 # Functions
 #-----------
 
+#
+# Function which reads a request file written by the program.
+#
+# The file starts with the characters "SCRQ", a version number, and the number of blocks. Each
+# block has a name and holds a vector of numbers (type 1), a vector of strings (type 2), or a
+# matrix of numbers stored by column (type 3). All numbers are big-endian. See ScriptProtocol in
+# the program for the writing side.
+#
+# Takes:
+#   x - location of the request file
+#
+# Returns: Named list holding every block in the file.
+#
+readRequest = function(x){
+   con = file(x, "rb")
+   on.exit(close(con))
+   if(rawToChar(readBin(con, "raw", 4)) != "SCRQ"){
+      stop(paste(x, "is not a request file."))
+   }
+   version = readBin(con, "integer", size=4, endian="big")
+   if(version != 1){
+      stop(paste("Unsupported request version", version))
+   }
+   count = readBin(con, "integer", size=4, endian="big")
+   ret = list()
+   for(i in seq_len(count)){
+      name = readString(con)
+      type = readBin(con, "integer", size=1, endian="big")
+      if(type == 1){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = readBin(con, "double", n, size=8, endian="big")
+      }else if(type == 2){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = vapply(seq_len(n), function(j){readString(con)}, "")
+      }else if(type == 3){
+         rows = readBin(con, "integer", size=4, endian="big")
+         cols = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = matrix(readBin(con, "double", rows*cols, size=8, endian="big"), rows, cols)
+      }else{
+         stop(paste("Unknown block type", type, "in block", name))
+      }
+   }
+   return(ret)
+}
+
+#
+# Function which reads one length-prefixed UTF-8 string from a request file.
+#
+# Takes:
+#   con - open binary connection
+#
+# Returns: The string.
+#
+readString = function(con){
+   len = readBin(con, "integer", size=4, endian="big")
+   ret = rawToChar(readBin(con, "raw", len))
+   Encoding(ret) = "UTF-8"
+   return(ret)
+}
+
+#
+# Function which writes one length-prefixed UTF-8 string to a response file.
+#
+# Takes:
+#   con   - open binary connection
+#   value - string to write
+#
+writeString = function(con, value){
+   bytes = charToRaw(enc2utf8(as.character(value)))
+   writeBin(length(bytes), con, size=4, endian="big")
+   writeBin(bytes, con)
+}
+
+#
+# Function which writes a response file for the program to read.
+#
+# The layout is the same as the request file but starts with the characters "SCRS". Character
+# vectors are written as strings, matrices as matrices, and everything else as numbers.
+#
+# Takes:
+#   x      - location of the response file
+#   blocks - named list of the values to write
+#
+writeResponse = function(x, blocks){
+   temp = paste(x, ".part", sep="")
+   con = file(temp, "wb")
+   writeBin(charToRaw("SCRS"), con)
+   writeBin(1L, con, size=4, endian="big")
+   writeBin(length(blocks), con, size=4, endian="big")
+   for(name in names(blocks)){
+      value = blocks[[name]]
+      writeString(con, name)
+      if(is.character(value)){
+         writeBin(2L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         for(s in value){
+            writeString(con, s)
+         }
+      }else if(is.matrix(value)){
+         writeBin(3L, con, size=1)
+         writeBin(nrow(value), con, size=4, endian="big")
+         writeBin(ncol(value), con, size=4, endian="big")
+         writeBin(as.double(value), con, size=8, endian="big")
+      }else{
+         value = as.double(value)
+         writeBin(1L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         writeBin(value, con, size=8, endian="big")
+      }
+   }
+   close(con)
+   file.rename(temp, x) # Only a complete response is ever seen by the program.
+}
+
+#
+# Function which reports progress to the program.
+#
+# A report is a line on standard output holding "@@stagecast", "progress", the steps finished, the
+# total steps, and the current log likelihood, separated by tabs. Reports are dropped if the last one
+# was sent less than a quarter of a second ago, and since R only evaluates an argument when it is used,
+# an expensive value argument costs nothing when the report is dropped. This keeps the cost of calling
+# the function on every pass through a loop negligible. The final report of a loop is always sent.
+#
+# Takes:
+#   done  - number of steps finished
+#   total - total number of steps, or NA if it is not known
+#   value - current log likelihood, or NA
+#
+progressTime = 0 # Time the last report was sent.
+progress = function(done, total=NA, value=NA){
+   now = proc.time()[[3]]
+   if((now - progressTime < 0.25) & !isTRUE(done >= total)) return(invisible(NULL))
+   progressTime <<- now
+   cat(paste("@@stagecast", "progress", done, total, format(value, digits=10), sep="\t"), "\n", sep="")
+   flush(stdout())
+}
+
 #
 # Function to calculate accumulated degree days using the double sine method.
 #
 # Note: assumes input in Celsius
 #
 # Takes:
-#   x     - name of temperature data file
+#   x     - matrix of temperature data with columns for the day, the high, and the low
 #   upper - high bound
 #   lower - low bound
 #
 # Returns: Vector of time values expressed in degree days.
 #
 doubleSine = function(x, upper, lower){
-   degreedata = read.table(x,header=FALSE,sep="\t")
-   attach(degreedata)
-   dmat = cbind(degreedata[2:3]) # Load the high/low information.
-   detach(degreedata)
+   dmat = x[,2:3,drop=FALSE] # Load the high/low information.
    retval = (1:nrow(dmat))*0
    for(i in 1:nrow(dmat)){
       firstLow = dmat[i,2]
@@ -97,6 +231,63 @@ doubleSine = function(x, upper, lower){
    return(retval)
 }
 
+#
+# Function which prepares the degree days for sweeping the thresholds.
+#
+# doubleSine finds each day's area with optimise and integrate, which is far too slow to repeat for every
+# pair of thresholds in a sweep. The same areas have a closed form (see sineArea), and everything but
+# the thresholds can be worked out once: the mean and amplitude of both sine waves of every day. The
+# returned function then only has to redo a few vector operations and a cumulative sum when the
+# thresholds change, and it keeps its last answer so that steps which leave the thresholds alone cost
+# nothing. Only the days up to the day after the last sample are kept.
+#
+# Takes:
+#   x    - matrix of temperature data with columns for the day, the high, and the low
+#   days - vector of the days the samples were taken on
+#
+# Returns: Function of the lower and upper thresholds giving the degree days at each sample.
+#
+degreeDayEngine = function(x, days){
+   rows = min(nrow(x), max(days) + 1)
+   high = x[1:rows,2]
+   low = x[1:rows,3]
+   nextLow = c(low[-1], low[rows]) # The last day uses its own low for the second wave, as in doubleSine.
+   firstMean = (high + low) / 2
+   firstAmp = (high - low) / 2
+   secondMean = (high + nextLow) / 2
+   secondAmp = (high - nextLow) / 2
+   lastThresholds = c(NA, NA)
+   lastTimes = NULL
+   function(lower, upper){
+      if(!identical(c(lower, upper), lastThresholds)){
+         first = sineArea(firstMean, firstAmp, lower) - sineArea(firstMean, firstAmp, upper)
+         second = sineArea(secondMean, secondAmp, lower) - sineArea(secondMean, secondAmp, upper)
+         lastTimes <<- cumsum(pmax((first + second) / 2, 0))[days]
+         lastThresholds <<- c(lower, upper)
+      }
+      return(lastTimes)
+   }
+}
+
+#
+# Function which finds the area of a daily sine wave above a threshold.
+#
+# The wave runs from mean - amp to mean + amp over one day. Its area above the threshold is
+# ((mean - threshold) * (pi/2 - theta) + amp * cos(theta)) / pi, where theta = asin((threshold - mean)/amp)
+# is where the wave crosses the threshold. This is the area doubleSine finds numerically.
+#
+# Takes:
+#   mean      - vector of the daily means
+#   amp       - vector of the daily amplitudes
+#   threshold - the threshold
+#
+# Returns: Vector with the area of each day above the threshold.
+#
+sineArea = function(mean, amp, threshold){
+   theta = asin(pmin(pmax((threshold - mean) / pmax(amp, 1e-12), -1), 1))
+   return(((mean - threshold) * (pi/2 - theta) + amp * cos(theta)) / pi)
+}
+
 #
 # Function used to calculate the probability density of a given dataset. 
 #
@@ -137,27 +328,24 @@ P_ij = function(A, i, dateT){
 # Function takes the array holding the per-stage phenology data and collapses stages in to 
 # each other based on the user's inputs.
 #
-# The mapping is done using two numbers, X and Y, in a string of the format "X:Y"
-#	The X number is the original index of a given stage
-#	The Y number is the index the stage information should be added to for the final output
-#	If a given index is not collapsed into another one the map takes the form of "X:X"
+# The mapping is done using two numbers, X and Y, held in one row of a two column matrix
+#	The X number, in the first column, is the original index of a given stage
+#	The Y number, in the second column, is the index the stage information should be added to for the final output
+#	If a given index is not collapsed into another one the row holds X in both columns
 #
 # Takes:
 #   Original - Array holding the unmodified phenology information
-#   stageMap - vector of strings holding the map from one stage to another.
+#   stageMap - two column matrix holding the map from one stage to another.
 #
 # Returns: Array with the number of columns equal to or less than the number of columns in 
 # the input array.
 #
 collapse = function(original,stageMap) {
-  stageMap = strsplit(stageMap, ":")
-  stageMap = unlist(stageMap)
-
-  stageTarget = strtoi(stageMap[seq(2,length(stageMap),2)],0L)
+  stageTarget = stageMap[,2]
   stageTargetUnique = unique(stageTarget)
   stageTargetLen = length(stageTargetUnique)
 
-  stageSource = strtoi(stageMap[seq(1,length(stageMap),2)],0L)
+  stageSource = stageMap[,1]
   stageSourceLen = length(unique(stageSource))
 
   ret = matrix(0, nrow(original), stageTargetLen)
@@ -176,19 +364,16 @@ collapse = function(original,stageMap) {
 #
 # Takes:
 #   Original - Vector of strings holding the unmodified list of stage names
-#   stageMap - vector of strings holding the map from one stage to another.
+#   stageMap - two column matrix holding the map from one stage to another.
 #
 # Returns: Vector of length equal to or less than the length of the input name vector.
 #
 collapseStageNames = function(original,stageMap) {
-  stageMap = strsplit(stageMap, ":")
-  stageMap = unlist(stageMap)
-  
-  stageTarget = strtoi(stageMap[seq(2,length(stageMap),2)],0L)
+  stageTarget = stageMap[,2]
   stageTargetUnique = unique(stageTarget)
   stageTargetLen = length(stageTargetUnique)
 
-  stageSource = strtoi(stageMap[seq(1,length(stageMap),2)],0L)
+  stageSource = stageMap[,1]
   stageSourceLen = length(unique(stageSource))
   
   ret = rep("",stageTargetLen)
@@ -226,176 +411,219 @@ getTau = function(xi, aVal, v) {
    return(ret)
 }
 
+#
+# Function which finds the forecast target for every row of a sensitivity sweep.
+#
+# The target is the time at which 100xi% of the population is in the chosen stage or less, as drawn
+# on the forecast figure. It is found in degree days with getTau and then as the first day of the
+# weather data on which that many degree days have accumulated under the row's thresholds.
+#
+# Takes:
+#   perturbations - matrix with one row per point of the sweep, holding the A values, V, and the lower
+#                   and upper thresholds
+#   engine        - function from degreeDayEngine giving the degree days accumulated by each day
+#   days          - vector of the days of the weather data
+#   xi            - the targeted proportion
+#   stage         - the stage the target is found for
+#
+# Returns: Matrix with one row per point, holding the target in degree days and as a day, which is NA
+# if the weather data ends before the target is reached.
+#
+sweepTargets = function(perturbations, engine, days, xi, stage){
+   cols = ncol(perturbations)
+   ret = matrix(NA, nrow(perturbations), 2)
+   for(k in seq_len(nrow(perturbations))){
+      tau = getTau(xi, perturbations[k,stage], perturbations[k,cols-2])
+      reached = which(engine(perturbations[k,cols-1], perturbations[k,cols]) >= tau)
+      ret[k,] = c(tau, if(length(reached) > 0) days[reached[1]] else NA)
+      progress(k, nrow(perturbations))
+   }
+   return(ret)
+}
+
 #------------
 # Read Input
 #------------
 
-# The program takes one argument from the command line, the location of the config file to be used.
-args = commandArgs(trailingOnly = TRUE)
+# The program takes two arguments, the location of the request file to be used and the location the
+# response should be written to. They come from the command line, or from the "stagecast.args" option
+# when the script is run by a worker (see worker.r).
+args = getOption("stagecast.args", commandArgs(trailingOnly = TRUE))
 settings = args[1]
+responseLoc = args[2]
 
-config = read.table(settings,header=TRUE,stringsAsFactors=FALSE,sep="\t")
-weather = config$data[as.character(config$tag) == as.character("weather")]                                 # Location of the weather file to use for graphing.
-saveLoc = config$data[as.character(config$tag) == as.character("saveLoc")]                                 # Location the figures should be saved to so that the calling program can find them.
-params = as.numeric(config$data[as.character(config$tag) == as.character("params")])                       # Vector holding the model parameters.
-errorBars = as.numeric(config$data[as.character(config$tag) == as.character("error")])                     # Whether the script should put error bars on the forecasting figure.
-fit = as.numeric(config$data[as.character(config$tag) == as.character("fit")])                             # Whether the script should create a goodness-of-fit figure.
-fitAlone = as.numeric(config$data[as.character(config$tag) == as.character("fitAlone")])                   # Whether the script should create one goodness-of-fit figure per parameter or put all of them on the same figure.
-fitHigh = as.numeric(config$data[as.character(config$tag) == as.character("fitHigh")])                     # The high bound for the fitness figure.
-fitLow = as.numeric(config$data[as.character(config$tag) == as.character("fitLow")])                       # The low bound for the fitness figure.
-stageNames = config$data[as.character(config$tag) == as.character("stage")]                                # A vector containing the names of each stage in the dataset.
-prediction = as.numeric(config$data[as.character(config$tag) == as.character("predict")])                  # Whether the script should create a population forecast figure. 
-predictHigh = as.numeric(config$data[as.character(config$tag) == as.character("predictHigh")])             # The high bound for the forecast figure.
-predictLow = as.numeric(config$data[as.character(config$tag) == as.character("predictLow")])               # The low bound for the forecast figure.
-proportionPercent = as.numeric(config$data[as.character(config$tag) == as.character("proportionPercent")]) # The targeted proportion in the forecast figure.
-proportionStage = as.numeric(config$data[as.character(config$tag) == as.character("proportionStage")])     # The stage to use in the forecast figure.
-tendencies =  as.numeric(config$data[as.character(config$tag) == as.character("tendencies")])              # Whether the script should create a figure showing the model's central tendencies.
-imgWidth = as.numeric(config$data[as.character(config$tag) == as.character("width")])                      # The width in pixels of all created figures.
-imgHeight = as.numeric(config$data[as.character(config$tag) == as.character("height")])                    # The height in pixels of all created figures.
-stageMap = config$data[as.character(config$tag) == as.character("stageMap")]                               # Vector of strings mapping a stage's source index to a target index.
-rawAstar = as.numeric(config$data[as.character(config$tag) == as.character("astar")])                      # Get the astar statistical information. Note: This needs to be further processed before it can be sorted
-rawVstar = as.numeric(config$data[as.character(config$tag) == as.character("vstar")])                      # Get the vstar statistical information.
+config = readRequest(settings)
+weather = config$weather                     # Matrix of the weather data to use for graphing (day, high, low).
+saveLoc = config$saveLoc                     # Location the figures should be saved to so that the calling program can find them.
+params = config$params                       # Vector holding the model parameters.
+errorBars = config$error                     # Whether the script should put error bars on the forecasting figure.
+fit = config$fit                             # Whether the script should create a goodness-of-fit figure.
+fitAlone = config$fitAlone                   # Whether the script should create one goodness-of-fit figure per parameter or put all of them on the same figure.
+fitHigh = config$fitHigh                     # The high bound for the fitness figure.
+fitLow = config$fitLow                       # The low bound for the fitness figure.
+stageNames = config$stage                    # A vector containing the names of each stage in the dataset.
+prediction = config$predict                  # Whether the script should create a population forecast figure. 
+predictHigh = config$predictHigh             # The high bound for the forecast figure.
+predictLow = config$predictLow               # The low bound for the forecast figure.
+proportionPercent = config$proportionPercent # The targeted proportion in the forecast figure.
+proportionStage = config$proportionStage     # The stage to use in the forecast figure.
+tendencies = config$tendencies               # Whether the script should create a figure showing the model's central tendencies.
+imgWidth = config$width                      # The width in pixels of all created figures.
+imgHeight = config$height                    # The height in pixels of all created figures.
+stageMap = config$stageMap                   # Two column matrix mapping a stage's source index to a target index.
+thresholds = config$thresholds               # Lower and upper developmental thresholds in degrees Celsius. Defaults to 4 and 40.
+astar = config$astar                         # Matrix of the bootstrap A values, one row per iteration.
+vstar = config$vstar                         # Vector of the bootstrap V values.
+sweep = config$sweep                         # Matrix of the A values, V, and thresholds of each point of a sensitivity sweep.
 
 #--------------
 # Process Input
 #--------------
 
-# Convert time (presumed to be in Julian format) to degree days.
-degreedays = doubleSine(toString(weather[[1]]), 40, 4)
+if(length(sweep) > 0) {
+	# Find the forecast target of every point of the sweep. The degree days are recalculated only when
+	# a point's thresholds differ from the last point's.
+	engine = degreeDayEngine(weather, seq_len(nrow(weather)))
+	response = list(targets=sweepTargets(sweep, engine, weather[,1], proportionPercent, proportionStage))
+} else {
+	# Convert time (presumed to be in Julian format) to degree days.
+	if(length(thresholds) < 2){
+	  thresholds = c(4, 40)
+	}
+	degreedays = doubleSine(weather, thresholds[2], thresholds[1])
 
-stageNames = collapseStageNames(stageNames,stageMap)
-lenRawA = length(rawAstar)     # Holds the size of the rawAstar vector.
-lenA = length(stageNames) - 1  # Holds the number of parameters stored in rawAstar.
-lenParams = length(stageNames) # Holds the total number of parameters.
+	stageNames = collapseStageNames(stageNames,stageMap)
+	starCount = nrow(astar)        # Holds the number of bootstrap iterations.
+	lenParams = length(stageNames) # Holds the total number of parameters.
 
-# Convert the astar vector into a 2D array
-starMat = matrix(nrow=lenParams,ncol=lenRawA/lenA)
-for(i in 1:lenA) {
-   starMat[i,] = rawAstar[seq(i, lenRawA, lenA)]
-}
-# Add the vstar values to the final matrix.
-starMat[lenParams,] = rawVstar
+	# Put the astar and vstar values in one matrix with one column per iteration.
+	starMat = rbind(t(astar), vstar)
 
-setwd(toString(saveLoc[[1]]))
+	setwd(saveLoc[1])
 
-#---------------
-# Create Figures
-#---------------
+	#---------------
+	# Create Figures
+	#---------------
 
-# Figure showing interception prediction line.
-if(prediction == 1) {
-	if(predictHigh == 0) {
-		rng = predictLow:degreedays[length(degreedays)]
-	} else {
-		rng = predictLow:predictHigh
-	}
-	# Find the line of intersection.
-	index = getTau(proportionPercent,params[proportionStage],params[length(params)])
-	# Find the error bars.
-	starIndex = 1:(lenRawA/lenA) # Holds all calculated index values for our error bars.
-	# Find the proportions for each set of star values and store the calculated target point.
-	for(i in 1:(lenRawA/lenA)) {
-		starIndex[i] = getTau(proportionPercent,starMat[proportionStage,i],starMat[length(params),i])
-	}
-	starIndex = sort(starIndex)
-
-	# Find the upper and lower ranges to draw our error bars.
-	diffMin = index - quantile(starIndex, .025)
-	diffMax = quantile(starIndex, .975) - index
-	if(round(diffMin,1) == round(diffMax,1)) {
-		err = paste("(+/-",round(diffMax,1),")",sep="")
-	} else {
-		err = paste("(+",round(diffMax,1),"/-",round(diffMin,1),")", sep="")
-	}
-	
-	png("forecast.png", width=imgWidth, height=imgHeight, pointsize=20)
-	plotTitle = paste("Time at which ", round(proportionPercent * 100,2),"% is in stage ", proportionStage," or less\nis ", round(index,1), " Degree Days ",err, sep="")
-	plot(rng, P_ij(params, 1, rng), type="l", xlab="Time (Degree Day)", ylab="Proportion in stage ", ylim=c(0,1.05), main=plotTitle,lty=0)
-	for(i in 1:length(stageNames)) {
-		temp = P_ij(params, i, rng)
-		x = which.max(temp)
-		y = temp[x]
-		text(rng[x], y, i, pos=3)
-		lines(rng, temp)
-	}
-	abline(b=1,v=index)  # The forecast intercept.
-	if(errorBars == 1) {
-		abline(b=1,v=index - diffMin,lty=2)
-		abline(b=1,v=index + diffMax,lty=2)
-	}
-	dev.off()
-}
-
-colorList = c("#8726FF","#FF565C","#19FBFF")
-
-# Figures showing central tendency.
-if(tendencies == 1) {
-	ctMat = matrix(nrow=3,ncol=lenParams) # Holds the central tendency information for each parameter.
-	for(i in 1:lenParams) {
-		stageParams = sort(starMat[i,])
-		ctMat[1,i] = params[i]
-		ctMat[2,i] = mean(stageParams)
-		ctMat[3,i] = median(stageParams)
-	}
-	buffer = (max(ctMat[,i]) - min(ctMat[,i])) * 2.5
-	for(i in 1:lenParams) {
-		if(i == lenParams) {
-			plotTitle = "Variance Parameter Central Tendencies"
+	# Figure showing interception prediction line.
+	if(prediction == 1) {
+		if(predictHigh == 0) {
+			rng = predictLow:degreedays[length(degreedays)]
 		} else {
-			plotTitle = paste("Parameter ",i," Central Tendencies",sep="")
+			rng = predictLow:predictHigh
 		}
-		png(paste("tendencies",i,".png",sep=""), width=imgWidth, height=imgHeight, pointsize=20)
-		barplot(ctMat[,i],beside=T,main=plotTitle,col=colorList,ylim=c((min(ctMat[,i]) - buffer),(max(ctMat[,i]) + buffer)))
-		text(1, ctMat[1,i], ctMat[1,i], pos=3)
-		text(2, ctMat[2,i], ctMat[2,i], pos=3)
-		text(3, ctMat[3,i], ctMat[3,i], pos=3)
-		if(ctMat[1,i] > ctMat[3,i]) {
-			legend("topright",legend=c("Parameter","Mean","Median"),pch=15,col=colorList,lty=0,cex=1)
+		# Find the line of intersection.
+		index = getTau(proportionPercent,params[proportionStage],params[length(params)])
+		# Find the error bars.
+		starIndex = 1:starCount # Holds all calculated index values for our error bars.
+		# Find the proportions for each set of star values and store the calculated target point.
+		for(i in 1:starCount) {
+			starIndex[i] = getTau(proportionPercent,starMat[proportionStage,i],starMat[length(params),i])
+		}
+		starIndex = sort(starIndex)
+
+		# Find the upper and lower ranges to draw our error bars.
+		diffMin = index - quantile(starIndex, .025)
+		diffMax = quantile(starIndex, .975) - index
+		if(round(diffMin,1) == round(diffMax,1)) {
+			err = paste("(+/-",round(diffMax,1),")",sep="")
 		} else {
-			legend("topleft",legend=c("Parameter","Mean","Median"),pch=15,col=colorList,lty=0,cex=1)
+			err = paste("(+",round(diffMax,1),"/-",round(diffMin,1),")", sep="")
+		}
+	
+		png("forecast.png", width=imgWidth, height=imgHeight, pointsize=20)
+		plotTitle = paste("Time at which ", round(proportionPercent * 100,2),"% is in stage ", proportionStage," or less\nis ", round(index,1), " Degree Days ",err, sep="")
+		plot(rng, P_ij(params, 1, rng), type="l", xlab="Time (Degree Day)", ylab="Proportion in stage ", ylim=c(0,1.05), main=plotTitle,lty=0)
+		for(i in 1:length(stageNames)) {
+			temp = P_ij(params, i, rng)
+			x = which.max(temp)
+			y = temp[x]
+			text(rng[x], y, i, pos=3)
+			lines(rng, temp)
+		}
+		abline(b=1,v=index)  # The forecast intercept.
+		if(errorBars == 1) {
+			abline(b=1,v=index - diffMin,lty=2)
+			abline(b=1,v=index + diffMax,lty=2)
 		}
 		dev.off()
 	}
-}
 
-# Figures showing goodness-of-fit.
-if(fit == 1) {
-	if(fitHigh == 0) {
-		rng = fitLow:degreedays[length(degreedays)]
-	} else {
-		rng = fitLow:fitHigh
-	}
-	if(fitAlone == 1) {
+	colorList = c("#8726FF","#FF565C","#19FBFF")
+
+	# Figures showing central tendency.
+	if(tendencies == 1) {
+		ctMat = matrix(nrow=3,ncol=lenParams) # Holds the central tendency information for each parameter.
 		for(i in 1:lenParams) {
-			starVec = starMat[i,]
-			starVec = sort(starVec)
-			diffMin = quantile(starVec, .025)
-			diffMax = quantile(starVec, .975)
-			dm = params
-			dm[i] = diffMin
-			png(paste("Goodness-of-Fit",i,".png",sep=""),width=imgWidth, height=imgHeight, pointsize=20)
-			plot(rng, P_ij(params, 1, rng), type="l", xlab="Time (Degree Day)", ylab="Proportion in stage ", ylim=c(0,1.05), main=paste("Goodness-Of-Fit\n",stageNames[i],sep=""),lty=0)	
-			lines(rng, P_ij(params,i,rng))
-			lines(rng, P_ij(dm,i,rng),lty=2)
-			dm[i] = diffMax
-			lines(rng, P_ij(dm,i,rng),lty=2)
-			dev.off()
+			stageParams = sort(starMat[i,])
+			ctMat[1,i] = params[i]
+			ctMat[2,i] = mean(stageParams)
+			ctMat[3,i] = median(stageParams)
 		}
-	} else {
-		png("Goodness-of-Fit.png",width=imgWidth, height=imgHeight, pointsize=20)
-		plot(rng, P_ij(params, 1, rng), type="l", xlab="Time (Degree Day)", ylab="Proportion in stage ", ylim=c(0,1.05), main="Goodness-Of-Fit",lty=0)	
+		buffer = (max(ctMat[,i]) - min(ctMat[,i])) * 2.5
 		for(i in 1:lenParams) {
-			starVec = starMat[i,]
-			starVec = sort(starVec)
-			diffMin = quantile(starVec, .025)
-			diffMax = quantile(starVec, .975)
-			dm = params
-			dm[i] = diffMin
-			lines(rng, P_ij(params,i,rng))
-			lines(rng, P_ij(dm,i,rng),lty=2)
-			dm[i] = diffMax
-			lines(rng, P_ij(dm,i,rng),lty=2)
+			if(i == lenParams) {
+				plotTitle = "Variance Parameter Central Tendencies"
+			} else {
+				plotTitle = paste("Parameter ",i," Central Tendencies",sep="")
+			}
+			png(paste("tendencies",i,".png",sep=""), width=imgWidth, height=imgHeight, pointsize=20)
+			barplot(ctMat[,i],beside=T,main=plotTitle,col=colorList,ylim=c((min(ctMat[,i]) - buffer),(max(ctMat[,i]) + buffer)))
+			text(1, ctMat[1,i], ctMat[1,i], pos=3)
+			text(2, ctMat[2,i], ctMat[2,i], pos=3)
+			text(3, ctMat[3,i], ctMat[3,i], pos=3)
+			if(ctMat[1,i] > ctMat[3,i]) {
+				legend("topright",legend=c("Parameter","Mean","Median"),pch=15,col=colorList,lty=0,cex=1)
+			} else {
+				legend("topleft",legend=c("Parameter","Mean","Median"),pch=15,col=colorList,lty=0,cex=1)
+			}
+			dev.off()
 		}
-		dev.off()
 	}
-}
\ No newline at end of file
+
+	# Figures showing goodness-of-fit.
+	if(fit == 1) {
+		if(fitHigh == 0) {
+			rng = fitLow:degreedays[length(degreedays)]
+		} else {
+			rng = fitLow:fitHigh
+		}
+		if(fitAlone == 1) {
+			for(i in 1:lenParams) {
+				starVec = starMat[i,]
+				starVec = sort(starVec)
+				diffMin = quantile(starVec, .025)
+				diffMax = quantile(starVec, .975)
+				dm = params
+				dm[i] = diffMin
+				png(paste("Goodness-of-Fit",i,".png",sep=""),width=imgWidth, height=imgHeight, pointsize=20)
+				plot(rng, P_ij(params, 1, rng), type="l", xlab="Time (Degree Day)", ylab="Proportion in stage ", ylim=c(0,1.05), main=paste("Goodness-Of-Fit\n",stageNames[i],sep=""),lty=0)	
+				lines(rng, P_ij(params,i,rng))
+				lines(rng, P_ij(dm,i,rng),lty=2)
+				dm[i] = diffMax
+				lines(rng, P_ij(dm,i,rng),lty=2)
+				dev.off()
+			}
+		} else {
+			png("Goodness-of-Fit.png",width=imgWidth, height=imgHeight, pointsize=20)
+			plot(rng, P_ij(params, 1, rng), type="l", xlab="Time (Degree Day)", ylab="Proportion in stage ", ylim=c(0,1.05), main="Goodness-Of-Fit",lty=0)	
+			for(i in 1:lenParams) {
+				starVec = starMat[i,]
+				starVec = sort(starVec)
+				diffMin = quantile(starVec, .025)
+				diffMax = quantile(starVec, .975)
+				dm = params
+				dm[i] = diffMin
+				lines(rng, P_ij(params,i,rng))
+				lines(rng, P_ij(dm,i,rng),lty=2)
+				dm[i] = diffMax
+				lines(rng, P_ij(dm,i,rng),lty=2)
+			}
+			dev.off()
+		}
+	}
+
+	# Tell the program which figures were created.
+	response = list(figures=list.files(pattern="\\.png$"))
+}
+writeResponse(responseLoc, response)
@@ -22,23 +22,134 @@ rm(list=ls(all=TRUE))
 # Functions
 #-----------
 
+#
+# Function which reads a request file written by the program.
+#
+# The file starts with the characters "SCRQ", a version number, and the number of blocks. Each
+# block has a name and holds a vector of numbers (type 1), a vector of strings (type 2), or a
+# matrix of numbers stored by column (type 3). All numbers are big-endian. See ScriptProtocol in
+# the program for the writing side.
+#
+# Takes:
+#   x - location of the request file
+#
+# Returns: Named list holding every block in the file.
+#
+readRequest = function(x){
+   con = file(x, "rb")
+   on.exit(close(con))
+   if(rawToChar(readBin(con, "raw", 4)) != "SCRQ"){
+      stop(paste(x, "is not a request file."))
+   }
+   version = readBin(con, "integer", size=4, endian="big")
+   if(version != 1){
+      stop(paste("Unsupported request version", version))
+   }
+   count = readBin(con, "integer", size=4, endian="big")
+   ret = list()
+   for(i in seq_len(count)){
+      name = readString(con)
+      type = readBin(con, "integer", size=1, endian="big")
+      if(type == 1){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = readBin(con, "double", n, size=8, endian="big")
+      }else if(type == 2){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = vapply(seq_len(n), function(j){readString(con)}, "")
+      }else if(type == 3){
+         rows = readBin(con, "integer", size=4, endian="big")
+         cols = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = matrix(readBin(con, "double", rows*cols, size=8, endian="big"), rows, cols)
+      }else{
+         stop(paste("Unknown block type", type, "in block", name))
+      }
+   }
+   return(ret)
+}
+
+#
+# Function which reads one length-prefixed UTF-8 string from a request file.
+#
+# Takes:
+#   con - open binary connection
+#
+# Returns: The string.
+#
+readString = function(con){
+   len = readBin(con, "integer", size=4, endian="big")
+   ret = rawToChar(readBin(con, "raw", len))
+   Encoding(ret) = "UTF-8"
+   return(ret)
+}
+
+#
+# Function which writes one length-prefixed UTF-8 string to a response file.
+#
+# Takes:
+#   con   - open binary connection
+#   value - string to write
+#
+writeString = function(con, value){
+   bytes = charToRaw(enc2utf8(as.character(value)))
+   writeBin(length(bytes), con, size=4, endian="big")
+   writeBin(bytes, con)
+}
+
+#
+# Function which writes a response file for the program to read.
+#
+# The layout is the same as the request file but starts with the characters "SCRS". Character
+# vectors are written as strings, matrices as matrices, and everything else as numbers.
+#
+# Takes:
+#   x      - location of the response file
+#   blocks - named list of the values to write
+#
+writeResponse = function(x, blocks){
+   temp = paste(x, ".part", sep="")
+   con = file(temp, "wb")
+   writeBin(charToRaw("SCRS"), con)
+   writeBin(1L, con, size=4, endian="big")
+   writeBin(length(blocks), con, size=4, endian="big")
+   for(name in names(blocks)){
+      value = blocks[[name]]
+      writeString(con, name)
+      if(is.character(value)){
+         writeBin(2L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         for(s in value){
+            writeString(con, s)
+         }
+      }else if(is.matrix(value)){
+         writeBin(3L, con, size=1)
+         writeBin(nrow(value), con, size=4, endian="big")
+         writeBin(ncol(value), con, size=4, endian="big")
+         writeBin(as.double(value), con, size=8, endian="big")
+      }else{
+         value = as.double(value)
+         writeBin(1L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         writeBin(value, con, size=8, endian="big")
+      }
+   }
+   close(con)
+   file.rename(temp, x) # Only a complete response is ever seen by the program.
+}
+
 #
 # Function to calculate accumulated degree days using the double sine method.
 #
 # Note: assumes input in Celsius
 #
 # Takes:
-#   x     - name of temperature data file
+#   x     - matrix of temperature data with columns for the day, the high, and the low
 #   upper - high bound
 #   lower - low bound
 #
 # Returns: Vector of time values expressed in degree days.
 #
 doubleSine = function(x, upper, lower){
-   degreedata = read.table(x,header=FALSE,sep="\t")
-   attach(degreedata)
-   dmat = cbind(degreedata[2:3]) # Load the high/low information.
-   detach(degreedata)
+   dmat = x[,2:3,drop=FALSE] # Load the high/low information.
    retval = (1:nrow(dmat))*0
    for(i in 1:nrow(dmat)){
       firstLow = dmat[i,2]
@@ -137,27 +248,24 @@ P_ij = function(A, i, dateT){
 # Function takes the array holding the per-stage phenology data and collapses stages in to 
 # each other based on the user's inputs.
 #
-# The mapping is done using two numbers, X and Y, in a string of the format "X:Y"
-#	The X number is the original index of a given stage
-#	The Y number is the index the stage information should be added to for the final output
-#	If a given index is not collapsed into another one the map takes the form of "X:X"
+# The mapping is done using two numbers, X and Y, held in one row of a two column matrix
+#	The X number, in the first column, is the original index of a given stage
+#	The Y number, in the second column, is the index the stage information should be added to for the final output
+#	If a given index is not collapsed into another one the row holds X in both columns
 #
 # Takes:
 #   Original - Array holding the unmodified phenology information
-#   stageMap - vector of strings holding the map from one stage to another.
+#   stageMap - two column matrix holding the map from one stage to another.
 #
 # Returns: Array with the number of columns equal to or less than the number of columns in 
 # the input array.
 #
 collapse = function(original,stageMap) {
-  stageMap = strsplit(stageMap, ":")
-  stageMap = unlist(stageMap)
-
-  stageTarget = strtoi(stageMap[seq(2,length(stageMap),2)],0L)
+  stageTarget = stageMap[,2]
   stageTargetUnique = unique(stageTarget)
   stageTargetLen = length(stageTargetUnique)
 
-  stageSource = strtoi(stageMap[seq(1,length(stageMap),2)],0L)
+  stageSource = stageMap[,1]
   stageSourceLen = length(unique(stageSource))
 
   ret = matrix(0, nrow(original), stageTargetLen)
@@ -181,14 +289,11 @@ collapse = function(original,stageMap) {
 # Returns: Vector of length equal to or less than the length of the input name vector.
 #
 collapseStageNames = function(original,stageMap) {
-  stageMap = strsplit(stageMap, ":")
-  stageMap = unlist(stageMap)
-  
-  stageTarget = strtoi(stageMap[seq(2,length(stageMap),2)],0L)
+  stageTarget = stageMap[,2]
   stageTargetUnique = unique(stageTarget)
   stageTargetLen = length(stageTargetUnique)
 
-  stageSource = strtoi(stageMap[seq(1,length(stageMap),2)],0L)
+  stageSource = stageMap[,1]
   stageSourceLen = length(unique(stageSource))
   
   ret = rep("",stageTargetLen)
@@ -208,62 +313,59 @@ collapseStageNames = function(original,stageMap) {
 # Read Input
 #------------
 
-# The program takes one argument from the command line, the location of the config file to be used.
-args = commandArgs(trailingOnly = TRUE)
+# The program takes two arguments, the location of the request file to be used and the location the
+# response should be written to. They come from the command line, or from the "stagecast.args" option
+# when the script is run by a worker (see worker.r).
+args = getOption("stagecast.args", commandArgs(trailingOnly = TRUE))
 settings = args[1]
+responseLoc = args[2]
 
-# Load the configuration file. This file contains all the input information and user-chosen options needed to graph.
+# Load the request file. This file contains all the input information and user-chosen options needed to graph.
 # For yes/no options 0 = no and 1 = yes.
-config = read.table(settings,header=TRUE,stringsAsFactors=FALSE,sep="\t")
-weather = config$data[as.character(config$tag) == as.character("weather")]                         # Location of the weather file to use for graphing. 
-species = config$data[as.character(config$tag) == as.character("species")]                         # Vector holding the species files used for graphing.
-saveLoc = config$data[as.character(config$tag) == as.character("saveLoc")]                         # Location the figures should be saved to so that the calling program can find them.
-params = as.numeric(config$data[as.character(config$tag) == as.character("params")])               # Vector holding the model parameters.
-logLike = as.numeric(config$data[as.character(config$tag) == as.character("logLike")])             # The model's log likelihood.
-logPdf3D = as.numeric(config$data[as.character(config$tag) == as.character("log3d")])              # Whether the script should create a 3D log PDF graph.
-logPdf3DShigh = as.numeric(config$data[as.character(config$tag) == as.character("logPdf3DShigh")]) # The high range along the s-axis of 3D log PDF.
-logPdf3DSlow = as.numeric(config$data[as.character(config$tag) == as.character("logPdf3DSlow")])   # The low range along the s-axis of 3D log PDF.
-logPdf3DThigh = as.numeric(config$data[as.character(config$tag) == as.character("logPdf3DThigh")]) # The high range along the t-axis of 3D log PDF.
-logPdf3DTlow = as.numeric(config$data[as.character(config$tag) == as.character("logPdf3DTlow")])   # The low range along the t-axis of 3D log PDF.
-logPdf2D = as.numeric(config$data[as.character(config$tag) == as.character("log2d")])              # Whether the script should create a 2D log PDF graph.
-log2dsample = as.numeric(config$data[as.character(config$tag) == as.character("log2dsample")])     # The number of samples to graph on the 2D log PDF.
-log2dinterval = as.numeric(config$data[as.character(config$tag) == as.character("log2dinterval")]) # The interval between samples in the 2D log PDF.
-log2doffset = as.numeric(config$data[as.character(config$tag) == as.character("log2doffset")])     # The offset of the first sample in the 2D log PDF.
-exProp = as.numeric(config$data[as.character(config$tag) == as.character("expProp")])              # Whether the script should create an expected proportion graph.
-expProphigh = as.numeric(config$data[as.character(config$tag) == as.character("expProphigh")])     # The high range for expected proportion graph.
-expProplow = as.numeric(config$data[as.character(config$tag) == as.character("expProplow")])       # The low range for expected proportion graph.
-compareRaw = as.numeric(config$data[as.character(config$tag) == as.character("compRaw")])          # Whether a graph should be created plotting the input data against the prediction lines.
-compRawhigh = as.numeric(config$data[as.character(config$tag) == as.character("compRawhigh")])     # The high range for raw data vs modeled result graph.
-compRawlow = as.numeric(config$data[as.character(config$tag) == as.character("compRawlow")])       # The low range for raw data vs modeled result graph.
-allTogether = as.numeric(config$data[as.character(config$tag) == as.character("together")])        # Whether to have all individual stage graphs be on one figure or to use one figure per graph.
-combined = as.numeric(config$data[as.character(config$tag) == as.character("combined")])           # Whether the stages should be graphed against the data points on a single figure.
-stageNames = config$data[as.character(config$tag) == as.character("stage")]                        # A vector containing the names of each stage in the dataset.
-imgWidth = as.numeric(config$data[as.character(config$tag) == as.character("width")])              # The width of the image.
-combHigh = as.numeric(config$data[as.character(config$tag) == as.character("combHigh")])           # The high range for combined graph.
-combLow = as.numeric(config$data[as.character(config$tag) == as.character("combLow")])             # The low range for combined graph.
-imgHeight = as.numeric(config$data[as.character(config$tag) == as.character("height")])            # The height of the image.
-stageMap = config$data[as.character(config$tag) == as.character("stageMap")]                       # Vector of strings mapping a stage's source index to a target index.
-
-# Load the species and time information.
-rawdata = read.table(toString(species[[1]]),header=FALSE,sep="\t")
-rawmat = rawdata[,-1]    # Initialize the matrix of raw species information by reading the first input file.
-timeData = rawdata[1]    # Load the date information. This assumes that the dates are in Julian format and are the same for every input dataset.
-timeData = timeData[[1]]  
+config = readRequest(settings)
+weather = config$weather              # Matrix of the weather data to use for graphing (day, high, low).
+species = config$species              # Matrix of the summed species data with the dates in the first column.
+saveLoc = config$saveLoc              # Location the figures should be saved to so that the calling program can find them.
+params = config$params                # Vector holding the model parameters.
+logLike = config$logLike              # The model's log likelihood.
+logPdf3D = config$log3d               # Whether the script should create a 3D log PDF graph.
+logPdf3DShigh = config$logPdf3DShigh  # The high range along the s-axis of 3D log PDF.
+logPdf3DSlow = config$logPdf3DSlow    # The low range along the s-axis of 3D log PDF.
+logPdf3DThigh = config$logPdf3DThigh  # The high range along the t-axis of 3D log PDF.
+logPdf3DTlow = config$logPdf3DTlow    # The low range along the t-axis of 3D log PDF.
+logPdf2D = config$log2d               # Whether the script should create a 2D log PDF graph.
+log2dsample = config$log2dsample      # The number of samples to graph on the 2D log PDF.
+log2dinterval = config$log2dinterval  # The interval between samples in the 2D log PDF.
+log2doffset = config$log2doffset      # The offset of the first sample in the 2D log PDF.
+exProp = config$expProp               # Whether the script should create an expected proportion graph.
+expProphigh = config$expProphigh      # The high range for expected proportion graph.
+expProplow = config$expProplow        # The low range for expected proportion graph.
+compareRaw = config$compRaw           # Whether a graph should be created plotting the input data against the prediction lines.
+compRawhigh = config$compRawhigh      # The high range for raw data vs modeled result graph.
+compRawlow = config$compRawlow        # The low range for raw data vs modeled result graph.
+allTogether = config$together         # Whether to have all individual stage graphs be on one figure or to use one figure per graph.
+combined = config$combined            # Whether the stages should be graphed against the data points on a single figure.
+stageNames = config$stage             # A vector containing the names of each stage in the dataset.
+imgWidth = config$width               # The width of the image.
+combHigh = config$combHigh            # The high range for combined graph.
+combLow = config$combLow              # The low range for combined graph.
+imgHeight = config$height             # The height of the image.
+stageMap = config$stageMap            # Two column matrix mapping a stage's source index to a target index.
+thresholds = config$thresholds        # Lower and upper developmental thresholds in degrees Celsius. Defaults to 4 and 40.
 
 #--------------
 # Process Input
 #--------------
 
-# Iterate through the rest of the species file (if they exist) and add their information to rawmat.
-if(length(species) > 1) {
-	for(i in 2:length(species)){
-		rawdata = read.table(toString(species[[i]]),header=FALSE,sep="\t")
-		rawmat = rawmat + rawdata[,-1]
-	}
-}
+# Load the species and time information.
+rawmat = species[,-1,drop=FALSE] # The program has already added the individual species files together.
+timeData = species[,1]           # Load the date information. This assumes that the dates are in Julian format.
 
 # Convert time (presumed to be in Julian format) to degree days.
-degreedays = doubleSine(toString(weather[[1]]), 40, 4)
+if(length(thresholds) < 2){
+  thresholds = c(4, 40)
+}
+degreedays = doubleSine(weather, thresholds[2], thresholds[1])
 tempTime = 1:length(timeData)
 for(i in 1:length(timeData)){
   tempTime[i] = degreedays[timeData[[i]]] # Map calculated degree day schedule to the dates associated with the input datasets.
@@ -281,7 +383,7 @@ r = ncol(stageData)    # Total number of developmental stages.
 
 param = params
 
-setwd(toString(saveLoc[[1]]))
+setwd(saveLoc[1])
 
 #---------------
 # Output graphs
@@ -423,3 +525,6 @@ if(combined == 1) {
 	legend("bottomleft",legend=stageNames,pch=plist,col=colorList,lty=1,cex=0.7)
 	dev.off()
 }
+
+# Tell the program which figures were created.
+writeResponse(responseLoc, list(figures=list.files(pattern="\\.png$")))
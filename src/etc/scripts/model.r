@@ -22,6 +22,143 @@ rm(list=ls(all=TRUE))
 # Functions
 #-----------
 
+#
+# Function which reads a request file written by the program.
+#
+# The file starts with the characters "SCRQ", a version number, and the number of blocks. Each
+# block has a name and holds a vector of numbers (type 1), a vector of strings (type 2), or a
+# matrix of numbers stored by column (type 3). All numbers are big-endian. See ScriptProtocol in
+# the program for the writing side.
+#
+# Takes:
+#   x - location of the request file
+#
+# Returns: Named list holding every block in the file.
+#
+readRequest = function(x){
+   con = file(x, "rb")
+   on.exit(close(con))
+   if(rawToChar(readBin(con, "raw", 4)) != "SCRQ"){
+      stop(paste(x, "is not a request file."))
+   }
+   version = readBin(con, "integer", size=4, endian="big")
+   if(version != 1){
+      stop(paste("Unsupported request version", version))
+   }
+   count = readBin(con, "integer", size=4, endian="big")
+   ret = list()
+   for(i in seq_len(count)){
+      name = readString(con)
+      type = readBin(con, "integer", size=1, endian="big")
+      if(type == 1){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = readBin(con, "double", n, size=8, endian="big")
+      }else if(type == 2){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = vapply(seq_len(n), function(j){readString(con)}, "")
+      }else if(type == 3){
+         rows = readBin(con, "integer", size=4, endian="big")
+         cols = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = matrix(readBin(con, "double", rows*cols, size=8, endian="big"), rows, cols)
+      }else{
+         stop(paste("Unknown block type", type, "in block", name))
+      }
+   }
+   return(ret)
+}
+
+#
+# Function which reads one length-prefixed UTF-8 string from a request file.
+#
+# Takes:
+#   con - open binary connection
+#
+# Returns: The string.
+#
+readString = function(con){
+   len = readBin(con, "integer", size=4, endian="big")
+   ret = rawToChar(readBin(con, "raw", len))
+   Encoding(ret) = "UTF-8"
+   return(ret)
+}
+
+#
+# Function which writes one length-prefixed UTF-8 string to a response file.
+#
+# Takes:
+#   con   - open binary connection
+#   value - string to write
+#
+writeString = function(con, value){
+   bytes = charToRaw(enc2utf8(as.character(value)))
+   writeBin(length(bytes), con, size=4, endian="big")
+   writeBin(bytes, con)
+}
+
+#
+# Function which writes a response file for the program to read.
+#
+# The layout is the same as the request file but starts with the characters "SCRS". Character
+# vectors are written as strings, matrices as matrices, and everything else as numbers.
+#
+# Takes:
+#   x      - location of the response file
+#   blocks - named list of the values to write
+#
+writeResponse = function(x, blocks){
+   temp = paste(x, ".part", sep="")
+   con = file(temp, "wb")
+   writeBin(charToRaw("SCRS"), con)
+   writeBin(1L, con, size=4, endian="big")
+   writeBin(length(blocks), con, size=4, endian="big")
+   for(name in names(blocks)){
+      value = blocks[[name]]
+      writeString(con, name)
+      if(is.character(value)){
+         writeBin(2L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         for(s in value){
+            writeString(con, s)
+         }
+      }else if(is.matrix(value)){
+         writeBin(3L, con, size=1)
+         writeBin(nrow(value), con, size=4, endian="big")
+         writeBin(ncol(value), con, size=4, endian="big")
+         writeBin(as.double(value), con, size=8, endian="big")
+      }else{
+         value = as.double(value)
+         writeBin(1L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         writeBin(value, con, size=8, endian="big")
+      }
+   }
+   close(con)
+   file.rename(temp, x) # Only a complete response is ever seen by the program.
+}
+
+#
+# Function which reports progress to the program.
+#
+# A report is a line on standard output holding "@@stagecast", "progress", the steps finished, the
+# total steps, and the current log likelihood, separated by tabs. Reports are dropped if the last one
+# was sent less than a quarter of a second ago, and since R only evaluates an argument when it is used,
+# an expensive value argument costs nothing when the report is dropped. This keeps the cost of calling
+# the function on every pass through a loop negligible. The final report of a loop is always sent.
+#
+# Takes:
+#   done  - number of steps finished
+#   total - total number of steps, or NA if it is not known
+#   value - current log likelihood, or NA
+#
+progressTime = 0 # Time the last report was sent.
+progress = function(done, total=NA, value=NA){
+   now = proc.time()[[3]]
+   if((now - progressTime < 0.25) & !isTRUE(done >= total)) return(invisible(NULL))
+   progressTime <<- now
+   cat(paste("@@stagecast", "progress", done, total, format(value, digits=10), sep="\t"), "\n", sep="")
+   flush(stdout())
+}
+
 #
 # Function which attempts to estimate the parameters.
 #
@@ -33,111 +170,110 @@ rm(list=ls(all=TRUE))
 # Returns: Vector with the estimated parameters.
 #
 autoEstimate = function(dataMat, timeT, optMethod){
-
-   param0 = 1:ncol(dataMat)
-
-   for(i in 1:(ncol(dataMat) - 1)){
-      param0[i] = timeT[which.max(dataMat[,i])] # Get an initial estimate based on the time for the highest recorded level of a given developmental stage
-   }
-   param0[ncol(dataMat)] = param0[1] / 10 # Set BB to be 1/10 the value of the first parameter. No particular reason, just based on what worked for the initial prototype.
-   for(i in 2:(length(param0) - 1)){      # The parameters can not have the same values. They must be positive numbers in ascending order.
-      if(param0[i] <= param0[i-1]){
-         param0[i] = param0[i-1] + 10
-      }
-   }
-
-   param0=log(param0)
+   param0=log(heuristicStart(dataMat, timeT))
    PHENOL=optim(param0,negloglike,T=timeT,dataset=dataMat,method=optMethod)
-   results=c(exp(PHENOL$par),PHENOL$val)
-   param = exp(PHENOL$par) # Get the parameter values for the initial estimate.
    return(PHENOL)
 }
 
 #
-# Function which attempts to estimate and then optimize the parameters.
+# Function which guesses starting parameters from the data.
 #
 # Takes:
 #   dataMat - Matrix holding the phenology data.
 #   timeT   - Vector holding time data in degree days.
 #
-# Returns: Vector with the optimized parameters (if they could be found).
+# Returns: Vector with the starting parameters.
 #
-autoOptimize = function(dataMat, timeT){  
+heuristicStart = function(dataMat, timeT){
    param0 = 1:ncol(dataMat)
 
    for(i in 1:(ncol(dataMat) - 1)){
-      param0[i] = timeT[which.max(dataMat[,i])] # Get an initial estimate based on the time for the highest recorded level of a given developmental stage.
+      param0[i] = timeT[which.max(dataMat[,i])] # Get an initial estimate based on the time for the highest recorded level of a given developmental stage
    }
    param0[ncol(dataMat)] = param0[1] / 10 # Set BB to be 1/10 the value of the first parameter. No particular reason, just based on what worked for the initial prototype.
-   for(i in 2:(length(param0) - 1)){      # The parameters can not have the same values. They must be positive numbers in ascending order.
+   for(i in seq_len(length(param0) - 2) + 1){ # The parameters can not have the same values. They must be positive numbers in ascending order.
       if(param0[i] <= param0[i-1]){
          param0[i] = param0[i-1] + 10
       }
    }
+   return(param0)
+}
 
-   param0=log(param0)
-   PHENOL=optim(param0,maxL,dateT=timeT,X=dataMat,method="Nelder-Mead")
-   results=c(exp(PHENOL$par),PHENOL$val)
-   param = exp(PHENOL$par) # Get the parameter values for the initial estimate.
-
-   lastEstimatedParam = exp(param0)
-   lastParam = param
-   delta = (1:length(param0))*10
-   lastPHENOL = PHENOL
-   # Keep increasing the starting parameters until the delta for the resulting estimation is less than 10 for each parameter.
-   # Note: This will halt if it reaches a value for which it can produce no estimation.
-   while(TRUE %in% (delta > 10)){
-      newEstimatedParam = (1:length(param))*0
-      for(i in 1:length(param)){
-         if(delta[i] > 10){ # Only increase starting parameters when the delta is greater than 10.
-	        if(i < length(param)){
-	           newEstimatedParam[i] = lastEstimatedParam[i] + 50
-	        }else{
-		       newEstimatedParam[i] = lastEstimatedParam[i] + 10 # The B^2 value is increased by a smaller amount.
-		    }
-	     }else{
-	        newEstimatedParam[i] = lastEstimatedParam[i]
-	     }
-      }
-	  tPHENOL=optim(log(newEstimatedParam),maxL,dateT=timeT,X=dataMat,method="Nelder-Mead")
-      if(tPHENOL$convergence == 0){
-         tparam = exp(tPHENOL$par)
-	     delta = abs(tparam - lastParam)
-	     lastParam = tparam
-	     lastEstimatedParam = newEstimatedParam
-		 lastPHENOL = tPHENOL
+#
+# Function which fits the model from many starting points spread around a center.
+#
+# The starting points form a Latin hypercube: each parameter's range is cut in to as many slices as
+# there are starts and every slice is used by exactly one start. The A values range from half to twice
+# the center and are sorted so they stay in ascending order, and V ranges from a tenth to ten times the
+# center. The first start is the center itself. Each start is fitted with Nelder-Mead. The starts are
+# dealt out to shards in turn so that the program can run the shards side by side, and every shard
+# builds the same starting points from the seed.
+#
+# Takes:
+#   dataMat - Matrix holding the phenology data.
+#   timeT   - Vector holding time data in degree days.
+#   center  - Vector holding the parameters the starts are spread around.
+#   count   - Total number of starts.
+#   seed    - Seed for the random number generator.
+#   shard   - Index of this shard, starting from 0.
+#   shards  - Total number of shards.
+#
+# Returns: Matrix with one row per start fitted by this shard, holding the index of the start, the
+# fitted parameters, the negative log likelihood, and the convergence code from optim.
+#
+multiStart = function(dataMat, timeT, center, count, seed, shard, shards){
+   set.seed(seed)
+   n = length(center)
+   design = matrix(0, count, n)
+   for(j in 1:n){
+      design[,j] = (sample(count) - runif(count)) / count
+   }
+   starts = matrix(center, count, n, byrow=TRUE)
+   starts[,-n] = starts[,-n] * exp(log(4) * (design[,-n,drop=FALSE] - 0.5))
+   starts[,n] = starts[,n] * exp(log(100) * (design[,n] - 0.5))
+   starts[1,] = center
+   mine = which(((1:count) - 1) %% shards == shard)
+   ret = matrix(NA, length(mine), n + 3)
+   reportEvaluations <<- FALSE
+   best = NA
+   for(m in seq_along(mine)){
+      k = mine[m]
+      param0 = c(sort(starts[k,-n]), starts[k,n])
+      PHENOL = tryCatch(optim(log(param0),negloglike,T=timeT,dataset=dataMat,method="Nelder-Mead"), error=function(e){NULL})
+      if(is.null(PHENOL)){
+         ret[m,] = c(k, rep(NA, n + 1), 1)
       }else{
-         delta = 0
+         ret[m,] = c(k, exp(PHENOL$par), PHENOL$value, PHENOL$convergence)
+         best = min(best, PHENOL$value, na.rm=TRUE)
       }
+      progress(m, length(mine), sum(lfactorial(rowSums(dataMat)))-sum(lfactorial(dataMat))-best)
    }
-   return(lastPHENOL)
+   reportEvaluations <<- TRUE
+   return(ret)
 }
 
 #
 # Function takes the array holding the per-stage phenology data and collapses stages in to 
 # each other based on the user's inputs.
 #
-# The mapping is done using two numbers, X and Y, in a string of the format "X:Y"
-#	The X number is the original index of a given stage
-#	The Y number is the index the stage information should be added to for the final output
-#	If a given index is not collapsed into another one the map takes the form of "X:X"
+# The mapping is done using two numbers, X and Y, held in one row of a two column matrix
+#	The X number, in the first column, is the original index of a given stage
+#	The Y number, in the second column, is the index the stage information should be added to for the final output
+#	If a given index is not collapsed into another one the row holds X in both columns
 #
 # Takes:
 #   Original - Array holding the unmodified phenology information
-#   stageMap - vector of strings holding the map from one stage to another.
+#   stageMap - two column matrix holding the map from one stage to another.
 #
 # Returns: Array with the number of columns equal to or less than the number of columns in 
 # the input array.
 #
 collapse = function(original,stageMap) {
-  stageMap = strsplit(stageMap, ":")
-  stageMap = unlist(stageMap)
-
-  stageTarget = strtoi(stageMap[seq(2,length(stageMap),2)],0L)
+  stageTarget = stageMap[,2]
   stageTargetUnique = unique(stageTarget)
   stageTargetLen = length(stageTargetUnique)
 
-  stageSource = strtoi(stageMap[seq(1,length(stageMap),2)],0L)
+  stageSource = stageMap[,1]
   stageSourceLen = length(unique(stageSource))
 
   ret = matrix(0, nrow(original), stageTargetLen)
@@ -149,23 +285,270 @@ collapse = function(original,stageMap) {
   return(ret)
 }
 
+#
+# Function which cross-validates the model by refitting it without each fold of sampling dates.
+#
+# Each fold is fitted to the other dates, starting from the parameters of the fit to every date, and the
+# fit is then scored on the dates it did not see. The score is the log likelihood of the held out counts
+# and the errors of the predicted proportion in each stage against the observed proportion. The errors
+# are returned as sums so that the program can pool the folds of every shard.
+#
+# Takes:
+#   dataMat   - Matrix holding the phenology data.
+#   timeT     - Vector holding time data in degree days.
+#   folds     - Vector giving the fold of each sampling date.
+#   optMethod - which method to use in the call to optim.
+#   param0    - Vector holding the parameters of the fit to every date.
+#   shard     - Index of this shard, starting from 0.
+#   shards    - Total number of shards.
+#
+# Returns: Matrix with one row per fold fitted by this shard, holding the fold, the held out log
+# likelihood, the sums of the squared and of the absolute proportion errors, the number of errors, the
+# number of held out dates, the convergence code from optim, and the fitted parameters.
+#
+crossValidate = function(dataMat, timeT, folds, optMethod, param0, shard, shards){
+   cols = ncol(dataMat)
+   ids = sort(unique(folds))
+   mine = ids[(seq_along(ids) - 1) %% shards == shard]
+   ret = matrix(NA, length(mine), cols + 7)
+   reportEvaluations <<- FALSE
+   for(m in seq_along(mine)){
+      test = folds == mine[m]
+      held = dataMat[test,,drop=FALSE]
+      ret[m,1] = mine[m]
+      ret[m,6] = sum(test)
+      ret[m,7] = 1
+      PHENOL = tryCatch(estimateWithParams(dataMat[!test,,drop=FALSE], timeT[!test], optMethod, param0), error=function(e){NULL})
+      if(!is.null(PHENOL)){
+         counted = rowSums(held) > 0 # Dates without any individuals have no observed proportions.
+         errors = numeric(0)
+         if(any(counted)) {
+            observed = held[counted,,drop=FALSE] / rowSums(held[counted,,drop=FALSE])
+            errors = predictProportions(PHENOL$par, timeT[test][counted], cols) - observed
+         }
+         logLik = sum(lfactorial(rowSums(held)))-sum(lfactorial(held))-negloglike(PHENOL$par, timeT[test], held)
+         ret[m,2:5] = c(logLik, sum(errors^2), sum(abs(errors)), length(errors))
+         ret[m,7] = PHENOL$convergence
+         ret[m,7 + (1:cols)] = exp(PHENOL$par)
+      }
+      progress(m, length(mine), NA)
+   }
+   reportEvaluations <<- TRUE
+   return(ret)
+}
+
+#
+# Function which fits the model to each of several stage maps.
+#
+# The degree days and the raw stage counts are shared by every stage map, so they are worked out once by
+# the caller and only the collapse and the fit are repeated. The stage maps are dealt out to shards in
+# turn so that the program can run the shards side by side.
+#
+# Takes:
+#   original   - Matrix holding the unmodified phenology data.
+#   timeT      - Vector holding time data in degree days.
+#   candidates - Matrix with one stage map per row, giving the target index of each stage.
+#   optMethod  - which method to use in the call to optim.
+#   shard      - Index of this shard, starting from 0.
+#   shards     - Total number of shards.
+#
+# Returns: Matrix with one row per stage map fitted by this shard, holding the index of the stage map,
+# the log likelihood, the AIC, the convergence code from optim, and the fitted parameters. Rows are
+# padded with NA since stage maps with fewer stages have fewer parameters.
+#
+searchStageMaps = function(original, timeT, candidates, optMethod, shard, shards){
+   stages = ncol(candidates)
+   mine = which(((1:nrow(candidates)) - 1) %% shards == shard)
+   ret = matrix(NA, length(mine), stages + 4)
+   reportEvaluations <<- FALSE
+   for(m in seq_along(mine)){
+      k = mine[m]
+      dataMat = collapse(original, cbind(0:(stages - 1), candidates[k,]))
+      PHENOL = tryCatch(autoEstimate(dataMat, timeT, optMethod), error=function(e){NULL})
+      ret[m,1] = k
+      ret[m,4] = 1
+      if(!is.null(PHENOL)){
+         logLik = sum(lfactorial(rowSums(dataMat)))-sum(lfactorial(dataMat))-PHENOL$value
+         ret[m,2:4] = c(logLik, -2 * logLik + 2 * (ncol(dataMat) + 1), PHENOL$convergence)
+         ret[m,4 + (1:ncol(dataMat))] = exp(PHENOL$par)
+      }
+      progress(m, length(mine), NA)
+   }
+   reportEvaluations <<- TRUE
+   return(ret)
+}
+
+#
+# Function which fits several organisms at once with a shared V.
+#
+# Each organism has its own A values but every organism shares V, so the negative log likelihood is a
+# sum of one term per organism, and for a given V the A values of each organism can be fitted on their
+# own. The search is therefore made over V alone. For each V the A values of every organism are fitted
+# side by side on several cores where the platform can fork R processes, each starting from the
+# organism's starting values, so that the value found for a V does not depend on the values of V tried
+# before it. A joint fit of N organisms with k stages then takes many small searches of k-1 values in
+# place of one search of N(k-1)+1 values, and the organisms' data, degree days, and their square roots
+# are split up once and shared by every search.
+#
+# V is first tried at 9 values a factor of 10 apart, centred on its starting value, and then searched
+# for with optimize between the neighbours of the best of them. The likelihood is nearly flat far from
+# the best V, so optimize is not given the whole range on its own. If the best of the 9 values lies at
+# either end they are centred on it and tried again, up to 4 times, and the fit stops with an error if
+# the best still lies at an end. It also stops with an error if any organism can not be fitted at the
+# best V, so that the log likelihood and AIC are never those of only some organisms.
+#
+# Takes:
+#   dataMat   - Matrix holding the phenology data of every organism.
+#   timeT     - Vector holding time data in degree days.
+#   organisms - Vector giving the organism of each row of dataMat, counting from 0.
+#   optMethod - which method to use in the call to optim.
+#   param0    - Vector holding the starting A values of each organism in turn followed by V, the starting
+#               A values of every organism followed by V, or empty.
+#   cores     - Number of cores to fit the organisms on.
+#
+# Returns: Matrix with one row per organism, holding the organism, the log likelihood of its data, the
+# convergence code from optim, and its fitted A values followed by the shared V.
+#
+jointFit = function(dataMat, timeT, organisms, optMethod, param0, cores){
+   cols = ncol(dataMat)
+   ids = sort(unique(organisms))
+   blocks = lapply(ids, function(id){
+      rows = organisms == id
+      data = dataMat[rows,,drop=FALSE]
+      list(data=data, T=timeT[rows], rootT=sqrt(timeT[rows]), constant=sum(lfactorial(rowSums(data)))-sum(lfactorial(data)))
+   })
+   constant = sum(vapply(blocks, function(b){b$constant}, 0))
+   if(length(param0) %in% c(cols, length(ids) * (cols - 1) + 1)){
+      starts = matrix(log(param0[-length(param0)]), length(ids), cols - 1, byrow=TRUE)
+      center = log(param0[length(param0)])
+   } else {
+      guesses = matrix(log(unlist(lapply(blocks, function(b){heuristicStart(b$data, b$T)}))), length(ids), cols, byrow=TRUE)
+      starts = guesses[,-cols,drop=FALSE]
+      center = mean(guesses[,cols])
+   }
+   fitBlock = function(k, v){
+      b = blocks[[k]]
+      tryCatch(optim(starts[k,], function(a){matrixNegloglike(c(a, v), b$T, b$rootT, b$data)}, method=optMethod), error=function(e){NULL})
+   }
+   fitAll = function(v){
+      if((cores > 1) & (.Platform$OS.type == "unix")){
+         return(parallel::mclapply(seq_along(blocks), fitBlock, v=v, mc.cores=cores))
+      }
+      return(lapply(seq_along(blocks), fitBlock, v=v))
+   }
+   profile = function(v){
+      fits = fitAll(v)
+      value = 0
+      for(k in seq_along(fits)){
+         if(is.null(fits[[k]]) || !is.finite(fits[[k]]$value)){
+            return(Inf) # optimize treats this as the worst value it can.
+         }
+         value = value + fits[[k]]$value
+      }
+      evaluations <<- evaluations + 1
+      progress(evaluations, NA, constant - value)
+      return(value)
+   }
+   reportEvaluations <<- FALSE
+   step = log(10)
+   for(attempt in 1:5){
+      grid = center + step * (-4:4)
+      values = vapply(grid, profile, 0)
+      i = which.min(values)
+      if(!is.finite(values[i])){
+         stop("The joint fit could not fit every organism for any value of V it tried.")
+      }
+      if(i > 1 && i < length(grid)){
+         best = optimize(profile, grid[c(i - 1, i + 1)])
+         if(!(best$objective <= values[i])){
+            best = list(minimum=grid[i], objective=values[i])
+         }
+         break
+      }
+      if(attempt == 5){
+         stop(paste("The best V of the joint fit was still at the edge of the values it tried, from", signif(exp(grid[1]), 4), "to", signif(exp(grid[length(grid)]), 4), "degree days, after moving them 4 times."))
+      }
+      center = grid[i]
+   }
+   fits = fitAll(best$minimum)
+   reportEvaluations <<- TRUE
+   ret = matrix(NA, length(ids), cols + 3)
+   for(k in seq_along(blocks)){
+      if(is.null(fits[[k]])){
+         stop(paste("The joint fit of organism", ids[k], "failed at the shared V of", signif(exp(best$minimum), 4), "degree days."))
+      }
+      ret[k,] = c(ids[k], blocks[[k]]$constant - fits[[k]]$value, fits[[k]]$convergence, exp(fits[[k]]$par), exp(best$minimum))
+   }
+   return(ret)
+}
+
+#
+# Function which simulates sampling designs to find how precisely each would estimate the model.
+#
+# A design samples the same number of individuals on each of its days. Every simulation draws the count
+# in each stage from the multinomial distribution the model predicts for the day, and fits the model to
+# the counts again, starting from the model's own parameters. The degree days are worked out once by the
+# caller, and the degree days, their square roots, the predicted proportions, and the count matrix of a
+# design are set up once and reused by each of its simulations. The simulations are dealt out to shards
+# in turn, and each is seeded on its own so that the results do not depend on the number of shards.
+#
+# Takes:
+#   degreedays  - Vector of the degree days accumulated by each day of the weather dataset.
+#   designs     - Matrix with one design per row, holding the number of individuals sampled on each
+#                 day followed by the days, padded with NA.
+#   params      - Vector holding the model's parameters.
+#   optMethod   - which method to use in the call to optim.
+#   simulations - Number of simulations of each design.
+#   seed        - Seed for the random number generator.
+#   shard       - Index of this shard, starting from 0.
+#   shards      - Total number of shards.
+#
+# Returns: Matrix with one row per simulation run by this shard, holding the design and the simulation,
+# both counting from 0, the convergence code from optim, and the fitted parameters.
+#
+simulateDesigns = function(degreedays, designs, params, optMethod, simulations, seed, shard, shards){
+   cols = length(params)
+   mine = which(((1:(nrow(designs) * simulations)) - 1) %% shards == shard)
+   ret = matrix(NA, length(mine), cols + 3)
+   current = 0
+   for(m in seq_along(mine)){
+      d = (mine[m] - 1) %/% simulations + 1
+      if(d != current){
+         current = d
+         T = degreedays[designs[d,-1][!is.na(designs[d,-1])]]
+         rootT = sqrt(T)
+         expected = pmax(predictProportions(log(params), T, cols), 0)
+         counts = matrix(0, length(T), cols)
+      }
+      set.seed(seed + mine[m])
+      for(i in seq_along(T)){
+         counts[i,] = rmultinom(1, designs[d,1], expected[i,])
+      }
+      ret[m,1:3] = c(d - 1, (mine[m] - 1) %% simulations, 1)
+      PHENOL = tryCatch(optim(log(params),matrixNegloglike,T=T,rootT=rootT,dataset=counts,method=optMethod), error=function(e){NULL})
+      if(!is.null(PHENOL)){
+         ret[m,3] = PHENOL$convergence
+         ret[m,3 + (1:cols)] = exp(PHENOL$par)
+      }
+      progress(m, length(mine), NA)
+   }
+   return(ret)
+}
+
 #
 # Function to calculate accumulated degree days using the double sine method.
 #
 # Note: assumes input in Celsius
 #
 # Takes:
-#   x     - name of temperature data file
+#   x     - matrix of temperature data with columns for the day, the high, and the low
 #   upper - high bound
 #   lower - low bound
 #
 # Returns: Vector of time values expressed in degree days.
 #
 doubleSine = function(x, upper, lower){
-   degreedata = read.table(x,header=FALSE,sep="\t")
-   attach(degreedata)
-   dmat = cbind(degreedata[2:3]) # Load the high/low information.
-   detach(degreedata)
+   dmat = x[,2:3,drop=FALSE] # Load the high/low information.
    retval = (1:nrow(dmat))*0
    for(i in 1:nrow(dmat)){
       firstLow = dmat[i,2]
@@ -224,23 +607,159 @@ doubleSine = function(x, upper, lower){
    return(retval)
 }
 
+#
+# Function which prepares the degree days for fitting the thresholds.
+#
+# doubleSine finds each day's area with optimise and integrate, which is far too slow to repeat for every
+# pair of thresholds tried by optim. The same areas have a closed form (see sineArea), and everything but
+# the thresholds can be worked out once: the mean and amplitude of both sine waves of every day. The
+# returned function then only has to redo a few vector operations and a cumulative sum when the
+# thresholds change, and it keeps its last answer so that steps which leave the thresholds alone cost
+# nothing. Only the days up to the day after the last sample are kept.
+#
+# Takes:
+#   x    - matrix of temperature data with columns for the day, the high, and the low
+#   days - vector of the days the samples were taken on
+#
+# Returns: Function of the lower and upper thresholds giving the degree days at each sample.
+#
+degreeDayEngine = function(x, days){
+   rows = min(nrow(x), max(days) + 1)
+   high = x[1:rows,2]
+   low = x[1:rows,3]
+   nextLow = c(low[-1], low[rows]) # The last day uses its own low for the second wave, as in doubleSine.
+   firstMean = (high + low) / 2
+   firstAmp = (high - low) / 2
+   secondMean = (high + nextLow) / 2
+   secondAmp = (high - nextLow) / 2
+   lastThresholds = c(NA, NA)
+   lastTimes = NULL
+   function(lower, upper){
+      if(!identical(c(lower, upper), lastThresholds)){
+         first = sineArea(firstMean, firstAmp, lower) - sineArea(firstMean, firstAmp, upper)
+         second = sineArea(secondMean, secondAmp, lower) - sineArea(secondMean, secondAmp, upper)
+         lastTimes <<- cumsum(pmax((first + second) / 2, 0))[days]
+         lastThresholds <<- c(lower, upper)
+      }
+      return(lastTimes)
+   }
+}
+
+#
+# Function which finds the area of a daily sine wave above a threshold.
+#
+# The wave runs from mean - amp to mean + amp over one day. Its area above the threshold is
+# ((mean - threshold) * (pi/2 - theta) + amp * cos(theta)) / pi, where theta = asin((threshold - mean)/amp)
+# is where the wave crosses the threshold. This is the area doubleSine finds numerically.
+#
+# Takes:
+#   mean      - vector of the daily means
+#   amp       - vector of the daily amplitudes
+#   threshold - the threshold
+#
+# Returns: Vector with the area of each day above the threshold.
+#
+sineArea = function(mean, amp, threshold){
+   theta = asin(pmin(pmax((threshold - mean) / pmax(amp, 1e-12), -1), 1))
+   return(((mean - threshold) * (pi/2 - theta) + amp * cos(theta)) / pi)
+}
+
+#
+# Function which fits the model by differential evolution.
+#
+# A population of parameter sets is spread around the center in the same ranges multiStart uses. Each
+# generation every member is crossed with the difference of two others added to a third, and the trial
+# replaces the member if it fits better. The trials of a generation are independent, so they are
+# evaluated side by side on several cores where the platform can fork R processes. The search stops
+# once the whole population fits within a small tolerance of the best, and the best member is then
+# polished with Nelder-Mead so that the optimum is found as closely as by the other methods.
+#
+# Takes:
+#   dataMat - Matrix holding the phenology data.
+#   timeT   - Vector holding time data in degree days.
+#   center  - Vector holding the parameters the population is spread around.
+#   seed    - Seed for the random number generator.
+#   cores   - Number of cores to evaluate each generation on.
+#
+# Returns: The result of optim for the polished fit.
+#
+differentialEvolution = function(dataMat, timeT, center, seed, cores){
+   set.seed(seed)
+   n = length(center)
+   size = max(20, 10 * n)   # Members of the population.
+   generations = 200        # Most generations to run.
+   weight = 0.7             # Weight of the difference vector.
+   crossover = 0.9          # Chance of taking each parameter from the trial.
+   evaluate = function(population){
+      rows = lapply(seq_len(nrow(population)), function(k){population[k,]})
+      score = function(param){
+         value = tryCatch(negloglike(param, timeT, dataMat), error=function(e){Inf})
+         if(is.finite(value)) value else Inf
+      }
+      if((cores > 1) & (.Platform$OS.type == "unix")){
+         return(unlist(parallel::mclapply(rows, score, mc.cores=cores)))
+      }
+      return(vapply(rows, score, 0))
+   }
+   population = matrix(log(center), size, n, byrow=TRUE)
+   population[,-n] = population[,-n] + log(4) * (matrix(runif(size * (n - 1)), size, n - 1) - 0.5)
+   population[,n] = population[,n] + log(100) * (runif(size) - 0.5)
+   population[1,] = log(center)
+   if(n > 2){
+      population[,-n] = t(apply(population[,-n,drop=FALSE], 1, sort))
+   }
+   reportEvaluations <<- FALSE
+   values = evaluate(population)
+   constant = sum(lfactorial(rowSums(dataMat)))-sum(lfactorial(dataMat))
+   for(g in 1:generations){
+      trials = population
+      for(k in 1:size){
+         others = sample(setdiff(1:size, k), 3)
+         mutant = population[others[1],] + weight * (population[others[2],] - population[others[3],])
+         take = runif(n) < crossover
+         take[sample(n, 1)] = TRUE # At least one parameter always comes from the mutant.
+         trials[k,take] = mutant[take]
+      }
+      trialValues = evaluate(trials)
+      better = trialValues < values
+      population[better,] = trials[better,]
+      values[better] = trialValues[better]
+      best = min(values)
+      progress(g, generations, constant - best)
+      if(max(values) - best < 1e-6 * (abs(best) + 1e-6)){
+         break
+      }
+   }
+   progress(generations, generations, constant - min(values))
+   reportEvaluations <<- TRUE
+   PHENOL=optim(population[which.min(values),],negloglike,T=timeT,dataset=dataMat,method="Nelder-Mead")
+   return(PHENOL)
+}
+
 #
 # Function which attempts to estimate the parameters from a set of starting parameters supplied by the user.
 #
+# When the starting parameters come from an earlier fit of the same model the spread of its bootstrap can
+# be given as well. It is passed to optim as the scale of each parameter, so that the first steps of the
+# search are about as large as the uncertainty in each parameter rather than a fixed fraction of it.
+#
 # Takes:
 #   dataMat   - Matrix holding the phenology data.
 #   timeT     - Vector holding time data in degree days.
 #   optMethod - which method to use in the call to optim.
 #   param0    - Vector holding the starting parameters
+#   scale     - Vector holding the spread of the log of each parameter, or NULL.
 #
 # Returns: Vector with the estimated parameters.
 #
-estimateWithParams = function(dataMat, timeT, optMethod, param0){
+estimateWithParams = function(dataMat, timeT, optMethod, param0, scale=NULL){
 
    param0=log(param0)
-   PHENOL=optim(param0,negloglike,T=timeT,dataset=dataMat,method=optMethod)
-   results=c(exp(PHENOL$par),PHENOL$val)
-   param = exp(PHENOL$par) # Get the parameter values for the initial estimate.
+   control = list()
+   if((length(scale) == length(param0)) && all(is.finite(scale) & (scale > 0))){
+      control$parscale = scale
+   }
+   PHENOL=optim(param0,negloglike,T=timeT,dataset=dataMat,method=optMethod,control=control)
    return(PHENOL)
 }
 
@@ -279,6 +798,69 @@ maxL = function(param,dateT,X) {
    return(-sum(X*log(P)))
 }
 
+#
+# Function to be maximized when the thresholds are fitted as well.
+#
+# The lower threshold is fitted as it is and the upper threshold as the log of its distance above the
+# lower one, so that the upper threshold always stays above the lower.
+#
+# Takes:
+#   params  - list of log(initial estimates) followed by the lower threshold and log(upper - lower)
+#   engine  - function from degreeDayEngine giving the degree days of the samples
+#   dataset - phenology data matrix
+#
+# Returns: log likelihood
+#
+negloglikeThresholds = function(params, engine, dataset) {
+  cols = ncol(dataset)
+  times = engine(params[cols+1], params[cols+1] + exp(params[cols+2]))
+  if(!all(times > 0)) {
+    return(1e300) # Thresholds this high leave samples without any development, which the model cannot describe.
+  }
+  return(negloglike(params[1:cols], times, dataset))
+}
+
+#
+# Function which predicts the proportion of the population in each stage.
+#
+# Takes:
+#   params - list of log(parameters)
+#   T      - time vector in degree days
+#   cols   - number of stages
+#
+# Returns: Matrix with one row per time and one column per stage.
+#
+predictProportions = function(params, T, cols) {
+  A = exp(params[1:(cols-1)])
+  V = exp(params[cols])
+  below = matrix(sapply(A, function(a){1/(1+exp(-(a-T)/sqrt(V*T)))}), length(T), cols - 1) # Proportion up to each stage.
+  return(cbind(below, 1) - cbind(0, below))
+}
+
+#
+# Function to be minimized when the same days are fitted many times over.
+#
+# Gives the same value as negloglike, but works on whole matrices at once and takes the square roots of
+# the degree days from the caller, since simulateDesigns and jointFit fit the same days many times over.
+# It does not report its evaluations.
+#
+# Takes:
+#   params  - list of log(initial estimates)
+#   T       - time vector
+#   rootT   - square root of each value of T
+#   dataset - phenology data matrix
+#
+# Returns: negative log likelihood, without the multinomial constant
+#
+matrixNegloglike = function(params, T, rootT, dataset) {
+  cols = ncol(dataset)
+  below = 1/(1+exp(-outer(-T, exp(params[1:(cols-1)]), "+")/(sqrt(exp(params[cols]))*rootT))) # Proportion up to each stage.
+  return(-sum(dataset*log(pmax(cbind(below, 1) - cbind(0, below), 0.00000001))))
+}
+
+evaluations = 0          # Number of times negloglike has been called, reported as progress.
+reportEvaluations = TRUE # Whether negloglike reports its evaluations. multiStart reports its starts instead.
+
 #
 # Function to be maximized. 
 #
@@ -304,94 +886,159 @@ negloglike = function(params,T,dataset) {
       if(P[i,j]<0.00000001) P[i,j]=0.00000001
     }
   }
-  return(-sum(dataset*log(P)))
+  value = -sum(dataset*log(P))
+  evaluations <<- evaluations + 1
+  if(reportEvaluations) progress(evaluations, NA, sum(lfactorial(rowSums(dataset)))-sum(lfactorial(dataset))-value)
+  return(value)
 }
 
 #------------
 # Read Input
 #------------
 
-# The program takes one argument from the command line, the location of the config file to be used.
-args = commandArgs(trailingOnly = TRUE)
+# The program takes two arguments, the location of the request file to be used and the location the
+# response should be written to. They come from the command line, or from the "stagecast.args" option
+# when the script is run by a worker (see worker.r).
+args = getOption("stagecast.args", commandArgs(trailingOnly = TRUE))
 settings = args[1]
+responseLoc = args[2]
 
-# Load the configuration file. This file contains all the input information needed for modeling.
-config = read.table(settings,header=TRUE,stringsAsFactors=FALSE,sep="\t")
-weather = config$data[as.character(config$tag) == as.character("weather")]      # Location of the weather file to use for modeling. 
-species = config$data[as.character(config$tag) == as.character("species")]      # Vector holding the species files used for modeling.
-saveLoc = config$data[as.character(config$tag) == as.character("saveLoc")]      # Location the model should be saved to so that the calling program can read it.
-stageMap = config$data[as.character(config$tag) == as.character("stageMap")]    # Vector of strings mapping a stage's source index to a target index.
-opt = config$data[as.character(config$tag) == as.character("optim")]            # Which method to use with the optimization function.
-pars = as.numeric(config$data[as.character(config$tag) == as.character("par")]) # User-submitted initial parameters. This can be empty if the user wants the program to attempt an estimation on its own.
+# Load the request file. This file contains all the input information needed for modeling.
+config = readRequest(settings)
+weather = config$weather   # Matrix of the weather data to use for modeling (day, high, low).
+species = config$species   # Matrix of the summed species data with the dates in the first column.
+stageMap = config$stageMap # Two column matrix mapping a stage's source index to a target index.
+thresholds = config$thresholds # Lower and upper developmental thresholds in degrees Celsius. Defaults to 4 and 40.
+opt = config$optim         # Which method to use with the optimization function.
+pars = config$par          # User-submitted initial parameters. This can be empty if the user wants the program to attempt an estimation on its own.
+multi = config$multiStart  # Number of starts, seed, shard index, and number of shards when opt is "Multi-start".
+seed = config$seed         # Seed for the random number generator when opt is "Differential Evolution".
+cores = config$cores       # Number of cores to evaluate each generation on when opt is "Differential Evolution".
+scale = config$scale       # Spread of the log of each starting parameter when refitting a model with statistics. This can be empty.
+candidates = config$candidates # Matrix with one stage map per row, giving the target index of each stage, when searching for the best stage map.
+search = config$search     # Shard index and number of shards when searching for the best stage map.
+folds = config$folds       # Fold of each sampling date when cross-validating the model.
+validate = config$validate # Shard index and number of shards when cross-validating the model.
+designs = config$designs   # Matrix with one sampling design per row, holding the number of individuals sampled on each day followed by the days, when simulating sampling designs.
+simulate = config$simulate # Number of simulations of each design, seed, shard index, and number of shards when simulating sampling designs.
+joint = config$joint       # Organism of each row of species, counting from 0, when fitting several organisms with a shared V.
+fitThresholds = isTRUE(config$fitThresholds == 1) # Whether to fit the thresholds along with the parameters.
 
 #--------------
 # Process Input
 #--------------
 
 # Load the species and time information.
-rawdata = read.table(toString(species[[1]]),header=FALSE,sep="\t")
-rawmat = rawdata[,-1] # Initialize the matrix of raw species information by reading the first input file.
-timeData = rawdata[1] # Load the date information. This assumes that the dates are in Julian format and are the same for every input dataset.
-timeData = timeData[[1]]
-
-# Iterate through the rest of the species file (if they exist) and add their information to rawmat.
-if(length(species) > 1) {
-	for(i in 2:length(species)) {
-		rawdata = read.table(toString(species[[i]]),header=FALSE,sep="\t")
-		rawmat = rawmat + rawdata[,-1]
-	}
+# Simulated sampling designs have no organism data, so their dates are every day sampled by a design.
+if(length(designs) > 0) {
+  rawmat = NULL
+  timeData = sort(unique(designs[,-1][!is.na(designs[,-1])]))
+} else {
+  rawmat = species[,-1,drop=FALSE] # The program has already added the individual species files together.
+  timeData = species[,1]           # Load the date information. This assumes that the dates are in Julian format.
 }
+days = timeData                  # The dates are kept for fitting the thresholds.
 
 # Convert time (presumed to be in Julian format) to degree days.
-degreedays = doubleSine(toString(weather[[1]]), 40, 4)
+# Only the days up to the last sample are needed, and the day after it since each day uses the next day's low.
+# This matters for refits early in the season, when the weather dataset may already run to the end of the year.
+if(length(thresholds) < 2){
+  thresholds = c(4, 40)
+}
+degreedays = doubleSine(weather[1:min(nrow(weather), max(timeData) + 1),,drop=FALSE], thresholds[2], thresholds[1])
 tempTime = 1:length(timeData)
 for(i in 1:length(timeData)){
   tempTime[i] = degreedays[timeData[[i]]] # Map calculated degree day schedule to the dates associated with the input datasets.
 }
 timeData = tempTime # Final time vector.
 
-# Create the final species data matrix by applying any user-supplied stage collapse operations.
-stageData = collapse(rawmat,stageMap)
+if(length(candidates) > 0) {
+	# Search every stage map in the request, sharing the degree days calculated above.
+	if(length(search) < 2) {
+		search = c(0, 1)
+	}
+	response = list(fits=searchStageMaps(rawmat, timeData, candidates, opt, search[1], search[2]))
+} else if(length(designs) > 0) {
+	# Simulate each sampling design from the model, sharing the degree days calculated above.
+	if(length(simulate) < 4) {
+		simulate = c(1000, 1, 0, 1)
+	}
+	response = list(simulations=simulateDesigns(degreedays, designs, pars, opt, simulate[1], simulate[2], simulate[3], simulate[4]))
+} else if(length(joint) > 0) {
+	# Fit every organism with its own A values and a shared V, sharing the degree days calculated above.
+	fits = jointFit(collapse(rawmat,stageMap), timeData, joint, opt, pars, if(length(cores) > 0) cores else 1)
+	logLikihood = sum(fits[,2])
+	AIC = -2 * logLikihood + 2 * (nrow(fits) * (ncol(fits) - 4) + 2) # The parameters are counted the same way as for a single fit, which adds one.
+	response = list(joint=fits, log=logLikihood, aic=AIC, thresholds=thresholds)
+} else if(length(folds) > 0) {
+	# Refit the model without each fold of dates, starting from the fit to every date.
+	if(length(validate) < 2) {
+		validate = c(0, 1)
+	}
+	response = list(folds=crossValidate(collapse(rawmat,stageMap), timeData, folds, opt, pars, validate[1], validate[2]))
+} else {
+	# Create the final species data matrix by applying any user-supplied stage collapse operations.
+	stageData = collapse(rawmat,stageMap)
 
-# Find the size and dimensions of the sample data.
-#rows = rowSums(stageData) # Individual sample times.
-cols = ncol(stageData)    # Total number of developmental stages.
+	# Find the size and dimensions of the sample data.
+	#rows = rowSums(stageData) # Individual sample times.
+	cols = ncol(stageData)    # Total number of developmental stages.
 
-#-----------------
-# Calculate model
-#-----------------
-if(length(pars) > 0) {
-	PHENOL = estimateWithParams(stageData, timeData, opt, pars)
-} else {
-	PHENOL = autoEstimate(stageData, timeData, opt)
-}
-results=c(exp(PHENOL$par),PHENOL$val)
-logLikihood=sum(lfactorial(rowSums(stageData)))-sum(lfactorial(stageData))-results[cols+1]
-AIC = -2 * logLikihood + 2 * length(results)
-
-#-----------------
-# Output the model
-#-----------------
-
-# Create string representing the output file name and location.
-outpt = paste(toString(saveLoc[[1]]), "/modelOutput.xml", sep="")
-
-# Create/truncate the file.
-file.create(outpt)
-
-# The data is passed back to the program as an XML file. Note that the tags are coded to display proper indenting.
-# To see why extra tags are needed to wrap the <param></param> tags reference the external program documentation.
-write("<models>", file = outpt, append = TRUE, sep = "\t")
-write("\t<model>", file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<paramCount>",cols,"</paramCount>",sep=""), file = outpt, append = TRUE, sep = "\t")
-# Output the calculated model parameters.
-for(i in 1:cols){
-	write("\t\t<param>", file = outpt, append = TRUE, sep = "\t")
-	write(paste("\t\t\t<val>",results[i],"</val>",sep=""), file = outpt, append = TRUE, sep = "\t")
-	write("\t\t</param>", file = outpt, append = TRUE, sep = "\t")
+	#-----------------
+	# Calculate model
+	#-----------------
+	constant = sum(lfactorial(rowSums(stageData)))-sum(lfactorial(stageData))
+	if(opt == "Multi-start") {
+		if(length(multi) < 4) {
+			multi = c(24, 1, 0, 1)
+		}
+		center = if(length(pars) > 0) pars else heuristicStart(stageData, timeData)
+		starts = multiStart(stageData, timeData, center, multi[1], multi[2], multi[3], multi[4])
+		starts[,cols+2] = constant - starts[,cols+2] # Report log likelihoods rather than their negatives.
+		fitted = which(!is.na(starts[,cols+2]))
+		converged = fitted[starts[fitted,cols+3] == 0]
+		if(length(converged) > 0) {
+			fitted = converged
+		}
+		if(length(fitted) > 0) {
+			best = fitted[which.max(starts[fitted,cols+2])]
+			results = c(starts[best,2:(cols+1)], constant - starts[best,cols+2])
+		} else {
+			results = rep(NA, cols + 1) # Every start of this shard failed. The other shards may still have a fit.
+		}
+	} else if(opt == "Differential Evolution") {
+		center = if(length(pars) > 0) pars else heuristicStart(stageData, timeData)
+		PHENOL = differentialEvolution(stageData, timeData, center, if(length(seed) > 0) seed else 1, if(length(cores) > 0) cores else 1)
+		results=c(exp(PHENOL$par),PHENOL$val)
+	} else if(fitThresholds) {
+		engine = degreeDayEngine(weather, days)
+		center = if(length(pars) > 0) pars else heuristicStart(stageData, timeData)
+		param0 = c(log(center), thresholds[1], log(thresholds[2] - thresholds[1]))
+		PHENOL = optim(param0,negloglikeThresholds,engine=engine,dataset=stageData,method=opt)
+		thresholds = c(PHENOL$par[cols+1], PHENOL$par[cols+1] + exp(PHENOL$par[cols+2]))
+		results = c(exp(PHENOL$par[1:cols]), PHENOL$val)
+	} else {
+		if(length(pars) > 0) {
+			PHENOL = estimateWithParams(stageData, timeData, opt, pars, scale)
+		} else {
+			PHENOL = autoEstimate(stageData, timeData, opt)
+		}
+		results=c(exp(PHENOL$par),PHENOL$val)
+	}
+	logLikihood=constant-results[cols+1]
+	AIC = -2 * logLikihood + 2 * length(results)
+	if(fitThresholds & !(opt %in% c("Multi-start", "Differential Evolution"))) {
+		AIC = AIC + 4 # The two thresholds are parameters of the fit as well.
+	}
+
+	#-----------------
+	# Output the model
+	#-----------------
+
+	# The model is passed back to the program as a response file.
+	response = list(params=results[1:cols], log=logLikihood, aic=AIC, thresholds=thresholds)
+	if(opt == "Multi-start") {
+		response$starts = starts
+	}
 }
-write(paste("\t\t<log>",logLikihood,"</log>",sep=""), file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<aic>",AIC,"</aic>",sep=""), file = outpt, append = TRUE, sep = "\t")
-# Close the tags wrapping the model data.
-write("\t</model>", file = outpt, append = TRUE, sep = "\t")
-write("</models>", file = outpt, append = TRUE, sep = "\t")
+writeResponse(responseLoc, response)
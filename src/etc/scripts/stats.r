@@ -22,31 +22,270 @@ rm(list=ls(all=TRUE))
 # Functions
 #-----------
 
+#
+# Function which reads a request file written by the program.
+#
+# The file starts with the characters "SCRQ", a version number, and the number of blocks. Each
+# block has a name and holds a vector of numbers (type 1), a vector of strings (type 2), or a
+# matrix of numbers stored by column (type 3). All numbers are big-endian. See ScriptProtocol in
+# the program for the writing side.
+#
+# Takes:
+#   x - location of the request file
+#
+# Returns: Named list holding every block in the file.
+#
+readRequest = function(x){
+   con = file(x, "rb")
+   on.exit(close(con))
+   if(rawToChar(readBin(con, "raw", 4)) != "SCRQ"){
+      stop(paste(x, "is not a request file."))
+   }
+   version = readBin(con, "integer", size=4, endian="big")
+   if(version != 1){
+      stop(paste("Unsupported request version", version))
+   }
+   count = readBin(con, "integer", size=4, endian="big")
+   ret = list()
+   for(i in seq_len(count)){
+      name = readString(con)
+      type = readBin(con, "integer", size=1, endian="big")
+      if(type == 1){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = readBin(con, "double", n, size=8, endian="big")
+      }else if(type == 2){
+         n = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = vapply(seq_len(n), function(j){readString(con)}, "")
+      }else if(type == 3){
+         rows = readBin(con, "integer", size=4, endian="big")
+         cols = readBin(con, "integer", size=4, endian="big")
+         ret[[name]] = matrix(readBin(con, "double", rows*cols, size=8, endian="big"), rows, cols)
+      }else{
+         stop(paste("Unknown block type", type, "in block", name))
+      }
+   }
+   return(ret)
+}
+
+#
+# Function which reads one length-prefixed UTF-8 string from a request file.
+#
+# Takes:
+#   con - open binary connection
+#
+# Returns: The string.
+#
+readString = function(con){
+   len = readBin(con, "integer", size=4, endian="big")
+   ret = rawToChar(readBin(con, "raw", len))
+   Encoding(ret) = "UTF-8"
+   return(ret)
+}
+
+#
+# Function which writes one length-prefixed UTF-8 string to a response file.
+#
+# Takes:
+#   con   - open binary connection
+#   value - string to write
+#
+writeString = function(con, value){
+   bytes = charToRaw(enc2utf8(as.character(value)))
+   writeBin(length(bytes), con, size=4, endian="big")
+   writeBin(bytes, con)
+}
+
+#
+# Function which writes a response file for the program to read.
+#
+# The layout is the same as the request file but starts with the characters "SCRS". Character
+# vectors are written as strings, matrices as matrices, and everything else as numbers.
+#
+# Takes:
+#   x      - location of the response file
+#   blocks - named list of the values to write
+#
+writeResponse = function(x, blocks){
+   temp = paste(x, ".part", sep="")
+   con = file(temp, "wb")
+   writeBin(charToRaw("SCRS"), con)
+   writeBin(1L, con, size=4, endian="big")
+   writeBin(length(blocks), con, size=4, endian="big")
+   for(name in names(blocks)){
+      value = blocks[[name]]
+      writeString(con, name)
+      if(is.character(value)){
+         writeBin(2L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         for(s in value){
+            writeString(con, s)
+         }
+      }else if(is.matrix(value)){
+         writeBin(3L, con, size=1)
+         writeBin(nrow(value), con, size=4, endian="big")
+         writeBin(ncol(value), con, size=4, endian="big")
+         writeBin(as.double(value), con, size=8, endian="big")
+      }else{
+         value = as.double(value)
+         writeBin(1L, con, size=1)
+         writeBin(length(value), con, size=4, endian="big")
+         writeBin(value, con, size=8, endian="big")
+      }
+   }
+   close(con)
+   file.rename(temp, x) # Only a complete response is ever seen by the program.
+}
+
+#
+# Function which saves the bootstrap draws finished so far.
+#
+# The state is written to a temporary file which then replaces the checkpoint, so a run stopped while
+# saving leaves the previous checkpoint whole.
+#
+# Takes:
+#   x     - location of the checkpoint
+#   state - list holding the draws, the number of iterations done, and the state of the random number
+#           generator
+#
+saveCheckpoint = function(x, state){
+   dir.create(dirname(x), showWarnings=FALSE, recursive=TRUE)
+   temp = paste(x, ".tmp", sep="")
+   saveRDS(state, temp)
+   if(!file.rename(temp, x)){
+      unlink(x)
+      file.rename(temp, x)
+   }
+}
+
+#
+# Function which creates an empty quantile sketch.
+#
+# A sketch estimates the quantiles of a long run of draws without keeping every draw. It is a stack of
+# levels, where a value on level h stands for 2^(h-1) draws. When a level holds k values it is sorted
+# and every second value moves up a level, so no level ever holds more than k values and the total
+# weight is always the number of draws added. The same layout is read and merged by QuantileSketch in
+# the program.
+#
+# Takes:
+#   k - number of values a level holds before it is compacted
+#
+# Returns: The sketch.
+#
+newSketch = function(k){
+   return(list(k=k, levels=list(numeric(0)), flips=FALSE))
+}
+
+#
+# Function which adds a draw to a quantile sketch.
+#
+# A level with an odd number of values keeps its largest value when it is compacted. Compactions of a
+# level alternately keep the first and the second value of each pair so that the errors cancel out.
+# No random numbers are used, so the bootstrap draws are the same whether or not sketches are kept.
+#
+# Takes:
+#   s - the sketch
+#   x - the draw
+#
+# Returns: The updated sketch.
+#
+sketchAdd = function(s, x){
+   s$levels[[1]] = c(s$levels[[1]], x)
+   h = 1
+   while(h <= length(s$levels)){
+      if(length(s$levels[[h]]) >= s$k){
+         sorted = sort(s$levels[[h]])
+         left = numeric(0)
+         if(length(sorted) %% 2 == 1){
+            left = sorted[length(sorted)]
+            sorted = sorted[-length(sorted)]
+         }
+         if(h == length(s$levels)){
+            s$levels[[h+1]] = numeric(0)
+            s$flips[h+1] = FALSE
+         }
+         s$levels[[h+1]] = c(s$levels[[h+1]], sorted[seq(if(s$flips[h]) 2 else 1, length(sorted), by=2)])
+         s$flips[h] = !s$flips[h]
+         s$levels[[h]] = left
+      }
+      h = h+1
+   }
+   return(s)
+}
+
+#
+# Function which estimates the draw of a given rank from a quantile sketch.
+#
+# Takes:
+#   s - the sketch
+#   r - rank of the draw, 1 for the smallest
+#
+# Returns: The estimated draw, or NA if the rank is outside the sketch.
+#
+sketchRank = function(s, r){
+   values = unlist(s$levels)
+   weights = unlist(lapply(seq_along(s$levels), function(h){rep(2^(h-1), length(s$levels[[h]]))}))
+   if((r < 1) || (r > sum(weights))) return(NA)
+   o = order(values)
+   return(values[o][which(cumsum(weights[o]) >= r)[1]])
+}
+
+#
+# Function which converts a quantile sketch to a matrix for the response.
+#
+# Takes:
+#   s - the sketch
+#
+# Returns: Matrix with one row per value holding the value and its level, starting from 0.
+#
+sketchMatrix = function(s){
+   return(cbind(unlist(s$levels), unlist(lapply(seq_along(s$levels), function(h){rep(h-1, length(s$levels[[h]]))}))))
+}
+
+#
+# Function which reports progress to the program.
+#
+# A report is a line on standard output holding "@@stagecast", "progress", the steps finished, the
+# total steps, and the current log likelihood, separated by tabs. Reports are dropped if the last one
+# was sent less than a quarter of a second ago, and since R only evaluates an argument when it is used,
+# an expensive value argument costs nothing when the report is dropped. This keeps the cost of calling
+# the function on every pass through a loop negligible. The final report of a loop is always sent.
+#
+# Takes:
+#   done  - number of steps finished
+#   total - total number of steps, or NA if it is not known
+#   value - current log likelihood, or NA
+#
+progressTime = 0 # Time the last report was sent.
+progress = function(done, total=NA, value=NA){
+   now = proc.time()[[3]]
+   if((now - progressTime < 0.25) & !isTRUE(done >= total)) return(invisible(NULL))
+   progressTime <<- now
+   cat(paste("@@stagecast", "progress", done, total, format(value, digits=10), sep="\t"), "\n", sep="")
+   flush(stdout())
+}
+
 #
 # Function takes the array holding the per-stage phenology data and collapses stages in to 
 # each other based on the user's inputs.
 #
-# The mapping is done using two numbers, X and Y, in a string of the format "X:Y"
-#	The X number is the original index of a given stage
-#	The Y number is the index the stage information should be added to for the final output
-#	If a given index is not collapsed into another one the map takes the form of "X:X"
+# The mapping is done using two numbers, X and Y, held in one row of a two column matrix
+#	The X number, in the first column, is the original index of a given stage
+#	The Y number, in the second column, is the index the stage information should be added to for the final output
+#	If a given index is not collapsed into another one the row holds X in both columns
 #
 # Takes:
 #   Original - Array holding the unmodified phenology information
-#   stageMap - vector of strings holding the map from one stage to another.
+#   stageMap - two column matrix holding the map from one stage to another.
 #
 # Returns: Array with the number of columns equal to or less than the number of columns in 
 # the input array.
 #
 collapse = function(original,stageMap) {
-  stageMap = strsplit(stageMap, ":")
-  stageMap = unlist(stageMap)
-
-  stageTarget = strtoi(stageMap[seq(2,length(stageMap),2)],0L)
+  stageTarget = stageMap[,2]
   stageTargetUnique = unique(stageTarget)
   stageTargetLen = length(stageTargetUnique)
 
-  stageSource = strtoi(stageMap[seq(1,length(stageMap),2)],0L)
+  stageSource = stageMap[,1]
   stageSourceLen = length(unique(stageSource))
 
   ret = matrix(0, nrow(original), stageTargetLen)
@@ -64,17 +303,14 @@ collapse = function(original,stageMap) {
 # Note: assumes input in Celsius
 #
 # Takes:
-#   x     - name of temperature data file
+#   x     - matrix of temperature data with columns for the day, the high, and the low
 #   upper - high bound
 #   lower - low bound
 #
 # Returns: Vector of time values expressed in degree days.
 #
 doubleSine = function(x, upper, lower){
-   degreedata = read.table(x,header=FALSE,sep="\t")
-   attach(degreedata)
-   dmat = cbind(degreedata[2:3]) # Load the high/low information.
-   detach(degreedata)
+   dmat = x[,2:3,drop=FALSE] # Load the high/low information.
    retval = (1:nrow(dmat))*0
    for(i in 1:nrow(dmat)){
       firstLow = dmat[i,2]
@@ -161,49 +397,166 @@ negloglike = function(params,T,dataset) {
   return(-sum(dataset*log(P)))
 }
 
+#
+# Function which finds the inverse of the Hessian of the negative log likelihood at the fit.
+#
+# Takes:
+#   theta   - Vector holding log(fitted parameters).
+#   T       - time vector in degree days
+#   dataset - phenology data matrix
+#
+# Returns: The inverse Hessian, which approximates the covariance of the log of the parameters, or NULL if
+# it could not be found or is not positive definite.
+#
+inverseHessian = function(theta, T, dataset){
+  ret = tryCatch(solve(optimHess(theta, negloglike, NULL, T, dataset)), error=function(e){NULL})
+  if(is.null(ret) || any(!is.finite(ret)) || any(eigen(ret, symmetric=TRUE, only.values=TRUE)$values <= 0)){
+    return(NULL)
+  }
+  return(ret)
+}
+
+#
+# Function which draws one chain from the posterior distribution of the parameters by adaptive Metropolis.
+#
+# The chain moves on the log of the parameters with a flat prior, so the posterior follows the likelihood.
+# Proposals are drawn from a normal distribution around the current point. Every 100 steps of the burn-in
+# their covariance is set to 2.38^2/d times the covariance of the chain so far, after Haario, Saksman,
+# and Tamminen (2001). It is then held fixed, so the kept draws come from a plain Metropolis chain.
+#
+# Takes:
+#   theta   - Vector holding log(starting parameters).
+#   scale   - Covariance of the first proposals.
+#   burn    - Number of steps to adapt over and throw away.
+#   kept    - Number of draws to keep.
+#   thin    - Number of steps between kept draws.
+#   T       - time vector in degree days
+#   dataset - phenology data matrix
+#
+# Returns: List holding a matrix with one kept draw per row, the parameters followed by the log likelihood,
+# and the share of the proposals after the burn-in which were accepted.
+#
+metropolis = function(theta, scale, burn, kept, thin, T, dataset){
+  d = length(theta)
+  total = burn + kept*thin
+  constant = sum(lfactorial(rowSums(dataset)))-sum(lfactorial(dataset))
+  factor = chol(scale)
+  current = -negloglike(theta, T, dataset)
+  history = matrix(NA, burn, d)
+  draws = matrix(NA, kept, d+1)
+  accepted = 0
+  for(i in 1:total){
+    proposal = theta + drop(rnorm(d) %*% factor)
+    value = -negloglike(proposal, T, dataset)
+    if(log(runif(1)) < value - current){
+      theta = proposal
+      current = value
+      accepted = accepted + (i > burn)
+    }
+    if(i <= burn){
+      history[i,] = theta
+      if((i %% 100 == 0) && (i > d)){
+        adapted = tryCatch(chol((2.38^2/d)*cov(history[1:i,,drop=FALSE]) + diag(1e-10, d)), error=function(e){NULL})
+        if(!is.null(adapted)){
+          factor = adapted
+        }
+      }
+    }else if((i - burn) %% thin == 0){
+      draws[(i - burn)/thin,] = c(exp(theta), constant + current)
+    }
+    progress(i, total, constant + current)
+  }
+  return(list(draws=draws, accept=accepted/(kept*thin)))
+}
+
+#
+# Function which finds one end of the profile likelihood interval of a parameter.
+#
+# The parameter is held at values stepped away from its fitted value while the other parameters are
+# refitted, each refit starting from the last, until the log likelihood has fallen by more than the
+# cutoff. The end is then found between the last two values with uniroot.
+#
+# Takes:
+#   j       - Index of the parameter.
+#   side    - -1 for the lower end and 1 for the upper end.
+#   theta   - Vector holding log(fitted parameters).
+#   best    - Negative log likelihood of the fit.
+#   step    - First step away from the fitted value, on the log scale. Each further step is twice as long.
+#   cutoff  - Fall in log likelihood at the end of the interval.
+#   T       - time vector in degree days
+#   dataset - phenology data matrix
+#
+# Returns: Vector holding the end of the interval, or NA if the log likelihood had not fallen far enough
+# after 20 steps, and the number of refits.
+#
+profileBound = function(j, side, theta, best, step, cutoff, T, dataset){
+  free = theta[-j]
+  fits = 0
+  method = if((length(free) == 1) && (bootOpt == "Nelder-Mead")) "BFGS" else bootOpt # Nelder-Mead can not search a single parameter.
+  excess = function(value){
+    fit = optim(free, function(p){negloglike(append(p, value, after=j-1), T, dataset)}, NULL, method=method)
+    free <<- fit$par
+    fits <<- fits + 1
+    return(fit$value - best - cutoff)
+  }
+  inside = theta[j]
+  outside = NA
+  for(k in 1:20){
+    value = theta[j] + side*step*2^(k-1)
+    if(excess(value) > 0){
+      outside = value
+      break
+    }
+    inside = value
+  }
+  if(is.na(outside)){
+    return(c(NA, fits))
+  }
+  return(c(exp(uniroot(excess, sort(c(inside, outside)), tol=1e-4)$root), fits))
+}
+
 #------------
 # Read Input
 #------------
 
-# The program takes one argument from the command line, the location of the config file to be used.
-args = commandArgs(trailingOnly = TRUE)
+# The program takes two arguments, the location of the request file to be used and the location the
+# response should be written to. They come from the command line, or from the "stagecast.args" option
+# when the script is run by a worker (see worker.r).
+args = getOption("stagecast.args", commandArgs(trailingOnly = TRUE))
 settings = args[1]
-
-# Load the configuration file. This file contains all the input information needed to find the desired statistics.
-config = read.table(settings,header=TRUE,stringsAsFactors=FALSE,sep="\t")
-weather = config$data[as.character(config$tag) == as.character("weather")]               # Location of the weather file to use. 
-species = config$data[as.character(config$tag) == as.character("species")]               # Vector holding the species files to use.
-saveLoc = config$data[as.character(config$tag) == as.character("saveLoc")]               # Location the statistics should be saved to so that the calling program can find them.
-iterations = as.numeric(config$data[as.character(config$tag) == as.character("iter")])   # Number of bootstrap repetitions. Standard = 1000.
-alpha = as.numeric(config$data[as.character(config$tag) == as.character("alpha")])       # Confidence intervals calculated at 100*(1-alpha) level. Standard = 0.05.
-results = as.numeric(config$data[as.character(config$tag) == as.character("params")])    # Vector holding the model parameters.
-AvalMat = as.numeric(config$data[as.character(config$tag) == as.character("AvalMat")])   # Whether the script should record matrix of A values (with high/lows).
-AstarShow = as.numeric(config$data[as.character(config$tag) == as.character("Astar")])   # Whether the script should record the A star matrix.
-VstarShow = as.numeric(config$data[as.character(config$tag) == as.character("Vstar")])   # Whether the script should record the V star matrix.
-GGstarShow = as.numeric(config$data[as.character(config$tag) == as.character("GGstar")]) # Whether the script should record the GG star matrix.
-stageMap = config$data[as.character(config$tag) == as.character("stageMap")]             # Vector of strings mapping a stage's source index to a target index.
-opt = config$data[as.character(config$tag) == as.character("optim")]                     # Which method to use with the optimization function.
+responseLoc = args[2]
+
+# Load the request file. This file contains all the input information needed to find the desired statistics.
+config = readRequest(settings)
+weather = config$weather    # Matrix of the weather data to use (day, high, low).
+species = config$species    # Matrix of the summed species data with the dates in the first column.
+iterations = config$iter    # Number of bootstrap repetitions. Standard = 1000.
+alpha = config$alpha        # Confidence intervals calculated at 100*(1-alpha) level. Standard = 0.05.
+results = config$params     # Vector holding the model parameters.
+stageMap = config$stageMap  # Two column matrix mapping a stage's source index to a target index.
+thresholds = config$thresholds # Lower and upper developmental thresholds in degrees Celsius. Defaults to 4 and 40.
+opt = config$optim          # Which method to use with the optimization function.
+bootOpt = if(opt %in% c("Nelder-Mead", "BFGS", "CG", "L-BFGS-B", "SANN")) opt else "Nelder-Mead" # Method for each bootstrap fit. Global methods are refitted locally since every fit starts at the model's optimum.
+seed = config$seed          # Random seed for the bootstrap, sent when the program splits the iterations between workers.
+checkpoint = config$checkpoint # Location to save finished draws to, so that a stopped run can resume from them.
+checkpointEvery = 30        # Seconds between checkpoints.
+stream = config$stream      # Capacity of the quantile sketches kept instead of every draw, sent for long runs.
+profile = config$profile    # Shard index and number of shards when finding profile likelihood intervals instead of bootstrapping.
+mcmc = config$mcmc          # Draws to keep, steps between them, and burn-in steps when drawing an MCMC chain instead of bootstrapping.
 
 #--------------
 # Process Input
 #--------------
 
 # Load the species and time information.
-rawdata = read.table(toString(species[[1]]),header=FALSE,sep="\t")
-rawmat = rawdata[,-1]    # Initialize the matrix of raw species information by reading the first input file.
-timeData = rawdata[1]    # Load the date information. This assumes that the dates are in Julian format and are the same for every input dataset.
-timeData = timeData[[1]]
-
-# Iterate through the rest of the species file (if they exist) and add their information to rawmat.
-if(length(species) > 1) {
-	for(i in 2:length(species)){
-		rawdata = read.table(toString(species[[i]]),header=FALSE,sep="\t")
-		rawmat = rawmat + rawdata[,-1]
-	}
-}
+rawmat = species[,-1,drop=FALSE] # The program has already added the individual species files together.
+timeData = species[,1]           # Load the date information. This assumes that the dates are in Julian format.
 
 # Convert time (presumed to be in Julian format) to degree days.
-degreedays = doubleSine(toString(weather[[1]]), 40, 4)
+if(length(thresholds) < 2){
+  thresholds = c(4, 40)
+}
+degreedays = doubleSine(weather, thresholds[2], thresholds[1])
 tempTime = 1:length(timeData)
 for(i in 1:length(timeData)){
   tempTime[i] = degreedays[timeData[[i]]] # Map calculated degree day schedule to the dates associated with the input datasets.
@@ -243,12 +596,32 @@ for (i in 1:cols) {
 # Bootstrapping section
 #--------------------------------------
 
+# Each shard of a split request is given its own seed so that no two shards draw the same data sets.
+if(length(seed) > 0){
+  set.seed(seed[1])
+}
+
 rowTotals=rowSums(stageData)              # Vector of sample sizes from each sample.
-Astar=matrix(0,iterations,cols-1)         # Will hold bootstrap values of the aj's.
-AstartSorted=matrix(0,iterations,cols-1)  # Will hold sorted bootstrap values.
-Vstar=numeric(iterations)                 # Will hold bootstrap values of v.
-GGstar=numeric(iterations)                # Will hold bootstrap values of G-squared.
-XXstar=numeric(iterations)                # Will hold bootstrap values of X-squared.
+streaming=(length(stream) > 0) && (stream[1] > 0) # Whether to keep quantile sketches instead of every draw.
+if(streaming){
+  # Long runs keep a sketch of each parameter for the intervals, counts for the P-values, and an evenly
+  # spaced sample of between stream and 2*stream draws for the forecasts.
+  stride=1                                # Every stride'th draw is kept in the sample.
+  Astar=matrix(0,0,cols-1)                # Will hold the sample of bootstrap values of the aj's.
+  Vstar=numeric(0)                        # Will hold the sample of bootstrap values of v.
+  GGstar=numeric(0)                       # Will hold the sample of bootstrap values of G-squared.
+  XXstar=numeric(0)                       # Will hold the sample of bootstrap values of X-squared.
+  aSketch=lapply(1:(cols-1), function(j){newSketch(stream[1])}) # Will hold sketches of the aj's.
+  vSketch=newSketch(stream[1])            # Will hold a sketch of v.
+  ggCount=0                               # Will hold the number of bootstrap G-squared values at least GG.
+  xxCount=0                               # Will hold the number of bootstrap X-squared values at least XX.
+}else{
+  Astar=matrix(0,iterations,cols-1)       # Will hold bootstrap values of the aj's.
+  AstartSorted=matrix(0,iterations,cols-1) # Will hold sorted bootstrap values.
+  Vstar=numeric(iterations)               # Will hold bootstrap values of v.
+  GGstar=numeric(iterations)              # Will hold bootstrap values of G-squared.
+  XXstar=numeric(iterations)              # Will hold bootstrap values of X-squared.
+}
 maxPJ=matrix(0,rows,cols)                 # Will hold ML estimates of the Pj(ti)'s.
 Pjboot=matrix(0,rows,cols)                # Will hold bootstrap Pj(ti)'s.
 Yboot=matrix(0,rows,cols)                 # Will hold bootstrap data sets (rewritten each simulation).
@@ -275,123 +648,232 @@ for (i in 1:cols) {
 GG=2*sum(stageData*(log(tempStageData)-log(expected)))
 XX=sum((stageData-expected)^2/expected)
 
-# Generate bootstrap data and fit DK model.
+df = rows*(cols-1) - cols # Degrees of freedom of the goodness-of-fit statistics when they are not bootstrapped.
+if(length(profile) > 0){
+  # Find both ends of the interval of every parameter whose index, counting the ends from 0, leaves the
+  # shard index as its remainder when divided by the number of shards. The P-values are taken from the
+  # chi-squared distribution instead of the bootstrap.
+  theta = log(c(A,V))
+  best = negloglike(theta, timeData, stageData)
+  cutoff = qchisq(1-alpha, 1)/2
+  covariance = inverseHessian(theta, timeData, stageData)
+  step = if(is.null(covariance)) rep(0.1, cols) else sqrt(diag(covariance)*2*cutoff) # Where the quadratic approximation puts the ends.
+  ends = expand.grid(side=c(-1, 1), j=1:cols)
+  mine = which((seq_len(nrow(ends)) - 1) %% profile[2] == profile[1])
+  bounds = matrix(NA, length(mine), 4)
+  for(k in seq_along(mine)){
+    end = ends[mine[k],]
+    bounds[k,] = c(end$j, end$side, profileBound(end$j, end$side, theta, best, step[end$j], cutoff, timeData, stageData))
+    progress(k, length(mine))
+  }
+  response = list(
+    iter=0,
+    alpha=alpha,
+    optim=opt,
+    gg=GG,
+    ggPval=if(df > 0) pchisq(GG, df, lower.tail=FALSE) else NA,
+    xx=XX,
+    xxPval=if(df > 0) pchisq(XX, df, lower.tail=FALSE) else NA,
+    a=A,
+    v=V,
+    bounds=bounds)
+  writeResponse(responseLoc, response)
+} else if(length(mcmc) > 0){
+  # Draw one chain of the posterior. Each chain starts at its own random point, about two standard errors
+  # from the fit, so that the program can tell from their spread whether they have converged. The P-values
+  # are taken from the chi-squared distribution instead of the bootstrap.
+  theta = log(c(A,V))
+  covariance = inverseHessian(theta, timeData, stageData)
+  if(is.null(covariance)){
+    covariance = diag(0.01, cols)
+  }
+  start = theta + drop(rnorm(cols) %*% chol(4*covariance))
+  chain = metropolis(start, (2.38^2/cols)*covariance, mcmc[3], mcmc[1], mcmc[2], timeData, stageData)
+  response = list(
+    iter=mcmc[1],
+    alpha=alpha,
+    optim=opt,
+    gg=GG,
+    ggPval=if(df > 0) pchisq(GG, df, lower.tail=FALSE) else NA,
+    xx=XX,
+    xxPval=if(df > 0) pchisq(XX, df, lower.tail=FALSE) else NA,
+    a=A,
+    v=V,
+    draws=chain$draws,
+    accept=chain$accept)
+  writeResponse(responseLoc, response)
+} else {
+  # Resume from the checkpoint of an earlier run of the same request, if one was left behind. The state of
+  # the random number generator is restored along with the draws, so the remaining draws are the same ones
+  # the earlier run would have made.
+  first = 1
+  if((length(checkpoint) > 0) && file.exists(checkpoint[1])){
+    saved = tryCatch(readRDS(checkpoint[1]), error=function(e){NULL})
+    if(!is.null(saved) && (saved$iterations == iterations) && (saved$done < iterations) && (ncol(saved$Astar) == cols-1)){
+      Astar = saved$Astar
+      Vstar = saved$Vstar
+      GGstar = saved$GGstar
+      XXstar = saved$XXstar
+      if(streaming){
+        stride = saved$stride
+        aSketch = saved$aSketch
+        vSketch = saved$vSketch
+        ggCount = saved$ggCount
+        xxCount = saved$xxCount
+      }
+      assign(".Random.seed", saved$random, envir=globalenv())
+      first = saved$done+1
+      progress(saved$done, iterations)
+    }
+  }
+  checkpointTime = proc.time()[[3]]
 
-for (i in 1:iterations) {
+  # Generate bootstrap data and fit DK model.
 
-  # Generate bootstrap data.
-  for (j in 1:rows) {
-    Yboot[j,]=rmultinom(1,rowTotals[j],maxPJ[j,])
-  }
+  for (i in first:iterations) {
 
-  # Fit DK model.
-  thetaboot0=log(c(A,V))
-  PHENOLboot=optim(thetaboot0,negloglike,NULL,method=opt,timeData,Yboot)
-  resultsboot=c(exp(PHENOLboot$par),PHENOLboot$val)
-  Astar[i,]=resultsboot[1:(cols-1)]
-  Vstar[i]=resultsboot[cols]
-
-  # Calculate the bootstrap values of the pj(ti)'s.
-  for (j in 1:cols) {
-    if(j==1) Pjboot[,j]=1/(1+exp(-(Astar[i,1]-timeData)/sqrt(Vstar[i]*timeData)))
-    if(j==cols) Pjboot[,j]=1/(1+exp((Astar[i,cols-1]-timeData)/sqrt(Vstar[i]*timeData)))
-    if((j>1)&(j<cols)) Pjboot[,j]=1/(1+exp(-(Astar[i,j]-timeData)/sqrt(Vstar[i]*timeData)))-
-                      1/(1+exp(-(Astar[i,j-1]-timeData)/sqrt(Vstar[i]*timeData)))
-    Pjboot[,j]=Pjboot[,j]*(Pjboot[,j]>0.00000001)+
-      0.00000001*(Pjboot[,j]<0.00000001)
-  }
+    # Generate bootstrap data.
+    for (j in 1:rows) {
+      Yboot[j,]=rmultinom(1,rowTotals[j],maxPJ[j,])
+    }
 
-  # Calculate the value of G-squared.
-  Yboot1=Yboot+1*(Yboot==0)
-  for (j in 1:cols) {
-    expectedBoot[,j]=rowTotals*Pjboot[,j]
+    # Fit DK model.
+    thetaboot0=log(c(A,V))
+    PHENOLboot=optim(thetaboot0,negloglike,NULL,method=bootOpt,timeData,Yboot)
+    resultsboot=c(exp(PHENOLboot$par),PHENOLboot$val)
+    aBoot=resultsboot[1:(cols-1)]
+    vBoot=resultsboot[cols]
+
+    # Calculate the bootstrap values of the pj(ti)'s.
+    for (j in 1:cols) {
+      if(j==1) Pjboot[,j]=1/(1+exp(-(aBoot[1]-timeData)/sqrt(vBoot*timeData)))
+      if(j==cols) Pjboot[,j]=1/(1+exp((aBoot[cols-1]-timeData)/sqrt(vBoot*timeData)))
+      if((j>1)&(j<cols)) Pjboot[,j]=1/(1+exp(-(aBoot[j]-timeData)/sqrt(vBoot*timeData)))-
+                        1/(1+exp(-(aBoot[j-1]-timeData)/sqrt(vBoot*timeData)))
+      Pjboot[,j]=Pjboot[,j]*(Pjboot[,j]>0.00000001)+
+        0.00000001*(Pjboot[,j]<0.00000001)
+    }
+
+    # Calculate the value of G-squared.
+    Yboot1=Yboot+1*(Yboot==0)
+    for (j in 1:cols) {
+      expectedBoot[,j]=rowTotals*Pjboot[,j]
+    }
+    ggBoot=2*sum(Yboot*(log(Yboot1)-log(expectedBoot)))
+    xxBoot=sum((Yboot-expectedBoot)^2/expectedBoot)
+
+    # Record the draws.
+    if(streaming){
+      for (j in 1:(cols-1)) {
+        aSketch[[j]]=sketchAdd(aSketch[[j]],aBoot[j])
+      }
+      vSketch=sketchAdd(vSketch,vBoot)
+      ggCount=ggCount+(GG<=ggBoot)
+      xxCount=xxCount+(XX<=xxBoot)
+      if(i %% stride == 0){
+        Astar=rbind(Astar,aBoot,deparse.level=0)
+        Vstar=c(Vstar,vBoot)
+        GGstar=c(GGstar,ggBoot)
+        XXstar=c(XXstar,xxBoot)
+        if(length(Vstar) >= 2*stream[1]){
+          keep=seq(2,length(Vstar),by=2)   # These are the draws whose index is a multiple of 2*stride.
+          Astar=Astar[keep,,drop=FALSE]
+          Vstar=Vstar[keep]
+          GGstar=GGstar[keep]
+          XXstar=XXstar[keep]
+          stride=stride*2
+        }
+      }
+    }else{
+      Astar[i,]=aBoot
+      Vstar[i]=vBoot
+      GGstar[i]=ggBoot
+      XXstar[i]=xxBoot
+    }
+
+    # Report the iteration along with the log likelihood of its fit.
+    progress(i, iterations, sum(lfactorial(rowTotals))-sum(lfactorial(Yboot))-PHENOLboot$value)
+
+    # Save the draws finished so far every checkpointEvery seconds.
+    if((length(checkpoint) > 0) && (i < iterations) && (proc.time()[[3]] - checkpointTime >= checkpointEvery)){
+      state=list(iterations=iterations, done=i, Astar=Astar, Vstar=Vstar, GGstar=GGstar, XXstar=XXstar,
+                 random=get(".Random.seed", envir=globalenv()))
+      if(streaming){
+        state=c(state, list(stride=stride, aSketch=aSketch, vSketch=vSketch, ggCount=ggCount, xxCount=xxCount))
+      }
+      saveCheckpoint(checkpoint[1], state)
+      checkpointTime = proc.time()[[3]]
+    }
   }
-  GGstar[i]=2*sum(Yboot*(log(Yboot1)-log(expectedBoot)))
-  XXstar[i]=sum((Yboot-expectedBoot)^2/expectedBoot)
-}
 
-# Calculate P-value for G-squared.
-GGpval=sum(GG<=GGstar)/iterations                         # Bootstrap GG P-value.
-GGpvalLow=GGpval-1.96*sqrt(GGpval*(1-GGpval)/iterations)  # Approx 95% CI for the bootstrap GG P-value.
-GGpvalHigh=GGpval+1.96*sqrt(GGpval*(1-GGpval)/iterations)  
-GGpvalCi=c(GGpvalLow,GGpvalHigh)                          # GG P-value confidence interval
+  # Calculate P-value for G-squared.
+  GGpval=if(streaming) ggCount/iterations else sum(GG<=GGstar)/iterations # Bootstrap GG P-value.
+  GGpvalLow=GGpval-1.96*sqrt(GGpval*(1-GGpval)/iterations)  # Approx 95% CI for the bootstrap GG P-value.
+  GGpvalHigh=GGpval+1.96*sqrt(GGpval*(1-GGpval)/iterations)  
+  GGpvalCi=c(GGpvalLow,GGpvalHigh)                          # GG P-value confidence interval
+
+  # Calculate P-value for X-squared.
+  XXpval=if(streaming) xxCount/iterations else sum(XX<=XXstar)/iterations # Bootstrap XX P-value.
+  XXpvalLow=XXpval-1.96*sqrt(XXpval*(1-XXpval)/iterations)  # Approx 95% CI for the bootstrap XX P-value.
+  XXpvalHigh=XXpval+1.96*sqrt(XXpval*(1-XXpval)/iterations)   
+  XXpvalCi=c(XXpvalLow,XXpvalHigh)                          # XX P-value confidence interval
+
+
+  # Calculate confidence intervals for parameters.
+  if(streaming){
+    # The same percentiles, estimated from the sketches.
+    aLow=sapply(aSketch, sketchRank, floor((alpha/2)*iterations))
+    aHigh=sapply(aSketch, sketchRank, ceiling((1-alpha/2)*iterations))
+    vLow=sketchRank(vSketch, floor((alpha/2)*iterations))
+    vHigh=sketchRank(vSketch, ceiling((1-alpha/2)*iterations))
+  }else{
+    for (i in 1:(cols-1)) {
+      AstartSorted[,i]=sort(Astar[,i]) # Sort the bootstrap parameters from smallest to largest, in preparation for calculating CIs.
+    }
 
-# Calculate P-value for X-squared.
-XXpval=sum(XX<=XXstar)/iterations                         # Bootstrap XX P-value.
-XXpvalLow=XXpval-1.96*sqrt(XXpval*(1-XXpval)/iterations)  # Approx 95% CI for the bootstrap XX P-value.
-XXpvalHigh=XXpval+1.96*sqrt(XXpval*(1-XXpval)/iterations)   
-XXpvalCi=c(XXpvalLow,XXpvalHigh)                          # XX P-value confidence interval
+    aLow=AstartSorted[floor((alpha/2)*iterations),]      # 100*(alpha/2)th percentiles for lower ends of CIs.
+    aHigh=AstartSorted[ceiling((1-alpha/2)*iterations),] # 100*(1-alpha/2)th percentiles for higher end of CIs.
 
+    VstarSorted=sort(Vstar)
+    vLow=VstarSorted[floor((alpha/2)*iterations)]
+    vHigh=VstarSorted[ceiling((1-alpha/2)*iterations)]
+  }
 
-# Calculate confidence intervals for parameters.
-for (i in 1:(cols-1)) {
-  AstartSorted[,i]=sort(Astar[,i]) # Sort the bootstrap parameters from smallest to largest, in preparation for calculating CIs.
-}
+  # The statistics are passed back to the program as a response file.
+  response = list(
+    iter=iterations,
+    alpha=alpha,
+    optim=opt,
+    gg=GG,
+    ggPval=GGpval,
+    ggci=GGpvalCi,
+    xx=XX,
+    xxPval=XXpval,
+    xxci=XXpvalCi,
+    a=A,
+    aLow=aLow,
+    aHigh=aHigh,
+    v=V,
+    vLow=vLow,
+    vHigh=vHigh,
+    aStar=Astar,
+    vStar=Vstar,
+    ggStar=GGstar,
+    xxStar=XXstar)
+  if(streaming){
+    # The sketches and counts let the program merge the shards of a split request.
+    response = c(response, list(
+      stream=stream[1],
+      stride=stride,
+      ggCount=ggCount,
+      xxCount=xxCount,
+      aSketch=do.call(rbind, lapply(1:(cols-1), function(j){m=sketchMatrix(aSketch[[j]]); cbind(rep(j, nrow(m)), m)})),
+      vSketch=sketchMatrix(vSketch)))
+  }
+  writeResponse(responseLoc, response)
 
-aLow=AstartSorted[floor((alpha/2)*iterations),]      # 100*(alpha/2)th percentiles for lower ends of CIs.
-aHigh=AstartSorted[ceiling((1-alpha/2)*iterations),] # 100*(1-alpha/2)th percentiles for higher end of CIs.
-
-VstarSorted=sort(Vstar)
-vLow=VstarSorted[floor((alpha/2)*iterations)]
-vHigh=VstarSorted[ceiling((1-alpha/2)*iterations)]
-
-# Create string representing the output file name and location.
-outpt = paste(toString(saveLoc[[1]]), "/statOutput.xml", sep="")
-
-# Create/truncate the file.
-file.create(outpt)
-
-write("<stats>", file = outpt, append = TRUE, sep = "\t")
-
-write(paste("\t<iter>",iterations,"</iter>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write(paste("\t<alpha>",alpha,"</alpha>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write(paste("\t<stages>",ncol(Astar),"</stages>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write(paste("\t<paramCount>",length(A) + 1,"</paramCount>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write(paste("\t<gg>",GG,"</gg>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write(paste("\t<ggPval>",GGpval,"</ggPval>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write("\t<ggci>",file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<low>",GGpvalCi[1],"</low>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<high>",GGpvalCi[2],"</high>",sep=""),file = outpt, append = TRUE, sep = "\t")
-write("\t</ggci>",file = outpt, append = TRUE, sep = "\t")
-write(paste("\t<optim>",opt,"</optim>",sep=""),file = outpt, append = TRUE, sep = "\t")
-# Output the Pearson Chi-squared test information. 
-write("\t<xx>", file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<stat>",XX,"</stat>",sep=""), file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<p>",XXpval,"</p>",sep=""), file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<low>",XXpvalLow,"</low>",sep=""), file = outpt, append = TRUE, sep = "\t")
-write(paste("\t\t<high>",XXpvalHigh,"</high>",sep=""), file = outpt, append = TRUE, sep = "\t")
-write("\t</xx>", file = outpt, append = TRUE, sep = "\t")
-if(AvalMat == 1) {
-	for(i in 1:length(A)){
-		write("\t<aparam>",file = outpt, append = TRUE, sep = "\t")
-		write(paste("\t\t<val>",A[i],"</val>",sep=""),file = outpt, append = TRUE, sep = "\t")
-		write(paste("\t\t<low>",aLow[i],"</low>",sep=""),file = outpt, append = TRUE, sep = "\t")
-		write(paste("\t\t<high>",aHigh[i],"</high>",sep=""),file = outpt, append = TRUE, sep = "\t")
-		write("\t</aparam>",file = outpt, append = TRUE, sep = "\t")
-	}
-	write("\t<vparam>",file = outpt, append = TRUE, sep = "\t")
-	write(paste("\t\t<val>",V,"</val>",sep=""),file = outpt, append = TRUE, sep = "\t")
-	write(paste("\t\t<low>",vLow,"</low>",sep=""),file = outpt, append = TRUE, sep = "\t")
-	write(paste("\t\t<high>",vHigh,"</high>",sep=""),file = outpt, append = TRUE, sep = "\t")
-	write("\t</vparam>",file = outpt, append = TRUE, sep = "\t")
-}
-if(AstarShow == 1) {
-	for(i in 1:nrow(Astar)) {
-		write("\t<aStar>",,file = outpt, append = TRUE, sep = "\t")
-		for(j in 1:ncol(Astar)) {
-			write(paste("\t\t<val>",Astar[i,j],"</val>",sep=""),file = outpt, append = TRUE, sep = "\t")
-		}
-		write("\t</aStar>",,file = outpt, append = TRUE, sep = "\t")
-	}
-}
-if(VstarShow == 1) {
-	for(i in 1:length(Vstar)) {
-		write(paste("\t<vStar>",Vstar[i],"</vStar>",sep=""),file = outpt, append = TRUE, sep = "\t")
-	}
-}
-if(GGstarShow == 1) {
-	for(i in 1:length(GGstar)) {
-		write(paste("\t<ggStar>",GGstar[i],"</ggStar>",sep=""),file = outpt, append = TRUE, sep = "\t")
-	}
+  # The run is complete, so its checkpoint is no longer needed.
+  if(length(checkpoint) > 0){
+    unlink(checkpoint[1])
+  }
 }
-write("</stats>", file = outpt, append = TRUE, sep = "\t")
@@ -0,0 +1,106 @@
+# This software is in the public domain. It was created by employees of the 
+# United States Department of Agriculture as part of their official duties. It 
+# is free and open for use and modification for any purpose without restriction 
+# or fee. 
+#
+#
+#                             ***Disclaimer***
+#
+# This is a free and open source software package provided by the Agricultural 
+# Research Service of the United States Department of Agriculture (USDA ARS) 
+# in the hopes that it will advance the common interest.
+#
+# ARS MAKES NO REPRESENTATION NOR EXTENDS ANY WARRANTIES OF ANY KIND, EITHER 
+# EXPRESS OR IMPLIED, OF MERCHANTABILITY OR FITNESS OF THE TECHNOLOGY IN THIS 
+# PROGRAM FOR ANY PARTICULAR PURPOSE, OR THAT THE USE OF THIS TECHNOLOGY WILL 
+# NOT INFRINGE ANY PATENT, COPYRIGHT, TRADEMARK, OR OTHER INTELLECTUAL 
+# PROPERTY RIGHTS, OR ANY OTHER EXPRESS OR IMPLIED WARRANTIES.
+
+#
+# Worker which runs the other scripts on behalf of the program.
+#
+# Starting R takes longer than many of the scripts do, and running one R process per request means batch
+# work can only use one core. Instead the program keeps a pool of these workers running (see ScriptPool)
+# and hands each one jobs over its standard input, one command per line with the fields separated by tabs:
+#
+#   run <script> <request> <response> - runs a script on a request file, exactly as if it had been called
+#                                        on the command line with the two file locations as arguments
+#   ping                               - asks the worker to show that it is still responsive
+#   quit                               - stops the worker
+#
+# Replies are written to standard output on lines starting with "@@stagecast" so that anything the
+# scripts print themselves can be told apart from them:
+#
+#   ready <pid>        - the worker has started and is waiting for jobs, along with its process ID,
+#                        which the program uses to watch its memory and to stop it if it runs too long
+#   done               - the last job finished
+#   error <message>    - the last job stopped with an error
+#   pong               - answer to ping
+#
+# Each job is sourced into a fresh environment, and the working directory and graphics devices are reset
+# afterwards, so no job can see what an earlier one left behind. The worker also stops when its standard
+# input is closed, so it never outlives the program.
+
+#-----------
+# Functions
+#-----------
+
+#
+# Function which writes a reply to the program.
+#
+# Takes:
+#   ... - fields of the reply
+#
+reply = function(...){
+   fields = gsub("[\t\r\n]", " ", c("@@stagecast", ...))
+   cat(paste(fields, collapse="\t"), "\n", sep="")
+   flush(stdout())
+}
+
+#
+# Function which runs a single job.
+#
+# Takes:
+#   script - location of the script to run
+#   request - location of the request file
+#   response - location the response should be written to
+#
+# Returns: Character vector holding the reply for the job.
+#
+runJob = function(script, request, response){
+   home = getwd()
+   options(stagecast.args = c(request, response))
+   result = tryCatch({
+      sys.source(script, envir=new.env(parent=globalenv()))
+      "done"
+   }, error=function(e){
+      c("error", conditionMessage(e))
+   })
+   graphics.off()
+   setwd(home)
+   options(stagecast.args = NULL)
+   invisible(gc())
+   return(result)
+}
+
+#------
+# Main
+#------
+
+input = file("stdin", "r")
+reply("ready", Sys.getpid())
+repeat {
+   line = readLines(input, n=1)
+   if(length(line) == 0) break # The program closed the pipe.
+   fields = strsplit(line, "\t", fixed=TRUE)[[1]]
+   if(length(fields) == 0) next
+   if(fields[1] == "quit") break
+   if(fields[1] == "ping"){
+      reply("pong")
+   }else if((fields[1] == "run")&(length(fields) == 4)){
+      do.call(reply, as.list(runJob(fields[2], fields[3], fields[4])))
+   }else{
+      reply("error", paste("Unknown command:", line))
+   }
+}
+close(input)
@@ -0,0 +1,286 @@
+package stagecast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Combines bootstrap runs of `stats.r` into a single result.
+ * ScriptManager.stats can split the bootstrap iterations of a statistics
+ * request into shards which run on separate R workers, each with its own
+ * random seed. Every shard answers with its own draws as well as p-values and
+ * intervals calculated from only those draws. This class joins the draws of
+ * all the shards back together and calculates the p-values and intervals again
+ * from the full set, in the same way `stats.r` does, so the merged response
+ * can be read exactly like the response of a single run.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class BootstrapSummary {
+
+    /**
+     * Joins number blocks from several responses end to end.
+     * @param shards The responses.
+     * @param name Name of the block.
+     * @return Every value of the block, in shard order.
+     */
+    private static double[] join(List<ScriptProtocol> shards, String name) {
+        int length = 0;
+        for(ScriptProtocol shard : shards) {
+            length += shard.getNumbers(name).length;
+        }
+        double[] ret = new double[length];
+        int pos = 0;
+        for(ScriptProtocol shard : shards) {
+            double[] values = shard.getNumbers(name);
+            System.arraycopy(values, 0, ret, pos, values.length);
+            pos += values.length;
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the lower end of a percentile interval.
+     * Matches `sorted[floor((alpha/2)*iterations)]` in `stats.r`.
+     * @param sorted Bootstrap draws sorted from smallest to largest.
+     * @param alpha Alpha value of the interval.
+     * @return The lower end, or NaN if there are too few draws to find it.
+     */
+    public static double lower(double[] sorted, double alpha) {
+        return pick(sorted, (int) Math.floor((alpha / 2) * sorted.length));
+    }
+
+    /**
+     * Converts a list of numbers to an array.
+     * @param values The numbers.
+     * @return The same numbers as an array.
+     */
+    private static double[] toArray(List<Double> values) {
+        double[] ret = new double[values.size()];
+        for(int i = 0; i < ret.length; i++) {
+            ret[i] = values.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the upper end of a percentile interval.
+     * Matches `sorted[ceiling((1-alpha/2)*iterations)]` in `stats.r`.
+     * @param sorted Bootstrap draws sorted from smallest to largest.
+     * @param alpha Alpha value of the interval.
+     * @return The upper end, or NaN if there are too few draws to find it.
+     */
+    public static double upper(double[] sorted, double alpha) {
+        return pick(sorted, (int) Math.ceil((1 - alpha / 2) * sorted.length));
+    }
+
+    /**
+     * Combines the responses of several shards of the same statistics request.
+     * The observed statistics and fitted parameters are the same in every
+     * shard and are taken from the first one.
+     * @param shards The responses, in shard order.
+     * @param alpha Alpha value to calculate intervals at.
+     * @return A response holding every draw along with the p-values and
+     * intervals calculated from them.
+     */
+    public static ScriptProtocol merge(List<ScriptProtocol> shards, double alpha) {
+        ScriptProtocol first = shards.get(0);
+        if(first.has("aSketch")) {
+            return mergeStreaming(shards, alpha);
+        }
+        ScriptProtocol ret = new ScriptProtocol(ScriptProtocol.RESPONSE);
+        double[] ggStar = join(shards, "ggStar");
+        double[] xxStar = join(shards, "xxStar");
+        double[] vStar = join(shards, "vStar");
+        int rows = 0;
+        int cols = first.getNumbers("a").length;
+        for(ScriptProtocol shard : shards) {
+            rows += shard.getMatrix("aStar").length;
+        }
+        double[][] aStar = new double[rows][];
+        int pos = 0;
+        for(ScriptProtocol shard : shards) {
+            for(double[] row : shard.getMatrix("aStar")) {
+                aStar[pos++] = row;
+            }
+        }
+        double gg = first.getNumber("gg");
+        double xx = first.getNumber("xx");
+        double ggPval = pValue(gg, ggStar);
+        double xxPval = pValue(xx, xxStar);
+        double[] aLow = new double[cols];
+        double[] aHigh = new double[cols];
+        double[] column = new double[rows];
+        for(int j = 0; j < cols; j++) {
+            for(int i = 0; i < rows; i++) {
+                column[i] = aStar[i][j];
+            }
+            Arrays.sort(column);
+            aLow[j] = lower(column, alpha);
+            aHigh[j] = upper(column, alpha);
+        }
+        double[] vSorted = vStar.clone();
+        Arrays.sort(vSorted);
+        ret.putNumbers("iter", ggStar.length);
+        ret.putNumbers("alpha", alpha);
+        ret.putStrings("optim", first.getStrings("optim"));
+        ret.putNumbers("gg", gg);
+        ret.putNumbers("ggPval", ggPval);
+        ret.putNumbers("ggci", pValueInterval(ggPval, ggStar.length));
+        ret.putNumbers("xx", xx);
+        ret.putNumbers("xxPval", xxPval);
+        ret.putNumbers("xxci", pValueInterval(xxPval, xxStar.length));
+        ret.putNumbers("a", first.getNumbers("a"));
+        ret.putNumbers("aLow", aLow);
+        ret.putNumbers("aHigh", aHigh);
+        ret.putNumbers("v", first.getNumber("v"));
+        ret.putNumbers("vLow", lower(vSorted, alpha));
+        ret.putNumbers("vHigh", upper(vSorted, alpha));
+        ret.putMatrix("aStar", aStar);
+        ret.putNumbers("vStar", vStar);
+        ret.putNumbers("ggStar", ggStar);
+        ret.putNumbers("xxStar", xxStar);
+        return ret;
+    }
+
+    /**
+     * Combines the responses of several shards of a streaming statistics 
+     * request.
+     * The shards hold quantile sketches rather than every draw. The sketches 
+     * of each parameter are merged and the intervals read from them at the 
+     * same ranks `stats.r` uses. The p-values are exact, since every shard 
+     * counts the draws at least as large as the observed statistics. Each 
+     * shard's sample of draws kept every stride'th draw, so the samples are 
+     * thinned to the largest stride before they are joined, keeping the 
+     * joined sample evenly spread over the shards.
+     * @param shards The responses, in shard order.
+     * @param alpha Alpha value to calculate intervals at.
+     * @return A response laid out like that of a single streaming run.
+     */
+    private static ScriptProtocol mergeStreaming(List<ScriptProtocol> shards, double alpha) {
+        ScriptProtocol first = shards.get(0);
+        ScriptProtocol ret = new ScriptProtocol(ScriptProtocol.RESPONSE);
+        int capacity = (int) first.getNumber("stream");
+        int cols = first.getNumbers("a").length;
+        long iterations = 0;
+        double ggCount = 0;
+        double xxCount = 0;
+        int stride = 1;
+        QuantileSketch[] aSketch = new QuantileSketch[cols];
+        QuantileSketch vSketch = new QuantileSketch(capacity);
+        for(int j = 0; j < cols; j++) {
+            aSketch[j] = new QuantileSketch(capacity);
+        }
+        for(ScriptProtocol shard : shards) {
+            iterations += (long) shard.getNumber("iter");
+            ggCount += shard.getNumber("ggCount");
+            xxCount += shard.getNumber("xxCount");
+            stride = Math.max(stride, (int) shard.getNumber("stride"));
+            for(double[] row : shard.getMatrix("aSketch")) {
+                aSketch[(int) row[0] - 1].add(row[1], (int) row[2]);
+            }
+            vSketch.merge(QuantileSketch.fromMatrix(shard.getMatrix("vSketch"), 0, 1, capacity));
+        }
+        List<double[]> aStar = new ArrayList<>();
+        List<Double> vStar = new ArrayList<>();
+        List<Double> ggStar = new ArrayList<>();
+        List<Double> xxStar = new ArrayList<>();
+        for(ScriptProtocol shard : shards) {
+            int step = stride / (int) shard.getNumber("stride");
+            double[][] rows = shard.getMatrix("aStar");
+            double[] v = shard.getNumbers("vStar");
+            double[] gg = shard.getNumbers("ggStar");
+            double[] xx = shard.getNumbers("xxStar");
+            for(int i = step - 1; i < v.length; i += step) {
+                aStar.add(rows[i]);
+                vStar.add(v[i]);
+                ggStar.add(gg[i]);
+                xxStar.add(xx[i]);
+            }
+        }
+        long low = (long) Math.floor((alpha / 2) * iterations);
+        long high = (long) Math.ceil((1 - alpha / 2) * iterations);
+        double[] aLow = new double[cols];
+        double[] aHigh = new double[cols];
+        for(int j = 0; j < cols; j++) {
+            aLow[j] = aSketch[j].rank(low);
+            aHigh[j] = aSketch[j].rank(high);
+        }
+        double ggPval = iterations == 0 ? Double.NaN : ggCount / iterations;
+        double xxPval = iterations == 0 ? Double.NaN : xxCount / iterations;
+        ret.putNumbers("iter", iterations);
+        ret.putNumbers("alpha", alpha);
+        ret.putStrings("optim", first.getStrings("optim"));
+        ret.putNumbers("gg", first.getNumber("gg"));
+        ret.putNumbers("ggPval", ggPval);
+        ret.putNumbers("ggci", pValueInterval(ggPval, (int) iterations));
+        ret.putNumbers("xx", first.getNumber("xx"));
+        ret.putNumbers("xxPval", xxPval);
+        ret.putNumbers("xxci", pValueInterval(xxPval, (int) iterations));
+        ret.putNumbers("a", first.getNumbers("a"));
+        ret.putNumbers("aLow", aLow);
+        ret.putNumbers("aHigh", aHigh);
+        ret.putNumbers("v", first.getNumber("v"));
+        ret.putNumbers("vLow", vSketch.rank(low));
+        ret.putNumbers("vHigh", vSketch.rank(high));
+        ret.putMatrix("aStar", aStar.toArray(new double[aStar.size()][]));
+        ret.putNumbers("vStar", toArray(vStar));
+        ret.putNumbers("ggStar", toArray(ggStar));
+        ret.putNumbers("xxStar", toArray(xxStar));
+        ret.putNumbers("stream", capacity);
+        ret.putNumbers("stride", stride);
+        ret.putNumbers("ggCount", ggCount);
+        ret.putNumbers("xxCount", xxCount);
+        double[][] vMatrix = vSketch.toMatrix();
+        List<double[]> aMatrix = new ArrayList<>();
+        for(int j = 0; j < cols; j++) {
+            for(double[] row : aSketch[j].toMatrix()) {
+                aMatrix.add(new double[] {j + 1, row[0], row[1]});
+            }
+        }
+        ret.putMatrix("aSketch", aMatrix.toArray(new double[aMatrix.size()][]));
+        ret.putMatrix("vSketch", vMatrix);
+        return ret;
+    }
+
+    /**
+     * Picks a value from a sorted array using R's 1-based indexing.
+     * @param sorted The sorted values.
+     * @param index 1-based index of the value.
+     * @return The value, or NaN if the index is outside the array.
+     */
+    private static double pick(double[] sorted, int index) {
+        if((index < 1) || (index > sorted.length)) {
+            return Double.NaN;
+        }
+        return sorted[index - 1];
+    }
+
+    /**
+     * Calculates a bootstrap p-value.
+     * @param observed The statistic calculated from the data.
+     * @param draws The statistic calculated from each bootstrap data set.
+     * @return The share of draws at least as large as the observed value.
+     */
+    public static double pValue(double observed, double[] draws) {
+        int count = 0;
+        for(double draw : draws) {
+            if(observed <= draw) {
+                count++;
+            }
+        }
+        return draws.length == 0 ? Double.NaN : (double) count / draws.length;
+    }
+
+    /**
+     * Calculates an approximate 95% interval for a bootstrap p-value.
+     * @param pValue The p-value.
+     * @param iterations Number of draws it was calculated from.
+     * @return The low and high ends of the interval.
+     */
+    public static double[] pValueInterval(double pValue, int iterations) {
+        double half = 1.96 * Math.sqrt(pValue * (1 - pValue) / iterations);
+        return new double[] {pValue - half, pValue + half};
+    }
+}
@@ -0,0 +1,165 @@
+package stagecast;
+
+/**
+ * Checks whether MCMC chains have converged.
+ * ScriptManager.stats runs each chain of an MCMC statistics run on its own
+ * R worker. The chains start at different points, so once they have all
+ * forgotten where they started they should look alike. The potential scale
+ * reduction factor, R-hat, compares the spread within the chains to the
+ * spread between them and comes close to 1 when they agree. The effective
+ * sample size, ESS, counts how many independent draws the autocorrelated
+ * draws are worth.
+ * <p>Both follow Gelman et al., Bayesian Data Analysis, 3rd edition, section
+ * 11.4 and 11.5. Each chain is split in half first, so that a chain which is
+ * still drifting also shows up as two halves that disagree.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class ChainDiagnostics {
+
+    /**
+     * Finds the autocovariance of a chain at a lag.
+     * @param chain The draws of the chain.
+     * @param mean Mean of the draws.
+     * @param lag The lag.
+     * @return The autocovariance, divided by the length of the chain.
+     */
+    private static double autocovariance(double[] chain, double mean, int lag) {
+        double sum = 0;
+        for(int i = 0; i + lag < chain.length; i++) {
+            sum += (chain[i] - mean) * (chain[i + lag] - mean);
+        }
+        return sum / chain.length;
+    }
+
+    /**
+     * Finds the variance between the means of the chains.
+     * @param means Mean of each chain.
+     * @param n Length of each chain.
+     * @return n times the sample variance of the means.
+     */
+    private static double between(double[] means, int n) {
+        double grand = 0;
+        for(double mean : means) {
+            grand += mean;
+        }
+        grand /= means.length;
+        double sum = 0;
+        for(double mean : means) {
+            sum += (mean - grand) * (mean - grand);
+        }
+        return n * sum / (means.length - 1);
+    }
+
+    /**
+     * Finds the effective sample size of one parameter.
+     * The autocorrelations of the chains are combined at each lag and
+     * summed in pairs of lags until a pair is no longer positive, as in
+     * Geyer's initial positive sequence.
+     * @param chains The draws of the parameter, one row per chain.
+     * @return The effective sample size, or NaN if the chains are too short
+     * or do not move.
+     */
+    public static double ess(double[][] chains) {
+        double[][] halves = split(chains);
+        if(halves == null) {
+            return Double.NaN;
+        }
+        int m = halves.length;
+        int n = halves[0].length;
+        double[] means = means(halves);
+        double within = within(halves, means);
+        double plus = (n - 1.0) / n * within + between(means, n) / n;
+        if(!(plus > 0)) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for(int lag = 0; lag + 1 < n; lag += 2) {
+            double pair = 0;
+            for(int t = lag; t <= lag + 1; t++) {
+                double covariance = 0;
+                for(int c = 0; c < m; c++) {
+                    covariance += autocovariance(halves[c], means[c], t);
+                }
+                pair += 1 - (within - covariance / m) / plus;
+            }
+            if(pair <= 0) {
+                break;
+            }
+            sum += pair;
+        }
+        return m * n / Math.max(2 * sum - 1, 1.0 / Math.log10(m * n));
+    }
+
+    /**
+     * Finds the mean of each chain.
+     * @param chains The draws, one row per chain.
+     * @return The mean of each row.
+     */
+    private static double[] means(double[][] chains) {
+        double[] ret = new double[chains.length];
+        for(int c = 0; c < chains.length; c++) {
+            for(double value : chains[c]) {
+                ret[c] += value;
+            }
+            ret[c] /= chains[c].length;
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the potential scale reduction factor of one parameter.
+     * @param chains The draws of the parameter, one row per chain.
+     * @return R-hat, or NaN if the chains are too short or do not move.
+     */
+    public static double rHat(double[][] chains) {
+        double[][] halves = split(chains);
+        if(halves == null) {
+            return Double.NaN;
+        }
+        int n = halves[0].length;
+        double[] means = means(halves);
+        double within = within(halves, means);
+        double plus = (n - 1.0) / n * within + between(means, n) / n;
+        return within > 0 ? Math.sqrt(plus / within) : Double.NaN;
+    }
+
+    /**
+     * Splits each chain in half.
+     * If a chain has an odd number of draws its middle draw is dropped.
+     * @param chains The draws, one row per chain, all the same length.
+     * @return Twice as many chains, each half as long, or null if there
+     * would be fewer than 2 draws in each.
+     */
+    private static double[][] split(double[][] chains) {
+        if((chains.length == 0) || (chains[0].length < 4)) {
+            return null;
+        }
+        int half = chains[0].length / 2;
+        double[][] ret = new double[2 * chains.length][half];
+        for(int c = 0; c < chains.length; c++) {
+            System.arraycopy(chains[c], 0, ret[2 * c], 0, half);
+            System.arraycopy(chains[c], chains[c].length - half, ret[2 * c + 1], 0, half);
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the mean of the variances within the chains.
+     * @param chains The draws, one row per chain.
+     * @param means Mean of each chain.
+     * @return The mean sample variance of the chains.
+     */
+    private static double within(double[][] chains, double[] means) {
+        double sum = 0;
+        for(int c = 0; c < chains.length; c++) {
+            double squares = 0;
+            for(double value : chains[c]) {
+                squares += (value - means[c]) * (value - means[c]);
+            }
+            sum += squares / (chains[c].length - 1);
+        }
+        return sum / chains.length;
+    }
+}
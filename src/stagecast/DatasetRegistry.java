@@ -0,0 +1,143 @@
+package stagecast;
+
+import data.DatabaseObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Keeps loaded database descriptions in memory.
+ * Reading a `[x].about.xml` file requires a full DOM parse and the GUI asks for
+ * the same database many times over the course of a single user action. This
+ * class holds every DatabaseObject which has been read or written by
+ * XmlManager, indexed by the location of its about file. An entry is only
+ * served while the modification time and length of the file on disk match the
+ * values recorded when the entry was stored, so edits made to the file outside
+ * of the program are still picked up on the next read.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note Callers are handed copies of the stored objects. The GUI edits the
+ * objects it is given (e.g. renaming stages) before passing them back to
+ * XmlManager.updateDatabaseFile, so sharing the stored instance would let a
+ * failed save leave the registry out of step with the disk.
+ */
+public class DatasetRegistry {
+    /**
+     * @brief A stored database along with the file state it was read from.
+     */
+    private static class Entry {
+        DatabaseObject database; /*!< The stored database description. */
+        long length; /*!< Length of the about file when the entry was stored. */
+        long modified; /*!< Modification time of the about file when the entry was stored. */
+    }
+
+    private static final HashMap<String, Entry> entries = new HashMap<>(); /*!< Stored databases, indexed by the canonical location of their about file. */
+
+    /**
+     * Removes every stored database.
+     */
+    public static synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Copies a DatabaseObject.
+     * @param src Object to copy.
+     * @return A copy of the object which shares no arrays with the original.
+     */
+    private static DatabaseObject copy(DatabaseObject src) {
+        DatabaseObject ret = new DatabaseObject();
+        ret.date = src.date;
+        ret.location = src.location;
+        ret.name = src.name;
+        ret.size = src.size;
+        ret.stages = src.stages;
+        ret.time = src.time;
+        ret.type = src.type;
+        if(src.memberChecksums != null) {
+            ret.memberChecksums = src.memberChecksums.clone();
+        }
+        if(src.memberLocations != null) {
+            ret.memberLocations = src.memberLocations.clone();
+        }
+        if(src.memberModified != null) {
+            ret.memberModified = src.memberModified.clone();
+        }
+        if(src.memberNames != null) {
+            ret.memberNames = src.memberNames.clone();
+        }
+        if(src.memberRows != null) {
+            ret.memberRows = src.memberRows.clone();
+        }
+        if(src.memberStages != null) {
+            ret.memberStages = src.memberStages.clone();
+        }
+        return ret;
+    }
+
+    /**
+     * Requests a stored database.
+     * @param target Location of the about file describing the database.
+     * @return A copy of the stored database, or null if nothing is stored for
+     * the location or the file has changed since it was stored.
+     */
+    public static synchronized DatabaseObject get(String target) {
+        String key = key(target);
+        Entry entry = entries.get(key);
+        if(entry == null) {
+            return null;
+        }
+        File file = new File(key);
+        if((!file.exists())||(file.lastModified() != entry.modified)||(file.length() != entry.length)) {
+            entries.remove(key);
+            return null;
+        }
+        return copy(entry.database);
+    }
+
+    /**
+     * Drops the stored database for a location, if any.
+     * @param target Location of the about file describing the database.
+     */
+    public static synchronized void invalidate(String target) {
+        entries.remove(key(target));
+    }
+
+    /**
+     * Finds the key used to index a location.
+     * The same database is referred to by relative and absolute paths as well
+     * as with mixed separators on Windows, so the canonical form is used.
+     * @param target Location of the about file.
+     * @return The canonical path of the location.
+     */
+    private static String key(String target) {
+        File file = new File(target);
+        try {
+            return file.getCanonicalPath();
+        } catch(IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Stores a database.
+     * This should be called only after the about file has been written to
+     * disk so that the recorded file state matches what was stored.
+     * @param target Location of the about file describing the database.
+     * @param database The database read from or written to the location.
+     */
+    public static synchronized void put(String target, DatabaseObject database) {
+        String key = key(target);
+        File file = new File(key);
+        if((database == null)||(!file.exists())) {
+            entries.remove(key);
+            return;
+        }
+        Entry entry = new Entry();
+        entry.database = copy(database);
+        entry.length = file.length();
+        entry.modified = file.lastModified();
+        entries.put(key, entry);
+    }
+}
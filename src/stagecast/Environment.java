@@ -0,0 +1,102 @@
+package stagecast;
+
+import data.DatabaseObject;
+import data.ImportationObject;
+import data.SettingsObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepares the working directory the program runs in.
+ * Both StageCast, before it opens the main window, and Headless, before it 
+ * runs a command, call setup() to create the directories, scripts, and 
+ * settings the rest of the program expects. This class must not depend on 
+ * JavaFX, since Headless may run without it.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research 
+ * Service (US Government Public Domain)
+ */
+public class Environment {
+    
+    /**
+     * Sets up and validates initial runtime environment.
+     * This method is used to establish the existence of certain local 
+     * directories that the program uses during the course of its operation, as 
+     * well as loads any previously-saved settings. It will create any missing 
+     * folder. Any script missing from `./Scripts` is copied there from the 
+     * program's defaults.
+     * @note If it detects there is no existing settings file, it will create 
+     * one and load a default dataset if the raw input files are present.
+     * @note Any future runtime checks should be added to this method.
+     * @return The loaded settings, or null if the environment could not be 
+     * set up.
+     */
+    public static SettingsObject setup() {
+        SettingsObject settings;
+        String directories[] = {"./SavedData/Weather", "./SavedData/Organisms", "./SavedData/Figures", "./Raw/Weather", "./Raw/Organisms", "./Temp/Figures", "./Temp/Figures/Graph", "./Temp/Figures/Forecast", "./Temp/Cache", "./Temp/Jobs"};
+        for(String directory : directories) {
+            File dir = new File(directory);
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+        }
+        File dir = new File("./Scripts");
+        dir.mkdirs();
+        String scripts[] = {"graph.r", "model.r", "stats.r", "forecast.r", "worker.r"};
+        for(String script : scripts) {
+            File file = new File(dir, script);
+            if(!file.exists()) {
+                try (InputStream defStream = Environment.class.getResource("/etc/scripts/" + script).openStream()) {
+                    Files.copy(defStream, file.toPath());
+                } catch (IOException ex) {
+                    Logger.getLogger(Environment.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        
+        File settingsFile = new File("settings.xml");
+        if(!settingsFile.exists()) {
+            settings = XmlManager.loadSettings();
+            if ((new File("Raw/Organisms/almondData.txt").exists())&&(new File("Raw/Weather/almondWeather.txt").exists())) {
+                File defaultDataset = new File("Raw/Organisms/almondData.txt");
+                ImportationObject io = Importer.autoLoad(defaultDataset.getAbsolutePath(), true);
+                io.destination = (new File("SavedData/Organisms")).getAbsolutePath();
+                Importer.save(io);
+                DatabaseObject datasetInfo = XmlManager.readDatabaseFile(io.destination + "/" + io.datasetName + ".about.xml");
+                settings.organismCount++;
+                settings.organismLocations.add(datasetInfo.location);
+                settings.organismNames.add(datasetInfo.name);
+                settings.loadedOrganism = datasetInfo.location;
+                defaultDataset = new File("Raw/Weather/almondWeather.txt");
+                io = Importer.autoLoad(defaultDataset.getAbsolutePath(), false);
+                io.destination = (new File("SavedData/Weather")).getAbsolutePath();
+                Importer.save(io);
+                datasetInfo = XmlManager.readDatabaseFile(io.destination + "/" + io.datasetName + ".about.xml");
+                settings.weatherCount++;
+                settings.weatherLocations.add(datasetInfo.location);
+                settings.weatherNames.add(datasetInfo.name);
+                settings.loadedWeather = datasetInfo.location;
+            }
+        } else {
+            settings = XmlManager.loadSettings();
+        }
+        if(settings != null) {
+            ResultCache.setLimit(settings.cacheSize);
+            ScriptPool.configure(settings.workerCount, settings.workerJobs);
+            StatsCluster.configure(settings.statsWorkers);
+            Watchdog.setBudget("", settings.scriptTimeout, settings.scriptMemory);
+            File file = new File(settings.defaultModelLocation);
+            if(!file.exists()) {
+                XmlManager.saveModels(settings.defaultModelLocation, null);
+                settings.defaultModelLocation = new File(settings.defaultModelLocation).getAbsolutePath();
+            }
+        } else {
+            ErrorManager.error("Unable to start, failed to load settings","Environment.setup could not initialize program environment.", null);
+        }
+        return settings;
+    }
+}
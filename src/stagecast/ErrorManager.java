@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.Date;
+import javafx.application.Platform;
 import windows.ErrorWindow;
 
 /**
@@ -37,6 +38,10 @@ import windows.ErrorWindow;
  * value. The @ref log function is called directly for errors in window creation 
  * as the failure to open a JavaFX window in one case could indicate that this 
  * class could not successfully open one either.</p>
+ * <p>When the program runs without a display, from Headless, the class is put 
+ * in headless mode. Errors and warnings are then written to standard error 
+ * instead of being shown in a window, and log messages are also written to 
+ * standard error so that standard output holds only the program's results.</p>
  * @author Ian Yocum
  * @date 5/31/2013
  * @copyright United States Department of Agriculture Agricultural Research 
@@ -45,6 +50,8 @@ import windows.ErrorWindow;
  * @todo Possibly implement a priority system.
  */
 public class ErrorManager {
+    private static volatile boolean headless = false; /*!< True if messages are written to standard error instead of shown in windows. */
+    
     /**
      * Shows an error to the user without including a technical explanation.
      * @param msg The non-technical message about what has gone wrong.
@@ -63,8 +70,7 @@ public class ErrorManager {
      */
     public static void error(String msg, String details, Exception e) {
         ErrorManager.log(msg + " " + details, e);
-        ErrorWindow win = new ErrorWindow("Error", msg, details, e);
-        win.show();
+        show("Error", msg, details, e);
     }
         
     /**
@@ -72,8 +78,12 @@ public class ErrorManager {
      * @param msg The message about the error to be output on the command line.
      * @param err The exception to be logged to disk.
      */
-    public static void log(String msg, Exception err) {
-        System.out.println(msg + " " + err);
+    public static synchronized void log(String msg, Exception err) {
+        if(headless) {
+            System.err.println(msg + " " + err);
+        } else {
+            System.out.println(msg + " " + err);
+        }
         try {
             try (BufferedWriter outpt = new BufferedWriter(new OutputStreamWriter(new FileOutputStream ("log.txt", true)))) {
                 Date date = new Date();
@@ -85,6 +95,15 @@ public class ErrorManager {
         }
     }
     
+    /**
+     * Turns headless mode on or off.
+     * JavaFX is never started in headless mode, so no window may be shown.
+     * @param value True to write messages to standard error.
+     */
+    public static void setHeadless(boolean value) {
+        headless = value;
+    }
+    
     /**
      * Warns the user of some problem which does not need to be logged and does 
      * not cause problems to the program's normal functions.
@@ -92,7 +111,35 @@ public class ErrorManager {
      * @param details The technical explanation of the warning.
      */
     public static void warn(String msg, String details) {
-        ErrorWindow win = new ErrorWindow("Warning", msg, details, null);
-        win.show();
+        show("Warning", msg, details, null);
+    }
+    
+    /**
+     * Shows an ErrorWindow on the JavaFX application thread.
+     * Script operations run on background threads and report their errors 
+     * through this class, but windows may only be created on the application 
+     * thread. When called from any other thread the window is queued to be 
+     * shown there and this method returns at once. In headless mode the 
+     * message is written to standard error instead.
+     * @param title Title of the window.
+     * @param msg The non-technical message.
+     * @param details The technical message.
+     * @param e The exception which occurred, or null.
+     */
+    private static void show(final String title, final String msg, final String details, final Exception e) {
+        if(headless) {
+            System.err.println(title + ": " + msg + ((details == null) || details.isEmpty() ? "" : " " + details));
+        } else if(Platform.isFxApplicationThread()) {
+            ErrorWindow win = new ErrorWindow(title, msg, details, e);
+            win.show();
+        } else {
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    ErrorWindow win = new ErrorWindow(title, msg, details, e);
+                    win.show();
+                }
+            });
+        }
     }
 }
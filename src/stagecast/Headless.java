@@ -0,0 +1,1239 @@
+package stagecast;
+
+import data.DatabaseObject;
+import data.DesignObject;
+import data.ForecastObject;
+import data.GraphObject;
+import data.ImportationObject;
+import data.ModelObject;
+import data.ProgressObject;
+import data.SettingsObject;
+import data.StatsObject;
+import data.SweepObject;
+import data.ValidationObject;
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the program from the command line without a display.
+ * Each command does the same work as the matching part of the GUI, through
+ * Importer, XmlManager, and ScriptManager, but JavaFX is never started and
+ * ErrorManager is put in headless mode so that no window is shown. This lets
+ * scripts on a server import datasets, fit models, run statistics, and draw
+ * figures in bulk. The commands are:
+ * - `import organism|weather [file]` imports a raw data file.
+ * - `list` lists the stored datasets and models.
+ * - `model` fits a model to an organism and a weather dataset.
+ * - `collapse` searches for the best way of merging stages.
+ * - `joint` fits several members of an organism dataset at once, each with
+ *   its own A values and a shared V.
+ * - `refit` fits a stored model again to its grown datasets.
+ * - `stats` runs the statistics of a stored model.
+ * - `graph` draws the figures of a stored model.
+ * - `forecast` draws the forecast figures of a stored model.
+ * - `sweep` finds how sensitive a forecast is to each parameter and
+ *   threshold of a stored model.
+ * - `validate` cross-validates a stored model on its sampling dates.
+ * - `design` simulates sampling designs from a stored model to find how
+ *   precisely each would estimate it.
+ * - `serve` answers the same requests over HTTP, through Server, until the
+ *   program is stopped.
+ * - `worker` runs the statistics shards sent by other copies of the program,
+ *   through StatsCluster, until the program is stopped.
+ *
+ * Options follow the command as `--name value`, and an option given without a
+ * value is read as true. The options of `graph` and `forecast` have the names
+ * of the fields of GraphObject and ForecastObject and default to the values
+ * shown in the main window. Results are written to standard output as JSON,
+ * or as tab separated `name value...` lines with `--format tsv`. Messages and
+ * progress, with `--progress`, go to standard error.
+ * <p>The exit code is EXIT_OK if the command succeeded, EXIT_USAGE if the
+ * command line was not valid, and EXIT_FAILED if the command was run but did
+ * not succeed.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note The settings are saved after every command, as they are when the main
+ * window is closed, and models fitted or given statistics are saved to the
+ * model database. Neither is saved if `--save false` is given. Several
+ * copies of the program saving to the same database at once may lose each
+ * other's models.
+ */
+public class Headless {
+    /**
+     * @brief A parsed command line.
+     */
+    static class Arguments {
+        String command; /*!< Name of the command. */
+        HashMap<String, String> options = new HashMap<>(); /*!< Values of the options, indexed by name without the leading dashes. */
+        ArrayList<String> positional = new ArrayList<>(); /*!< Arguments given between the command and the first option. */
+
+        /**
+         * Requests a yes/no option.
+         * @param name Name of the option.
+         * @param def Value used if the option is not given.
+         * @return The option's value.
+         * @throws IllegalArgumentException If the value is not true, false,
+         * yes, or no.
+         */
+        boolean flag(String name, boolean def) {
+            String value = options.get(name);
+            if(value == null) {
+                return def;
+            }
+            if(value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes")) {
+                return true;
+            }
+            if(value.equalsIgnoreCase("false") || value.equalsIgnoreCase("no")) {
+                return false;
+            }
+            throw new IllegalArgumentException("--" + name + " must be true or false, not " + value + ".");
+        }
+
+        /**
+         * Requests an option.
+         * @param name Name of the option.
+         * @param def Value used if the option is not given.
+         * @return The option's value.
+         */
+        String get(String name, String def) {
+            String value = options.get(name);
+            return value == null ? def : value;
+        }
+
+        /**
+         * Requests an option holding a comma separated list.
+         * @param name Name of the option.
+         * @return The items of the list, or null if the option is not given.
+         */
+        String[] list(String name) {
+            String value = options.get(name);
+            if(value == null) {
+                return null;
+            }
+            String[] ret = value.split(",");
+            for(int i = 0; i < ret.length; i++) {
+                ret[i] = ret[i].trim();
+            }
+            return ret;
+        }
+
+        /**
+         * Requests a numeric option.
+         * @param name Name of the option.
+         * @param def Value used if the option is not given.
+         * @return The option's value as text, as it is passed to the scripts.
+         * @throws IllegalArgumentException If the value is not a number.
+         */
+        String number(String name, String def) {
+            String value = get(name, def);
+            try {
+                Double.parseDouble(value);
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be a number, not " + value + ".");
+            }
+            return value;
+        }
+
+        /**
+         * Requests an option which must be given.
+         * @param name Name of the option.
+         * @return The option's value.
+         * @throws IllegalArgumentException If the option is not given.
+         */
+        String require(String name) {
+            String value = options.get(name);
+            if((value == null) || value.isEmpty()) {
+                throw new IllegalArgumentException("--" + name + " is required by " + command + ".");
+            }
+            return value;
+        }
+    }
+
+    public static final int EXIT_FAILED = 1; /*!< Exit code of a command which was run but did not succeed. */
+    public static final int EXIT_OK = 0; /*!< Exit code of a command which succeeded. */
+    public static final int EXIT_USAGE = 2; /*!< Exit code of a command line which is not valid. */
+    private static final String[] COMMANDS = {"collapse", "design", "forecast", "graph", "help", "import", "joint", "list", "model", "refit", "serve", "stats", "sweep", "validate", "worker"}; /*!< Names of the commands. */
+    private static final String[] OPTIMIZERS = {"Nelder-Mead", "BFGS", "CG", "L-BFGS-B", "SANN", "Multi-start", "Differential Evolution"}; /*!< Optimization methods offered by `model.r`. */
+    private static final String USAGE = "Usage: StageCast <command> [options]\n"
+            + "  import organism|weather <file> [--name N] [--destination DIR]\n"
+            + "  list\n"
+            + "  model --organism N --weather N [--members a,b] [--stageMap 0:0,1:1] [--optim M] [--params p,p] [--lower 4] [--upper 40] [--fitThresholds true|false] [--name N]\n"
+            + "  collapse --organism N --weather N [--members a,b] [--optim M] [--lower 4] [--upper 40] [--top 10] [--name N]\n"
+            + "  joint --organism N --weather N [--members a,b] [--stageMap 0:0,1:1] [--optim M] [--params p,p] [--lower 4] [--upper 40] [--name N]\n"
+            + "  refit --model N [--weather N] [--name N]\n"
+            + "  stats --model N [--organism N] [--weather N] [--iterations 1000] [--alpha 0.05] [--method bootstrap|profile|mcmc] [--chains 4] [--thin 10]\n"
+            + "  graph --model N [--organism N] [--weather N] [--output DIR] [GraphObject fields]\n"
+            + "  forecast --model N [--organism N] [--weather N] [--output DIR] [ForecastObject fields]\n"
+            + "  sweep --model N [--weather N] [--proportionStage 1] [--proportionPercent 50] [--spread 0.1] [--thresholdSpread 2] [--random true|false] [--points 11] [--samples 1000] [--output DIR]\n"
+            + "  validate --model N [--weather N] [--folds 5|all]\n"
+            + "  design --model N [--weather N] [--start DAY] [--end DAY] [--intervals 7,14] [--insects 25,50] [--simulations 1000] [--output DIR]\n"
+            + "  serve [--host 127.0.0.1] [--port 8080] [--jobs N] [--queue 64]\n"
+            + "  worker [--host 127.0.0.1] [--port 8091]\n"
+            + "Every command takes --format json|tsv, --progress, and --save true|false.\n"; /*!< Summary of the command line. */
+
+    /**
+     * Runs the `collapse` command.
+     * Every way of merging neighboring stages is fitted and the fits are 
+     * listed by AIC, best first. The best fit is saved as a model.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the search, or null.
+     * @return The best model and the ranked fits, or null if the search could 
+     * not be run.
+     */
+    static LinkedHashMap<String, Object> collapse(SettingsObject settings, Arguments args, ProgressListener listener) {
+        DatabaseObject organism = dataset(settings.organismNames, settings.organismLocations, args.require("organism"), "organism");
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.require("weather"), "weather");
+        ModelObject request = new ModelObject();
+        request.OrganismFiles = members(organism, args);
+        request.organismCount = request.OrganismFiles.length;
+        request.OrganismDatabaseLocation = organism.location;
+        request.OrganismDatabaseName = organism.name;
+        request.weatherDatabaseLocation = weather.memberLocations[0];
+        request.weatherDatabaseName = weather.name;
+        request.optim = args.get("optim", "Nelder-Mead");
+        if(!Arrays.asList(OPTIMIZERS).contains(request.optim)) {
+            throw new IllegalArgumentException("--optim must be one of " + Arrays.toString(OPTIMIZERS) + ".");
+        }
+        thresholds(request, args);
+        int top = (int) Double.parseDouble(args.number("top", "10"));
+        ArrayList<ModelObject> fits = ScriptManager.searchStageMaps(request, listener);
+        if((fits == null) || fits.isEmpty()) {
+            return null;
+        }
+        ModelObject best = fits.get(0);
+        DateFormat dateFormat = new SimpleDateFormat("MM.dd.HH.mm.ss");
+        best.name = args.get("name", "Model-" + dateFormat.format(new Date()));
+        if(args.flag("save", true)) {
+            save(settings, best, false);
+        }
+        List<LinkedHashMap<String, Object>> ranking = new ArrayList<>();
+        for(int i = 0; (i < fits.size()) && (i < top); i++) {
+            LinkedHashMap<String, Object> row = new LinkedHashMap<>();
+            row.put("rank", i + 1);
+            row.put("stageMap", fits.get(i).stageMap);
+            row.put("aic", fits.get(i).aic);
+            row.put("logLikelihood", fits.get(i).logLikelihood);
+            row.put("params", fits.get(i).params);
+            ranking.add(row);
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("searched", fits.size());
+        ret.put("best", describe(best));
+        ret.put("ranking", ranking);
+        return ret;
+    }
+
+    /**
+     * Finds a stored dataset by name.
+     * @param names Names of the stored datasets.
+     * @param locations Locations of their about files.
+     * @param name Name of the dataset.
+     * @param type Kind of dataset, used in messages.
+     * @return The dataset.
+     * @throws IllegalArgumentException If there is no dataset of that name or
+     * it can not be read.
+     */
+    static DatabaseObject dataset(List<String> names, List<String> locations, String name, String type) {
+        int index = names.lastIndexOf(name);
+        if(index < 0) {
+            throw new IllegalArgumentException("There is no " + type + " dataset named " + name + ".");
+        }
+        DatabaseObject ret = XmlManager.readDatabaseFile(locations.get(index));
+        if(ret == null) {
+            throw new IllegalArgumentException("The " + type + " dataset " + name + " could not be read.");
+        }
+        return ret;
+    }
+
+    /**
+     * Describes a dataset.
+     * @param database The dataset.
+     * @return The dataset's fields by name.
+     */
+    static LinkedHashMap<String, Object> describe(DatabaseObject database) {
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("name", database.name);
+        ret.put("type", database.type);
+        ret.put("location", database.location);
+        ret.put("date", database.date);
+        ret.put("time", database.time);
+        ret.put("stages", database.stages);
+        ret.put("members", database.memberNames);
+        ret.put("stageNames", database.memberStages);
+        return ret;
+    }
+
+    /**
+     * Describes a model.
+     * @param model The model.
+     * @return The model's fields by name.
+     */
+    static LinkedHashMap<String, Object> describe(ModelObject model) {
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("name", model.name);
+        ret.put("date", model.date);
+        ret.put("time", model.time);
+        ret.put("organism", model.OrganismDatabaseName);
+        ret.put("weather", model.weatherDatabaseName);
+        ret.put("optim", model.optim);
+        ret.put("params", model.params);
+        ret.put("logLikelihood", model.logLikelihood);
+        ret.put("aic", model.aic);
+        ret.put("starts", model.starts);
+        ret.put("startsAgreed", model.startsAgreed);
+        ret.put("parent", model.parent);
+        ret.put("joint", model.joint);
+        ret.put("jointLogLikelihood", model.jointLogLikelihood);
+        ret.put("jointAic", model.jointAic);
+        ret.put("lower", model.lower);
+        ret.put("upper", model.upper);
+        ret.put("fitThresholds", model.fitThresholds);
+        ret.put("stageMap", model.stageMap);
+        ret.put("organismFiles", model.OrganismFiles);
+        return ret;
+    }
+
+    /**
+     * Describes the statistics of a model.
+     * @param stats The statistics.
+     * @return The statistics by name.
+     */
+    static LinkedHashMap<String, Object> describe(StatsObject stats) {
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("iterations", stats.iterations);
+        ret.put("alpha", stats.alpha);
+        ret.put("method", stats.method);
+        ret.put("optim", stats.optim);
+        ret.put("gg", stats.gg);
+        ret.put("ggPval", stats.ggPval);
+        ret.put("ggci", stats.ggci);
+        ret.put("xx", stats.xx);
+        ret.put("xxPval", stats.xxPval);
+        ret.put("xxci", new String[] {stats.xxLow, stats.xxHigh});
+        ret.put("a", stats.a);
+        ret.put("aLow", stats.aLow);
+        ret.put("aHigh", stats.aHigh);
+        ret.put("v", stats.v);
+        ret.put("vLow", stats.vLow);
+        ret.put("vHigh", stats.vHigh);
+        ret.put("stageMap", stats.stageMap);
+        if(stats.method.equals("MCMC")) {
+            ret.put("chains", stats.chains);
+            ret.put("thin", stats.thin);
+            ret.put("accept", stats.accept);
+            ret.put("rHat", stats.rHat);
+            ret.put("ess", stats.ess);
+        }
+        return ret;
+    }
+
+    /**
+     * Describes the cross-validation of a model.
+     * @param validation The cross-validation.
+     * @return The cross-validation by name.
+     */
+    static LinkedHashMap<String, Object> describe(ValidationObject validation) {
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("folds", validation.folds);
+        ret.put("optim", validation.optim);
+        ret.put("converged", validation.converged);
+        ret.put("failed", validation.failed);
+        ret.put("heldOutLogLikelihood", validation.log);
+        ret.put("rmse", validation.rmse);
+        ret.put("mae", validation.mae);
+        ret.put("foldDates", validation.foldDates);
+        ret.put("foldLogLikelihood", validation.foldLog);
+        ret.put("foldRmse", validation.foldRmse);
+        ret.put("foldMae", validation.foldMae);
+        return ret;
+    }
+
+    /**
+     * Runs the `design` command.
+     * The first and last sampling day default to those of the model's 
+     * organism dataset. Every interval is crossed with every number of 
+     * individuals per day. The summary of each design is written to 
+     * `design.tsv` in the output directory, and the result holds the same 
+     * summary.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the simulations, or null.
+     * @return The summary of every design, or null if the simulations could 
+     * not be run.
+     */
+    static LinkedHashMap<String, Object> design(SettingsObject settings, Arguments args, ProgressListener listener) {
+        ModelObject model = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", model.weatherDatabaseName), "weather");
+        String start = args.get("start", null);
+        String end = args.get("end", null);
+        if((start == null) || (end == null)) {
+            try {
+                double[][] species = ScriptProtocol.readOrganisms(model.OrganismFiles);
+                start = args.get("start", ScriptProtocol.format(species[0][0]));
+                end = args.get("end", ScriptProtocol.format(species[species.length - 1][0]));
+            } catch(IOException | RuntimeException e) {
+                ErrorManager.error("Design simulation failed.", "Headless.design could not read the organism dataset of " + model.name + " to find its sampling days. Give --start and --end instead.", e);
+                return null;
+            }
+        }
+        int first = (int) Double.parseDouble(args.number("start", start));
+        int last = (int) Double.parseDouble(args.number("end", end));
+        int[] intervals = integers(args, "intervals", "7");
+        int[] insects = integers(args, "insects", "50");
+        DesignObject design = new DesignObject();
+        design.simulations = (int) Double.parseDouble(args.number("simulations", String.valueOf(design.simulations)));
+        if((first < 1) || (last < first) || (design.simulations < 2)) {
+            throw new IllegalArgumentException("--start must be at least 1, --end at least --start, and --simulations at least 2.");
+        }
+        SamplingDesign.layout(design, first, last, intervals, insects);
+        String out = output(args, settings.defaultTempForecastOutput);
+        DesignObject result = ScriptManager.design(model, weather, design, listener);
+        if(result == null) {
+            return null;
+        }
+        File table = new File(out, "design.tsv");
+        try {
+            SamplingDesign.write(result, table.getPath());
+        } catch(IOException e) {
+            ErrorManager.error("Design simulation failed.", "Headless.design could not write " + table.getAbsolutePath() + ".", e);
+            return null;
+        }
+        List<LinkedHashMap<String, Object>> designs = new ArrayList<>();
+        for(int d = 0; d < result.days.length; d++) {
+            double[] days = result.days[d];
+            LinkedHashMap<String, Object> row = new LinkedHashMap<>();
+            row.put("first", days[0]);
+            row.put("last", days[days.length - 1]);
+            row.put("interval", days.length > 1 ? days[1] - days[0] : 0);
+            row.put("days", days.length);
+            row.put("insects", result.insects[d]);
+            row.put("total", days.length * result.insects[d]);
+            row.put("converged", result.converged[d]);
+            LinkedHashMap<String, Object> params = new LinkedHashMap<>();
+            for(int j = 0; j < result.names.length; j++) {
+                LinkedHashMap<String, Object> param = new LinkedHashMap<>();
+                param.put("cv", result.cv[d][j]);
+                param.put("bias", result.bias[d][j]);
+                param.put("width", result.width[d][j]);
+                params.put(result.names[j], param);
+            }
+            row.put("params", params);
+            designs.add(row);
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("model", model.name);
+        ret.put("optim", result.optim);
+        ret.put("simulations", result.simulations);
+        ret.put("table", table.getAbsolutePath());
+        ret.put("designs", designs);
+        return ret;
+    }
+
+    /**
+     * Describes the figures created by a command.
+     * @param figures Locations of the figures, or null if none were created.
+     * @return The locations by name, or null if none were created.
+     */
+    private static LinkedHashMap<String, Object> figures(String[] figures) {
+        if(figures == null) {
+            return null;
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("figures", figures);
+        return ret;
+    }
+
+    /**
+     * Runs the `forecast` command.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @return The locations of the figures, or null if the forecast could not
+     * be made.
+     */
+    static LinkedHashMap<String, Object> forecast(SettingsObject settings, Arguments args) {
+        ModelObject model = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", model.weatherDatabaseName), "weather");
+        DatabaseObject organism = dataset(settings.organismNames, settings.organismLocations, args.get("organism", model.OrganismDatabaseName), "organism");
+        ForecastObject fo = new ForecastObject();
+        fo.model = model;
+        fo.weather = weather.memberLocations[0];
+        fo.stageNames = Arrays.copyOf(organism.memberStages, organism.memberStages.length);
+        fo.outputLoc = output(args, settings.defaultTempForecastOutput);
+        fo.error = args.flag("error", false);
+        fo.fit = args.flag("fit", true);
+        fo.fitAlone = args.flag("fitAlone", true);
+        fo.fitHigh = args.number("fitHigh", "0");
+        fo.fitLow = args.number("fitLow", "1");
+        fo.heigth = args.number("height", "700");
+        fo.predict = args.flag("predict", true);
+        fo.predictHigh = args.number("predictHigh", "0");
+        fo.predictLow = args.number("predictLow", "1");
+        fo.proportionPercent = String.valueOf(Double.parseDouble(args.number("proportionPercent", "50")) / 100.0);
+        fo.proportionStage = args.number("proportionStage", "1");
+        fo.tendencies = args.flag("tendencies", true);
+        fo.width = args.number("width", "850");
+        return figures(ScriptManager.forecast(fo));
+    }
+
+    /**
+     * Runs the `graph` command.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @return The locations of the figures, or null if the graph could not be
+     * drawn.
+     */
+    private static LinkedHashMap<String, Object> graph(SettingsObject settings, Arguments args) {
+        ModelObject model = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject organism = dataset(settings.organismNames, settings.organismLocations, args.get("organism", model.OrganismDatabaseName), "organism");
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", model.weatherDatabaseName), "weather");
+        GraphObject go = new GraphObject();
+        go.organismStageNames = organism.memberStages;
+        go.outputLoc = output(args, settings.defaultTempGraphOutput);
+        go.allTogether = args.flag("allTogether", false);
+        go.combHigh = args.number("combHigh", "0");
+        go.combLow = args.number("combLow", "1");
+        go.combined = args.flag("combined", true);
+        go.compRaw = args.flag("compRaw", true);
+        go.compRawhigh = args.number("compRawhigh", "0");
+        go.compRawlow = args.number("compRawlow", "1");
+        go.expProp = args.flag("expProp", true);
+        go.expProphigh = args.number("expProphigh", "0");
+        go.expProplow = args.number("expProplow", "1");
+        go.imgHeight = args.number("imgHeight", "700");
+        go.imgWidth = args.number("imgWidth", "850");
+        go.log2d = args.flag("log2d", true);
+        go.log2dinterval = args.number("log2dinterval", "100");
+        go.log2doffset = args.number("log2doffset", "50");
+        go.log2dsample = args.number("log2dsample", "5");
+        go.log3d = args.flag("log3d", true);
+        go.logPdf3DShigh = args.number("logPdf3DShigh", "800");
+        go.logPdf3DSlow = args.number("logPdf3DSlow", "0");
+        go.logPdf3DThigh = args.number("logPdf3DThigh", "600");
+        go.logPdf3DTlow = args.number("logPdf3DTlow", "50");
+        return figures(ScriptManager.graph(weather.memberLocations[0], organism.memberLocations, model, go));
+    }
+
+    /**
+     * Runs the `import` command.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @return The imported dataset, or null if it could not be imported.
+     */
+    private static LinkedHashMap<String, Object> importDataset(SettingsObject settings, Arguments args) {
+        if(args.positional.size() != 2) {
+            throw new IllegalArgumentException("import needs the type of dataset, organism or weather, and the file to import.");
+        }
+        String type = args.positional.get(0);
+        if(!type.equals("organism") && !type.equals("weather")) {
+            throw new IllegalArgumentException("The type of dataset must be organism or weather, not " + type + ".");
+        }
+        boolean organism = type.equals("organism");
+        File file = new File(args.positional.get(1));
+        if(!file.isFile()) {
+            throw new IllegalArgumentException("There is no file " + file.getPath() + ".");
+        }
+        ImportationObject io = Importer.autoLoad(file.getAbsolutePath(), organism);
+        if(io == null) {
+            return null;
+        }
+        io.datasetName = args.get("name", io.datasetName);
+        io.destination = new File(args.get("destination", organism ? "SavedData/Organisms" : "SavedData/Weather")).getAbsolutePath();
+        Importer.save(io);
+        DatabaseObject info = XmlManager.readDatabaseFile(io.destination + "/" + io.datasetName + ".about.xml");
+        if(info == null) {
+            return null;
+        }
+        if(organism) {
+            settings.organismCount++;
+            settings.organismLocations.add(info.location);
+            settings.organismNames.add(info.name);
+            settings.loadedOrganism = info.location;
+        } else {
+            settings.weatherCount++;
+            settings.weatherLocations.add(info.location);
+            settings.weatherNames.add(info.name);
+            settings.loadedWeather = info.location;
+        }
+        return describe(info);
+    }
+
+    /**
+     * Requests an option holding a comma separated list of whole numbers.
+     * @param args The command line.
+     * @param name Name of the option.
+     * @param def Value used if the option is not given.
+     * @return The numbers.
+     * @throws IllegalArgumentException If an item is not a number of at 
+     * least 1.
+     */
+    private static int[] integers(Arguments args, String name, String def) {
+        String[] items = args.list(name);
+        if(items == null) {
+            items = def.split(",");
+        }
+        int[] ret = new int[items.length];
+        for(int i = 0; i < items.length; i++) {
+            try {
+                ret[i] = (int) Double.parseDouble(items[i]);
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be numbers, not " + items[i] + ".");
+            }
+            if(ret[i] < 1) {
+                throw new IllegalArgumentException("--" + name + " must be at least 1.");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks if an argument names a command.
+     * @param arg The first command line argument.
+     * @return True if the argument is one of the commands.
+     */
+    public static boolean isCommand(String arg) {
+        return Arrays.asList(COMMANDS).contains(arg);
+    }
+
+    /**
+     * Runs the `joint` command.
+     * Every chosen member of the organism dataset is fitted with its own A 
+     * values and a V shared by all of them. `--params`, if given, holds the A 
+     * values of each member in turn followed by V. One model is saved for 
+     * each member, named after `--name` and the member.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the fit, or null.
+     * @return The joint fit and its models, or null if it could not be 
+     * fitted.
+     */
+    static LinkedHashMap<String, Object> joint(SettingsObject settings, Arguments args, ProgressListener listener) {
+        DatabaseObject organism = dataset(settings.organismNames, settings.organismLocations, args.require("organism"), "organism");
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.require("weather"), "weather");
+        ModelObject request = request(organism, weather, args);
+        if(request.OrganismFiles.length < 2) {
+            throw new IllegalArgumentException("--members must name at least 2 members of " + organism.name + " for a joint fit.");
+        }
+        String[] names = new String[request.OrganismFiles.length];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = organism.memberNames[Arrays.asList(organism.memberLocations).indexOf(request.OrganismFiles[i])];
+        }
+        request.OrganismDatabaseName = organism.name;
+        request.OrganismDatabaseLocation = organism.location;
+        request.weatherDatabaseName = weather.name;
+        DateFormat dateFormat = new SimpleDateFormat("MM.dd.HH.mm.ss");
+        request.name = args.get("name", "Joint-" + dateFormat.format(new Date()));
+        ArrayList<ModelObject> models = ScriptManager.jointFit(request, names, listener);
+        if(models == null) {
+            return null;
+        }
+        List<LinkedHashMap<String, Object>> described = new ArrayList<>();
+        for(ModelObject model : models) {
+            model.stats.optim = model.optim;
+            if(args.flag("save", true)) {
+                save(settings, model, false);
+            }
+            described.add(describe(model));
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("joint", request.name);
+        ret.put("logLikelihood", models.get(0).jointLogLikelihood);
+        ret.put("aic", models.get(0).jointAic);
+        ret.put("V", models.get(0).params[models.get(0).params.length - 1]);
+        ret.put("models", described);
+        return ret;
+    }
+
+    /**
+     * Runs the `list` command.
+     * @param settings The program settings.
+     * @return The names of the stored datasets and models.
+     */
+    static LinkedHashMap<String, Object> list(SettingsObject settings) {
+        ArrayList<String> models = new ArrayList<>();
+        for(ModelObject model : XmlManager.loadModels(settings.defaultModelLocation)) {
+            models.add(model.name);
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("organisms", settings.organismNames);
+        ret.put("weather", settings.weatherNames);
+        ret.put("models", models);
+        return ret;
+    }
+
+    /**
+     * Entry point for running only the command line, without JavaFX on the
+     * class path.
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Finds a stored model by name.
+     * If several models share the name the last one is used, as in the main
+     * window.
+     * @param models The stored models.
+     * @param name Name of the model.
+     * @return The model.
+     * @throws IllegalArgumentException If there is no model of that name.
+     */
+    static ModelObject model(List<ModelObject> models, String name) {
+        for(int i = models.size() - 1; i >= 0; i--) {
+            if(models.get(i).name.equals(name)) {
+                return models.get(i);
+            }
+        }
+        throw new IllegalArgumentException("There is no model named " + name + ".");
+    }
+
+    /**
+     * Runs the `model` command.
+     * The model is built in the same way as in ModelWindow. Every member of
+     * the organism dataset is used and every stage kept separate unless the
+     * options say otherwise.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the fit, or null.
+     * @return The fitted model, or null if it could not be fitted.
+     */
+    static LinkedHashMap<String, Object> model(SettingsObject settings, Arguments args, ProgressListener listener) {
+        DatabaseObject organism = dataset(settings.organismNames, settings.organismLocations, args.require("organism"), "organism");
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.require("weather"), "weather");
+        ModelObject model = request(organism, weather, args);
+        model.fitThresholds = args.flag("fitThresholds", false);
+        ModelObject outputModel = ScriptManager.model(model, listener);
+        if(outputModel == null) {
+            return null;
+        }
+        model.params = Arrays.copyOf(outputModel.params, outputModel.params.length);
+        model.logLikelihood = outputModel.logLikelihood;
+        model.aic = outputModel.aic;
+        model.starts = outputModel.starts;
+        model.startsAgreed = outputModel.startsAgreed;
+        model.lower = outputModel.lower;
+        model.upper = outputModel.upper;
+        model.paramCount = model.params.length;
+        model.OrganismDatabaseName = organism.name;
+        model.OrganismDatabaseLocation = organism.location;
+        model.weatherDatabaseName = weather.name;
+        DateFormat dateFormat = new SimpleDateFormat("MM.dd.HH.mm.ss");
+        model.name = args.get("name", "Model-" + dateFormat.format(new Date()));
+        model.stats.optim = model.optim;
+        if(args.flag("save", true)) {
+            save(settings, model, false);
+        }
+        return describe(model);
+    }
+
+    /**
+     * Finds the organism files chosen by `--members`.
+     * @param organism The organism dataset.
+     * @param args The command line.
+     * @return Locations of the chosen members, or of every member if the 
+     * option is not given.
+     * @throws IllegalArgumentException If a member is not in the dataset.
+     */
+    private static String[] members(DatabaseObject organism, Arguments args) {
+        String[] members = args.list("members");
+        if(members == null) {
+            return organism.memberLocations;
+        }
+        String[] ret = new String[members.length];
+        List<String> names = Arrays.asList(organism.memberNames);
+        for(int i = 0; i < members.length; i++) {
+            int index = names.indexOf(members[i]);
+            if(index < 0) {
+                throw new IllegalArgumentException("The organism dataset " + organism.name + " has no member named " + members[i] + ".");
+            }
+            ret[i] = organism.memberLocations[index];
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the directory a command draws its figures in and creates it.
+     * @param args The command line.
+     * @param def Directory used if `--output` is not given.
+     * @return The directory.
+     */
+    private static String output(Arguments args, String def) {
+        File ret = new File(args.get("output", def));
+        ret.mkdirs();
+        return ret.getAbsolutePath();
+    }
+
+    /**
+     * Parses the command line.
+     * @param args The command line arguments.
+     * @return The parsed command line.
+     * @throws IllegalArgumentException If the command is not known, an
+     * argument is out of place, or an option taken by every command is not
+     * valid.
+     */
+    private static Arguments parse(String[] args) {
+        Arguments ret = new Arguments();
+        if((args.length == 0) || !isCommand(args[0])) {
+            throw new IllegalArgumentException(args.length == 0 ? "No command was given." : "Unknown command " + args[0] + ".");
+        }
+        ret.command = args[0];
+        int i = 1;
+        while((i < args.length) && !args[i].startsWith("--")) {
+            ret.positional.add(args[i++]);
+        }
+        while(i < args.length) {
+            if(!args[i].startsWith("--") || (args[i].length() < 3)) {
+                throw new IllegalArgumentException("Expected an option but found " + args[i] + ".");
+            }
+            String name = args[i++].substring(2);
+            if((i < args.length) && !args[i].startsWith("--")) {
+                ret.options.put(name, args[i++]);
+            } else {
+                ret.options.put(name, "true");
+            }
+        }
+        String format = ret.get("format", "json");
+        if(!format.equals("json") && !format.equals("tsv")) {
+            throw new IllegalArgumentException("--format must be json or tsv, not " + format + ".");
+        }
+        ret.flag("progress", false);
+        ret.flag("save", true);
+        return ret;
+    }
+
+    /**
+     * Writes the result of a command to standard output.
+     * In TSV each field is one line holding its name followed by its values,
+     * all separated by tabs.
+     * @param result The result.
+     * @param format Either "json" or "tsv".
+     */
+    private static void print(Map<String, Object> result, String format) {
+        if(format.equals("json")) {
+            System.out.println(Json.write(result));
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        for(Map.Entry<String, Object> entry : result.entrySet()) {
+            out.append(entry.getKey());
+            Object value = entry.getValue();
+            if(value instanceof Object[]) {
+                value = Arrays.asList((Object[]) value);
+            }
+            if(value instanceof Collection) {
+                for(Object item : (Collection<?>) value) {
+                    out.append('\t').append(tsv(item));
+                }
+            } else {
+                out.append('\t').append(tsv(value));
+            }
+            out.append(System.lineSeparator());
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Creates a listener which writes progress to standard error.
+     * At most one line is written a second.
+     * @param task Name of the command, shown at the start of each line.
+     * @return The listener.
+     */
+    private static ProgressListener progress(final String task) {
+        return new ProgressListener() {
+            private long last = 0; /*!< Time the last line was written. */
+
+            @Override
+            public synchronized void progress(ProgressObject progress) {
+                long now = System.currentTimeMillis();
+                if(now - last < 1000) {
+                    return;
+                }
+                last = now;
+                StringBuilder msg = new StringBuilder(task).append(": ").append(progress.done);
+                if(progress.total > 0) {
+                    msg.append(" of ").append(progress.total);
+                }
+                if(!Double.isNaN(progress.logLikelihood)) {
+                    msg.append(String.format(", log likelihood %.3f", progress.logLikelihood));
+                }
+                msg.append(", ").append(progress.elapsed / 1000).append("s elapsed");
+                if(progress.eta >= 0) {
+                    msg.append(", about ").append(progress.eta / 1000).append("s left");
+                }
+                System.err.println(msg);
+            }
+        };
+    }
+
+    /**
+     * Runs a command.
+     * @param args The command line arguments, starting with the command.
+     * @return The exit code: EXIT_OK, EXIT_USAGE, or EXIT_FAILED.
+     */
+    public static int run(String[] args) {
+        ErrorManager.setHeadless(true);
+        Arguments arguments;
+        try {
+            arguments = parse(args);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        if(arguments.command.equals("help")) {
+            System.out.print(USAGE);
+            return EXIT_OK;
+        }
+        SettingsObject settings = Environment.setup();
+        if(settings == null) {
+            return EXIT_FAILED;
+        }
+        LinkedHashMap<String, Object> result;
+        try {
+            if(arguments.command.equals("serve")) {
+                return serve(settings, arguments);
+            } else if(arguments.command.equals("worker")) {
+                return worker(arguments);
+            }
+            ProgressListener listener = arguments.flag("progress", false) ? progress(arguments.command) : null;
+            if(arguments.command.equals("import")) {
+                result = importDataset(settings, arguments);
+            } else if(arguments.command.equals("list")) {
+                result = list(settings);
+            } else if(arguments.command.equals("model")) {
+                result = model(settings, arguments, listener);
+            } else if(arguments.command.equals("collapse")) {
+                result = collapse(settings, arguments, listener);
+            } else if(arguments.command.equals("joint")) {
+                result = joint(settings, arguments, listener);
+            } else if(arguments.command.equals("refit")) {
+                result = refit(settings, arguments, listener);
+            } else if(arguments.command.equals("stats")) {
+                result = stats(settings, arguments, listener);
+            } else if(arguments.command.equals("sweep")) {
+                result = sweep(settings, arguments, listener);
+            } else if(arguments.command.equals("validate")) {
+                result = validate(settings, arguments, listener);
+            } else if(arguments.command.equals("design")) {
+                result = design(settings, arguments, listener);
+            } else if(arguments.command.equals("graph")) {
+                result = graph(settings, arguments);
+            } else {
+                result = forecast(settings, arguments);
+            }
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return EXIT_USAGE;
+        } finally {
+            ScriptPool.shutdown();
+            if(arguments.flag("save", true)) {
+                XmlManager.saveSettings(settings);
+            }
+        }
+        if(result == null) {
+            return EXIT_FAILED;
+        }
+        print(result, arguments.get("format", "json"));
+        return EXIT_OK;
+    }
+
+    /**
+     * Runs the `refit` command.
+     * The stored model is kept and the refitted model is saved beside it. The 
+     * weather dataset defaults to the one the model was fitted to.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the fit, or null.
+     * @return The refitted model, or null if it could not be fitted.
+     */
+    static LinkedHashMap<String, Object> refit(SettingsObject settings, Arguments args, ProgressListener listener) {
+        ModelObject previous = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", previous.weatherDatabaseName), "weather");
+        ModelObject model = ScriptManager.refit(previous, weather, listener);
+        if(model == null) {
+            return null;
+        }
+        model.name = args.get("name", model.name);
+        if(args.flag("save", true)) {
+            save(settings, model, false);
+        }
+        return describe(model);
+    }
+
+    /**
+     * Builds the settings of a fit from the options shared by `model` and 
+     * `joint`: `--members`, `--stageMap`, `--optim`, `--params`, `--lower`, 
+     * and `--upper`.
+     * @param organism The organism dataset.
+     * @param weather The weather dataset.
+     * @param args The command line.
+     * @return The settings of the fit.
+     * @throws IllegalArgumentException If an option is not valid.
+     */
+    private static ModelObject request(DatabaseObject organism, DatabaseObject weather, Arguments args) {
+        ModelObject model = new ModelObject();
+        model.OrganismFiles = members(organism, args);
+        model.organismCount = model.OrganismFiles.length;
+        model.weatherDatabaseLocation = weather.memberLocations[0];
+        String[] stageMap = args.list("stageMap");
+        if(stageMap == null) {
+            for(int i = 0; i < organism.stages; i++) {
+                model.stageMap.add(i + ":" + i);
+            }
+        } else if(stageMap.length != organism.stages) {
+            throw new IllegalArgumentException("--stageMap needs one entry for each of the " + organism.stages + " stages of " + organism.name + ".");
+        } else {
+            model.stageMap.addAll(Arrays.asList(stageMap));
+        }
+        model.optim = args.get("optim", "Nelder-Mead");
+        if(!Arrays.asList(OPTIMIZERS).contains(model.optim)) {
+            throw new IllegalArgumentException("--optim must be one of " + Arrays.toString(OPTIMIZERS) + ".");
+        }
+        String[] params = args.list("params");
+        if(params != null) {
+            for(String param : params) {
+                try {
+                    Double.parseDouble(param);
+                } catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("--params must be numbers, not " + param + ".");
+                }
+            }
+            model.params = params;
+        }
+        thresholds(model, args);
+        return model;
+    }
+
+    /**
+     * Saves a model to the model database.
+     * The database is read again just before saving, so that models saved by
+     * other commands while this one ran are kept.
+     * @param settings The program settings.
+     * @param model The model.
+     * @param stats True to replace the statistics and cross-validation of the
+     * stored model of the same name, false to add the model as a new one.
+     */
+    private static synchronized void save(SettingsObject settings, ModelObject model, boolean stats) {
+        ArrayList<ModelObject> models = XmlManager.loadModels(settings.defaultModelLocation);
+        if(stats) {
+            ModelObject stored = model(models, model.name);
+            stored.stats = model.stats;
+            stored.validation = model.validation;
+        } else {
+            models.add(model);
+            settings.loadedModel = model.name;
+        }
+        XmlManager.saveModels(settings.defaultModelLocation, models);
+    }
+
+    /**
+     * Runs the `serve` command.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @return EXIT_OK once the server has been stopped, or EXIT_FAILED if it
+     * could not be started.
+     */
+    private static int serve(SettingsObject settings, Arguments args) {
+        String host = args.get("host", "127.0.0.1");
+        int port = (int) Double.parseDouble(args.number("port", "8080"));
+        int jobs = (int) Double.parseDouble(args.number("jobs", String.valueOf(ScriptPool.size())));
+        int queue = (int) Double.parseDouble(args.number("queue", "64"));
+        if((jobs < 1) || (queue < 1)) {
+            throw new IllegalArgumentException("--jobs and --queue must be at least 1.");
+        }
+        return Server.serve(settings, host, port, jobs, queue) ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * Runs the `stats` command.
+     * The organism and weather datasets default to the ones the model was
+     * fitted to. `--method profile` finds profile likelihood intervals 
+     * instead of running the bootstrap, and `--method mcmc` draws the 
+     * posterior with `--chains` chains thinned by `--thin`.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the bootstrap, or null.
+     * @return The statistics, or null if they could not be calculated.
+     */
+    static LinkedHashMap<String, Object> stats(SettingsObject settings, Arguments args, ProgressListener listener) {
+        ModelObject model = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject organism = dataset(settings.organismNames, settings.organismLocations, args.get("organism", model.OrganismDatabaseName), "organism");
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", model.weatherDatabaseName), "weather");
+        StatsObject stat = new StatsObject();
+        stat.iterations = args.number("iterations", "1000");
+        stat.alpha = args.number("alpha", "0.05");
+        String method = args.get("method", "bootstrap");
+        if(method.equals("profile")) {
+            stat.method = "Profile Likelihood";
+        } else if(method.equals("mcmc")) {
+            stat.method = "MCMC";
+            stat.chains = args.number("chains", stat.chains);
+            stat.thin = args.number("thin", stat.thin);
+            if((Double.parseDouble(stat.chains) < 2) || (Double.parseDouble(stat.thin) < 1)) {
+                throw new IllegalArgumentException("--chains must be at least 2 and --thin at least 1.");
+            }
+        } else if(!method.equals("bootstrap")) {
+            throw new IllegalArgumentException("--method must be bootstrap, profile, or mcmc.");
+        }
+        stat.a = model.params;
+        stat.stageMap.addAll(model.stageMap);
+        stat.optim = model.optim;
+        stat.lower = model.lower;
+        stat.upper = model.upper;
+        if(organism.stages != stat.stageMap.size()) {
+            throw new IllegalArgumentException("The number of stages in the organism dataset " + organism.name + " does not match the model " + model.name + ".");
+        }
+        StatsObject result = ScriptManager.stats(organism, weather, stat, listener);
+        if(result == null) {
+            return null;
+        }
+        model.stats = result;
+        if(args.flag("save", true)) {
+            save(settings, model, true);
+        }
+        return describe(result);
+    }
+
+    /**
+     * Runs the `sweep` command.
+     * The sweep's table is written to `sweep.tsv` in the output directory, 
+     * and the result holds the target of the fitted model and the tornado 
+     * summary, widest swing first.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the sweep, or null.
+     * @return The summary of the sweep, or null if it could not be run.
+     */
+    static LinkedHashMap<String, Object> sweep(SettingsObject settings, Arguments args, ProgressListener listener) {
+        ModelObject model = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", model.weatherDatabaseName), "weather");
+        SweepObject sweep = new SweepObject();
+        sweep.proportionPercent = String.valueOf(Double.parseDouble(args.number("proportionPercent", "50")) / 100.0);
+        sweep.proportionStage = args.number("proportionStage", sweep.proportionStage);
+        int stage = (int) Double.parseDouble(sweep.proportionStage);
+        if((stage < 1) || (stage >= model.params.length)) {
+            throw new IllegalArgumentException("--proportionStage must be from 1 to " + (model.params.length - 1) + ".");
+        }
+        sweep.spread = args.number("spread", sweep.spread);
+        sweep.thresholdSpread = args.number("thresholdSpread", sweep.thresholdSpread);
+        double thresholdSpread = Double.parseDouble(sweep.thresholdSpread);
+        if(Double.parseDouble(model.lower) + thresholdSpread >= Double.parseDouble(model.upper) - thresholdSpread) {
+            throw new IllegalArgumentException("--thresholdSpread would move the lower threshold of " + model.name + " above its upper threshold.");
+        }
+        sweep.random = args.flag("random", sweep.random);
+        sweep.points = (int) Double.parseDouble(args.number("points", String.valueOf(sweep.points)));
+        sweep.samples = (int) Double.parseDouble(args.number("samples", String.valueOf(sweep.samples)));
+        if((sweep.points < 2) || (sweep.samples < 1)) {
+            throw new IllegalArgumentException("--points must be at least 2 and --samples at least 1.");
+        }
+        String out = output(args, settings.defaultTempForecastOutput);
+        SweepObject result = ScriptManager.sweep(model, weather.memberLocations[0], sweep, listener);
+        if(result == null) {
+            return null;
+        }
+        File table = new File(out, "sweep.tsv");
+        try {
+            SensitivitySweep.write(result, table.getPath());
+        } catch(IOException e) {
+            ErrorManager.error("Sensitivity sweep failed.", "Headless.sweep could not write " + table.getAbsolutePath() + ".", e);
+            return null;
+        }
+        List<LinkedHashMap<String, Object>> tornado = new ArrayList<>();
+        for(double[] bar : result.tornado) {
+            int j = (int) bar[0];
+            LinkedHashMap<String, Object> row = new LinkedHashMap<>();
+            row.put("name", result.names[j]);
+            row.put("low", result.low[j]);
+            row.put("high", result.high[j]);
+            row.put("lowDay", bar[1]);
+            row.put("highDay", bar[2]);
+            row.put("swing", bar[3]);
+            tornado.add(row);
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("model", model.name);
+        ret.put("proportionPercent", result.proportionPercent);
+        ret.put("proportionStage", result.proportionStage);
+        ret.put("baselineTau", result.baselineTau);
+        ret.put("baselineDay", result.baselineDay);
+        ret.put("points", result.table.length);
+        ret.put("table", table.getAbsolutePath());
+        ret.put("tornado", tornado);
+        return ret;
+    }
+
+    /**
+     * Sets the thresholds of a model from `--lower` and `--upper`.
+     * @param model The model.
+     * @param args The command line.
+     * @throws IllegalArgumentException If a threshold is not a number or the
+     * upper threshold is not above the lower.
+     */
+    private static void thresholds(ModelObject model, Arguments args) {
+        model.lower = args.number("lower", model.lower);
+        model.upper = args.number("upper", model.upper);
+        if(Double.parseDouble(model.upper) <= Double.parseDouble(model.lower)) {
+            throw new IllegalArgumentException("--upper must be above --lower.");
+        }
+    }
+
+    /**
+     * Runs the `validate` command.
+     * The folds are refitted with the weather dataset the model was fitted
+     * to unless another is named. `--folds all`, or any count below 2 or
+     * above the number of sampling dates, leaves out one date at a time.
+     * @param settings The program settings.
+     * @param args The command line.
+     * @param listener Receives the progress of the refits, or null.
+     * @return The cross-validation, or null if it could not be run.
+     */
+    static LinkedHashMap<String, Object> validate(SettingsObject settings, Arguments args, ProgressListener listener) {
+        ModelObject model = model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        DatabaseObject weather = dataset(settings.weatherNames, settings.weatherLocations, args.get("weather", model.weatherDatabaseName), "weather");
+        String folds = args.get("folds", "5");
+        int count = folds.equals("all") ? 0 : (int) Double.parseDouble(args.number("folds", "5"));
+        ValidationObject result = ScriptManager.crossValidate(model, weather, count, listener);
+        if(result == null) {
+            return null;
+        }
+        model.validation = result;
+        if(args.flag("save", true)) {
+            save(settings, model, true);
+        }
+        return describe(result);
+    }
+
+    /**
+     * Formats a value for TSV output.
+     * Tabs and line breaks inside the value are replaced by spaces.
+     * @param value The value.
+     * @return The value as text.
+     */
+    private static String tsv(Object value) {
+        return String.valueOf(value).replaceAll("[\\t\\r\\n]", " ");
+    }
+
+    /**
+     * Runs the `worker` command.
+     * @param args The command line.
+     * @return EXIT_FAILED if the worker could not be started. Otherwise the 
+     * worker runs until the program is stopped.
+     */
+    private static int worker(Arguments args) {
+        String host = args.get("host", "127.0.0.1");
+        int port = (int) Double.parseDouble(args.number("port", String.valueOf(StatsCluster.DEFAULT_PORT)));
+        return StatsCluster.serve(host, port) ? EXIT_OK : EXIT_FAILED;
+    }
+}
@@ -0,0 +1,247 @@
+package stagecast;
+
+import data.QueueObject;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decides which script job runs next on the R workers.
+ * Every job handed to ScriptPool belongs to one of three priority classes. 
+ * Whenever a worker is free the next job is taken from the highest class 
+ * which has work waiting and has not reached its concurrency limit, so a 
+ * graph the user has just asked for starts before any queued model fit, and 
+ * a model fit before any queued statistics shard. Running jobs are never 
+ * interrupted. Instead batch work is deferred: its remaining shards wait 
+ * while higher classes have work, and by default batch jobs may only fill 
+ * all but one of the workers so that an interactive request never waits 
+ * behind a full pool of long bootstraps.
+ * <p>Jobs are also grouped, one group per ScriptManager call. Within a class 
+ * the groups take turns, so two statistics runs submitted one after the other 
+ * share the workers rather than the second waiting for every shard of the 
+ * first.</p>
+ * <p>The state of the queue can be read with status(), and listeners added 
+ * with addListener() are told whenever it changes.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research 
+ * Service (US Government Public Domain)
+ */
+public class JobScheduler {
+    public static final int INTERACTIVE = 0; /*!< Class of graphs and forecasts the user is waiting on. */
+    public static final int MODEL = 1; /*!< Class of model fits. */
+    public static final int BATCH = 2; /*!< Class of statistics runs and other batch work. */
+    
+    private static long groups = 0; /*!< Last group handed out by newGroup(). */
+    private static final int[] limits = {0, 0, -1}; /*!< Concurrency limit of each class. 0 or less is relative to the size of ScriptPool. */
+    private static final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>(); /*!< Told whenever the state of the queue changes. */
+    private static final LinkedHashMap<Long, ArrayDeque<FutureTask<?>>> queues[] = newQueues(); /*!< Waiting jobs of each class, indexed by group in turn order. */
+    private static final int[] running = new int[3]; /*!< Running jobs of each class. */
+    private static final ExecutorService threads = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread ret = new Thread(r, "JobScheduler");
+            ret.setDaemon(true);
+            return ret;
+        }
+    }); /*!< Threads the jobs run on. */
+    
+    /**
+     * Adds a listener which is told whenever a job is queued, started, or 
+     * finished.
+     * @param listener The listener. It is called on whichever thread changed 
+     * the queue.
+     */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Starts as many waiting jobs as there are free workers.
+     * This is also called by ScriptPool when the size of the pool changes.
+     */
+    static void dispatch() {
+        synchronized(JobScheduler.class) {
+            int capacity = ScriptPool.size();
+            while(running[INTERACTIVE] + running[MODEL] + running[BATCH] < capacity) {
+                FutureTask<?> next = null;
+                int priority;
+                for(priority = INTERACTIVE; priority <= BATCH; priority++) {
+                    if(running[priority] < limit(priority, capacity)) {
+                        next = take(priority);
+                        if(next != null) {
+                            break;
+                        }
+                    }
+                }
+                if(next == null) {
+                    break;
+                }
+                running[priority]++;
+                final int jobPriority = priority;
+                final FutureTask<?> job = next;
+                threads.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            job.run();
+                        } finally {
+                            synchronized(JobScheduler.class) {
+                                running[jobPriority]--;
+                            }
+                            dispatch();
+                        }
+                    }
+                });
+            }
+        }
+        notifyListeners();
+    }
+    
+    /**
+     * Finds the concurrency limit of a class.
+     * @param priority The class.
+     * @param capacity Size of ScriptPool.
+     * @return The most jobs of the class which may run at once, at least 1.
+     */
+    private static int limit(int priority, int capacity) {
+        int ret = limits[priority] > 0 ? limits[priority] : capacity + limits[priority];
+        return Math.max(1, ret);
+    }
+    
+    /**
+     * Starts a new group of jobs.
+     * @return An ID which the jobs of one operation share.
+     */
+    public static synchronized long newGroup() {
+        return ++groups;
+    }
+    
+    /**
+     * Creates the empty queues.
+     * @return One queue for each class.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static LinkedHashMap<Long, ArrayDeque<FutureTask<?>>>[] newQueues() {
+        LinkedHashMap<Long, ArrayDeque<FutureTask<?>>>[] ret = new LinkedHashMap[3];
+        for(int i = 0; i < ret.length; i++) {
+            ret[i] = new LinkedHashMap<>();
+        }
+        return ret;
+    }
+    
+    /**
+     * Tells every listener that the queue has changed.
+     */
+    private static void notifyListeners() {
+        for(Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch(RuntimeException e) {
+                ErrorManager.log("JobScheduler.notifyListeners could not update a listener.", e);
+            }
+        }
+    }
+    
+    /**
+     * Removes a listener added with addListener().
+     * @param listener The listener.
+     */
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Sets the concurrency limit of a class.
+     * @param priority The class.
+     * @param limit The most jobs of the class which may run at the same time. 
+     * 0 or less is taken relative to the size of ScriptPool, e.g. -1 lets the 
+     * class use all but one worker.
+     */
+    public static void setLimit(int priority, int limit) {
+        synchronized(JobScheduler.class) {
+            limits[priority] = limit;
+        }
+        dispatch();
+    }
+    
+    /**
+     * Requests the state of the queue.
+     * @return The waiting and running jobs of each class along with the 
+     * limits of each class.
+     */
+    public static synchronized QueueObject status() {
+        QueueObject ret = new QueueObject();
+        int capacity = ScriptPool.size();
+        for(int i = INTERACTIVE; i <= BATCH; i++) {
+            ret.limits[i] = limit(i, capacity);
+            ret.running[i] = running[i];
+            for(ArrayDeque<FutureTask<?>> group : queues[i].values()) {
+                for(FutureTask<?> job : group) {
+                    if(!job.isCancelled()) {
+                        ret.queued[i]++;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Queues a job.
+     * @param <T> Type of the job's result.
+     * @param job The job.
+     * @param priority Class of the job: INTERACTIVE, MODEL, or BATCH.
+     * @param group Group from newGroup() which the job belongs to.
+     * @return The queued job. Cancelling it before it starts removes it from 
+     * the queue, and cancelling it while it runs interrupts it.
+     */
+    public static <T> Future<T> submit(Callable<T> job, int priority, long group) {
+        FutureTask<T> ret = new FutureTask<>(job);
+        synchronized(JobScheduler.class) {
+            ArrayDeque<FutureTask<?>> queue = queues[priority].get(group);
+            if(queue == null) {
+                queue = new ArrayDeque<>();
+                queues[priority].put(group, queue);
+            }
+            queue.add(ret);
+        }
+        dispatch();
+        return ret;
+    }
+    
+    /**
+     * Takes the next job of a class.
+     * The first group in turn order gives up its oldest job and, if it has 
+     * more, moves to the back of the line. Jobs cancelled while waiting are 
+     * dropped.
+     * @param priority The class.
+     * @return The job, or null if none are waiting.
+     */
+    private static FutureTask<?> take(int priority) {
+        Iterator<Map.Entry<Long, ArrayDeque<FutureTask<?>>>> it = queues[priority].entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Long, ArrayDeque<FutureTask<?>>> entry = it.next();
+            ArrayDeque<FutureTask<?>> queue = entry.getValue();
+            FutureTask<?> ret = queue.poll();
+            while((ret != null) && ret.isCancelled()) {
+                ret = queue.poll();
+            }
+            it.remove();
+            if(ret != null) {
+                if(!queue.isEmpty()) {
+                    queues[priority].put(entry.getKey(), queue);
+                }
+                return ret;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package stagecast;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes values as JSON text.
+ * The results of Headless commands are handed to other programs as JSON.
+ * Like XmlManager this class avoids a third-party library so that the program
+ * keeps to the standard libraries. Only writing is supported.
+ * <p>Maps become objects, collections and arrays become arrays, numbers and
+ * booleans are written as they are, and null becomes null. Numbers which are
+ * not finite have no JSON form and are written as null. Any other value is
+ * written as the string returned by its toString() method.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class Json {
+
+    /**
+     * Adds a string to the output as a quoted JSON string.
+     * @param out The output.
+     * @param value The string.
+     */
+    private static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Converts a value to JSON text.
+     * @param value The value.
+     * @return The value as JSON.
+     */
+    public static String write(Object value) {
+        StringBuilder ret = new StringBuilder();
+        write(ret, value);
+        return ret.toString();
+    }
+
+    /**
+     * Adds a value to the output as JSON.
+     * @param out The output.
+     * @param value The value.
+     */
+    private static void write(StringBuilder out, Object value) {
+        if(value == null) {
+            out.append("null");
+        } else if(value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if(!first) {
+                    out.append(',');
+                }
+                first = false;
+                quote(out, String.valueOf(entry.getKey()));
+                out.append(':');
+                write(out, entry.getValue());
+            }
+            out.append('}');
+        } else if(value instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for(Object item : (Collection<?>) value) {
+                if(!first) {
+                    out.append(',');
+                }
+                first = false;
+                write(out, item);
+            }
+            out.append(']');
+        } else if(value instanceof Object[]) {
+            out.append('[');
+            Object[] items = (Object[]) value;
+            for(int i = 0; i < items.length; i++) {
+                if(i > 0) {
+                    out.append(',');
+                }
+                write(out, items[i]);
+            }
+            out.append(']');
+        } else if(value instanceof double[]) {
+            out.append('[');
+            double[] items = (double[]) value;
+            for(int i = 0; i < items.length; i++) {
+                if(i > 0) {
+                    out.append(',');
+                }
+                write(out, items[i]);
+            }
+            out.append(']');
+        } else if((value instanceof Double) || (value instanceof Float)) {
+            double number = ((Number) value).doubleValue();
+            out.append(Double.isNaN(number) || Double.isInfinite(number) ? "null" : String.valueOf(value));
+        } else if((value instanceof Number) || (value instanceof Boolean)) {
+            out.append(value);
+        } else {
+            quote(out, value.toString());
+        }
+    }
+}
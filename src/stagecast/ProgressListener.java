@@ -0,0 +1,22 @@
+package stagecast;
+
+import data.ProgressObject;
+
+/**
+ * Receives progress reports from long running script operations.
+ * Reports arrive on the thread which reads the output of the R worker running 
+ * the script, never on the JavaFX application thread, so an implementation 
+ * which updates the GUI must hand the work over to that thread, e.g. through 
+ * javafx.concurrent.Task.updateProgress. Scripts send at most a few reports a 
+ * second.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research 
+ * Service (US Government Public Domain)
+ */
+public interface ProgressListener {
+    /**
+     * Called each time the operation reports its progress.
+     * @param progress The latest report.
+     */
+    void progress(ProgressObject progress);
+}
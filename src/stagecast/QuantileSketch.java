@@ -0,0 +1,194 @@
+package stagecast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Estimates quantiles of a stream of values in bounded memory.
+ * Long statistics runs would otherwise have to keep and sort every bootstrap
+ * draw to find their percentile intervals. Instead `stats.r` can keep one of
+ * these sketches for each parameter, and this class reads and merges the
+ * sketches of several shards.
+ * <p>The sketch is a stack of levels. Every value starts on level 0, where it
+ * stands for one draw, and a value on level h stands for 2^h draws. When a
+ * level holds `capacity` values it is sorted and every second value moves up
+ * a level, starting alternately from the first and the second value so that
+ * the errors do not build up in one direction. The total weight is therefore
+ * always exactly the number of values added, and the rank of any value is off
+ * by a small fraction of the total which shrinks as the capacity grows. Two
+ * sketches are merged by pooling their levels and compacting again, so shards
+ * can be combined in any order.</p>
+ * <p>The layout matches `newSketch` and `sketchAdd` in `stats.r`. Sketches are
+ * passed between them as two column matrices holding each value and its
+ * level.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class QuantileSketch {
+    private final int capacity; /*!< Number of values a level holds before it is compacted. */
+    private final ArrayList<Boolean> flips = new ArrayList<>(); /*!< Whether the next compaction of each level keeps the second value of each pair rather than the first. */
+    private final ArrayList<ArrayList<Double>> levels = new ArrayList<>(); /*!< Values held on each level. */
+
+    /**
+     * Creates an empty sketch.
+     * @param capacity Number of values a level holds before it is compacted.
+     * Larger capacities give smaller errors. Must be at least 2.
+     */
+    public QuantileSketch(int capacity) {
+        if(capacity < 2) {
+            throw new IllegalArgumentException("A sketch must hold at least 2 values per level.");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds a single draw.
+     * @param value The draw.
+     */
+    public void add(double value) {
+        add(value, 0);
+    }
+
+    /**
+     * Adds a value on a level.
+     * @param value The value.
+     * @param level Level of the value, where it stands for 2^level draws.
+     */
+    public void add(double value, int level) {
+        level(level).add(value);
+        compact();
+    }
+
+    /**
+     * Moves values up a level until no level is over capacity.
+     * A level with an odd number of values keeps its largest value, so no
+     * weight is lost.
+     */
+    private void compact() {
+        for(int h = 0; h < levels.size(); h++) {
+            ArrayList<Double> level = levels.get(h);
+            if(level.size() < capacity) {
+                continue;
+            }
+            Collections.sort(level);
+            Double left = null;
+            if(level.size() % 2 == 1) {
+                left = level.remove(level.size() - 1);
+            }
+            ArrayList<Double> next = level(h + 1);
+            for(int i = flips.get(h) ? 1 : 0; i < level.size(); i += 2) {
+                next.add(level.get(i));
+            }
+            flips.set(h, !flips.get(h));
+            level.clear();
+            if(left != null) {
+                level.add(left);
+            }
+        }
+    }
+
+    /**
+     * Requests the number of draws the sketch stands for.
+     * @return The total weight of every value.
+     */
+    public long count() {
+        long ret = 0;
+        for(int h = 0; h < levels.size(); h++) {
+            ret += (long) levels.get(h).size() << h;
+        }
+        return ret;
+    }
+
+    /**
+     * Reads a sketch written by `stats.r`.
+     * @param matrix Matrix with one row per value.
+     * @param valueColumn Column holding the values.
+     * @param levelColumn Column holding the levels.
+     * @param capacity Capacity the sketch was made with.
+     * @return The sketch.
+     */
+    public static QuantileSketch fromMatrix(double[][] matrix, int valueColumn, int levelColumn, int capacity) {
+        QuantileSketch ret = new QuantileSketch(capacity);
+        for(double[] row : matrix) {
+            ret.level((int) row[levelColumn]).add(row[valueColumn]);
+        }
+        ret.compact();
+        return ret;
+    }
+
+    /**
+     * Requests a level, adding empty levels up to it if needed.
+     * @param h Index of the level.
+     * @return The values on the level.
+     */
+    private ArrayList<Double> level(int h) {
+        while(levels.size() <= h) {
+            levels.add(new ArrayList<Double>());
+            flips.add(false);
+        }
+        return levels.get(h);
+    }
+
+    /**
+     * Adds every draw of another sketch to this one.
+     * @param other The other sketch. It is not changed.
+     */
+    public void merge(QuantileSketch other) {
+        for(int h = 0; h < other.levels.size(); h++) {
+            level(h).addAll(other.levels.get(h));
+        }
+        compact();
+    }
+
+    /**
+     * Estimates the draw of a given rank.
+     * Ranks start at 1 for the smallest draw, the same way `stats.r` indexes
+     * its sorted draws.
+     * @param rank Rank of the draw.
+     * @return The estimated draw, or NaN if the rank is outside the sketch.
+     */
+    public double rank(long rank) {
+        if((rank < 1) || (rank > count())) {
+            return Double.NaN;
+        }
+        List<double[]> weighted = new ArrayList<>();
+        for(int h = 0; h < levels.size(); h++) {
+            for(double value : levels.get(h)) {
+                weighted.add(new double[] {value, 1L << h});
+            }
+        }
+        double[][] sorted = weighted.toArray(new double[weighted.size()][]);
+        Arrays.sort(sorted, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        double total = 0;
+        for(double[] item : sorted) {
+            total += item[1];
+            if(total >= rank) {
+                return item[0];
+            }
+        }
+        return sorted[sorted.length - 1][0];
+    }
+
+    /**
+     * Writes the sketch in the layout read by fromMatrix().
+     * @return Matrix with one row per value, holding the value and its level.
+     */
+    public double[][] toMatrix() {
+        List<double[]> rows = new ArrayList<>();
+        for(int h = 0; h < levels.size(); h++) {
+            for(double value : levels.get(h)) {
+                rows.add(new double[] {value, h});
+            }
+        }
+        return rows.toArray(new double[rows.size()][]);
+    }
+}
@@ -0,0 +1,296 @@
+package stagecast;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Stores the results of script runs so that identical requests are not run
+ * again.
+ * Each result is filed under a key made by hashing the script together with
+ * the request passed to it. Since the request carries the weather data, the
+ * summed organism data, the parameters, the stage map, and every user setting
+ * for the run, two requests with the same key are guaranteed to produce the
+ * same output. Only the output location is left out of the key, as it does not
+ * change what is drawn. Editing a script changes its hash and so retires every
+ * result it produced.
+ * <p>Results are kept in `./Temp/Cache/[key]/`, which holds the response file
+ * and any figures the script created. When the total size of the cache grows
+ * past its limit the results which were least recently used are removed until
+ * it fits again. The limit is set from SettingsObject.cacheSize.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note Statistics are calculated with random bootstrap draws. A cached
+ * result returns the same draws as the run which produced it rather than a new
+ * set; setting the cache size to 0 restores the old behavior.
+ */
+public class ResultCache {
+    /**
+     * @brief A script's hash along with the file state it was taken from.
+     */
+    private static class ScriptHash {
+        String hash; /*!< Hexadecimal SHA-256 hash of the script. */
+        long length; /*!< Length of the script when it was hashed. */
+        long modified; /*!< Modification time of the script when it was hashed. */
+    }
+
+    private static final String DIRECTORY = "Temp/Cache"; /*!< Location of the cache. */
+    private static final String RESPONSE = "response.bin"; /*!< Name of the stored response inside an entry. */
+    private static long limit = 256L * 1024 * 1024; /*!< Largest size in bytes the cache may grow to. */
+    private static final HashMap<String, ScriptHash> scripts = new HashMap<>(); /*!< Hashes of the scripts, indexed by location. */
+
+    /**
+     * Removes every stored result.
+     */
+    public static synchronized void clear() {
+        File[] entries = new File(DIRECTORY).listFiles();
+        if(entries != null) {
+            for(File entry : entries) {
+                delete(entry);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file or a directory along with everything in it.
+     * @param file The file to delete.
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Keeps the cache inside its size limit.
+     * Results are removed in order of least recent use until the total size
+     * is within the limit.
+     */
+    private static void evict() {
+        File[] entries = new File(DIRECTORY).listFiles();
+        if(entries == null) {
+            return;
+        }
+        List<File> holder = new ArrayList<>();
+        final HashMap<File, Long> used = new HashMap<>();
+        long total = 0;
+        for(File entry : entries) {
+            if(!entry.isDirectory()) {
+                continue;
+            }
+            holder.add(entry);
+            used.put(entry, new File(entry, RESPONSE).lastModified());
+            total += size(entry);
+        }
+        Collections.sort(holder, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return used.get(a).compareTo(used.get(b));
+            }
+        });
+        for(File entry : holder) {
+            if(total <= limit) {
+                break;
+            }
+            total -= size(entry);
+            delete(entry);
+        }
+    }
+
+    /**
+     * Checks if results are being cached.
+     * @return True if the size limit is above 0.
+     */
+    public static synchronized boolean isEnabled() {
+        return limit > 0;
+    }
+
+    /**
+     * Finds the key a request is stored under.
+     * @param script Location of the script which will handle the request.
+     * @param request The request.
+     * @return The key as a hexadecimal string, or null if the script can not be
+     * read or the cache is turned off.
+     */
+    public static String key(String script, ScriptProtocol request) {
+        if(limit <= 0) {
+            return null;
+        }
+        try {
+            String scriptHash = scriptHash(script);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(scriptHash.getBytes("UTF-8"));
+            request.digest(digest, "saveLoc");
+            return toHex(digest.digest());
+        } catch(IOException | NoSuchAlgorithmException e) {
+            ErrorManager.log("ResultCache.key could not hash the request for " + script + ". The result will not be cached.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Requests a stored result.
+     * Any figures stored with the result are copied into the output
+     * directory, just as if the script had drawn them there.
+     * @param key Key from key().
+     * @param outputDirectory Directory to copy figures in to, or null if the
+     * script does not create figures.
+     * @return The stored response, or null if there is none.
+     */
+    public static synchronized ScriptProtocol lookup(String key, String outputDirectory) {
+        if(key == null) {
+            return null;
+        }
+        File entry = new File(DIRECTORY, key);
+        File response = new File(entry, RESPONSE);
+        if(!response.isFile()) {
+            return null;
+        }
+        try {
+            ScriptProtocol ret = ScriptProtocol.read(response.getPath(), ScriptProtocol.RESPONSE);
+            if(outputDirectory != null) {
+                for(String name : ret.getStrings("figures")) {
+                    File figure = new File(entry, name);
+                    if(!figure.isFile()) {
+                        delete(entry);
+                        return null;
+                    }
+                    Files.copy(figure.toPath(), new File(outputDirectory, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            response.setLastModified(System.currentTimeMillis());
+            return ret;
+        } catch(IOException e) {
+            ErrorManager.log("ResultCache.lookup found a damaged entry, " + entry.getPath() + ", and removed it.", e);
+            delete(entry);
+        }
+        return null;
+    }
+
+    /**
+     * Sets the largest size the cache may grow to.
+     * @param megabytes The limit in megabytes. 0 or less turns the cache off
+     * and removes anything already stored.
+     */
+    public static synchronized void setLimit(int megabytes) {
+        limit = megabytes * 1024L * 1024L;
+        if(limit <= 0) {
+            clear();
+        } else {
+            evict();
+        }
+    }
+
+    /**
+     * Finds the hash of a script.
+     * The hash is only taken again if the script has changed on disk.
+     * @param script Location of the script.
+     * @return The hash as a hexadecimal string.
+     * @throws IOException If the script can not be read.
+     * @throws NoSuchAlgorithmException If SHA-256 is not available.
+     */
+    private static synchronized String scriptHash(String script) throws IOException, NoSuchAlgorithmException {
+        File file = new File(script);
+        ScriptHash stored = scripts.get(file.getAbsolutePath());
+        if((stored != null) && (stored.modified == file.lastModified()) && (stored.length == file.length())) {
+            return stored.hash;
+        }
+        ScriptHash ret = new ScriptHash();
+        ret.length = file.length();
+        ret.modified = file.lastModified();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream inpt = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while((len = inpt.read(buffer)) != -1) {
+                digest.update(buffer, 0, len);
+            }
+        }
+        ret.hash = toHex(digest.digest());
+        scripts.put(file.getAbsolutePath(), ret);
+        return ret.hash;
+    }
+
+    /**
+     * Finds the total size of a directory.
+     * @param file The directory.
+     * @return The size in bytes of every file inside it.
+     */
+    private static long size(File file) {
+        File[] children = file.listFiles();
+        if(children == null) {
+            return file.length();
+        }
+        long ret = 0;
+        for(File child : children) {
+            ret += size(child);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores a result.
+     * The entry is assembled under a temporary name and then renamed so that
+     * a half written entry is never found by lookup().
+     * @param key Key from key().
+     * @param response Location of the response file written by the script.
+     * @param outputDirectory Directory the script drew its figures in, or null
+     * if it does not create figures.
+     */
+    public static synchronized void store(String key, String response, String outputDirectory) {
+        if(key == null) {
+            return;
+        }
+        File entry = new File(DIRECTORY, key);
+        File temp = new File(DIRECTORY, key + ".part");
+        try {
+            delete(temp);
+            if(!temp.mkdirs()) {
+                throw new IOException("Could not create " + temp.getPath() + ".");
+            }
+            ScriptProtocol ret = ScriptProtocol.read(response, ScriptProtocol.RESPONSE);
+            if(outputDirectory != null) {
+                for(String name : ret.getStrings("figures")) {
+                    Files.copy(new File(outputDirectory, name).toPath(), new File(temp, name).toPath());
+                }
+            }
+            Files.copy(new File(response).toPath(), new File(temp, RESPONSE).toPath());
+            delete(entry);
+            if(!temp.renameTo(entry)) {
+                throw new IOException("Could not rename " + temp.getPath() + " to " + entry.getPath() + ".");
+            }
+            evict();
+        } catch(IOException e) {
+            ErrorManager.log("ResultCache.store could not store the result " + key + ".", e);
+            delete(temp);
+        }
+    }
+
+    /**
+     * Converts bytes to a hexadecimal string.
+     * @param bytes The bytes to convert.
+     * @return The bytes as lower case hexadecimal.
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder ret = new StringBuilder();
+        for(byte b : bytes) {
+            ret.append(String.format("%02x", b));
+        }
+        return ret.toString();
+    }
+}
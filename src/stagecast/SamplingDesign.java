@@ -0,0 +1,132 @@
+package stagecast;
+
+import data.DesignObject;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lays out and summarizes simulations of sampling designs.
+ * ScriptManager.design sends the designs laid out here to `model.r`, split
+ * between the workers of ScriptPool, and this class then reduces the refits
+ * of every simulation to the bias and precision each design would give.
+ * <p>A layout crosses every sampling interval with every number of
+ * individuals per day, so that a design which samples less often but
+ * catches more on each day can be weighed against one which samples more
+ * often. Only the refits which converged are summarized.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class SamplingDesign {
+
+    /**
+     * Lays out every design of a season.
+     * @param design The simulation. Its days and insects are filled in, one
+     * design for each pair of an interval and a number of individuals, the
+     * intervals changing slowest.
+     * @param start First sampling day.
+     * @param end Last day which may be sampled.
+     * @param intervals Numbers of days between samples. Each must be at
+     * least 1.
+     * @param insects Numbers of individuals sampled on each day. Each must
+     * be at least 1.
+     */
+    public static void layout(DesignObject design, int start, int end, int[] intervals, int[] insects) {
+        design.days = new double[intervals.length * insects.length][];
+        design.insects = new int[intervals.length * insects.length];
+        for(int i = 0; i < intervals.length; i++) {
+            double[] days = new double[(end - start) / intervals[i] + 1];
+            for(int k = 0; k < days.length; k++) {
+                days[k] = start + k * intervals[i];
+            }
+            for(int n = 0; n < insects.length; n++) {
+                design.days[i * insects.length + n] = days;
+                design.insects[i * insects.length + n] = insects[n];
+            }
+        }
+    }
+
+    /**
+     * Summarizes the refits of every design.
+     * @param design The finished simulation. Its converged, bias, cv, and
+     * width are filled in from its table and params. They are NaN for a
+     * design with fewer than 2 converged refits.
+     */
+    public static void summarize(DesignObject design) {
+        int count = design.days.length;
+        int params = design.params.length;
+        design.converged = new int[count];
+        design.bias = new double[count][params];
+        design.cv = new double[count][params];
+        design.width = new double[count][params];
+        double[] values = new double[design.simulations];
+        for(int d = 0; d < count; d++) {
+            for(int j = 0; j < params; j++) {
+                int n = 0;
+                for(int s = 0; s < design.simulations; s++) {
+                    double[] row = design.table[d * design.simulations + s];
+                    if((row[2] == 0) && !Double.isNaN(row[3 + j])) {
+                        values[n++] = row[3 + j];
+                    }
+                }
+                design.converged[d] = n;
+                if(n < 2) {
+                    design.bias[d][j] = Double.NaN;
+                    design.cv[d][j] = Double.NaN;
+                    design.width[d][j] = Double.NaN;
+                    continue;
+                }
+                double mean = 0;
+                for(int k = 0; k < n; k++) {
+                    mean += values[k];
+                }
+                mean /= n;
+                double squares = 0;
+                for(int k = 0; k < n; k++) {
+                    squares += (values[k] - mean) * (values[k] - mean);
+                }
+                double[] sorted = Arrays.copyOf(values, n);
+                Arrays.sort(sorted);
+                design.bias[d][j] = mean / design.params[j] - 1;
+                design.cv[d][j] = Math.sqrt(squares / (n - 1)) / design.params[j];
+                design.width[d][j] = (Tau.quantile(sorted, 0.975) - Tau.quantile(sorted, 0.025)) / design.params[j];
+            }
+        }
+    }
+
+    /**
+     * Writes the summary of every design as tab separated text.
+     * The first line names the columns. Each design is described by its
+     * first and last day, the number of days, the individuals sampled on
+     * each day and in total, and the number of converged refits, followed by
+     * the coefficient of variation, relative bias, and relative 95% width of
+     * each parameter. Values which could not be found are written as NA, the
+     * same way R writes them.
+     * @param design The summarized simulation.
+     * @param target Location of the file.
+     * @throws IOException If the file can not be written.
+     */
+    public static void write(DesignObject design, String target) throws IOException {
+        try(BufferedWriter out = new BufferedWriter(new FileWriter(target))) {
+            out.write("design\tfirst\tlast\tdays\tinsects\ttotal\tconverged");
+            for(String name : design.names) {
+                out.write("\t" + name + ".cv\t" + name + ".bias\t" + name + ".width");
+            }
+            out.newLine();
+            for(int d = 0; d < design.days.length; d++) {
+                double[] days = design.days[d];
+                out.write(d + "\t" + ScriptProtocol.format(days[0]) + "\t" + ScriptProtocol.format(days[days.length - 1]) + "\t" + days.length
+                        + "\t" + design.insects[d] + "\t" + (days.length * design.insects[d]) + "\t" + design.converged[d]);
+                for(int j = 0; j < design.names.length; j++) {
+                    for(double value : new double[] {design.cv[d][j], design.bias[d][j], design.width[d][j]}) {
+                        out.write('\t');
+                        out.write(Double.isNaN(value) ? "NA" : ScriptProtocol.format(value));
+                    }
+                }
+                out.newLine();
+            }
+        }
+    }
+}
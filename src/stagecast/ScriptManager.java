@@ -1,24 +1,44 @@
 package stagecast;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.lang.ProcessBuilder.Redirect;
 
 import data.DatabaseObject;
+import data.DesignObject;
 import data.GraphObject;
 import data.ModelObject;
 import data.StatsObject;
+import data.SweepObject;
+import data.ValidationObject;
 import data.ForecastObject;
+import data.ProgressObject;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
 
 /**
  * Runs the R scripts.
  * This class is how the Java application is able to request that a model is 
- * created or graphed. The model data is output to the ./Temp directory and the 
- * graphs to the ./Temp/Figures directory. Further statistical operations will 
- * be added here as they are developed.
+ * created or graphed. Each request is written to the ./Temp/Jobs directory as 
+ * a binary file described by ScriptProtocol and handed to one of the R 
+ * workers kept by ScriptPool, and the script answers with a response file in 
+ * the same format. Figures are written to the ./Temp/Figures directory. 
+ * Further statistical operations will be added here as they are developed.
+ * <p>The methods of this class may be called from several threads at once. 
+ * Each call is run on the next free worker, so independent model fits, 
+ * statistics runs, and figures are worked on side by side up to the size of 
+ * the pool. Callers drawing figures at the same time should give each call 
+ * its own output location.</p>
  * @author Ian Yocum
  * @date 5/31/2013
  * @copyright United States Department of Agriculture Agricultural Research 
@@ -30,101 +50,316 @@ import java.util.ArrayList;
  * @todo Linux functionality needs to be checked.
  */
 public class ScriptManager {	
+    /**
+     * @brief Combines the progress of the runs started by one call to run().
+     * Each run reports its own steps. The combined report sums the steps of 
+     * every run, so a request split in to shards moves from 0 to the total 
+     * number of iterations just like a single run would.
+     */
+    private static class ProgressTracker {
+        long[] done; /*!< Steps finished by each run. */
+        ProgressListener listener; /*!< Receives the combined reports. */
+        long start; /*!< Time the runs were started. */
+        String task; /*!< Name of the script. */
+        long[] total; /*!< Total steps of each run, -1 if not known or not yet reported. */
+        
+        /**
+         * Requests a listener which records the progress of one run.
+         * @param index Index of the run.
+         * @return The listener.
+         */
+        ProgressListener run(final int index) {
+            return new ProgressListener() {
+                @Override
+                public void progress(ProgressObject progress) {
+                    update(index, progress);
+                }
+            };
+        }
+        
+        /**
+         * Records the progress of a run and reports the combined progress.
+         * @param index Index of the run.
+         * @param progress The run's report.
+         */
+        synchronized void update(int index, ProgressObject progress) {
+            done[index] = progress.done;
+            total[index] = progress.total;
+            ProgressObject ret = new ProgressObject();
+            ret.task = task;
+            ret.logLikelihood = progress.logLikelihood;
+            ret.elapsed = System.currentTimeMillis() - start;
+            long sum = 0;
+            boolean known = true;
+            for(int i = 0; i < done.length; i++) {
+                ret.done += done[i];
+                known &= total[i] >= 0;
+                sum += total[i];
+            }
+            ret.total = known ? sum : -1;
+            if((ret.total > 0) && (ret.done > 0)) {
+                ret.eta = ret.elapsed * (ret.total - ret.done) / ret.done;
+            }
+            listener.progress(ret);
+        }
+    }
+    
+    private static final double AGREE_LOG = 0.01; /*!< Largest difference in log likelihood between two starts of a multi-start fit which agree. */
+    private static final double AGREE_PARAMS = 0.01; /*!< Largest relative difference in any parameter between two starts of a multi-start fit which agree. */
+    private static final String CHECKPOINTS = "Temp/Jobs/Checkpoints"; /*!< Directory `stats.r` saves its checkpoints in, relative to the program's directory. */
+    private static final int MAX_SEARCH_STAGES = 11; /*!< Most stages searchStageMaps() accepts, giving 1023 stage maps to fit. */
+    private static final int MULTI_STARTS = 24; /*!< Number of starting points of a multi-start fit. */
+    private static final double R_HAT_LIMIT = 1.05; /*!< Largest R-hat of an MCMC run before its chains are reported as not converged. */
+    private static final int SHARD_ITERATIONS = 50; /*!< Fewest bootstrap iterations worth giving a shard of their own. */
+    private static final int SKETCH_CAPACITY = 1000; /*!< Values kept per level of the quantile sketches of a streaming statistics run. */
+    private static final int STREAM_ITERATIONS = 20000; /*!< Fewest bootstrap iterations for which `stats.r` keeps quantile sketches instead of every draw. */
+    
+    /**
+     * Cross-validates a model by refitting it without each fold of its 
+     * sampling dates.
+     * The dates are dealt out to the folds in turn, so that every fold 
+     * holds dates from across the whole season. Each fold is refitted to 
+     * the other dates, starting from the stored parameters, and scored on 
+     * the dates it left out by their log likelihood and by the error of the 
+     * predicted proportion in each stage. The folds are split in to one 
+     * request per worker of ScriptPool. The stored method is kept unless it 
+     * is a global search, in which case Nelder-Mead is used as for refit(), 
+     * and the thresholds are kept fixed. A fold whose refit fails is counted
+     * in ValidationObject.failed and left out of every pooled score, and a 
+     * warning is shown.
+     * @param model The model. It is not changed.
+     * @param weather Weather dataset to fit to, usually the one the model 
+     * was fitted to.
+     * @param folds Number of folds. Values below 2 or above the number of 
+     * sampling dates leave out one date at a time.
+     * @param listener Receives the combined progress of the folds, or null.
+     * @return The cross-validation, or null if it could not be run.
+     */
+    public static ValidationObject crossValidate(ModelObject model, DatabaseObject weather, int folds, ProgressListener listener) {
+        String optim = localOptimizer(model.optim);
+        try {
+            double[][] weatherTable = ScriptProtocol.readTable(weather.memberLocations[0]);
+            double[][] species = ScriptProtocol.readOrganisms(model.OrganismFiles);
+            if(species.length < 2) {
+                ErrorManager.error("Cross-validation failed.", "ScriptManager.crossValidate needs at least 2 sampling dates, but the organism dataset has " + species.length + ".", null);
+                return null;
+            }
+            int count = (folds < 2) || (folds > species.length) ? species.length : folds;
+            double[] assignment = new double[species.length];
+            for(int i = 0; i < species.length; i++) {
+                assignment[i] = i % count;
+            }
+            int shards = Math.max(1, Math.min(ScriptPool.size(), count));
+            List<ScriptProtocol> requests = new ArrayList<>();
+            for(int i = 0; i < shards; i++) {
+                ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+                request.putMatrix("weather", weatherTable);
+                request.putMatrix("species", species);
+                request.putStageMap("stageMap", model.stageMap);
+                request.putNumbers("thresholds", model.lower, model.upper);
+                request.putStrings("optim", optim);
+                request.putNumbers("par", model.params);
+                request.putNumbers("folds", assignment);
+                request.putNumbers("validate", i, shards);
+                requests.add(request);
+            }
+            ScriptProtocol[] responses = run("model", requests, null, listener, JobScheduler.BATCH);
+            if(responses == null) {
+                return null;
+            }
+            double[][] rows = new double[count][];
+            for(ScriptProtocol response : responses) {
+                for(double[] row : response.getMatrix("folds")) {
+                    if((row.length < 7) || !(row[0] >= 0) || (row[0] >= count) || (row[0] != Math.rint(row[0]))) {
+                        throw new IOException("The model script returned a row for fold " + (row.length > 0 ? ScriptProtocol.format(row[0]) : "NA") + " with " + row.length + " values, but there are " + count + " folds and each row needs at least 7 values.");
+                    }
+                    rows[(int) row[0]] = row;
+                }
+            }
+            ValidationObject ret = new ValidationObject();
+            ret.folds = String.valueOf(count);
+            ret.optim = optim;
+            ret.foldDates = new String[count];
+            ret.foldLog = new String[count];
+            ret.foldRmse = new String[count];
+            ret.foldMae = new String[count];
+            double log = 0;
+            double squared = 0;
+            double absolute = 0;
+            double errors = 0;
+            int converged = 0;
+            int failed = 0;
+            for(int f = 0; f < count; f++) {
+                if(rows[f] == null) {
+                    ErrorManager.error("Cross-validation failed.", "ScriptManager.crossValidate sent " + count + " folds to the model script but fold " + f + " did not come back.", null);
+                    return null;
+                }
+                double[] row = rows[f];
+                ret.foldDates[f] = ScriptProtocol.format(row[5]);
+                ret.foldLog[f] = ScriptProtocol.format(row[1]);
+                ret.foldRmse[f] = ScriptProtocol.format(Math.sqrt(row[2] / row[4]));
+                ret.foldMae[f] = ScriptProtocol.format(row[3] / row[4]);
+                if(Double.isNaN(row[1]) || Double.isNaN(row[2])) {
+                    failed++;
+                    continue;
+                }
+                log += row[1];
+                squared += row[2];
+                absolute += row[3];
+                errors += row[4];
+                if(row[6] == 0) {
+                    converged++;
+                }
+            }
+            if(failed == count) {
+                ErrorManager.error("Cross-validation failed.", "ScriptManager.crossValidate could not refit any of the " + count + " folds.", null);
+                return null;
+            }
+            if(failed > 0) {
+                ErrorManager.warn("Some folds of the cross-validation could not be refitted.", "ScriptManager.crossValidate could not refit " + failed + " of " + count + " folds. They are left out of the held out log likelihood, RMSE, and MAE.");
+            }
+            ret.converged = String.valueOf(converged);
+            ret.failed = String.valueOf(failed);
+            ret.log = ScriptProtocol.format(log);
+            ret.rmse = ScriptProtocol.format(Math.sqrt(squared / errors));
+            ret.mae = ScriptProtocol.format(absolute / errors);
+            return ret;
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Cross-validation failed.","ScriptManager.crossValidate has encounered an error.", e);
+        }
+        return null;
+    }
     
+    /**
+     * Simulates sampling designs from a model to find how precisely each
+     * would estimate it.
+     * Every simulation of a design draws the counts in each stage from the
+     * model and fits the model to them again, starting from its own
+     * parameters and keeping its thresholds. The simulations are split in to
+     * one request per worker of ScriptPool, and each run of `model.r` works
+     * out the degree days once and sets up each design once for all of its
+     * simulations. The stored method is kept unless it is a global search, in
+     * which case Nelder-Mead is used as for refit(). The seed is chosen by
+     * seed().
+     * @param model The model to simulate from. It is not changed.
+     * @param weather Weather dataset the sampling days are counted on.
+     * @param settings The simulation's settings, with its designs laid out
+     * by SamplingDesign. Its names, params, optim, table, and summary are
+     * filled in.
+     * @param listener Receives the combined progress of the simulations, or
+     * null.
+     * @return The finished simulation, or null if it could not be run.
+     */
+    public static DesignObject design(ModelObject model, DatabaseObject weather, DesignObject settings, ProgressListener listener) {
+        settings.optim = localOptimizer(model.optim);
+        try {
+            double[][] weatherTable = ScriptProtocol.readTable(weather.memberLocations[0]);
+            int length = 0;
+            for(double[] days : settings.days) {
+                if((days.length < 1) || (days[0] < 1) || (days[days.length - 1] >= weatherTable.length)) {
+                    ErrorManager.error("Design simulation failed.", "ScriptManager.design needs every sampling day to lie within the weather dataset, which has " + weatherTable.length + " days, and the day after it to be known as well.", null);
+                    return null;
+                }
+                length = Math.max(length, days.length);
+            }
+            double[][] designs = new double[settings.days.length][length + 1];
+            for(int d = 0; d < designs.length; d++) {
+                Arrays.fill(designs[d], Double.NaN);
+                designs[d][0] = settings.insects[d];
+                System.arraycopy(settings.days[d], 0, designs[d], 1, settings.days[d].length);
+            }
+            settings.params = new double[model.params.length];
+            settings.names = new String[model.params.length];
+            for(int j = 0; j < model.params.length; j++) {
+                settings.params[j] = ScriptProtocol.parse(model.params[j]);
+                settings.names[j] = j < model.params.length - 1 ? "A" + (j + 1) : "V";
+            }
+            int total = designs.length * settings.simulations;
+            int shards = Math.max(1, Math.min(ScriptPool.size(), total));
+            List<ScriptProtocol> requests = new ArrayList<>();
+            for(int i = 0; i < shards; i++) {
+                ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+                request.putMatrix("weather", weatherTable);
+                request.putNumbers("thresholds", model.lower, model.upper);
+                request.putStrings("optim", settings.optim);
+                request.putNumbers("par", settings.params);
+                request.putMatrix("designs", designs);
+                requests.add(request);
+            }
+            int seed = seed(requests.get(0), total);
+            for(int i = 0; i < shards; i++) {
+                requests.get(i).putNumbers("simulate", settings.simulations, seed, i, shards);
+            }
+            ScriptProtocol[] responses = run("model", requests, null, listener, JobScheduler.BATCH);
+            if(responses == null) {
+                return null;
+            }
+            settings.table = new double[total][];
+            for(ScriptProtocol response : responses) {
+                for(double[] row : response.getMatrix("simulations")) {
+                    settings.table[(int) row[0] * settings.simulations + (int) row[1]] = row;
+                }
+            }
+            for(int k = 0; k < total; k++) {
+                if(settings.table[k] == null) {
+                    ErrorManager.error("Design simulation failed.", "ScriptManager.design sent " + total + " simulations to the model script but simulation " + k + " did not come back.", null);
+                    return null;
+                }
+            }
+            SamplingDesign.summarize(settings);
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Design simulation failed.","ScriptManager.design has encounered an error.", e);
+            return null;
+        }
+        return settings;
+    }
+
     /**
      * Requests a forecast.
      * This method is largely still awaiting final specification of the forecast
      * tab.
      * @param settings All information needed by forecast.r
-     * @return True if successful, false otherwise.
+     * @return Locations of the created figures, or null if the forecast could 
+     * not be made.
      */
-    public static Boolean forecast(ForecastObject settings) {
-        boolean ret = false;
+    public static String[] forecast(ForecastObject settings) {
+        String[] ret = null;
         if(settings.model.stats.stages.equals("0")) {
             ErrorManager.warn("Could not make a forecast.", "The model does not seem to have statistics yet. Go to the \"Model\" tab and run statistics for this model and then try again.");
+        } else if(settings.model.stats.aStar.length == 0) {
+            ErrorManager.warn("Could not make a forecast.", "The statistics of the model were found by " + settings.model.stats.method + " and hold no draws for the forecast's error bars. Go to the \"Model\" tab and run the bootstrap or MCMC for this model and then try again.");
         } else {
             try {
-                try (BufferedWriter outpt = new BufferedWriter(new FileWriter("Temp/forecastInput.txt"))) {
-                    outpt.write("tag\tdata\r\n");
-                    outpt.write("weather\t" + settings.weather + "\r\n");
-
-                    for(int i = 0; i < settings.model.paramCount; i++) {
-                        outpt.write("params\t" + settings.model.params[i] + "\r\n");
-                    }
-                    if(settings.stageNames != null) {
-                        for (String stageName : settings.stageNames) {
-                            outpt.write("stage\t" + stageName + "\r\n");
-                        }
-                    }
-                    for(String map : settings.model.stageMap) {
-                        outpt.write("stageMap\t" + map + "\r\n");
-                    }
-                    if(settings.error) {
-                        outpt.write("error\t1\r\n");
-                    } else {
-                        outpt.write("error\t0\r\n");
-                    }
-                    if(settings.fit) {
-                        outpt.write("fit\t1\r\n");
-                    } else {
-                        outpt.write("fit\t0\r\n");
-                    }
-                    if(settings.fitAlone) {
-                        outpt.write("fitAlone\t1\r\n");
-                    } else {
-                        outpt.write("fitAlone\t0\r\n");
-                    }
-                    outpt.write("fitHigh\t" + settings.fitHigh + "\r\n");
-                    outpt.write("fitLow\t" + settings.fitLow + "\r\n");
-                    outpt.write("height\t" + settings.heigth + "\r\n");
-                    outpt.write("saveLoc\t" + (new File(settings.outputLoc).getAbsolutePath()) + "\r\n");
-                    if(settings.predict) {
-                        outpt.write("predict\t1\r\n");
-                    } else {
-                        outpt.write("predict\t0\r\n");
-                    }
-                    outpt.write("predictHigh\t" + settings.predictHigh + "\r\n");
-                    outpt.write("predictLow\t" + settings.predictLow + "\r\n");
-                    outpt.write("proportionPercent\t" + settings.proportionPercent + "\r\n");
-                    outpt.write("proportionStage\t" + settings.proportionStage + "\r\n");
-                    if(settings.tendencies) {
-                        outpt.write("tendencies\t1\r\n");
-                    } else {
-                        outpt.write("tendencies\t0\r\n");
-                    }
-                    outpt.write("width\t" + settings.width + "\r\n");
-                    StatsObject stat = settings.model.stats;
-                    if(stat != null) {
-                        if(stat.aStar != null) {
-                            for(String[] s : stat.aStar) {
-                                for(String t : s) {
-                                    outpt.write("astar\t" + t + "\r\n");
-                                }
-                            }
-                            for(String s : stat.vStar) {
-                                outpt.write("vstar\t" + s + "\r\n");
-                            }
-                        }
-                    }
+                ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+                request.putMatrix("weather", ScriptProtocol.readTable(settings.weather));
+                request.putNumbers("params", settings.model.params);
+                request.putStrings("stage", settings.stageNames);
+                request.putStageMap("stageMap", settings.model.stageMap);
+                request.putNumbers("thresholds", settings.model.lower, settings.model.upper);
+                request.putFlag("error", settings.error);
+                request.putFlag("fit", settings.fit);
+                request.putFlag("fitAlone", settings.fitAlone);
+                request.putNumbers("fitHigh", settings.fitHigh);
+                request.putNumbers("fitLow", settings.fitLow);
+                request.putNumbers("height", settings.heigth);
+                request.putStrings("saveLoc", new File(settings.outputLoc).getAbsolutePath());
+                request.putFlag("predict", settings.predict);
+                request.putNumbers("predictHigh", settings.predictHigh);
+                request.putNumbers("predictLow", settings.predictLow);
+                request.putNumbers("proportionPercent", settings.proportionPercent);
+                request.putNumbers("proportionStage", settings.proportionStage);
+                request.putFlag("tendencies", settings.tendencies);
+                request.putNumbers("width", settings.width);
+                StatsObject stat = settings.model.stats;
+                if((stat != null) && (stat.aStar != null)) {
+                    request.putMatrix("astar", toMatrix(stat.aStar));
+                    request.putNumbers("vstar", stat.vStar);
                 }
-                String path = (new File("Scripts/forecast.r")).getAbsolutePath();
-                String path2 = (new File("Temp/forecastInput.txt")).getAbsolutePath();
-                String[] cmd = {"","",""};
-                if(System.getProperty("os.name").startsWith("Linux")) {
-                    String command = "R --vanilla <" + path + " >/dev/null --args " + path2;
-                    cmd[0] = "bash";
-                    cmd[1] = "-c";
-                    cmd[2] = command;
-                } else if(System.getProperty("os.name").startsWith("Windows"))  {
-                    String command = "R --vanilla <\"" + path + "\" > nul 2> nul  --args \"" + path2 + "\"";
-                    cmd[0] = "cmd";
-                    cmd[1] = "/c";
-                    cmd[2] = command;
+                ScriptProtocol response = run("forecast", request, settings.outputLoc, null, JobScheduler.INTERACTIVE);
+                if(response != null) {
+                    ret = figures(settings.outputLoc, response);
                 }
-                Process p = new ProcessBuilder(cmd).redirectError(Redirect.INHERIT).redirectOutput(Redirect.INHERIT).start();
-                p.waitFor();
-                ret = true;
-            } catch(IOException | InterruptedException e) {
+            } catch(IOException | NumberFormatException e) {
                 ErrorManager.error("Forecast creation failed.","ScriptManager.forecast has encountered an error.", e);
             }
         }
@@ -142,223 +377,1175 @@ public class ScriptManager {
      * necessary for graphing.
      * @param settings GraphObject which holds the graphing options chosen by 
      * the user.
-     * @return False if there was an error in the Java code while calling the 
-     * script, true otherwise.
+     * @return Locations of the created figures, or null if there was an error 
+     * while calling the script.
      */
-    public static Boolean graph(String weather, String[] organisms, ModelObject model, GraphObject settings) {
-        boolean ret = false;
+    public static String[] graph(String weather, String[] organisms, ModelObject model, GraphObject settings) {
+        String[] ret = null;
         try {
-            try (BufferedWriter outpt = new BufferedWriter(new FileWriter("Temp/graphInput.txt"))) {
-                outpt.write("tag\tdata\r\n");
-                outpt.write("weather\t" + weather + "\r\n");
-                for (String OrganismFile : organisms) {
-                    outpt.write("species\t" + OrganismFile.replace("\\", "/") + "\r\n");
-                }
-                if(settings.organismStageNames != null) {
-                    for (String OrganismStageName : settings.organismStageNames) {
-                        outpt.write("stage\t" + OrganismStageName + "\r\n");
-                    }
-                }
-                outpt.write("saveLoc\t" + new File(settings.outputLoc).getAbsolutePath() + "\r\n");
-                for(int i = 0; i < model.paramCount; i++) {
-                    outpt.write("params\t" + model.params[i] + "\r\n");
-                }
-                outpt.write("logLike\t" + model.logLikelihood + "\r\n");
-                for (String map : model.stageMap) {
-                    outpt.write("stageMap\t" + map + "\r\n");
-                }
-                if(settings.log3d) {
-                    outpt.write("log3d\t1\r\n");
-                } else {
-                    outpt.write("log3d\t0\r\n");
-                }
-                if(settings.log2d) {
-                    outpt.write("log2d\t1\r\n");
-                } else {
-                    outpt.write("log2d\t0\r\n");
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", ScriptProtocol.readTable(weather));
+            request.putMatrix("species", ScriptProtocol.readOrganisms(organisms));
+            request.putStrings("stage", settings.organismStageNames);
+            request.putStrings("saveLoc", new File(settings.outputLoc).getAbsolutePath());
+            request.putNumbers("params", model.params);
+            request.putNumbers("logLike", model.logLikelihood);
+            request.putStageMap("stageMap", model.stageMap);
+            request.putNumbers("thresholds", model.lower, model.upper);
+            request.putFlag("log3d", settings.log3d);
+            request.putFlag("log2d", settings.log2d);
+            request.putFlag("expProp", settings.expProp);
+            request.putFlag("compRaw", settings.compRaw);
+            request.putFlag("together", settings.allTogether);
+            request.putFlag("combined", settings.combined);
+            request.putNumbers("log2dinterval", settings.log2dinterval);
+            request.putNumbers("log2doffset", settings.log2doffset);
+            request.putNumbers("log2dsample", settings.log2dsample);
+            request.putNumbers("logPdf3DShigh", settings.logPdf3DShigh);
+            request.putNumbers("logPdf3DSlow", settings.logPdf3DSlow);
+            request.putNumbers("logPdf3DThigh", settings.logPdf3DThigh);
+            request.putNumbers("logPdf3DTlow", settings.logPdf3DTlow);
+            request.putNumbers("expProphigh", settings.expProphigh);
+            request.putNumbers("expProplow", settings.expProplow);
+            request.putNumbers("compRawhigh", settings.compRawhigh);
+            request.putNumbers("compRawlow", settings.compRawlow);
+            request.putNumbers("combHigh", settings.combHigh);
+            request.putNumbers("combLow", settings.combLow);
+            request.putNumbers("width", settings.imgWidth);
+            request.putNumbers("height", settings.imgHeight);
+            ScriptProtocol response = run("graph", request, settings.outputLoc, null, JobScheduler.INTERACTIVE);
+            if(response != null) {
+                ret = figures(settings.outputLoc, response);
+            }
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Graph creation failed.","ScriptManager.graph has encountered an error.", e);
+        }
+        return ret;
+    }
+    
+    /**
+     * Fits several organisms at once with a shared V.
+     * Each chosen member of the organism dataset keeps its own A values, 
+     * but every member shares V, so that a variance all of them have in 
+     * common is estimated from all of their data instead of once from each. 
+     * The members are sent to `model.r` in a single request which searches 
+     * over V alone and fits the A values of each member side by side for 
+     * each V it tries, on as many cores as ScriptPool has workers. The method 
+     * is kept unless it is a global search, in which case Nelder-Mead is 
+     * used as for refit(). The thresholds are kept fixed.
+     * @param inpt The fit's settings: the chosen member files, the weather 
+     * dataset, stage map, method, and thresholds, and optionally starting 
+     * parameters holding the A values of each member in turn followed by V. 
+     * Its name becomes the name of the joint fit.
+     * @param names Name of each chosen member, in the order of its files.
+     * @param listener Receives the progress of the fit, or null.
+     * @return One model per member, named after the fit and the member, 
+     * holding its own A values followed by the shared V, or null if the fit 
+     * could not be made. The fit fails as a whole if V can not be bracketed 
+     * or any member can not be fitted at the shared V.
+     */
+    public static ArrayList<ModelObject> jointFit(ModelObject inpt, String[] names, ProgressListener listener) {
+        String optim = localOptimizer(inpt.optim);
+        try {
+            if(inpt.OrganismFiles.length < 2) {
+                ErrorManager.error("Joint fit failed.", "ScriptManager.jointFit needs at least 2 organisms, but " + inpt.OrganismFiles.length + " were chosen.", null);
+                return null;
+            }
+            List<double[]> rows = new ArrayList<>();
+            List<Double> organisms = new ArrayList<>();
+            for(int i = 0; i < inpt.OrganismFiles.length; i++) {
+                for(double[] row : ScriptProtocol.readOrganisms(new String[] {inpt.OrganismFiles[i]})) {
+                    rows.add(row);
+                    organisms.add((double) i);
                 }
-                if(settings.expProp) {
-                    outpt.write("expProp\t1\r\n");
-                } else {
-                    outpt.write("expProp\t0\r\n");
+            }
+            double[] joint = new double[organisms.size()];
+            for(int i = 0; i < joint.length; i++) {
+                joint[i] = organisms.get(i);
+            }
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", ScriptProtocol.readTable(inpt.weatherDatabaseLocation));
+            request.putMatrix("species", rows.toArray(new double[rows.size()][]));
+            request.putStageMap("stageMap", inpt.stageMap);
+            request.putNumbers("thresholds", inpt.lower, inpt.upper);
+            request.putStrings("optim", optim);
+            request.putNumbers("par", inpt.params);
+            request.putNumbers("joint", joint);
+            request.putNumbers("cores", ScriptPool.size());
+            ScriptProtocol response = run("model", request, null, listener, JobScheduler.MODEL);
+            if(response == null) {
+                return null;
+            }
+            double[][] fits = response.getMatrix("joint");
+            if(Double.isNaN(response.getNumber("log"))) {
+                ErrorManager.error("Joint fit failed.", "ScriptManager.jointFit found that the model script could not fit every organism at the shared V.", null);
+                return null;
+            }
+            if(fits.length != inpt.OrganismFiles.length) {
+                ErrorManager.error("Joint fit failed.", "ScriptManager.jointFit sent " + inpt.OrganismFiles.length + " organisms to the model script but " + fits.length + " came back.", null);
+                return null;
+            }
+            ArrayList<ModelObject> ret = new ArrayList<>();
+            for(double[] fit : fits) {
+                int i = (int) fit[0];
+                ModelObject model = new ModelObject();
+                model.name = inpt.name + " - " + names[i];
+                model.joint = inpt.name;
+                model.jointLogLikelihood = ScriptProtocol.format(response.getNumber("log"));
+                model.jointAic = ScriptProtocol.format(response.getNumber("aic"));
+                model.OrganismFiles = new String[] {inpt.OrganismFiles[i]};
+                model.organismCount = 1;
+                model.OrganismDatabaseLocation = inpt.OrganismDatabaseLocation;
+                model.OrganismDatabaseName = inpt.OrganismDatabaseName;
+                model.weatherDatabaseLocation = inpt.weatherDatabaseLocation;
+                model.weatherDatabaseName = inpt.weatherDatabaseName;
+                model.stageMap.addAll(inpt.stageMap);
+                model.optim = optim;
+                model.lower = inpt.lower;
+                model.upper = inpt.upper;
+                model.params = ScriptProtocol.format(Arrays.copyOfRange(fit, 3, fit.length));
+                model.paramCount = model.params.length;
+                model.logLikelihood = ScriptProtocol.format(fit[1]);
+                model.aic = ScriptProtocol.format(-2 * fit[1] + 2 * (model.paramCount + 1));
+                if(fit[2] != 0) {
+                    ErrorManager.warn("Joint fit did not converge.", "The fit of " + names[i] + " in the joint fit " + inpt.name + " ended with convergence code " + ScriptProtocol.format(fit[2]) + ".");
                 }
-                if(settings.compRaw) {
-                    outpt.write("compRaw\t1\r\n");
-                } else {
-                    outpt.write("compRaw\t0\r\n");
+                ret.add(model);
+            }
+            return ret;
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Joint fit failed.","ScriptManager.jointFit has encounered an error.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Draws the posterior distribution of the parameters of a model by MCMC.
+     * Each chain is sent to its own worker of ScriptPool, where `stats.r` 
+     * runs adaptive Metropolis from a random start near the fitted values. 
+     * The chains keep enough draws between them to make up the requested 
+     * iterations and burn in for as many steps as they then run. Their kept 
+     * draws are pooled in to aStar and vStar, so forecasts take their error 
+     * bars from the posterior, and the intervals are the alpha / 2 and 
+     * 1 - alpha / 2 quantiles of the pooled draws. R-hat and the effective 
+     * sample size of every parameter are found by ChainDiagnostics, and a 
+     * warning is shown if any R-hat is above R_HAT_LIMIT.
+     * @param organism Organism dataset to use in the calculations.
+     * @param weather Weather dataset to use in the calculations.
+     * @param params StatsObject holding the model parameters and settings, 
+     * including the number of chains and the thinning.
+     * @param listener Receives the combined progress of the chains, or null.
+     * @return The statistics, or null if a script run failed or there are
+     * fewer than 2 chains or a thinning below 1.
+     * @throws IOException If a dataset can not be read, a request can not be 
+     * written, the script can not be run, or a response is invalid, such as
+     * a chain which did not return the number of draws asked for.
+     */
+    private static StatsObject mcmc(DatabaseObject organism, DatabaseObject weather, StatsObject params, ProgressListener listener) throws IOException {
+        double[][] weatherTable = ScriptProtocol.readTable(weather.memberLocations[0]);
+        double[][] species = ScriptProtocol.readOrganisms(organism.memberLocations);
+        int chains = (int) ScriptProtocol.parse(params.chains);
+        int thin = (int) ScriptProtocol.parse(params.thin);
+        if((chains < 2) || (thin < 1)) {
+            ErrorManager.error("MCMC failed.", "ScriptManager.mcmc needs at least 2 chains and a thinning of at least 1, but was given " + params.chains + " chains and a thinning of " + params.thin + ".", null);
+            return null;
+        }
+        int kept = (int) Math.ceil(ScriptProtocol.parse(params.iterations) / chains);
+        List<ScriptProtocol> requests = new ArrayList<>();
+        for(int i = 0; i < chains; i++) {
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", weatherTable);
+            request.putMatrix("species", species);
+            request.putStageMap("stageMap", params.stageMap);
+            request.putNumbers("thresholds", params.lower, params.upper);
+            request.putNumbers("iter", 0);
+            request.putNumbers("alpha", params.alpha);
+            request.putNumbers("params", params.a);
+            request.putStrings("optim", params.optim);
+            request.putNumbers("mcmc", kept, thin, kept * thin);
+            requests.add(request);
+        }
+        int seed = seed(requests.get(0), chains);
+        for(int i = 0; i < chains; i++) {
+            requests.get(i).putNumbers("seed", seed + i);
+        }
+        ScriptProtocol[] responses = run("stats", requests, null, listener, JobScheduler.BATCH);
+        if(responses == null) {
+            return null;
+        }
+        StatsObject ret = toStats(responses[0]);
+        int stages = ret.a.length;
+        double alpha = ScriptProtocol.parse(params.alpha);
+        double[][][] draws = new double[stages + 1][chains][];
+        double accept = 0;
+        for(int c = 0; c < chains; c++) {
+            double[][] chain = responses[c].getMatrix("draws");
+            if(chain.length != kept) {
+                throw new IOException("Chain " + (c + 1) + " of the MCMC run returned " + chain.length + " draws, but " + kept + " were asked for.");
+            }
+            for(double[] row : chain) {
+                if(row.length <= stages) {
+                    throw new IOException("Chain " + (c + 1) + " of the MCMC run returned draws of " + row.length + " parameters, but the model has " + (stages + 1) + ".");
                 }
-                if(settings.allTogether) {
-                    outpt.write("together\t1\r\n");
-                } else {
-                    outpt.write("together\t0\r\n");
+            }
+            for(int j = 0; j <= stages; j++) {
+                draws[j][c] = new double[chain.length];
+                for(int i = 0; i < chain.length; i++) {
+                    draws[j][c][i] = chain[i][j];
                 }
-                if(settings.combined) {
-                    outpt.write("combined\t1\r\n");
+            }
+            accept += responses[c].getNumber("accept") / chains;
+        }
+        ret.method = "MCMC";
+        ret.iterations = String.valueOf(chains * kept);
+        ret.chains = String.valueOf(chains);
+        ret.thin = String.valueOf(thin);
+        ret.accept = ScriptProtocol.format(accept);
+        ret.aLow = new String[stages];
+        ret.aHigh = new String[stages];
+        ret.rHat = new String[stages + 1];
+        ret.ess = new String[stages + 1];
+        ret.aStar = new String[chains * kept][stages];
+        ret.vStar = new String[chains * kept];
+        double worst = 1;
+        for(int j = 0; j <= stages; j++) {
+            double[] pooled = new double[chains * kept];
+            for(int c = 0; c < chains; c++) {
+                System.arraycopy(draws[j][c], 0, pooled, c * kept, kept);
+            }
+            for(int i = 0; i < pooled.length; i++) {
+                if(j < stages) {
+                    ret.aStar[i][j] = ScriptProtocol.format(pooled[i]);
                 } else {
-                    outpt.write("combined\t0\r\n");
+                    ret.vStar[i] = ScriptProtocol.format(pooled[i]);
                 }
-                outpt.write("log2dinterval\t" + settings.log2dinterval + "\r\n");
-                outpt.write("log2doffset\t" + settings.log2doffset + "\r\n");
-                outpt.write("log2dsample\t" + settings.log2dsample + "\r\n");
-                outpt.write("logPdf3DShigh\t" + settings.logPdf3DShigh + "\r\n");
-                outpt.write("logPdf3DSlow\t" + settings.logPdf3DSlow + "\r\n");
-                outpt.write("logPdf3DThigh\t" + settings.logPdf3DThigh + "\r\n");
-                outpt.write("logPdf3DTlow\t" + settings.logPdf3DTlow + "\r\n");
-                outpt.write("expProphigh\t" + settings.expProphigh + "\r\n");
-                outpt.write("expProplow\t" + settings.expProplow + "\r\n");
-                outpt.write("compRawhigh\t" + settings.compRawhigh + "\r\n");
-                outpt.write("compRawlow\t" + settings.compRawlow + "\r\n");
-                outpt.write("combHigh\t" + settings.combHigh + "\r\n");
-                outpt.write("combLow\t" + settings.combLow + "\r\n");
-                outpt.write("width\t" + settings.imgWidth + "\r\n");
-                outpt.write("height\t" + settings.imgHeight + "\r\n");
-            }
-            String path = (new File("Scripts/graph.r")).getAbsolutePath();
-            String path2 = (new File("Temp/graphInput.txt")).getAbsolutePath();
-            String[] cmd = {"","",""};
-            if(System.getProperty("os.name").startsWith("Linux")) {
-                String command = "R --vanilla <" + path + " >/dev/null --args " + path2;
-                cmd[0] = "bash";
-                cmd[1] = "-c";
-                cmd[2] = command;
-            } else if(System.getProperty("os.name").startsWith("Windows"))  {
-                String command = "R --vanilla <\"" + path + "\" > nul 2> nul  --args \"" + path2 + "\"";
-                cmd[0] = "cmd";
-                cmd[1] = "/c";
-                cmd[2] = command;
-            }
-            Process p = new ProcessBuilder(cmd).redirectError(Redirect.INHERIT).redirectOutput(Redirect.INHERIT).start();
-            p.waitFor();
-            ret = true;
-        } catch(IOException | InterruptedException e) {
-            ErrorManager.error("Graph creation failed.","ScriptManager.graph has encountered an error.", e);
+            }
+            Arrays.sort(pooled);
+            String low = ScriptProtocol.format(Tau.quantile(pooled, alpha / 2));
+            String high = ScriptProtocol.format(Tau.quantile(pooled, 1 - alpha / 2));
+            if(j < stages) {
+                ret.aLow[j] = low;
+                ret.aHigh[j] = high;
+            } else {
+                ret.vLow = low;
+                ret.vHigh = high;
+            }
+            double rHat = ChainDiagnostics.rHat(draws[j]);
+            ret.rHat[j] = ScriptProtocol.format(rHat);
+            ret.ess[j] = ScriptProtocol.format(ChainDiagnostics.ess(draws[j]));
+            worst = Double.isNaN(rHat) ? Double.NaN : Math.max(worst, rHat);
+        }
+        if(!(worst <= R_HAT_LIMIT)) {
+            ErrorManager.warn("The MCMC chains may not have converged.", "The largest R-hat of the " + chains + " chains is " + ScriptProtocol.format(worst) + ", above " + R_HAT_LIMIT + ". Run the statistics again with more iterations or more thinning before relying on the intervals.");
         }
         return ret;
     }
     
+    /**
+     * Chooses the local method used in place of a global search.
+     * Refits, cross-validation folds, sampling design simulations, and joint
+     * fits start close to the answer, where a global search would only repeat
+     * work already done, and a stage map search makes too many fits for a 
+     * global search to be practical.
+     * @param optim The method of the model.
+     * @return Nelder-Mead if the method is "Multi-start" or "Differential 
+     * Evolution", otherwise the method itself.
+     */
+    private static String localOptimizer(String optim) {
+        if("Multi-start".equals(optim) || "Differential Evolution".equals(optim)) {
+            return "Nelder-Mead";
+        }
+        return optim;
+    }
+    
     /**
      * Calls the R scripts involved in producing a model.
      * This method is the interface point between requests for model creation 
      * coming from the GUI and the external scripts that do the actual 
-     * calculations. The method communicates with the R script by passing it a 
-     * labeled, two-column table. The first column states what kind of 
-     * information is stored by the line (weather, species, save target) and the 
-     * second column stores the actual values. The R script outputs the 
-     * calculated values as an XML file that can be read in directly through 
-     * XmlManager.loadModels. Makes use of the ./Temp directory to store 
-     * information in a format that R can understand.
+     * calculations. The organism files are added together and passed to the 
+     * script along with the weather data, the stage map, the optimization 
+     * method, and any starting parameters chosen by the user. The script 
+     * answers with the fitted parameters, the log likelihood, and the AIC.
      * @param inpt ModelObject containing the model and related information 
      * necessary for modeling.
      * @return The created model, if any.
      */
     public static ModelObject model(ModelObject inpt) {
+        return model(inpt, null);
+    }
+    
+    /**
+     * Calls the R scripts involved in producing a model and passes on the 
+     * progress of the fit.
+     * The script reports each evaluation of the likelihood along with its 
+     * current value. The total number of evaluations is not known in advance.
+     * <p>The "Multi-start" method fits the model from MULTI_STARTS starting 
+     * points spread around the user's parameters, or around the script's own 
+     * guess if there are none. The starts are split in to one request per 
+     * worker of ScriptPool so that they are fitted side by side, and each 
+     * reports the starts it has finished. The best converged fit is kept, and 
+     * the model records how many starts reached it.</p>
+     * <p>The "Differential Evolution" method evolves a population of 
+     * parameter sets in a single run of the script, which evaluates each 
+     * generation on as many cores as ScriptPool has workers. Its seed is 
+     * chosen by seed().</p>
+     * <p>If ModelObject.fitThresholds is set, the lower and upper thresholds 
+     * are fitted along with the parameters, starting from the model's 
+     * thresholds, and the fitted thresholds are returned with the model. The 
+     * global methods keep the thresholds fixed.</p>
+     * @param inpt ModelObject containing the model and related information 
+     * necessary for modeling.
+     * @param listener Receives the progress of the fit, or null.
+     * @return The created model, if any.
+     */
+    public static ModelObject model(ModelObject inpt, ProgressListener listener) {
         ModelObject ret = null;
         try {
-            try (BufferedWriter outpt = new BufferedWriter(new FileWriter("Temp/modelInput.txt"))) {
-                outpt.write("tag\tdata\r\n");
-                outpt.write("weather\t" + inpt.weatherDatabaseLocation + "\r\n");
-                for (String organismFile : inpt.OrganismFiles) {
-                    outpt.write("species\t" + organismFile + "\r\n");
-                }
-                for (String map : inpt.stageMap) {
-                    outpt.write("stageMap\t" + map + "\r\n");
+            if("Multi-start".equals(inpt.optim)) {
+                return multiStart(inpt, listener);
+            }
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", ScriptProtocol.readTable(inpt.weatherDatabaseLocation));
+            request.putMatrix("species", ScriptProtocol.readOrganisms(inpt.OrganismFiles));
+            request.putStageMap("stageMap", inpt.stageMap);
+            request.putNumbers("thresholds", inpt.lower, inpt.upper);
+            request.putFlag("fitThresholds", inpt.fitThresholds);
+            request.putStrings("optim", inpt.optim);
+            request.putNumbers("par", inpt.params);
+            if("Differential Evolution".equals(inpt.optim)) {
+                request.putNumbers("seed", seed(request, 0));
+                request.putNumbers("cores", ScriptPool.size());
+            }
+            ret = toModel(run("model", request, null, listener, JobScheduler.MODEL), "ScriptManager.model");
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Model creation failed.","ScriptManager.model has encounered an error.", e);
+        }
+        return ret;
+    }
+    
+    /**
+     * Fits a model from many starting points side by side.
+     * Every shard is sent the same seed, so they all build the same starting 
+     * points and each fits the ones dealt to it. The seed is chosen by 
+     * seed(). Each response lists the starts of its 
+     * shard with their fitted parameters, log likelihood, and convergence 
+     * code. A start agrees with the best fit if it converged, its log 
+     * likelihood is within AGREE_LOG of the best, and each of its parameters 
+     * is within AGREE_PARAMS of the best's.
+     * @param inpt ModelObject containing the model and related information 
+     * necessary for modeling.
+     * @param listener Receives the combined progress of the shards, or null.
+     * @return The best fit, or null if no start could be fitted.
+     * @throws IOException If a dataset can not be read, a request can not be 
+     * written, the script can not be run, or a response is invalid.
+     */
+    private static ModelObject multiStart(ModelObject inpt, ProgressListener listener) throws IOException {
+        double[][] weatherTable = ScriptProtocol.readTable(inpt.weatherDatabaseLocation);
+        double[][] species = ScriptProtocol.readOrganisms(inpt.OrganismFiles);
+        int shards = Math.max(1, Math.min(ScriptPool.size(), MULTI_STARTS));
+        List<ScriptProtocol> requests = new ArrayList<>();
+        for(int i = 0; i < shards; i++) {
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", weatherTable);
+            request.putMatrix("species", species);
+            request.putStageMap("stageMap", inpt.stageMap);
+            request.putNumbers("thresholds", inpt.lower, inpt.upper);
+            request.putStrings("optim", inpt.optim);
+            request.putNumbers("par", inpt.params);
+            requests.add(request);
+        }
+        int seed = seed(requests.get(0), 0);
+        for(int i = 0; i < shards; i++) {
+            requests.get(i).putNumbers("multiStart", MULTI_STARTS, seed, i, shards);
+        }
+        ScriptProtocol[] responses = run("model", requests, null, listener, JobScheduler.MODEL);
+        if(responses == null) {
+            return null;
+        }
+        List<double[]> starts = new ArrayList<>();
+        for(ScriptProtocol response : responses) {
+            starts.addAll(Arrays.asList(response.getMatrix("starts")));
+        }
+        double[] best = null;
+        for(double[] start : starts) {
+            int n = start.length;
+            boolean fitted = !Double.isNaN(start[n - 2]);
+            boolean better = (best == null) || ((start[n - 1] == 0) && (best[n - 1] != 0)) || (((start[n - 1] == 0) == (best[n - 1] == 0)) && (start[n - 2] > best[n - 2]));
+            if(fitted && better) {
+                best = start;
+            }
+        }
+        if(best == null) {
+            ErrorManager.error("Model creation failed", "ScriptManager.multiStart ran " + starts.size() + " starts but none of them could be fitted. Check that the input datasets are valid.", null);
+            return null;
+        }
+        int n = best.length;
+        int agreed = 0;
+        for(double[] start : starts) {
+            boolean agrees = (start[n - 1] == 0) && (Math.abs(start[n - 2] - best[n - 2]) <= AGREE_LOG);
+            for(int j = 1; agrees && (j < n - 2); j++) {
+                agrees = Math.abs(start[j] - best[j]) <= AGREE_PARAMS * Math.abs(best[j]);
+            }
+            if(agrees) {
+                agreed++;
+            }
+        }
+        double[] params = Arrays.copyOfRange(best, 1, n - 2);
+        ModelObject ret = new ModelObject();
+        ret.params = ScriptProtocol.format(params);
+        ret.paramCount = params.length;
+        ret.logLikelihood = ScriptProtocol.format(best[n - 2]);
+        ret.aic = ScriptProtocol.format(-2 * best[n - 2] + 2 * (params.length + 1));
+        ret.lower = inpt.lower;
+        ret.upper = inpt.upper;
+        ret.starts = String.valueOf(starts.size());
+        ret.startsAgreed = String.valueOf(agreed);
+        return ret;
+    }
+    
+    /**
+     * Finds profile likelihood intervals for the parameters of a model.
+     * Each end of each interval is the value at which the log likelihood, 
+     * with the other parameters refitted, has fallen by half the chi-squared 
+     * quantile of 1 - alpha. The ends are shared between the workers of 
+     * ScriptPool, and each end is walked out from the fitted value with every 
+     * refit starting from the last. No bootstrap is run, so the P-values are 
+     * taken from the chi-squared distribution and there are no draws.
+     * @param organism Organism dataset to use in the calculations.
+     * @param weather Weather dataset to use in the calculations.
+     * @param params StatsObject holding the model parameters and settings.
+     * @param listener Receives the progress of the refits, or null.
+     * @return The statistics, or null if a script run failed.
+     * @throws IOException If a dataset can not be read, a request can not be 
+     * written, the script can not be run, or a response is invalid.
+     */
+    private static StatsObject profile(DatabaseObject organism, DatabaseObject weather, StatsObject params, ProgressListener listener) throws IOException {
+        double[][] weatherTable = ScriptProtocol.readTable(weather.memberLocations[0]);
+        double[][] species = ScriptProtocol.readOrganisms(organism.memberLocations);
+        int shards = Math.max(1, Math.min(ScriptPool.size(), 2 * params.a.length));
+        List<ScriptProtocol> requests = new ArrayList<>();
+        for(int i = 0; i < shards; i++) {
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", weatherTable);
+            request.putMatrix("species", species);
+            request.putStageMap("stageMap", params.stageMap);
+            request.putNumbers("thresholds", params.lower, params.upper);
+            request.putNumbers("iter", 0);
+            request.putNumbers("alpha", params.alpha);
+            request.putNumbers("params", params.a);
+            request.putStrings("optim", params.optim);
+            request.putNumbers("profile", i, shards);
+            requests.add(request);
+        }
+        ScriptProtocol[] responses = run("stats", requests, null, listener, JobScheduler.BATCH);
+        if(responses == null) {
+            return null;
+        }
+        StatsObject ret = toStats(responses[0]);
+        int stages = ret.a.length;
+        ret.method = "Profile Likelihood";
+        ret.aLow = new String[stages];
+        ret.aHigh = new String[stages];
+        Arrays.fill(ret.aLow, "NA");
+        Arrays.fill(ret.aHigh, "NA");
+        ret.vLow = "NA";
+        ret.vHigh = "NA";
+        for(ScriptProtocol response : responses) {
+            for(double[] bound : response.getMatrix("bounds")) {
+                int j = (int) bound[0] - 1;
+                String value = ScriptProtocol.format(bound[2]);
+                if(j == stages) {
+                    if(bound[1] < 0) {
+                        ret.vLow = value;
+                    } else {
+                        ret.vHigh = value;
+                    }
+                } else if(bound[1] < 0) {
+                    ret.aLow[j] = value;
+                } else {
+                    ret.aHigh[j] = value;
                 }
-                outpt.write("saveLoc\t" + new File("Temp").getAbsolutePath()+ "\r\n");
-                outpt.write("optim\t" + inpt.optim + "\r\n");
-                if(inpt.params != null) {
-                    for(String s : inpt.params) {
-                        outpt.write("par\t" + s + "\r\n");
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Fits a stored model again to the current contents of its datasets.
+     * This is meant for datasets which have grown since the model was 
+     * fitted, such as an organism dataset with a new sampling date. The fit 
+     * starts from the stored parameters rather than from the script's guess, 
+     * so it only has to move as far as the new data pulls it. If the model 
+     * has statistics, the width of each parameter's interval is passed to 
+     * the script as the scale of that parameter. The stored method is kept 
+     * unless it is a global search, in which case Nelder-Mead is used since 
+     * the search already starts at an optimum.
+     * @param previous The stored model. It is not changed.
+     * @param weather Weather dataset to fit to, usually the one the stored 
+     * model was fitted to.
+     * @param listener Receives the progress of the fit, or null.
+     * @return The new model, named after the stored one with the time of 
+     * the refit added and linked to it through ModelObject.parent, or null 
+     * if it could not be fitted.
+     */
+    public static ModelObject refit(ModelObject previous, DatabaseObject weather, ProgressListener listener) {
+        ModelObject ret = null;
+        String optim = localOptimizer(previous.optim);
+        try {
+            ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+            request.putMatrix("weather", ScriptProtocol.readTable(weather.memberLocations[0]));
+            request.putMatrix("species", ScriptProtocol.readOrganisms(previous.OrganismFiles));
+            request.putStageMap("stageMap", previous.stageMap);
+            request.putNumbers("thresholds", previous.lower, previous.upper);
+            request.putFlag("fitThresholds", previous.fitThresholds);
+            request.putStrings("optim", optim);
+            request.putNumbers("par", previous.params);
+            double[] scale = spread(previous.stats);
+            if((scale != null) && (scale.length == previous.params.length)) {
+                request.putNumbers("scale", scale);
+            }
+            ret = toModel(run("model", request, null, listener, JobScheduler.MODEL), "ScriptManager.refit");
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Model refit failed.","ScriptManager.refit has encounered an error.", e);
+        }
+        if(ret != null) {
+            ret.name = previous.name + "-" + new SimpleDateFormat("MM.dd.HH.mm.ss").format(new Date());
+            ret.parent = previous.name;
+            ret.fitThresholds = previous.fitThresholds;
+            ret.optim = optim;
+            ret.OrganismDatabaseLocation = previous.OrganismDatabaseLocation;
+            ret.OrganismDatabaseName = previous.OrganismDatabaseName;
+            ret.OrganismFiles = Arrays.copyOf(previous.OrganismFiles, previous.OrganismFiles.length);
+            ret.organismCount = previous.organismCount;
+            ret.stageMap.addAll(previous.stageMap);
+            ret.stats.optim = optim;
+            ret.weatherDatabaseLocation = weather.memberLocations[0];
+            ret.weatherDatabaseName = weather.name;
+        }
+        return ret;
+    }
+    
+    /**
+     * Estimates the spread of the log of each model parameter from its 
+     * statistics.
+     * The interval of a parameter covers about four standard deviations of 
+     * its bootstrap draws at the usual alpha of 0.05, so a quarter of the 
+     * width of the interval on the log scale is used.
+     * @param stats The statistics of the model.
+     * @return The spread of each parameter, A values followed by V, or null 
+     * if the statistics are missing or incomplete.
+     */
+    private static double[] spread(StatsObject stats) {
+        if((stats == null) || (stats.a == null) || (stats.aHigh == null) || (stats.aLow == null) || (stats.aHigh.length != stats.a.length) || (stats.aLow.length != stats.a.length)) {
+            return null;
+        }
+        int count = stats.a.length;
+        double[] ret = new double[count + 1];
+        for(int i = 0; i <= count; i++) {
+            double high = ScriptProtocol.parse(i < count ? stats.aHigh[i] : stats.vHigh);
+            double low = ScriptProtocol.parse(i < count ? stats.aLow[i] : stats.vLow);
+            ret[i] = (Math.log(high) - Math.log(low)) / 4;
+            if(Double.isNaN(ret[i]) || Double.isInfinite(ret[i]) || (ret[i] <= 0)) {
+                return null;
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Fits the model to every way of merging neighboring stages and ranks the 
+     * fits by AIC.
+     * An organism with n stages can be merged in 2^(n-1) ways that keep the 
+     * stages in order, one of which merges every stage and is left out. The 
+     * stage maps are split in to one request per worker of ScriptPool, and 
+     * each run of `model.r` works out the degree days once and reuses them 
+     * for every stage map it fits. Each fit starts from the script's own 
+     * guess. Global methods are replaced by Nelder-Mead, since they would 
+     * make the search too slow.
+     * @param inpt ModelObject holding the organism files, the weather 
+     * dataset, and the optimization method. Its stage map is ignored.
+     * @param listener Receives the combined progress of the search, or null.
+     * @return One model per stage map which could be fitted, with the lowest 
+     * AIC first, or null if the search could not be run.
+     */
+    public static ArrayList<ModelObject> searchStageMaps(ModelObject inpt, ProgressListener listener) {
+        ArrayList<ModelObject> ret = null;
+        String optim = localOptimizer(inpt.optim);
+        try {
+            double[][] weatherTable = ScriptProtocol.readTable(inpt.weatherDatabaseLocation);
+            double[][] species = ScriptProtocol.readOrganisms(inpt.OrganismFiles);
+            int stages = species.length > 0 ? species[0].length - 1 : 0;
+            if((stages < 2) || (stages > MAX_SEARCH_STAGES)) {
+                ErrorManager.error("Stage map search failed.", "ScriptManager.searchStageMaps can search organisms with 2 to " + MAX_SEARCH_STAGES + " stages, but the dataset has " + stages + ".", null);
+                return null;
+            }
+            double[][] candidates = new double[(1 << (stages - 1)) - 1][stages];
+            for(int mask = 1; mask < (1 << (stages - 1)); mask++) {
+                int target = 0;
+                for(int i = 0; i < stages; i++) {
+                    if((i > 0) && ((mask & (1 << (i - 1))) != 0)) {
+                        target = i;
                     }
+                    candidates[mask - 1][i] = target;
                 }
             }
-            String path = (new File("Scripts/model.r")).getAbsolutePath();
-            String path2 = (new File("Temp/modelInput.txt")).getAbsolutePath();
-            String path3 = (new File("Temp/model.txt")).getAbsolutePath();
-            String[] cmd = {"","",""};
-            if(System.getProperty("os.name").startsWith("Linux")) {
-                String command = "R --vanilla <" + path + " >/dev/null --args " + path2 + " " + path3; 
-                cmd[0] = "bash";
-                cmd[1] = "-c";
-                cmd[2] = command;
-            } else if(System.getProperty("os.name").startsWith("Windows"))  {
-                String command = "R --vanilla <\"" + path + "\" > nul 2> nul --args \"" + path2 + "\" \"" + path3 + "\"";
-                cmd[0] = "cmd";
-                cmd[1] = "/c";
-                cmd[2] = command;
-            }
-            Process p = new ProcessBuilder(cmd).redirectError(Redirect.INHERIT).redirectOutput(Redirect.INHERIT).start();
-            p.waitFor();
-            File modelFile = new File("Temp/modelOutput.xml");
-            if(!modelFile.exists()) {
-                ErrorManager.error("Model creation failed", "The script to create the model was run but no output could be found even though no error messages were recieved.", null);
-            } else {
-                ArrayList<ModelObject> mo = XmlManager.loadModels("Temp/modelOutput.xml");
-                if(mo.size() < 1) {
-                    ErrorManager.error("Model creation failed", "The script to create the model was run by ScriptManager.model but no model data was found in the output file.", null);
-                } else {
-                    ret = mo.get(0);
+            int shards = Math.max(1, Math.min(ScriptPool.size(), candidates.length));
+            List<ScriptProtocol> requests = new ArrayList<>();
+            for(int i = 0; i < shards; i++) {
+                ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+                request.putMatrix("weather", weatherTable);
+                request.putMatrix("species", species);
+                request.putNumbers("thresholds", inpt.lower, inpt.upper);
+                request.putStrings("optim", optim);
+                request.putMatrix("candidates", candidates);
+                request.putNumbers("search", i, shards);
+                requests.add(request);
+            }
+            ScriptProtocol[] responses = run("model", requests, null, listener, JobScheduler.MODEL);
+            if(responses == null) {
+                return null;
+            }
+            ret = new ArrayList<>();
+            for(ScriptProtocol response : responses) {
+                for(double[] fit : response.getMatrix("fits")) {
+                    if(Double.isNaN(fit[1])) {
+                        continue;
+                    }
+                    double[] map = candidates[(int) fit[0] - 1];
+                    ModelObject model = new ModelObject();
+                    int groups = 0;
+                    for(int i = 0; i < stages; i++) {
+                        model.stageMap.add(i + ":" + (int) map[i]);
+                        if(map[i] == i) {
+                            groups++;
+                        }
+                    }
+                    model.params = ScriptProtocol.format(Arrays.copyOfRange(fit, 4, 4 + groups));
+                    model.paramCount = model.params.length;
+                    model.logLikelihood = ScriptProtocol.format(fit[1]);
+                    model.aic = ScriptProtocol.format(fit[2]);
+                    model.lower = inpt.lower;
+                    model.upper = inpt.upper;
+                    model.optim = optim;
+                    model.stats.optim = optim;
+                    model.OrganismDatabaseLocation = inpt.OrganismDatabaseLocation;
+                    model.OrganismDatabaseName = inpt.OrganismDatabaseName;
+                    model.OrganismFiles = inpt.OrganismFiles;
+                    model.organismCount = inpt.organismCount;
+                    model.weatherDatabaseLocation = inpt.weatherDatabaseLocation;
+                    model.weatherDatabaseName = inpt.weatherDatabaseName;
+                    ret.add(model);
                 }
             }
-        } catch(IOException | InterruptedException | NumberFormatException e) {
-            ErrorManager.error("Model creation failed.","ScriptManager.model has encounered an error.", e);
+            Collections.sort(ret, new Comparator<ModelObject>() {
+                @Override
+                public int compare(ModelObject a, ModelObject b) {
+                    return Double.compare(ScriptProtocol.parse(a.aic), ScriptProtocol.parse(b.aic));
+                }
+            });
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Stage map search failed.","ScriptManager.searchStageMaps has encounered an error.", e);
         }
         return ret;
     }
     
+    /**
+     * Chooses the seed of the random number generator for a run.
+     * Every method which draws random numbers, whether in the program or in
+     * its scripts, takes its seed from here. While ResultCache is turned on 
+     * the seed is taken from a SHA-256 hash of the request, so that a 
+     * repeated request gives the same result as the one cached for it while 
+     * different requests still draw different numbers. Otherwise it is 
+     * chosen at random. A run split in to shards hashes its first shard 
+     * before any seed is added to it, and the shards count up from the seed.
+     * @param key The request the seed is for, without its seed.
+     * @param reserve How many seeds after the one returned the caller adds 
+     * to it, such as one for each shard or chain.
+     * @return A seed from 0 to Integer.MAX_VALUE - reserve - 1.
+     */
+    private static int seed(ScriptProtocol key, int reserve) {
+        if(!ResultCache.isEnabled()) {
+            return new Random().nextInt(Integer.MAX_VALUE - reserve);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            key.digest(digest);
+            return (int) ((ByteBuffer.wrap(digest.digest()).getLong() & Long.MAX_VALUE) % (Integer.MAX_VALUE - reserve));
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+    
     /**
      * Calls the R script which performs further statistical operations on the 
      * dataset and model.
      * This method is the interface point between the GUI and the statistics 
      * script. This method calls a script, `stats.r` which takes in an organism 
      * dataset, a weather dataset, and a model and performs a variety of 
-     * statistical calculations on them. The script outputs the results using an 
-     * XML file described by XmlManager.loadStats.
+     * statistical calculations on them.
+     * <p>Most of the script's time is spent on bootstrap iterations, which are 
+     * independent of each other. When there are enough of them the request is 
+     * split in to shards, one per worker of ScriptPool, each running a slice of 
+     * the iterations with its own random seed. The draws of every shard are 
+     * then combined by BootstrapSummary, which calculates the p-values and 
+     * intervals from the full set of draws. The seeds are chosen by 
+     * seed().</p>
+     * <p>If remote workers are set up, shards are also sent to them through 
+     * StatsCluster, which moves the shards of a lost worker to another.</p>
+     * <p>While the bootstrap runs, each shard saves its finished draws to a 
+     * checkpoint about every 30 seconds. If the program or computer stops, 
+     * the same request made again resumes each shard from its checkpoint 
+     * rather than starting over. This needs the same number of shards, which 
+     * is the case as long as the number of workers has not changed.</p>
+     * <p>Runs of STREAM_ITERATIONS or more do not keep every draw. Each shard 
+     * keeps a QuantileSketch of each parameter, counts of the draws for the 
+     * p-values, and an evenly spaced sample of the draws for the forecasts, 
+     * so memory stays bounded however many iterations are asked for.</p>
+     * @param organism Organism dataset to use in the calculations.
+     * @param weather Weather dataset to use in the calculations.
+     * @param params StatsObject containing the information necessary for 
+     * calculations, including the model parameters and user settings.
+     * @return The calculated statistics, or null if they could not be 
+     * calculated.
+     */
+    public static StatsObject stats(DatabaseObject organism, DatabaseObject weather, StatsObject params) {
+        return stats(organism, weather, params, null);
+    }
+    
+    /**
+     * Calls the R script which performs further statistical operations on the 
+     * dataset and model and passes on the progress of the bootstrap.
+     * The script reports each finished bootstrap iteration along with the log 
+     * likelihood of its fit. When the request is split in to shards the 
+     * iterations of every shard are added together. If the method of params 
+     * is "Profile Likelihood" the intervals are found by profile() instead, 
+     * and if it is "MCMC" the posterior is drawn by mcmc().
      * @param organism Organism dataset to use in the calculations.
      * @param weather Weather dataset to use in the calculations.
      * @param params StatsObject containing the information necessary for 
      * calculations, including the model parameters and user settings.
+     * @param listener Receives the progress of the bootstrap, or null.
+     * @return The calculated statistics, or null if they could not be 
+     * calculated.
      */
-    public static void stats(DatabaseObject organism, DatabaseObject weather, StatsObject params) {
+    public static StatsObject stats(DatabaseObject organism, DatabaseObject weather, StatsObject params, ProgressListener listener) {
+        StatsObject ret = null;
         try {
-            try (BufferedWriter outpt = new BufferedWriter(new FileWriter("Temp/statsInput.txt"))) {
-                outpt.write("tag\tdata\r\n");
-                outpt.write("weather\t" + weather.memberLocations[0] + "\r\n");
-                for (String OrganismFile : organism.memberLocations) {
-                    outpt.write("species\t" + OrganismFile + "\r\n");
+            if("Profile Likelihood".equals(params.method)) {
+                ret = profile(organism, weather, params, listener);
+                if(ret != null) {
+                    ret.stageMap.addAll(params.stageMap);
                 }
-                for (String map : params.stageMap) {
-                    outpt.write("stageMap\t" + map + "\r\n");
+                return ret;
+            }
+            if("MCMC".equals(params.method)) {
+                ret = mcmc(organism, weather, params, listener);
+                if(ret != null) {
+                    ret.stageMap.addAll(params.stageMap);
+                }
+                return ret;
+            }
+            double[][] weatherTable = ScriptProtocol.readTable(weather.memberLocations[0]);
+            double[][] species = ScriptProtocol.readOrganisms(organism.memberLocations);
+            double iterations = ScriptProtocol.parse(params.iterations);
+            List<StatsCluster.Connection> remote = iterations < 2 * SHARD_ITERATIONS ? new ArrayList<StatsCluster.Connection>() : StatsCluster.connect();
+            int shards = shards(iterations, ScriptPool.size() + remote.size());
+            List<ScriptProtocol> requests = new ArrayList<>();
+            for(int i = 0; i < shards; i++) {
+                ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+                request.putMatrix("weather", weatherTable);
+                request.putMatrix("species", species);
+                request.putStageMap("stageMap", params.stageMap);
+                request.putNumbers("thresholds", params.lower, params.upper);
+                if(shards == 1) {
+                    request.putNumbers("iter", params.iterations);
+                } else {
+                    request.putNumbers("iter", (int) iterations / shards + (i < (int) iterations % shards ? 1 : 0));
+                    request.putNumbers("shard", i);
+                }
+                request.putNumbers("alpha", params.alpha);
+                request.putNumbers("params", params.a);
+                request.putStrings("optim", params.optim);
+                if(iterations >= STREAM_ITERATIONS) {
+                    request.putNumbers("stream", SKETCH_CAPACITY);
                 }
-                outpt.write("saveLoc\t" + new File("Temp").getAbsolutePath() + "\r\n");
-                outpt.write("iter\t" + params.iterations + "\r\n");
-                outpt.write("alpha\t" + params.alpha + "\r\n");
-                for(String param : params.a) {
-                    outpt.write("params\t" + param + "\r\n");
+                requests.add(request);
+            }
+            if(shards > 1) {
+                int seed = seed(requests.get(0), shards);
+                for(int i = 0; i < shards; i++) {
+                    requests.get(i).putNumbers("seed", seed + i);
+                }
+            }
+            for(ScriptProtocol request : requests) {
+                request.putStrings("checkpoint", checkpoint(request));
+            }
+            ScriptProtocol[] responses = remote.isEmpty() ? run("stats", requests, null, listener, JobScheduler.BATCH) : StatsCluster.run(remote, requests, listener);
+            if(responses != null) {
+                if(shards == 1) {
+                    ret = toStats(responses[0]);
+                } else {
+                    ret = toStats(BootstrapSummary.merge(Arrays.asList(responses), ScriptProtocol.parse(params.alpha)));
                 }
-                outpt.write("AvalMat\t" + 1 + "\r\n");
-                outpt.write("Astar\t" + 1 + "\r\n");
-                outpt.write("Vstar\t" + 1 + "\r\n");
-                outpt.write("GGstar\t" + 1 + "\r\n");
-                outpt.write("optim\t" + params.optim + "\r\n");
-            }
-            String path = (new File("Scripts/stats.r")).getAbsolutePath();
-            String path2 = (new File("Temp/statsInput.txt")).getAbsolutePath();
-            String[] cmd = {"","",""};
-            if(System.getProperty("os.name").startsWith("Linux")) {
-                String command = "R --vanilla <" + path + " >/dev/null --args " + path2; 
-                cmd[0] = "bash";
-                cmd[1] = "-c";
-                cmd[2] = command;
-            } else if(System.getProperty("os.name").startsWith("Windows"))  {
-                String command = "R --vanilla <\"" + path + "\" > nul 2> nul --args \"" + path2 + "\"";
-                cmd[0] = "cmd";
-                cmd[1] = "/c";
-                cmd[2] = command;
-            }
-            Process p = new ProcessBuilder(cmd).redirectError(Redirect.INHERIT).redirectOutput(Redirect.INHERIT).start();
-            p.waitFor();
-       } catch (IOException | InterruptedException e) {
+                ret.stageMap.addAll(params.stageMap);
+            }
+        } catch (IOException | NumberFormatException e) {
             ErrorManager.error("Statistical creation failed.","ScriptManager.stats has encounered an error.", e);
         }
+        return ret;
+    }
+    
+    /**
+     * Finds where `stats.r` saves the checkpoints of a request.
+     * The location is named after a hash of the request without its seed, so 
+     * a request repeated after the program was stopped finds the checkpoint 
+     * of the earlier run even when its seeds were chosen at random. The 
+     * script restores the state of the random number generator from the 
+     * checkpoint. The location is relative to the program's directory so that 
+     * a remote worker of StatsCluster keeps the checkpoint on its own disk. 
+     * Any checkpoint block already in the request is left out of the hash, 
+     * so a worker finds the same location as the program which sent it.
+     * @param request The request.
+     * @return Location of the checkpoint.
+     */
+    static String checkpoint(ScriptProtocol request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            request.digest(digest, "seed", "checkpoint");
+            return CHECKPOINTS + "/" + ResultCache.toHex(digest.digest()) + ".rds";
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+    
+    /**
+     * Decides how many shards to split a statistics request in to.
+     * Each shard is given at least SHARD_ITERATIONS iterations, since a 
+     * shard has to repeat the setup work of the script, and there are never 
+     * more shards than slots to run them on.
+     * @param iterations Total bootstrap iterations requested.
+     * @param slots Number of R workers the shards can run on, local and 
+     * remote.
+     * @return The number of shards, 1 if the request should not be split.
+     */
+    private static int shards(double iterations, int slots) {
+        if(Double.isNaN(iterations) || (iterations < 2 * SHARD_ITERATIONS)) {
+            return 1;
+        }
+        return Math.max(1, Math.min(slots, (int) (iterations / SHARD_ITERATIONS)));
+    }
+    
+    /**
+     * Finds the figures listed in a response.
+     * @param directory The directory the script was told to save figures in.
+     * @param response The script's response.
+     * @return Locations of the figures which exist on disk.
+     */
+    private static String[] figures(String directory, ScriptProtocol response) {
+        String[] names = response.getStrings("figures");
+        String[] holder = new String[names.length];
+        int count = 0;
+        for(String name : names) {
+            File file = new File(directory, name);
+            if(file.exists()) {
+                holder[count++] = file.getAbsolutePath();
+            }
+        }
+        String[] ret = new String[count];
+        System.arraycopy(holder, 0, ret, 0, count);
+        return ret;
+    }
+    
+    /**
+     * Runs a script on a request.
+     * @param script Name of the script in ./Scripts, without the extension.
+     * @param request The request to pass to the script.
+     * @param outputDirectory Directory the script draws its figures in, or null
+     * if the script does not create figures.
+     * @param listener Receives the progress reported by the script, or null.
+     * @param priority Priority class of the run in JobScheduler.
+     * @return The script's response, or null if the script did not produce one.
+     * @throws IOException If the request can not be written, the script can not 
+     * be run, or the response is invalid.
+     * @see run(String, List, String, ProgressListener, int)
+     */
+    static ScriptProtocol run(String script, ScriptProtocol request, String outputDirectory, ProgressListener listener, int priority) throws IOException {
+        ScriptProtocol[] ret = run(script, Collections.singletonList(request), outputDirectory, listener, priority);
+        return ret == null ? null : ret[0];
+    }
+    
+    /**
+     * Runs a script on several requests side by side.
+     * Each run is given its own directory under `./Temp/Jobs` holding the 
+     * request file, `request.bin`, and the response written by the script, 
+     * `response.bin`, so that runs on different workers of ScriptPool never 
+     * share files. The directory is removed once the response has been read. 
+     * Every request is queued before waiting on any of them, so the requests 
+     * are worked on by as many workers as are free. The runs share one group 
+     * in JobScheduler, so they take turns with the runs of other calls of the 
+     * same priority. If ResultCache already holds the result of an identical 
+     * request the script is not run for it.
+     * @param script Name of the script in ./Scripts, without the extension.
+     * @param requests The requests to pass to the script.
+     * @param outputDirectory Directory the script draws its figures in, or null
+     * if the script does not create figures.
+     * @param listener Receives the combined progress reported by the runs, or 
+     * null.
+     * @param priority Priority class of the runs in JobScheduler.
+     * @return The script's responses in the same order as the requests, or 
+     * null if any run did not produce one.
+     * @throws IOException If a request can not be written, the script can not 
+     * be run, or a response is invalid.
+     */
+    private static ScriptProtocol[] run(String script, List<ScriptProtocol> requests, String outputDirectory, ProgressListener listener, int priority) throws IOException {
+        String path = (new File("Scripts/" + script + ".r")).getAbsolutePath();
+        int count = requests.size();
+        long group = JobScheduler.newGroup();
+        ScriptProtocol[] ret = new ScriptProtocol[count];
+        String[] keys = new String[count];
+        File[] jobs = new File[count];
+        Future<?>[] running = new Future<?>[count];
+        ProgressListener[] listeners = track(script, count, listener);
+        File jobDirectory = new File("Temp/Jobs");
+        jobDirectory.mkdirs();
+        try {
+            for(int i = 0; i < count; i++) {
+                keys[i] = ResultCache.key(path, requests.get(i));
+                ret[i] = ResultCache.lookup(keys[i], outputDirectory);
+                if(ret[i] == null) {
+                    jobs[i] = Files.createTempDirectory(jobDirectory.toPath(), script).toFile();
+                    File request = new File(jobs[i], "request.bin");
+                    requests.get(i).write(request.getAbsolutePath());
+                    running[i] = ScriptPool.submit(path, request.getAbsolutePath(), new File(jobs[i], "response.bin").getAbsolutePath(), listeners[i], priority, group);
+                }
+            }
+            for(int i = 0; i < count; i++) {
+                if(running[i] == null) {
+                    continue;
+                }
+                ScriptPool.await(running[i], path);
+                running[i] = null;
+                File response = new File(jobs[i], "response.bin");
+                if(!ScriptProtocol.exists(response.getPath())) {
+                    ErrorManager.error("The " + script + " script did not finish.", "ScriptManager.run ran " + path + " but it did not write a response to " + response.getAbsolutePath() + ". Check that the input datasets are valid.", null);
+                    return null;
+                }
+                ret[i] = ScriptProtocol.read(response.getPath(), ScriptProtocol.RESPONSE);
+                ResultCache.store(keys[i], response.getPath(), outputDirectory);
+                response.delete();
+                new File(jobs[i], "request.bin").delete();
+                jobs[i].delete();
+            }
+        } finally {
+            for(Future<?> job : running) {
+                if(job != null) {
+                    job.cancel(true);
+                }
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Creates listeners which combine the progress of several runs.
+     * @param script Name of the script the runs use.
+     * @param count Number of runs.
+     * @param listener Receives the combined progress, or null.
+     * @return One listener for each run, all null if listener is null.
+     */
+    static ProgressListener[] track(String script, int count, ProgressListener listener) {
+        ProgressListener[] ret = new ProgressListener[count];
+        if(listener != null) {
+            ProgressTracker tracker = new ProgressTracker();
+            tracker.done = new long[count];
+            tracker.listener = listener;
+            tracker.start = System.currentTimeMillis();
+            tracker.task = script;
+            tracker.total = new long[count];
+            Arrays.fill(tracker.total, -1);
+            for(int i = 0; i < count; i++) {
+                ret[i] = tracker.run(i);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Sweeps the model parameters and thresholds to find how sensitive a 
+     * forecast is to each of them.
+     * The forecast target is the day on which the targeted proportion of the 
+     * population is in the chosen stage or less, the same target that is 
+     * drawn on the forecast figure. Each model parameter is moved up and down 
+     * by SweepObject.spread of its value and each threshold by 
+     * SweepObject.thresholdSpread degrees. The points, laid out by 
+     * SensitivitySweep, are split in to one request per worker of ScriptPool, 
+     * and each run of `forecast.r` works out the degree days again only when 
+     * the thresholds change from one point to the next. The seed of a random 
+     * sample is chosen by seed() from the baseline, the ranges, and the 
+     * number of samples.
+     * @param model The model to sweep.
+     * @param weather Location of the weather file the days are counted on.
+     * @param settings The sweep's settings. Its names, ranges, table, 
+     * baseline, and tornado are filled in.
+     * @param listener Receives the combined progress of the sweep, or null.
+     * @return The finished sweep, or null if it could not be run.
+     */
+    public static SweepObject sweep(ModelObject model, String weather, SweepObject settings, ProgressListener listener) {
+        try {
+            int count = model.params.length;
+            double spread = ScriptProtocol.parse(settings.spread);
+            double thresholdSpread = ScriptProtocol.parse(settings.thresholdSpread);
+            double[] baseline = new double[count + 2];
+            settings.names = new String[count + 2];
+            settings.low = new double[count + 2];
+            settings.high = new double[count + 2];
+            for(int j = 0; j < count + 2; j++) {
+                if(j < count) {
+                    baseline[j] = ScriptProtocol.parse(model.params[j]);
+                    settings.names[j] = j < count - 1 ? "A" + (j + 1) : "V";
+                    settings.low[j] = baseline[j] * (1 - spread);
+                    settings.high[j] = baseline[j] * (1 + spread);
+                } else {
+                    baseline[j] = ScriptProtocol.parse(j == count ? model.lower : model.upper);
+                    settings.names[j] = j == count ? "lower" : "upper";
+                    settings.low[j] = baseline[j] - thresholdSpread;
+                    settings.high[j] = baseline[j] + thresholdSpread;
+                }
+            }
+            double[][] points;
+            if(settings.random) {
+                ScriptProtocol key = new ScriptProtocol(ScriptProtocol.REQUEST);
+                key.putNumbers("baseline", baseline);
+                key.putNumbers("low", settings.low);
+                key.putNumbers("high", settings.high);
+                key.putNumbers("samples", settings.samples);
+                points = SensitivitySweep.random(baseline, settings.low, settings.high, settings.samples, seed(key, 0));
+            } else {
+                points = SensitivitySweep.grid(baseline, settings.low, settings.high, settings.points);
+            }
+            double[][] weatherTable = ScriptProtocol.readTable(weather);
+            int shards = Math.max(1, Math.min(ScriptPool.size(), points.length));
+            List<ScriptProtocol> requests = new ArrayList<>();
+            for(int i = 0; i < shards; i++) {
+                ScriptProtocol request = new ScriptProtocol(ScriptProtocol.REQUEST);
+                request.putMatrix("weather", weatherTable);
+                request.putNumbers("proportionPercent", settings.proportionPercent);
+                request.putNumbers("proportionStage", settings.proportionStage);
+                request.putMatrix("sweep", Arrays.copyOfRange(points, points.length * i / shards, points.length * (i + 1) / shards));
+                requests.add(request);
+            }
+            ScriptProtocol[] responses = run("forecast", requests, null, listener, JobScheduler.BATCH);
+            if(responses == null) {
+                return null;
+            }
+            settings.table = new double[points.length][];
+            int row = 0;
+            for(ScriptProtocol response : responses) {
+                for(double[] target : response.getMatrix("targets")) {
+                    settings.table[row] = Arrays.copyOf(points[row], count + 4);
+                    settings.table[row][count + 2] = target[0];
+                    settings.table[row][count + 3] = target[1];
+                    row++;
+                }
+            }
+            if(row != points.length) {
+                ErrorManager.error("Sensitivity sweep failed.", "ScriptManager.sweep sent " + points.length + " points to the forecast script but " + row + " came back.", null);
+                return null;
+            }
+            settings.baselineTau = settings.table[0][count + 2];
+            settings.baselineDay = settings.table[0][count + 3];
+            settings.tornado = SensitivitySweep.tornado(settings);
+        } catch(IOException | NumberFormatException e) {
+            ErrorManager.error("Sensitivity sweep failed.","ScriptManager.sweep has encounered an error.", e);
+            return null;
+        }
+        return settings;
+    }
+    
+    /**
+     * Reads the model in a response of `model.r`.
+     * @param response The response, or null if the script did not produce 
+     * one.
+     * @param caller Name of the calling method, for the error message.
+     * @return The model's parameters, log likelihood, AIC, and thresholds, or 
+     * null if the response holds no model.
+     */
+    private static ModelObject toModel(ScriptProtocol response, String caller) {
+        if(response == null) {
+            return null;
+        }
+        double[] params = response.getNumbers("params");
+        if(params.length < 1) {
+            ErrorManager.error("Model creation failed", "The script to create the model was run by " + caller + " but no model data was found in its response.", null);
+            return null;
+        }
+        ModelObject ret = new ModelObject();
+        ret.params = ScriptProtocol.format(params);
+        ret.paramCount = params.length;
+        ret.logLikelihood = ScriptProtocol.format(response.getNumber("log"));
+        ret.aic = ScriptProtocol.format(response.getNumber("aic"));
+        double[] thresholds = response.getNumbers("thresholds");
+        if(thresholds.length == 2) {
+            ret.lower = ScriptProtocol.format(thresholds[0]);
+            ret.upper = ScriptProtocol.format(thresholds[1]);
+        }
+        return ret;
+    }
+    
+    /**
+     * Converts a matrix stored as text to numbers.
+     * @param values The matrix indexed as [row][column].
+     * @return The same matrix as numbers.
+     */
+    private static double[][] toMatrix(String[][] values) {
+        double[][] ret = new double[values.length][];
+        for(int i = 0; i < values.length; i++) {
+            ret[i] = new double[values[i].length];
+            for(int j = 0; j < values[i].length; j++) {
+                ret[i][j] = ScriptProtocol.parse(values[i][j]);
+            }
+        }
+        return ret;
+    }
+    
+    /**
+     * Builds a StatsObject from the response of `stats.r`.
+     * @param response The script's response.
+     * @return The statistics held in the response.
+     */
+    private static StatsObject toStats(ScriptProtocol response) {
+        StatsObject ret = new StatsObject();
+        ret.iterations = ScriptProtocol.format(response.getNumber("iter"));
+        ret.alpha = ScriptProtocol.format(response.getNumber("alpha"));
+        ret.optim = response.getStrings("optim").length > 0 ? response.getStrings("optim")[0] : "";
+        ret.gg = ScriptProtocol.format(response.getNumber("gg"));
+        ret.ggPval = ScriptProtocol.format(response.getNumber("ggPval"));
+        double[] ci = response.getNumbers("ggci");
+        if(ci.length == 2) {
+            ret.ggci[0] = ScriptProtocol.format(ci[0]);
+            ret.ggci[1] = ScriptProtocol.format(ci[1]);
+        }
+        ret.xx = ScriptProtocol.format(response.getNumber("xx"));
+        ret.xxPval = ScriptProtocol.format(response.getNumber("xxPval"));
+        ci = response.getNumbers("xxci");
+        if(ci.length == 2) {
+            ret.xxLow = ScriptProtocol.format(ci[0]);
+            ret.xxHigh = ScriptProtocol.format(ci[1]);
+        }
+        ret.a = ScriptProtocol.format(response.getNumbers("a"));
+        ret.aLow = ScriptProtocol.format(response.getNumbers("aLow"));
+        ret.aHigh = ScriptProtocol.format(response.getNumbers("aHigh"));
+        ret.stages = String.valueOf(ret.a.length);
+        ret.v = ScriptProtocol.format(response.getNumber("v"));
+        ret.vLow = ScriptProtocol.format(response.getNumber("vLow"));
+        ret.vHigh = ScriptProtocol.format(response.getNumber("vHigh"));
+        double[][] aStar = response.getMatrix("aStar");
+        ret.aStar = new String[aStar.length][];
+        for(int i = 0; i < aStar.length; i++) {
+            ret.aStar[i] = ScriptProtocol.format(aStar[i]);
+        }
+        ret.vStar = ScriptProtocol.format(response.getNumbers("vStar"));
+        ret.ggStar = ScriptProtocol.format(response.getNumbers("ggStar"));
+        return ret;
     }
 }
@@ -0,0 +1,441 @@
+package stagecast;
+
+import data.ProgressObject;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a set of R processes running so that scripts can be run side by side.
+ * Each worker is an R process running `./Scripts/worker.r`, which takes jobs
+ * one at a time over its standard input and sources the requested script in
+ * a fresh environment. Jobs are queued with JobScheduler, which starts no more
+ * jobs than there are workers and picks the next job by its priority class, so
+ * at most one job runs on a worker at a time and any job submitted while every
+ * worker is busy waits until one is free.
+ * <p>Before a worker which has been idle for a while is given a job it is
+ * pinged, and a worker which has exited or does not answer is replaced. A
+ * worker is also replaced after it has run a set number of jobs, since R
+ * rarely hands memory back to the system and a long lived process would
+ * otherwise keep growing. Both limits are set from SettingsObject.workerCount
+ * and SettingsObject.workerJobs.</p>
+ * <p>While a job runs its worker is watched by Watchdog, which kills the R
+ * process if the script takes longer or uses more memory than its budget
+ * allows. The job then fails and the next job starts a fresh worker.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note A worker stops on its own when its standard input is closed, so
+ * workers do not outlive the program even if shutdown() is never called.
+ */
+public class ScriptPool {
+    /**
+     * @brief One R process along with what the pool knows about it.
+     */
+    private static class Worker {
+        int generation; /*!< Value of ScriptPool.generation when the worker was started. */
+        BufferedWriter input; /*!< Standard input of the process, used to send commands. */
+        int jobs; /*!< Number of jobs run since the process was started. */
+        long lastUsed; /*!< Time the worker last finished a job. */
+        long pid; /*!< Process ID reported by the worker, or 0 if it did not report one. */
+        Process process; /*!< The R process. */
+        final LinkedBlockingQueue<String> replies = new LinkedBlockingQueue<>(); /*!< Replies read from the process which have not been handled yet. */
+
+        /**
+         * Checks if the process is still running.
+         * @return True if the process has not exited.
+         */
+        boolean alive() {
+            try {
+                process.exitValue();
+                return false;
+            } catch(IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Checks that the worker answers within PING_TIMEOUT.
+         * @return True if the worker answered.
+         */
+        boolean ping() {
+            try {
+                send("ping");
+                return "pong".equals(receive(PING_TIMEOUT));
+            } catch(IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Waits for the next reply from the worker.
+         * @param timeout Longest time to wait in milliseconds.
+         * @return The reply without its marker, EXITED if the process has
+         * closed its output, or null if no reply came in time.
+         * @throws IOException If the thread was interrupted while waiting.
+         */
+        String receive(long timeout) throws IOException {
+            try {
+                return replies.poll(timeout, TimeUnit.MILLISECONDS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for an R worker.", e);
+            }
+        }
+
+        /**
+         * Runs a script on the worker.
+         * @param script Location of the script.
+         * @param request Location of the request file.
+         * @param response Location the response should be written to.
+         * @param listener Receives the progress reported by the script, or
+         * null.
+         * @return Null if the script finished, or the message it stopped with
+         * if it stopped with an error. The worker itself is still usable in
+         * either case.
+         * @throws IOException If the process exits before the script finishes
+         * or the script exceeds its budget from Watchdog, in which case the
+         * process has been killed.
+         */
+        String run(String script, String request, String response, ProgressListener listener) throws IOException {
+            Watchdog.Budget budget = Watchdog.budget(script);
+            long start = System.currentTimeMillis();
+            long nextSample = start;
+            long peak = -1;
+            ProgressObject last = null;
+            send("run\t" + script + "\t" + request + "\t" + response);
+            while(true) {
+                String reply = receive(1000);
+                long now = System.currentTimeMillis();
+                String exceeded = null;
+                if((budget.seconds > 0) && (now - start > budget.seconds * 1000)) {
+                    exceeded = "its time budget of " + budget.seconds + " seconds";
+                }
+                if(now >= nextSample) {
+                    nextSample = now + MEMORY_INTERVAL;
+                    long memory = Watchdog.memory(pid);
+                    peak = Math.max(peak, memory);
+                    if((budget.megabytes > 0) && (memory > budget.megabytes * 1024 * 1024)) {
+                        exceeded = "its memory budget of " + budget.megabytes + " MB";
+                    }
+                }
+                if(exceeded != null) {
+                    Watchdog.kill(pid, process);
+                    String details = Watchdog.diagnose(script, request, response, exceeded, now - start, peak, last);
+                    throw new IOException(new File(script).getName() + " was stopped because it exceeded " + exceeded + "." + (details == null ? "" : " Details were written to " + details + "."));
+                }
+                if(reply == null) {
+                    if(!alive()) {
+                        throw new IOException("The R worker exited while running " + script + ".");
+                    }
+                } else if(reply.equals("done")) {
+                    return null;
+                } else if(reply.startsWith("error")) {
+                    return reply.substring(5).trim();
+                } else if(reply.equals(EXITED)) {
+                    throw new IOException("The R worker exited while running " + script + ".");
+                } else if(reply.startsWith("progress\t")) {
+                    last = report(reply, listener);
+                }
+            }
+        }
+
+        /**
+         * Sends a command to the worker.
+         * @param command The command, without a line ending.
+         * @throws IOException If the process can not be written to.
+         */
+        void send(String command) throws IOException {
+            input.write(command);
+            input.write("\n");
+            input.flush();
+        }
+
+        /**
+         * Stops the worker.
+         */
+        void stop() {
+            try {
+                input.close();
+            } catch(IOException e) {
+                // The process is destroyed below either way.
+            }
+            process.destroy();
+        }
+    }
+
+    private static final String EXITED = "exited"; /*!< Reply queued when a worker closes its output. */
+    private static final String MARKER = "@@stagecast\t"; /*!< Start of every reply line written by `worker.r`. */
+    private static final long MEMORY_INTERVAL = 2000; /*!< Milliseconds between samples of a running worker's memory. */
+    private static final long PING_AFTER = 30000; /*!< Milliseconds a worker may sit idle before it is pinged ahead of its next job. */
+    private static final long PING_TIMEOUT = 10000; /*!< Milliseconds a worker has to answer a ping. */
+    private static final long STARTUP_TIMEOUT = 60000; /*!< Milliseconds a new worker has to report that it is ready. */
+    private static volatile int generation = 0; /*!< Counts restarts of the pool so that workers started before a restart are not reused. */
+    private static final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<>(); /*!< Workers which are not running a job. */
+    private static volatile int recycleAfter = 25; /*!< Number of jobs a worker runs before it is replaced. */
+    private static int size = Runtime.getRuntime().availableProcessors(); /*!< Number of workers. */
+
+    /**
+     * Waits for a job from submit() to finish.
+     * If the waiting thread is interrupted the job is cancelled.
+     * @param job The job.
+     * @param script Location of the script the job runs, used in messages.
+     * @throws IOException If the script could not be run or the thread was
+     * interrupted while waiting.
+     */
+    public static void await(Future<?> job, String script) throws IOException {
+        try {
+            job.get();
+        } catch(InterruptedException e) {
+            job.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + script + " to finish.", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not run " + script + ".", e.getCause());
+        }
+    }
+
+    /**
+     * Takes a worker to run a job on.
+     * Idle workers which have exited, or which have been idle long enough to
+     * be pinged and do not answer, are stopped and passed over. A new worker is
+     * started if no idle worker is usable.
+     * @return A worker which is not running a job.
+     * @throws IOException If a new worker can not be started.
+     */
+    private static Worker borrow() throws IOException {
+        Worker ret;
+        while((ret = idle.poll()) != null) {
+            if(ret.generation != generation) {
+                ret.stop();
+            } else if(!ret.alive()) {
+                ErrorManager.log("ScriptPool.borrow found an R worker which had exited and replaced it.", null);
+                ret.stop();
+            } else if((System.currentTimeMillis() - ret.lastUsed > PING_AFTER) && (!ret.ping())) {
+                ErrorManager.log("ScriptPool.borrow found an R worker which did not answer and replaced it.", null);
+                ret.stop();
+            } else {
+                return ret;
+            }
+        }
+        return start();
+    }
+
+    /**
+     * Sets the size of the pool and how often workers are replaced.
+     * Workers which are already running are replaced as they finish their
+     * current job.
+     * @param workers Number of workers. 0 or less uses one per available
+     * processor.
+     * @param jobs Number of jobs a worker runs before it is replaced. 0 or less
+     * never replaces a healthy worker.
+     */
+    public static void configure(int workers, int jobs) {
+        int count = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        recycleAfter = jobs > 0 ? jobs : Integer.MAX_VALUE;
+        synchronized(ScriptPool.class) {
+            if(count == size) {
+                return;
+            }
+            size = count;
+            shutdown();
+        }
+        JobScheduler.dispatch();
+    }
+
+    /**
+     * Hands a worker back after a job.
+     * The worker is stopped instead if the job failed, if it has run its
+     * share of jobs, or if the pool has been restarted since it was started.
+     * @param worker The worker.
+     * @param healthy True if the job finished normally.
+     */
+    private static void release(Worker worker, boolean healthy) {
+        worker.lastUsed = System.currentTimeMillis();
+        if(healthy && (worker.jobs < recycleAfter) && (worker.generation == generation) && worker.alive()) {
+            idle.add(worker);
+        } else {
+            worker.stop();
+        }
+    }
+
+    /**
+     * Passes a progress report from a worker on to a listener.
+     * Reports are of the form "progress [done] [total] [log likelihood]" with
+     * the fields separated by tabs and NA for values the script does not know.
+     * Malformed reports are ignored, as progress is only informative.
+     * @param reply The report.
+     * @param listener The listener, or null.
+     * @return The report, or null if it was malformed.
+     */
+    private static ProgressObject report(String reply, ProgressListener listener) {
+        String[] fields = reply.split("\t");
+        if(fields.length < 4) {
+            return null;
+        }
+        ProgressObject progress = new ProgressObject();
+        double done = ScriptProtocol.parse(fields[1]);
+        double total = ScriptProtocol.parse(fields[2]);
+        progress.done = Double.isNaN(done) ? 0 : (long) done;
+        progress.total = Double.isNaN(total) ? -1 : (long) total;
+        progress.logLikelihood = ScriptProtocol.parse(fields[3]);
+        if(listener != null) {
+            try {
+                listener.progress(progress);
+            } catch(RuntimeException e) {
+                ErrorManager.log("ScriptPool.report could not pass on a progress report.", e);
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * Runs a script on a free worker and waits for it to finish.
+     * @param script Location of the script.
+     * @param request Location of the request file.
+     * @param response Location the response should be written to.
+     * @throws IOException If no worker could be started, the script stopped
+     * with an error, or the thread was interrupted while waiting.
+     */
+    public static void run(String script, String request, String response) throws IOException {
+        await(submit(script, request, response), script);
+    }
+
+    /**
+     * Stops every idle worker.
+     * Jobs which are already running are allowed to finish, after which their
+     * workers are stopped as well. The pool starts again on the next job.
+     */
+    public static synchronized void shutdown() {
+        generation++;
+        Worker worker;
+        while((worker = idle.poll()) != null) {
+            worker.stop();
+        }
+    }
+
+    /**
+     * Requests the number of workers in the pool.
+     * @return The number of jobs which can run at the same time.
+     */
+    public static synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Starts a new worker and waits for it to report that it is ready.
+     * @return The new worker.
+     * @throws IOException If R can not be started or the worker does not
+     * report that it is ready.
+     */
+    private static Worker start() throws IOException {
+        final Worker ret = new Worker();
+        ret.generation = generation;
+        String script = new File("Scripts/worker.r").getAbsolutePath();
+        ret.process = new ProcessBuilder("R", "--vanilla", "--slave", "-f", script).redirectError(Redirect.INHERIT).start();
+        ret.input = new BufferedWriter(new OutputStreamWriter(ret.process.getOutputStream(), "UTF-8"));
+        final BufferedReader output = new BufferedReader(new InputStreamReader(ret.process.getInputStream(), "UTF-8"));
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while((line = output.readLine()) != null) {
+                        if(line.startsWith(MARKER)) {
+                            ret.replies.add(line.substring(MARKER.length()));
+                        }
+                    }
+                } catch(IOException e) {
+                    // Reading stops when the process is destroyed.
+                } finally {
+                    ret.replies.add(EXITED);
+                }
+            }
+        }, "ScriptPool output");
+        reader.setDaemon(true);
+        reader.start();
+        String reply = ret.receive(STARTUP_TIMEOUT);
+        if((reply != null) && reply.startsWith("ready\t")) {
+            ret.pid = (long) ScriptProtocol.parse(reply.substring(6));
+            reply = "ready";
+        }
+        if(!"ready".equals(reply)) {
+            ret.stop();
+            throw new IOException("Could not start an R worker from " + script + ". Check that R is installed and on the path.");
+        }
+        return ret;
+    }
+
+    /**
+     * Queues a script to run on the next free worker as a model fit.
+     * @param script Location of the script.
+     * @param request Location of the request file.
+     * @param response Location the response should be written to.
+     * @return The queued job. Its get() method throws an ExecutionException
+     * holding an IOException if the script could not be run.
+     */
+    public static Future<?> submit(String script, String request, String response) {
+        return submit(script, request, response, null);
+    }
+
+    /**
+     * Queues a script to run on the next free worker as a model fit and
+     * passes on the progress it reports.
+     * @param script Location of the script.
+     * @param request Location of the request file.
+     * @param response Location the response should be written to.
+     * @param listener Receives the progress reported by the script, or null.
+     * @return The queued job. Its get() method throws an ExecutionException
+     * holding an IOException if the script could not be run.
+     */
+    public static Future<?> submit(String script, String request, String response, ProgressListener listener) {
+        return submit(script, request, response, listener, JobScheduler.MODEL, JobScheduler.newGroup());
+    }
+
+    /**
+     * Queues a script with JobScheduler to run on a free worker and passes on
+     * the progress it reports.
+     * @param script Location of the script.
+     * @param request Location of the request file.
+     * @param response Location the response should be written to.
+     * @param listener Receives the progress reported by the script, or null.
+     * @param priority Priority class of the job: JobScheduler.INTERACTIVE,
+     * JobScheduler.MODEL, or JobScheduler.BATCH.
+     * @param group Group from JobScheduler.newGroup() which the job belongs to.
+     * @return The queued job. Its get() method throws an ExecutionException
+     * holding an IOException if the script could not be run.
+     */
+    public static Future<?> submit(final String script, final String request, final String response, final ProgressListener listener, int priority, long group) {
+        return JobScheduler.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                Worker worker = borrow();
+                boolean healthy = false;
+                String error;
+                try {
+                    worker.jobs++;
+                    error = worker.run(script, request, response, listener);
+                    healthy = true;
+                } finally {
+                    release(worker, healthy);
+                }
+                if(error != null) {
+                    throw new IOException(script + " stopped with an error: " + error);
+                }
+                return null;
+            }
+        }, priority, group);
+    }
+}
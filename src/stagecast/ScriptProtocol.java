@@ -0,0 +1,550 @@
+package stagecast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes the binary files passed between the program and the R
+ * scripts.
+ * Every script takes a single request file and answers with a single response
+ * file. Both use the same layout: a four character magic string, a version
+ * number, the number of blocks, and then the blocks themselves. Each block has
+ * a name and holds one of three types of value.
+ * <ul>
+ * <li>A vector of doubles.</li>
+ * <li>A vector of strings, each stored as UTF-8.</li>
+ * <li>A matrix of doubles, stored in column-major order so that R can read it
+ * straight into a matrix.</li>
+ * </ul>
+ * All numbers are big-endian, which is what DataOutputStream writes and what
+ * the scripts ask readBin for. The layout is described in full on the
+ * @ref script_inpt page.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note Missing or unparseable numbers are sent as NaN, which R treats the
+ * same way it treated the NA produced by as.numeric on the old text tables.
+ */
+public class ScriptProtocol {
+    public static final String REQUEST = "SCRQ"; /*!< Magic string at the start of a request file. */
+    public static final String RESPONSE = "SCRS"; /*!< Magic string at the start of a response file. */
+    public static final int VERSION = 1; /*!< Version of the layout written by this class. */
+    private static final int NUMBERS = 1; /*!< Type code of a vector of doubles. */
+    private static final int STRINGS = 2; /*!< Type code of a vector of strings. */
+    private static final int MATRIX = 3; /*!< Type code of a matrix of doubles. */
+    private static final Charset UTF8 = Charset.forName("UTF-8"); /*!< Encoding used for names and strings. */
+    private static final int MAX_BLOCKS = 1024; /*!< Most blocks read from one file. */
+    private static final long MAX_NUMBERS = 1L << 24; /*!< Most numbers read in one block, about 128 MB of doubles. Each row of a matrix counts as two more for the array holding it. */
+    private static final int MAX_STRING = 1 << 20; /*!< Most bytes read in one string. */
+    private static final int MAX_STRINGS = 1 << 20; /*!< Most strings read in one block. */
+
+    private final LinkedHashMap<String, Object> blocks; /*!< The blocks of the file, in the order they are written. */
+    private final String magic; /*!< Whether this is a request or a response. */
+
+    /**
+     * Creates an empty file.
+     * @param magic Either REQUEST or RESPONSE.
+     */
+    public ScriptProtocol(String magic) {
+        this.magic = magic;
+        blocks = new LinkedHashMap<>();
+    }
+
+    /**
+     * Finds the names of all blocks.
+     * @return The block names in the order they were added or read.
+     */
+    public List<String> names() {
+        return new ArrayList<>(blocks.keySet());
+    }
+
+    /**
+     * Checks for a block.
+     * @param name Name of the block.
+     * @return True if the block exists.
+     */
+    public boolean has(String name) {
+        return blocks.containsKey(name);
+    }
+
+    /**
+     * Requests a block of numbers.
+     * @param name Name of the block.
+     * @return The numbers, or an empty array if there is no such block.
+     */
+    public double[] getNumbers(String name) {
+        Object value = blocks.get(name);
+        if(value instanceof double[]) {
+            return (double[]) value;
+        }
+        return new double[0];
+    }
+
+    /**
+     * Requests the first value of a block of numbers.
+     * @param name Name of the block.
+     * @return The first number in the block, or NaN if the block is missing or
+     * empty.
+     */
+    public double getNumber(String name) {
+        double[] value = getNumbers(name);
+        if(value.length > 0) {
+            return value[0];
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Requests a block of strings.
+     * @param name Name of the block.
+     * @return The strings, or an empty array if there is no such block.
+     */
+    public String[] getStrings(String name) {
+        Object value = blocks.get(name);
+        if(value instanceof String[]) {
+            return (String[]) value;
+        }
+        return new String[0];
+    }
+
+    /**
+     * Requests a matrix.
+     * @param name Name of the block.
+     * @return The matrix indexed as [row][column], or an empty matrix if there
+     * is no such block.
+     */
+    public double[][] getMatrix(String name) {
+        Object value = blocks.get(name);
+        if(value instanceof double[][]) {
+            return (double[][]) value;
+        }
+        return new double[0][0];
+    }
+
+    /**
+     * Adds a block of numbers, replacing any block with the same name.
+     * @param name Name of the block.
+     * @param values The numbers to store.
+     */
+    public void putNumbers(String name, double... values) {
+        blocks.put(name, values);
+    }
+
+    /**
+     * Adds a block of numbers from their text form.
+     * @param name Name of the block.
+     * @param values The numbers to store. Entries which are not numbers are
+     * stored as NaN.
+     */
+    public void putNumbers(String name, String... values) {
+        double[] ret = new double[values == null ? 0 : values.length];
+        for(int i = 0; i < ret.length; i++) {
+            ret[i] = parse(values[i]);
+        }
+        blocks.put(name, ret);
+    }
+
+    /**
+     * Adds a yes/no setting as a number, 1 for yes and 0 for no.
+     * @param name Name of the block.
+     * @param value The setting.
+     */
+    public void putFlag(String name, boolean value) {
+        blocks.put(name, new double[] {value ? 1 : 0});
+    }
+
+    /**
+     * Adds a block of strings, replacing any block with the same name.
+     * @param name Name of the block.
+     * @param values The strings to store.
+     */
+    public void putStrings(String name, String... values) {
+        blocks.put(name, values == null ? new String[0] : values);
+    }
+
+    /**
+     * Adds a matrix, replacing any block with the same name.
+     * @param name Name of the block.
+     * @param values The matrix indexed as [row][column]. All rows must have the
+     * same length.
+     */
+    public void putMatrix(String name, double[][] values) {
+        blocks.put(name, values);
+    }
+
+    /**
+     * Adds a stage map as a two column matrix.
+     * The first column holds the source index of each stage and the second
+     * column holds the index it is collapsed in to.
+     * @param name Name of the block.
+     * @param stageMap Entries of the form "source:target".
+     * @throws NumberFormatException If an entry is not of that form.
+     */
+    public void putStageMap(String name, List<String> stageMap) {
+        double[][] ret = new double[stageMap.size()][2];
+        for(int i = 0; i < ret.length; i++) {
+            String[] holder = stageMap.get(i).split(":");
+            if(holder.length != 2) {
+                throw new NumberFormatException("Invalid stage map entry: " + stageMap.get(i));
+            }
+            ret[i][0] = Integer.parseInt(holder[0].trim());
+            ret[i][1] = Integer.parseInt(holder[1].trim());
+        }
+        blocks.put(name, ret);
+    }
+
+    /**
+     * Turns text into a number.
+     * @param value The text to parse.
+     * @return The number, or NaN if the text is empty or not a number.
+     */
+    public static double parse(String value) {
+        if(value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch(NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Turns a number into the text form stored in the program's data objects.
+     * Whole numbers are written without a decimal point so that fields such as
+     * the iteration count can still be read with Integer.parseInt.
+     * @param value The number to format.
+     * @return The text form of the number, "NA" for NaN.
+     */
+    public static String format(double value) {
+        if(Double.isNaN(value)) {
+            return "NA";
+        }
+        if((value == Math.rint(value)) && (Math.abs(value) < 1e15)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Formats every number in an array.
+     * @param values The numbers to format.
+     * @return The text forms of the numbers.
+     */
+    public static String[] format(double[] values) {
+        String[] ret = new String[values.length];
+        for(int i = 0; i < values.length; i++) {
+            ret[i] = format(values[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Loads a tab-separated data file as a matrix.
+     * This reads the organism and weather files written by Importer. Empty
+     * lines are skipped.
+     * @param target Location of the data file.
+     * @return The file as a matrix indexed as [row][column].
+     * @throws IOException If the file can not be read or the rows do not all
+     * have the same number of columns.
+     * @throws NumberFormatException If a cell is not a number.
+     */
+    public static double[][] readTable(String target) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        try (BufferedReader inputStream = new BufferedReader(new FileReader(target))) {
+            String line;
+            while((line = inputStream.readLine()) != null) {
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] cells = line.split("\t");
+                if((!rows.isEmpty()) && (cells.length != rows.get(0).length)) {
+                    throw new IOException("Row " + (rows.size() + 1) + " of " + target + " has " + cells.length + " columns but the first row has " + rows.get(0).length + ".");
+                }
+                double[] row = new double[cells.length];
+                for(int i = 0; i < cells.length; i++) {
+                    row[i] = Double.parseDouble(cells[i].trim());
+                }
+                rows.add(row);
+            }
+        }
+        return rows.toArray(new double[rows.size()][]);
+    }
+
+    /**
+     * Loads several organism files and adds them together.
+     * The dates are taken from the first file and every file is expected to
+     * use the same dates, which is how the scripts have always treated them.
+     * @param targets Locations of the organism files.
+     * @return A matrix whose first column holds the dates and whose remaining
+     * columns hold the summed counts for each stage.
+     * @throws IOException If a file can not be read or the files do not have
+     * the same shape.
+     */
+    public static double[][] readOrganisms(String[] targets) throws IOException {
+        double[][] ret = null;
+        for(String target : targets) {
+            double[][] table = readTable(target);
+            if(ret == null) {
+                ret = table;
+                continue;
+            }
+            if((table.length != ret.length) || ((table.length > 0) && (table[0].length != ret[0].length))) {
+                throw new IOException("The organism file " + target + " does not have the same number of rows and columns as " + targets[0] + ".");
+            }
+            for(int i = 0; i < ret.length; i++) {
+                for(int j = 1; j < ret[i].length; j++) {
+                    ret[i][j] += table[i][j];
+                }
+            }
+        }
+        if(ret == null) {
+            throw new IOException("No organism files were given.");
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the file to disk.
+     * @param target Location to write to.
+     * @throws IOException If the file can not be written.
+     */
+    public void write(String target) throws IOException {
+        try (DataOutputStream outpt = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            write(outpt, Collections.<String>emptySet());
+        }
+    }
+
+    /**
+     * Writes the file to a stream.
+     * The stream is not flushed or closed.
+     * @param outpt Stream to write to.
+     * @throws IOException If the stream can not be written.
+     */
+    public void write(DataOutputStream outpt) throws IOException {
+        write(outpt, Collections.<String>emptySet());
+    }
+
+    /**
+     * Adds the contents of the file to a digest.
+     * The bytes added are exactly those which write() would put on disk, less
+     * any skipped blocks. This lets ResultCache identify a request without 
+     * the settings, such as the output location, which do not change the 
+     * result.
+     * @param digest The digest to update.
+     * @param skip Names of blocks to leave out.
+     */
+    public void digest(MessageDigest digest, String... skip) {
+        try (DataOutputStream outpt = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }, digest))) {
+            write(outpt, new HashSet<>(Arrays.asList(skip)));
+        } catch(IOException e) {
+            throw new IllegalStateException("Digest stream failed.", e);
+        }
+    }
+
+    /**
+     * Writes the file to a stream.
+     * @param outpt Stream to write to.
+     * @param skip Names of blocks to leave out.
+     * @throws IOException If the stream can not be written.
+     */
+    private void write(DataOutputStream outpt, Set<String> skip) throws IOException {
+        int count = 0;
+        for(String name : blocks.keySet()) {
+            if(!skip.contains(name)) {
+                count++;
+            }
+        }
+        outpt.write(magic.getBytes(UTF8));
+        outpt.writeInt(VERSION);
+        outpt.writeInt(count);
+        for(Map.Entry<String, Object> block : blocks.entrySet()) {
+            if(skip.contains(block.getKey())) {
+                continue;
+            }
+            writeString(outpt, block.getKey());
+            Object value = block.getValue();
+            if(value instanceof String[]) {
+                String[] strings = (String[]) value;
+                outpt.writeByte(STRINGS);
+                outpt.writeInt(strings.length);
+                for(String s : strings) {
+                    writeString(outpt, s == null ? "" : s);
+                }
+            } else if(value instanceof double[][]) {
+                double[][] matrix = (double[][]) value;
+                int cols = matrix.length > 0 ? matrix[0].length : 0;
+                outpt.writeByte(MATRIX);
+                outpt.writeInt(matrix.length);
+                outpt.writeInt(cols);
+                for(int j = 0; j < cols; j++) {
+                    for(double[] row : matrix) {
+                        outpt.writeDouble(row[j]);
+                    }
+                }
+            } else {
+                double[] numbers = (double[]) value;
+                outpt.writeByte(NUMBERS);
+                outpt.writeInt(numbers.length);
+                for(double d : numbers) {
+                    outpt.writeDouble(d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a file from disk.
+     * @param target Location of the file.
+     * @param magic The magic string the file must start with, either REQUEST
+     * or RESPONSE.
+     * @return The contents of the file.
+     * @throws IOException If the file can not be read or is not a valid file
+     * of the expected kind.
+     */
+    public static ScriptProtocol read(String target, String magic) throws IOException {
+        try (DataInputStream inpt = new DataInputStream(new BufferedInputStream(new FileInputStream(target)))) {
+            return read(inpt, magic, target);
+        }
+    }
+
+    /**
+     * Reads a file from a stream.
+     * Exactly the bytes of the file are read, so further data may follow it 
+     * on the same stream. StatsCluster uses this to pass requests and 
+     * responses over a socket.
+     * @param inpt Stream to read from.
+     * @param magic The magic string the file must start with, either REQUEST
+     * or RESPONSE.
+     * @param source Name of the stream used in messages.
+     * @return The contents of the file.
+     * @throws IOException If the stream can not be read or does not hold a 
+     * valid file of the expected kind.
+     */
+    public static ScriptProtocol read(DataInputStream inpt, String magic, String source) throws IOException {
+        ScriptProtocol ret = new ScriptProtocol(magic);
+        try {
+            byte[] header = new byte[4];
+            inpt.readFully(header);
+            if(!magic.equals(new String(header, UTF8))) {
+                throw new IOException(source + " is not a " + (magic.equals(REQUEST) ? "request" : "response") + " file.");
+            }
+            int version = inpt.readInt();
+            if(version != VERSION) {
+                throw new IOException(source + " uses version " + version + " of the script protocol but version " + VERSION + " was expected.");
+            }
+            int count = size(inpt.readInt(), MAX_BLOCKS, "blocks", source);
+            for(int i = 0; i < count; i++) {
+                String name = readString(inpt);
+                int type = inpt.readByte();
+                if(type == STRINGS) {
+                    String[] strings = new String[size(inpt.readInt(), MAX_STRINGS, "strings in block " + name, source)];
+                    for(int j = 0; j < strings.length; j++) {
+                        strings[j] = readString(inpt);
+                    }
+                    ret.blocks.put(name, strings);
+                } else if(type == MATRIX) {
+                    int rows = size(inpt.readInt(), MAX_NUMBERS, "rows in block " + name, source);
+                    int cols = size(inpt.readInt(), MAX_NUMBERS, "columns in block " + name, source);
+                    size((long) rows * (cols + 2), MAX_NUMBERS, "numbers in block " + name, source);
+                    double[][] matrix = new double[rows][cols];
+                    for(int j = 0; j < cols; j++) {
+                        for(int k = 0; k < rows; k++) {
+                            matrix[k][j] = inpt.readDouble();
+                        }
+                    }
+                    ret.blocks.put(name, matrix);
+                } else if(type == NUMBERS) {
+                    double[] numbers = new double[size(inpt.readInt(), MAX_NUMBERS, "numbers in block " + name, source)];
+                    for(int j = 0; j < numbers.length; j++) {
+                        numbers[j] = inpt.readDouble();
+                    }
+                    ret.blocks.put(name, numbers);
+                } else {
+                    throw new IOException("Block " + name + " in " + source + " has unknown type " + type + ".");
+                }
+            }
+        } catch(EOFException e) {
+            throw new IOException(source + " ended before all of its blocks were read.", e);
+        }
+        return ret;
+    }
+
+    /**
+     * Checks a size read from a file before anything is allocated for it.
+     * The sizes come from R or, through StatsCluster, from another computer, 
+     * so a damaged or hostile file must not be able to make the program run 
+     * out of memory.
+     * @param value The size.
+     * @param cap The largest size accepted.
+     * @param what What is counted, for the message.
+     * @param source Name of the stream, for the message.
+     * @return The size.
+     * @throws IOException If the size is negative or above the cap.
+     */
+    private static int size(long value, long cap, String what, String source) throws IOException {
+        if((value < 0) || (value > cap)) {
+            throw new IOException(source + " gives " + value + " " + what + ", but from 0 to " + cap + " are accepted.");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     * @param inpt Stream to read from.
+     * @return The string.
+     * @throws IOException If the stream can not be read.
+     */
+    private static String readString(DataInputStream inpt) throws IOException {
+        byte[] bytes = new byte[size(inpt.readInt(), MAX_STRING, "bytes in a string", "A script file")];
+        inpt.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     * @param outpt Stream to write to.
+     * @param value The string.
+     * @throws IOException If the stream can not be written.
+     */
+    private static void writeString(DataOutputStream outpt, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        outpt.writeInt(bytes.length);
+        outpt.write(bytes);
+    }
+
+    /**
+     * Checks that a file exists.
+     * @param target Location of the file.
+     * @return True if the file exists and is not empty.
+     */
+    public static boolean exists(String target) {
+        File file = new File(target);
+        return file.isFile() && (file.length() > 0);
+    }
+}
@@ -0,0 +1,165 @@
+package stagecast;
+
+import data.SweepObject;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Lays out and summarizes parameter sensitivity sweeps.
+ * ScriptManager.sweep sends the points made here to `forecast.r`, split
+ * between the workers of ScriptPool, and this class then reduces the
+ * forecast target of every point to a tornado summary, which ranks the
+ * swept values by how far the target moves across their range.
+ * <p>Every layout starts with the fitted model itself, so the first row of
+ * a sweep is always its baseline. A grid then moves one value at a time
+ * across its range with the rest held at their fitted values. A random
+ * sample moves every value at once, and is drawn as a Latin hypercube so
+ * that each value's range is covered evenly however few points are
+ * drawn.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class SensitivitySweep {
+
+    /**
+     * Lays out a grid which moves one value at a time.
+     * @param baseline The fitted values.
+     * @param low Lowest value of each range.
+     * @param high Highest value of each range.
+     * @param points Number of points across each range, including both
+     * ends. Must be at least 2.
+     * @return The baseline followed by points rows for each value.
+     */
+    public static double[][] grid(double[] baseline, double[] low, double[] high, int points) {
+        double[][] ret = new double[1 + baseline.length * points][];
+        ret[0] = Arrays.copyOf(baseline, baseline.length);
+        for(int j = 0; j < baseline.length; j++) {
+            for(int k = 0; k < points; k++) {
+                double[] row = Arrays.copyOf(baseline, baseline.length);
+                row[j] = k == points - 1 ? high[j] : low[j] + (high[j] - low[j]) * k / (points - 1);
+                ret[1 + j * points + k] = row;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the mean day of the rows whose value lies at one end of its
+     * range.
+     * @param table The sweep's table, with the day in its last column.
+     * @param j Index of the value.
+     * @param from Lowest value counted.
+     * @param to Highest value counted.
+     * @return The mean day, or NaN if no counted row reached the target.
+     */
+    private static double meanDay(double[][] table, int j, double from, double to) {
+        double sum = 0;
+        int count = 0;
+        for(int i = 1; i < table.length; i++) {
+            double day = table[i][table[i].length - 1];
+            if((table[i][j] >= from) && (table[i][j] <= to) && !Double.isNaN(day)) {
+                sum += day;
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Draws a Latin hypercube sample which moves every value at once.
+     * Each range is cut into samples equal slices, and every slice of every
+     * range holds exactly one point, placed at random within it.
+     * @param baseline The fitted values.
+     * @param low Lowest value of each range.
+     * @param high Highest value of each range.
+     * @param samples Number of points to draw.
+     * @param seed Seed of the random number generator.
+     * @return The baseline followed by samples rows.
+     */
+    public static double[][] random(double[] baseline, double[] low, double[] high, int samples, long seed) {
+        Random rand = new Random(seed);
+        double[][] ret = new double[1 + samples][baseline.length];
+        ret[0] = Arrays.copyOf(baseline, baseline.length);
+        int[] slices = new int[samples];
+        for(int j = 0; j < baseline.length; j++) {
+            for(int k = 0; k < samples; k++) {
+                slices[k] = k;
+            }
+            for(int k = samples - 1; k > 0; k--) {
+                int swap = rand.nextInt(k + 1);
+                int temp = slices[k];
+                slices[k] = slices[swap];
+                slices[swap] = temp;
+            }
+            for(int k = 0; k < samples; k++) {
+                ret[1 + k][j] = low[j] + (high[j] - low[j]) * (slices[k] + rand.nextDouble()) / samples;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Ranks the swept values by how far they move the forecast target.
+     * For a grid the ends of a range are its first and last points. For a
+     * random sample they are the points in the lowest and highest quarter of
+     * the range, since no point lies exactly on an end.
+     * @param sweep The finished sweep. Its table, ranges, and random setting
+     * are used.
+     * @return One row per value, holding its index, the mean day at the low
+     * and at the high end of its range, and the swing from low to high, with
+     * the widest swing first. Values whose swing can not be found come last.
+     */
+    public static double[][] tornado(SweepObject sweep) {
+        double share = sweep.random ? 0.25 : 0;
+        double[][] ret = new double[sweep.low.length][];
+        for(int j = 0; j < sweep.low.length; j++) {
+            double width = (sweep.high[j] - sweep.low[j]) * share;
+            double lowDay = meanDay(sweep.table, j, sweep.low[j], sweep.low[j] + width);
+            double highDay = meanDay(sweep.table, j, sweep.high[j] - width, sweep.high[j]);
+            ret[j] = new double[] {j, lowDay, highDay, highDay - lowDay};
+        }
+        Arrays.sort(ret, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                if(Double.isNaN(a[3]) || Double.isNaN(b[3])) {
+                    return Boolean.compare(Double.isNaN(a[3]), Double.isNaN(b[3]));
+                }
+                return Double.compare(Math.abs(b[3]), Math.abs(a[3]));
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Writes the table of a sweep as tab separated text.
+     * The first line names the columns. Days which were never reached are
+     * written as NA, the same way R writes them.
+     * @param sweep The finished sweep.
+     * @param target Location of the file.
+     * @throws IOException If the file can not be written.
+     */
+    public static void write(SweepObject sweep, String target) throws IOException {
+        try(BufferedWriter out = new BufferedWriter(new FileWriter(target))) {
+            for(String name : sweep.names) {
+                out.write(name);
+                out.write('\t');
+            }
+            out.write("tau\tday");
+            out.newLine();
+            for(double[] row : sweep.table) {
+                for(int j = 0; j < row.length; j++) {
+                    if(j > 0) {
+                        out.write('\t');
+                    }
+                    out.write(Double.isNaN(row[j]) ? "NA" : ScriptProtocol.format(row[j]));
+                }
+                out.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package stagecast;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import data.ModelObject;
+import data.ProgressObject;
+import data.SettingsObject;
+import data.TauObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests from other programs over HTTP.
+ * The server is started by the `serve` command of Headless and uses only
+ * the HTTP server included with the JDK, keeping to the standard libraries
+ * like the rest of the program. Its endpoints do the same work as the
+ * matching Headless commands and take the same options, given as query
+ * parameters or as a form encoded body. Every answer is a JSON object.
+ * - `GET /datasets` lists the stored datasets and models.
+ * - `GET /models?name=N` describes a stored model, its statistics, and its
+ *   cross-validation.
+ * - `POST /model` fits a model and `POST /stats` runs statistics.
+ * - `POST /refit` fits a stored model again to its grown datasets.
+ * - `POST /collapse` searches for the best way of merging stages.
+ * - `POST /joint` fits several organisms at once with a shared V.
+ * - `POST /forecast` draws forecast figures.
+ * - `POST /sweep` finds how sensitive a forecast is to each parameter and
+ *   threshold.
+ * - `POST /validate` cross-validates a stored model on its sampling dates.
+ * - `POST /design` simulates sampling designs from a stored model.
+ * - `GET /tau?model=N&proportionStage=S&proportionPercent=P` answers at once
+ *   with the time by which P% of the population has reached stage S.
+ * - `GET /jobs` lists jobs, and `GET /jobs/[id]` or `DELETE /jobs/[id]`
+ *   reads or cancels one.
+ *
+ * Fits, statistics, and forecasts can take a long time, so they are run as
+ * jobs. The request is answered at once with status 202 and a job ID, and
+ * the job's state, progress, and result are read from `/jobs/[id]`. Jobs are
+ * run by a fixed number of threads with a bounded queue in front of them. When
+ * the queue is full a new job is refused with status 503 and a Retry-After
+ * header, so that callers back off instead of piling up work.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note The server listens on the loopback address unless another is given,
+ * and has no authentication. It should only be opened to a trusted network.
+ */
+public class Server {
+    /**
+     * @brief A long operation started through the server.
+     */
+    private static class Job implements ProgressListener {
+        String command; /*!< Name of the Headless command the job runs. */
+        long created; /*!< Time the job was queued. */
+        volatile String error; /*!< Reason the job failed, or null. */
+        volatile long finished; /*!< Time the job finished, or 0 if it has not. */
+        Future<?> future; /*!< The queued job. */
+        String id; /*!< ID used in the job's address. */
+        volatile ProgressObject progress; /*!< Latest progress reported by the job's script, or null. */
+        volatile LinkedHashMap<String, Object> result; /*!< Result of the job once it has succeeded. */
+        volatile String status; /*!< One of QUEUED, RUNNING, DONE, FAILED, or CANCELLED. Only changed while holding the job's lock once the job has started. */
+
+        /**
+         * Describes the job.
+         * @return The job's fields by name.
+         */
+        LinkedHashMap<String, Object> describe() {
+            LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+            ret.put("id", id);
+            ret.put("command", command);
+            ret.put("status", status);
+            ret.put("created", created);
+            ret.put("finished", finished == 0 ? null : finished);
+            ProgressObject latest = progress;
+            if(latest != null) {
+                LinkedHashMap<String, Object> report = new LinkedHashMap<>();
+                report.put("done", latest.done);
+                report.put("total", latest.total < 0 ? null : latest.total);
+                report.put("logLikelihood", latest.logLikelihood);
+                report.put("elapsed", latest.elapsed);
+                report.put("eta", latest.eta < 0 ? null : latest.eta);
+                ret.put("progress", report);
+            }
+            ret.put("error", error);
+            ret.put("result", result);
+            return ret;
+        }
+
+        /**
+         * Records a progress report from the job's script.
+         * @param progress The latest report.
+         */
+        @Override
+        public void progress(ProgressObject progress) {
+            this.progress = progress;
+        }
+    }
+
+    private static final String CANCELLED = "cancelled"; /*!< Status of a job cancelled before it finished. */
+    private static final String DONE = "done"; /*!< Status of a job which succeeded. */
+    private static final String FAILED = "failed"; /*!< Status of a job which did not succeed. */
+    private static final int KEEP_JOBS = 1000; /*!< Number of finished jobs remembered. */
+    private static final String QUEUED = "queued"; /*!< Status of a job waiting for a thread. */
+    private static final String RETRY_AFTER = "30"; /*!< Seconds a refused caller is asked to wait. */
+    private static final String RUNNING = "running"; /*!< Status of a job being worked on. */
+    private static long ids = 0; /*!< Last job ID handed out. */
+    private static final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>(); /*!< Jobs in the order they were queued, indexed by ID. */
+    private static HttpServer server; /*!< The running server, or null. */
+    private static SettingsObject settings; /*!< The program settings. */
+    private static CountDownLatch stopped; /*!< Released when the server stops. */
+    private static ExecutorService threads; /*!< Threads which answer requests. */
+    private static ThreadPoolExecutor workers; /*!< Threads which run jobs. */
+
+    /**
+     * Creates a factory for the threads of a pool.
+     * @param name Name given to the threads.
+     * @param daemon True if the threads should not keep the program running.
+     * @return The factory.
+     */
+    private static ThreadFactory factory(final String name, final boolean daemon) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread ret = new Thread(r, name);
+                ret.setDaemon(daemon);
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * Answers `/datasets`.
+     * @return The stored organism and weather datasets and the names of the
+     * stored models.
+     */
+    private static LinkedHashMap<String, Object> datasets() {
+        List<Object> organisms = new ArrayList<>();
+        for(String name : new ArrayList<>(settings.organismNames)) {
+            organisms.add(Headless.describe(Headless.dataset(settings.organismNames, settings.organismLocations, name, "organism")));
+        }
+        List<Object> weather = new ArrayList<>();
+        for(String name : new ArrayList<>(settings.weatherNames)) {
+            weather.add(Headless.describe(Headless.dataset(settings.weatherNames, settings.weatherLocations, name, "weather")));
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("organisms", organisms);
+        ret.put("weather", weather);
+        ret.put("models", Headless.list(settings).get("models"));
+        return ret;
+    }
+
+    /**
+     * Passes a request to the method which answers it.
+     * @param exchange The request.
+     * @throws IOException If the answer can not be sent.
+     */
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            Headless.Arguments args = parameters(exchange);
+            if(path.equals("/datasets") && method.equals("GET")) {
+                send(exchange, 200, datasets());
+            } else if(path.equals("/models") && method.equals("GET")) {
+                ModelObject model = Headless.model(XmlManager.loadModels(settings.defaultModelLocation), args.require("name"));
+                LinkedHashMap<String, Object> ret = Headless.describe(model);
+                ret.put("stats", model.stats.stages.equals("0") ? null : Headless.describe(model.stats));
+                ret.put("validation", model.validation.folds.equals("0") ? null : Headless.describe(model.validation));
+                send(exchange, 200, ret);
+            } else if(path.equals("/tau") && method.equals("GET")) {
+                send(exchange, 200, tau(args));
+            } else if((path.equals("/model") || path.equals("/refit") || path.equals("/collapse") || path.equals("/joint") || path.equals("/stats") || path.equals("/forecast") || path.equals("/sweep") || path.equals("/validate") || path.equals("/design")) && method.equals("POST")) {
+                submit(exchange, path.substring(1), args);
+            } else if(path.equals("/jobs") && method.equals("GET")) {
+                List<Object> ret = new ArrayList<>();
+                synchronized(jobs) {
+                    for(Job job : jobs.values()) {
+                        ret.add(job.describe());
+                    }
+                }
+                LinkedHashMap<String, Object> holder = new LinkedHashMap<>();
+                holder.put("jobs", ret);
+                send(exchange, 200, holder);
+            } else if(path.startsWith("/jobs/") && (method.equals("GET") || method.equals("DELETE"))) {
+                Job job;
+                synchronized(jobs) {
+                    job = jobs.get(path.substring(6));
+                }
+                if(job == null) {
+                    send(exchange, 404, message("There is no job " + path.substring(6) + "."));
+                } else {
+                    if(method.equals("DELETE")) {
+                        synchronized(job) {
+                            if((job.finished == 0) && job.future.cancel(true)) {
+                                job.status = CANCELLED;
+                                job.finished = System.currentTimeMillis();
+                            }
+                        }
+                    }
+                    send(exchange, 200, job.describe());
+                }
+            } else {
+                send(exchange, 404, message("There is no " + method + " " + path + "."));
+            }
+        } catch(IllegalArgumentException e) {
+            send(exchange, 400, message(e.getMessage()));
+        } catch(RuntimeException e) {
+            ErrorManager.log("Server.handle could not answer " + exchange.getRequestURI() + ".", e);
+            send(exchange, 500, message("The request could not be answered: " + e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Wraps a message in an object to send.
+     * @param text The message.
+     * @return An object holding the message as "error".
+     */
+    private static LinkedHashMap<String, Object> message(String text) {
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("error", text);
+        return ret;
+    }
+
+    /**
+     * Reads the parameters of a request.
+     * Parameters are read from the query string and, for a form encoded body,
+     * from the body. Parameters given in the body replace those of the same
+     * name in the query string.
+     * @param exchange The request.
+     * @return The parameters as options of a Headless command.
+     * @throws IOException If the body can not be read.
+     */
+    private static Headless.Arguments parameters(HttpExchange exchange) throws IOException {
+        Headless.Arguments ret = new Headless.Arguments();
+        ret.command = exchange.getRequestURI().getPath().substring(1);
+        parse(exchange.getRequestURI().getRawQuery(), ret.options);
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if((type != null) && type.startsWith("application/x-www-form-urlencoded")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream inpt = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                int len;
+                while((len = inpt.read(buffer)) != -1) {
+                    body.write(buffer, 0, len);
+                }
+            }
+            parse(body.toString("UTF-8"), ret.options);
+        }
+        ret.options.remove("save");
+        return ret;
+    }
+
+    /**
+     * Parses form encoded parameters.
+     * @param query The parameters, or null.
+     * @param out Map to add the parameters to.
+     * @throws IOException If the parameters are not valid.
+     */
+    private static void parse(String query, Map<String, String> out) throws IOException {
+        if((query == null) || query.isEmpty()) {
+            return;
+        }
+        for(String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            String name = URLDecoder.decode(split < 0 ? pair : pair.substring(0, split), "UTF-8");
+            String value = split < 0 ? "true" : URLDecoder.decode(pair.substring(split + 1), "UTF-8");
+            if(!name.isEmpty()) {
+                out.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * Forgets the oldest finished jobs once more than KEEP_JOBS are stored.
+     * Must be called while holding the lock on jobs.
+     */
+    private static void prune() {
+        int excess = jobs.size() - KEEP_JOBS;
+        Iterator<Job> it = jobs.values().iterator();
+        while((excess > 0) && it.hasNext()) {
+            Job job = it.next();
+            if(job.finished != 0) {
+                it.remove();
+                excess--;
+            }
+        }
+    }
+
+    /**
+     * Sends an answer.
+     * @param exchange The request.
+     * @param code HTTP status code.
+     * @param body The answer, sent as JSON.
+     * @throws IOException If the answer can not be sent.
+     */
+    private static void send(HttpExchange exchange, int code, Map<String, Object> body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream outpt = exchange.getResponseBody()) {
+            outpt.write(bytes);
+        }
+    }
+
+    /**
+     * Starts the server and waits until it is stopped.
+     * @param programSettings The program settings.
+     * @param host Address to listen on.
+     * @param port Port to listen on.
+     * @param workerCount Number of jobs run at the same time.
+     * @param queueSize Number of jobs which may wait for a thread before new
+     * jobs are refused.
+     * @return True if the server ran and was stopped, false if it could not
+     * be started.
+     */
+    public static boolean serve(SettingsObject programSettings, String host, int port, int workerCount, int queueSize) {
+        synchronized(Server.class) {
+            if(server != null) {
+                return false;
+            }
+            try {
+                settings = programSettings;
+                server = HttpServer.create(new InetSocketAddress(host, port), 0);
+            } catch(IOException e) {
+                ErrorManager.error("Could not start the server.", "Server.serve could not listen on " + host + ":" + port + ".", e);
+                server = null;
+                return false;
+            }
+            server.createContext("/", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    Server.handle(exchange);
+                }
+            });
+            threads = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), factory("Server", false));
+            workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), factory("Server job", true));
+            server.setExecutor(threads);
+            stopped = new CountDownLatch(1);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    stop();
+                }
+            }, "Server shutdown"));
+        }
+        System.err.println("Listening on " + host + ":" + server.getAddress().getPort() + ".");
+        try {
+            stopped.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+        return true;
+    }
+
+    /**
+     * Stops the server.
+     * Requests being answered are given a second to finish, and running jobs
+     * are interrupted.
+     */
+    public static synchronized void stop() {
+        if(server == null) {
+            return;
+        }
+        server.stop(1);
+        threads.shutdown();
+        workers.shutdownNow();
+        server = null;
+        stopped.countDown();
+    }
+
+    /**
+     * Queues a job.
+     * Answers 202 with the job if it was queued, or 503 if the queue is full.
+     * Each forecast, sweep, or design job writes its figures or table in a 
+     * directory of its own, named after the job, under the forecast output 
+     * directory. A job is only marked as running while holding its lock and 
+     * only if it has not already finished, so that a job cancelled as it 
+     * starts stays cancelled.
+     * @param exchange The request.
+     * @param command The Headless command the job runs.
+     * @param args Options of the command.
+     * @throws IOException If the answer can not be sent.
+     */
+    private static void submit(HttpExchange exchange, final String command, final Headless.Arguments args) throws IOException {
+        final Job job = new Job();
+        job.command = command;
+        job.created = System.currentTimeMillis();
+        job.status = QUEUED;
+        synchronized(jobs) {
+            job.id = String.valueOf(++ids);
+        }
+        if(command.equals("forecast") || command.equals("sweep") || command.equals("design")) {
+            args.options.put("output", new File(settings.defaultTempForecastOutput, job.id).getPath());
+        }
+        try {
+            job.future = workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized(job) {
+                        if(job.finished != 0) {
+                            return;
+                        }
+                        job.status = RUNNING;
+                    }
+                    LinkedHashMap<String, Object> result = null;
+                    String error = null;
+                    try {
+                        if(command.equals("model")) {
+                            result = Headless.model(settings, args, job);
+                        } else if(command.equals("collapse")) {
+                            result = Headless.collapse(settings, args, job);
+                        } else if(command.equals("joint")) {
+                            result = Headless.joint(settings, args, job);
+                        } else if(command.equals("refit")) {
+                            result = Headless.refit(settings, args, job);
+                        } else if(command.equals("stats")) {
+                            result = Headless.stats(settings, args, job);
+                        } else if(command.equals("sweep")) {
+                            result = Headless.sweep(settings, args, job);
+                        } else if(command.equals("validate")) {
+                            result = Headless.validate(settings, args, job);
+                        } else if(command.equals("design")) {
+                            result = Headless.design(settings, args, job);
+                        } else {
+                            result = Headless.forecast(settings, args);
+                        }
+                        if(result == null) {
+                            error = "The " + command + " script did not succeed. Check log.txt on the server for details.";
+                        }
+                    } catch(IllegalArgumentException e) {
+                        error = e.getMessage();
+                    } catch(RuntimeException e) {
+                        ErrorManager.log("Server.submit could not run a " + command + " job.", e);
+                        error = e.toString();
+                    }
+                    synchronized(job) {
+                        if(job.finished == 0) {
+                            job.error = error;
+                            job.result = result;
+                            job.status = error == null ? DONE : FAILED;
+                            job.finished = System.currentTimeMillis();
+                        }
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER);
+            send(exchange, 503, message("Too many jobs are waiting. Try again later."));
+            return;
+        }
+        synchronized(jobs) {
+            jobs.put(job.id, job);
+            prune();
+        }
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.id);
+        send(exchange, 202, job.describe());
+    }
+
+    /**
+     * Answers `/tau`.
+     * @param args Parameters of the request: `model`, `proportionStage`, and
+     * `proportionPercent`.
+     * @return The time and its interval.
+     */
+    private static LinkedHashMap<String, Object> tau(Headless.Arguments args) {
+        ModelObject model = Headless.model(XmlManager.loadModels(settings.defaultModelLocation), args.require("model"));
+        int stage = (int) Double.parseDouble(args.number("proportionStage", "1"));
+        double proportion = Double.parseDouble(args.number("proportionPercent", "50")) / 100.0;
+        TauObject tau = Tau.calculate(model, stage, proportion);
+        if(tau == null) {
+            throw new IllegalArgumentException("The stage must be between 1 and " + (model.paramCount - 1) + " and the percentage between 0 and 100, exclusive.");
+        }
+        LinkedHashMap<String, Object> ret = new LinkedHashMap<>();
+        ret.put("model", model.name);
+        ret.put("proportionStage", tau.stage);
+        ret.put("proportionPercent", tau.proportion * 100);
+        ret.put("tau", tau.tau);
+        ret.put("low", tau.low);
+        ret.put("high", tau.high);
+        return ret;
+    }
+}
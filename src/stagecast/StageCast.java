@@ -20,16 +20,7 @@
  */
 package stagecast;
 
-import data.DatabaseObject;
-import data.ImportationObject;
-import java.io.File;
-
 import data.SettingsObject;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import windows.MainWindow;
 
@@ -38,130 +29,35 @@ import javafx.stage.Stage;
 
 /**
  * The entry point for the application.
- * This class performs start up checks on the environment and then launches the 
- * application. At the moment the only environmental checks are on the existence 
- * of local directories but this could be changed to better validate the runtime 
- * environment.
+ * This class performs start up checks on the environment, through Environment, 
+ * and then launches the application. At the moment the only environmental 
+ * checks are on the existence of local directories but this could be changed 
+ * to better validate the runtime environment.
  * @author Ian Yocum
  * @date 5/31/2013
  * @copyright United States Department of Agriculture Agricultural Research 
  * Service (US Government Public Domain)
  */
 public class StageCast extends Application {
-    private SettingsObject settings; /*!< The contents of the settings database loaded by setup() and passed to the application. */
+    private SettingsObject settings; /*!< The contents of the settings database loaded by Environment.setup() and passed to the application. */
 	
     /**
      * The main() method is ignored in correctly deployed JavaFX application.
      * main() serves only as fallback in case the application can not be
      * launched through deployment artifacts, e.g., in IDEs with limited FX
      * support. NetBeans ignores main().
+     * If the first argument names a command of Headless the command is run 
+     * without starting JavaFX and the program exits with its exit code.
      *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        if((args.length > 0) && Headless.isCommand(args[0])) {
+            System.exit(Headless.run(args));
+        }
         launch(args);
     }
     
-    /**
-     * Sets up and validates initial runtime environment.
-     * This method is used to establish the existence of certain local 
-     * directories that the program uses during the course of its operation, as 
-     * well as loads any previously-saved settings. It will create any missing 
-     * folder.
-     * @note If it detects there is no existing settings file, it will create 
-     * one and load a default dataset if the raw input files are present.
-     * @note Any future runtime checks should be added to this method.
-     */
-    private boolean setup() {
-        boolean ret = false;
-        String directories[] = {"./SavedData/Weather", "./SavedData/Organisms", "./SavedData/Figures", "./Raw/Weather", "./Raw/Organisms", "./Temp/Figures", "./Temp/Figures/Graph", "./Temp/Figures/Forecast"};
-        for(String directory : directories) {
-            File dir = new File(directory);
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-        }
-        File dir = new File("./Scripts");
-        if (!dir.exists()) {
-            dir.mkdirs();
-            try {
-                FileWriter saveFile;
-                try (InputStream defStream = this.getClass().getResource("/etc/scripts/graph.r").openStream()) {
-                    saveFile = new FileWriter("./Scripts/graph.r");
-                    int c;
-                    while ((c = defStream.read()) != -1) {
-                        saveFile.write(c);
-                    }
-                }
-                saveFile.close();
-                try (InputStream defStream = this.getClass().getResource("/etc/scripts/model.r").openStream()) {
-                    saveFile = new FileWriter("./Scripts/model.r");
-                    int c;
-                    while ((c = defStream.read()) != -1) {
-                        saveFile.write(c);
-                    }
-                }
-                saveFile.close();
-                try (InputStream defStream = this.getClass().getResource("/etc/scripts/stats.r").openStream()) {
-                    saveFile = new FileWriter("./Scripts/stats.r");
-                    int c;
-                    while ((c = defStream.read()) != -1) {
-                        saveFile.write(c);
-                    }
-                }
-                saveFile.close();
-                try (InputStream defStream = this.getClass().getResource("/etc/scripts/forecast.r").openStream()) {
-                    saveFile = new FileWriter("./Scripts/forecast.r");
-                    int c;
-                    while ((c = defStream.read()) != -1) {
-                        saveFile.write(c);
-                    }
-                }
-                saveFile.close();
-            } catch (IOException ex) {
-                Logger.getLogger(StageCast.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        }
-        
-        File settingsFile = new File("settings.xml");
-        if(!settingsFile.exists()) {
-            settings = XmlManager.loadSettings();
-            if ((new File("Raw/Organisms/almondData.txt").exists())&&(new File("Raw/Weather/almondWeather.txt").exists())) {
-                File defaultDataset = new File("Raw/Organisms/almondData.txt");
-                ImportationObject io = Importer.autoLoad(defaultDataset.getAbsolutePath(), true);
-                io.destination = (new File("SavedData/Organisms")).getAbsolutePath();
-                Importer.save(io);
-                DatabaseObject datasetInfo = XmlManager.readDatabaseFile(io.destination + "/" + io.datasetName + ".about.xml");
-                settings.organismCount++;
-                settings.organismLocations.add(datasetInfo.location);
-                settings.organismNames.add(datasetInfo.name);
-                settings.loadedOrganism = datasetInfo.location;
-                defaultDataset = new File("Raw/Weather/almondWeather.txt");
-                io = Importer.autoLoad(defaultDataset.getAbsolutePath(), false);
-                io.destination = (new File("SavedData/Weather")).getAbsolutePath();
-                Importer.save(io);
-                datasetInfo = XmlManager.readDatabaseFile(io.destination + "/" + io.datasetName + ".about.xml");
-                settings.weatherCount++;
-                settings.weatherLocations.add(datasetInfo.location);
-                settings.weatherNames.add(datasetInfo.name);
-                settings.loadedWeather = datasetInfo.location;
-            }
-        } else {
-            settings = XmlManager.loadSettings();
-        }
-        if(settings != null) {
-            File file = new File(settings.defaultModelLocation);
-            if(!file.exists()) {
-                XmlManager.saveModels(settings.defaultModelLocation, null);
-                settings.defaultModelLocation = new File(settings.defaultModelLocation).getAbsolutePath();
-            }
-            ret = true;
-        } else {
-            ErrorManager.error("Unable to start, failed to load settings","StageCast.setup could not initialize program environment.", null);
-        }
-        return ret;
-    }
-	
     /**
      * The true entry point into the program.
      * In addition to starting the program itself, this function will also run
@@ -171,10 +67,20 @@ public class StageCast extends Application {
      */
     @Override
     public void start(Stage arg0) throws Exception {
-        if(setup()) {
+        settings = Environment.setup();
+        if(settings != null) {
             MainWindow m = new MainWindow(settings);
             m.show();
         }
     }
+    
+    /**
+     * Stops the R workers when the program closes.
+     * @throws Exception 
+     */
+    @Override
+    public void stop() throws Exception {
+        ScriptPool.shutdown();
+    }
 	
 }
@@ -0,0 +1,518 @@
+package stagecast;
+
+import data.ProgressObject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the bootstrap shards of a statistics request over other computers.
+ * ScriptManager.stats already splits a long bootstrap into shards which run
+ * side by side on the R workers of ScriptPool. When remote workers are listed
+ * in SettingsObject.statsWorkers the shards are also handed to copies of the
+ * program started elsewhere with the `worker` command of Headless. Each shard
+ * is sent as the same request `stats.r` would read from disk, holding the
+ * fitted parameters, the combined organism matrix, the weather, the number of
+ * iterations, and the shard's own seed, and the worker answers with the
+ * shard's response. The draws of every shard are then merged by
+ * BootstrapSummary exactly as they are for local shards.
+ * <p>Every worker reports how many R workers it has and is given one
+ * connection, or slot, per R worker. The local R workers are slots as well.
+ * Slots take the next waiting shard whenever they are free, so faster
+ * computers run more shards. A remote slot which fails, closes its connection,
+ * or is silent for longer than TIMEOUT is dropped and its shard is put back in
+ * line for another slot. The local slots are never dropped, so a request
+ * always finishes even if every remote worker is lost. Since a shard's seed
+ * travels with it, a shard gives the same draws wherever it is run.</p>
+ * <p>Messages on a connection start with a single byte giving their type.
+ * The program sends JOB followed by a request. The worker answers with any
+ * number of PROGRESS and ALIVE messages, then either RESULT followed by the
+ * response, or FAILED followed by a message.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note Workers have no authentication and run any statistics request they
+ * are sent. They listen on the loopback address unless told otherwise, and
+ * should only be opened to a trusted network.
+ */
+public class StatsCluster {
+    /**
+     * @brief A connection to one slot of a remote worker.
+     */
+    static class Connection {
+        String address; /*!< Address of the worker, used in messages. */
+        DataInputStream inpt; /*!< Messages from the worker. */
+        DataOutputStream outpt; /*!< Messages to the worker. */
+        int slots; /*!< Number of slots the worker offers. */
+        Socket socket; /*!< The connection. */
+
+        /**
+         * Closes the connection.
+         * May be called from any thread, which unblocks a slot waiting on the
+         * worker.
+         */
+        void close() {
+            try {
+                socket.close();
+            } catch(IOException e) {
+                ErrorManager.log("StatsCluster.Connection.close could not close the connection to " + address + ".", e);
+            }
+        }
+
+        /**
+         * Runs a shard on the worker.
+         * @param request The shard's request.
+         * @param listener Receives the progress of the shard, or null.
+         * @return The shard's response.
+         * @throws IOException If the worker could not run the shard or the
+         * connection was lost.
+         */
+        ScriptProtocol run(ScriptProtocol request, ProgressListener listener) throws IOException {
+            outpt.writeByte(JOB);
+            request.write(outpt);
+            outpt.flush();
+            while(true) {
+                int type = inpt.readByte();
+                if(type == PROGRESS) {
+                    ProgressObject progress = new ProgressObject();
+                    progress.done = inpt.readLong();
+                    progress.total = inpt.readLong();
+                    progress.logLikelihood = inpt.readDouble();
+                    if(listener != null) {
+                        listener.progress(progress);
+                    }
+                } else if(type == RESULT) {
+                    return ScriptProtocol.read(inpt, ScriptProtocol.RESPONSE, address);
+                } else if(type == FAILED) {
+                    throw new IOException(address + " could not run the shard: " + inpt.readUTF());
+                } else if(type != ALIVE) {
+                    throw new IOException(address + " sent a message of unknown type " + type + ".");
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief The shards of one statistics request.
+     * Slots take shards from the line and hand back their responses. Once
+     * every shard has a response, or a local shard has failed, the batch is
+     * over and the slots stop.
+     */
+    private static class Batch {
+        IOException error; /*!< Error which stopped a local shard, or null. */
+        boolean failed; /*!< Whether a local shard failed. */
+        int finished; /*!< Number of shards with a response. */
+        ScriptProtocol[] responses; /*!< Response of each shard. */
+        ArrayDeque<Integer> waiting = new ArrayDeque<>(); /*!< Indices of the shards no slot is working on. */
+
+        /**
+         * Waits for the batch to be over.
+         * @throws InterruptedException If the thread is interrupted while
+         * waiting.
+         */
+        synchronized void await() throws InterruptedException {
+            while(!over()) {
+                wait();
+            }
+        }
+
+        /**
+         * Records that a local shard failed, which ends the batch.
+         * @param e The error, or null if the script did not write a response.
+         */
+        synchronized void fail(IOException e) {
+            failed = true;
+            error = e;
+            notifyAll();
+        }
+
+        /**
+         * Records the response of a shard.
+         * @param index Index of the shard.
+         * @param response The response, or null if the shard failed.
+         */
+        synchronized void finish(int index, ScriptProtocol response) {
+            if(response == null) {
+                fail(null);
+            } else {
+                responses[index] = response;
+                finished++;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Checks whether the batch is over.
+         * @return True if every shard has a response or a shard failed.
+         */
+        synchronized boolean over() {
+            return failed || (finished == responses.length);
+        }
+
+        /**
+         * Puts a shard back in line after its slot was lost.
+         * @param index Index of the shard.
+         */
+        synchronized void requeue(int index) {
+            waiting.add(index);
+            notifyAll();
+        }
+
+        /**
+         * Takes the next waiting shard.
+         * @return Index of the shard, or null once the batch is over.
+         * @throws InterruptedException If the thread is interrupted while
+         * waiting.
+         */
+        synchronized Integer take() throws InterruptedException {
+            while(waiting.isEmpty() && !over()) {
+                wait();
+            }
+            return over() ? null : waiting.poll();
+        }
+    }
+
+    private static final int ALIVE = 3; /*!< Type of a message sent by a worker every HEARTBEAT milliseconds while it runs a shard. */
+    private static final long CONNECT_TIMEOUT = 5000; /*!< Milliseconds a worker has to accept a connection. */
+    public static final int DEFAULT_PORT = 8091; /*!< Port workers listen on when none is given. */
+    private static final int FAILED = 5; /*!< Type of the message ending a shard which could not be run. */
+    private static final long HEARTBEAT = 10000; /*!< Milliseconds between ALIVE messages. */
+    private static final int JOB = 1; /*!< Type of a message holding a shard's request. */
+    private static final String MAGIC = "SCWK"; /*!< Magic string exchanged when a connection is opened. */
+    private static final int PROGRESS = 2; /*!< Type of a message holding the progress of a shard. */
+    private static final int RESULT = 4; /*!< Type of the message holding a shard's response. */
+    private static final long TIMEOUT = 60000; /*!< Milliseconds a worker may be silent before it is taken to be lost. */
+    private static final int VERSION = 1; /*!< Version of the messages sent by this class. */
+    private static final ScheduledExecutorService beats = Executors.newSingleThreadScheduledExecutor(factory("StatsCluster heartbeat")); /*!< Sends the ALIVE messages of a worker. */
+    private static volatile String[] workers = new String[0]; /*!< Addresses of the remote workers as `host:port`. */
+
+    /**
+     * Sets the remote workers.
+     * @param list Addresses of the workers as `host:port` or `host`, separated
+     * by commas or spaces. An empty list runs every shard locally.
+     */
+    public static void configure(String list) {
+        ArrayList<String> ret = new ArrayList<>();
+        if(list != null) {
+            for(String address : list.split("[,\\s]+")) {
+                if(!address.isEmpty()) {
+                    ret.add(address);
+                }
+            }
+        }
+        workers = ret.toArray(new String[ret.size()]);
+    }
+
+    /**
+     * Opens a connection to every slot of every remote worker.
+     * Workers which can not be reached are left out and logged.
+     * @return The open connections, empty if there are no remote workers.
+     */
+    static List<Connection> connect() {
+        List<Connection> ret = new ArrayList<>();
+        for(String address : workers) {
+            try {
+                Connection first = open(address);
+                ret.add(first);
+                for(int i = 1; i < first.slots; i++) {
+                    ret.add(open(address));
+                }
+            } catch(IOException | IllegalArgumentException e) {
+                ErrorManager.log("StatsCluster.connect could not reach the worker at " + address + ". Its shards will be run elsewhere.", e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Creates a factory for daemon threads.
+     * @param name Name of the threads.
+     * @return The factory.
+     */
+    private static ThreadFactory factory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread ret = new Thread(r, name);
+                ret.setDaemon(true);
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * Answers the connections of one program on a worker.
+     * Shards are run one at a time through ScriptManager, so they share the
+     * worker's R workers and result cache with anything else it runs. If the
+     * connection is lost while a shard runs, the shard is cancelled. The
+     * checkpoint location sent with a shard is replaced by the one the worker
+     * finds for it under its own checkpoint directory, so that a peer can
+     * never name a file on the worker for `stats.r` to read, write, or
+     * delete.
+     * @param socket The connection.
+     */
+    private static void handle(Socket socket) {
+        String address = socket.getRemoteSocketAddress().toString();
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream inpt = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream outpt = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            handshake(inpt, address);
+            outpt.write(MAGIC.getBytes(Charset.forName("UTF-8")));
+            outpt.writeInt(VERSION);
+            outpt.writeInt(ScriptPool.size());
+            outpt.flush();
+            int type;
+            while((type = inpt.read()) != -1) {
+                if(type != JOB) {
+                    throw new IOException(address + " sent a message of unknown type " + type + ".");
+                }
+                ScriptProtocol request = ScriptProtocol.read(inpt, ScriptProtocol.REQUEST, address);
+                if(request.has("checkpoint")) {
+                    request.putStrings("checkpoint", ScriptManager.checkpoint(request));
+                }
+                final Thread thread = Thread.currentThread();
+                ScheduledFuture<?> beat = beats.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            synchronized(outpt) {
+                                outpt.writeByte(ALIVE);
+                                outpt.flush();
+                            }
+                        } catch(IOException e) {
+                            thread.interrupt();
+                        }
+                    }
+                }, HEARTBEAT, HEARTBEAT, TimeUnit.MILLISECONDS);
+                ScriptProtocol response = null;
+                String error = "The stats script did not write a response.";
+                try {
+                    response = ScriptManager.run("stats", request, null, new ProgressListener() {
+                        @Override
+                        public void progress(ProgressObject progress) {
+                            try {
+                                synchronized(outpt) {
+                                    outpt.writeByte(PROGRESS);
+                                    outpt.writeLong(progress.done);
+                                    outpt.writeLong(progress.total);
+                                    outpt.writeDouble(progress.logLikelihood);
+                                    outpt.flush();
+                                }
+                            } catch(IOException e) {
+                                thread.interrupt();
+                            }
+                        }
+                    }, JobScheduler.BATCH);
+                } catch(IOException e) {
+                    error = String.valueOf(e.getMessage());
+                } finally {
+                    beat.cancel(false);
+                }
+                if(Thread.interrupted()) {
+                    ErrorManager.log("StatsCluster.handle lost the connection to " + address + " and cancelled its shard.", null);
+                    return;
+                }
+                synchronized(outpt) {
+                    if(response != null) {
+                        outpt.writeByte(RESULT);
+                        response.write(outpt);
+                    } else {
+                        outpt.writeByte(FAILED);
+                        outpt.writeUTF(error);
+                    }
+                    outpt.flush();
+                }
+            }
+        } catch(IOException e) {
+            ErrorManager.log("StatsCluster.handle lost the connection to " + address + ".", e);
+        } finally {
+            try {
+                socket.close();
+            } catch(IOException e) {
+                ErrorManager.log("StatsCluster.handle could not close the connection to " + address + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Reads and checks the greeting at the start of a connection.
+     * @param inpt The connection.
+     * @param address Address of the other side, used in messages.
+     * @throws IOException If the greeting is missing or of another version.
+     */
+    private static void handshake(DataInputStream inpt, String address) throws IOException {
+        byte[] magic = new byte[4];
+        inpt.readFully(magic);
+        if(!MAGIC.equals(new String(magic, Charset.forName("UTF-8")))) {
+            throw new IOException(address + " is not a StageCast worker connection.");
+        }
+        int version = inpt.readInt();
+        if(version != VERSION) {
+            throw new IOException(address + " uses version " + version + " of the worker messages but version " + VERSION + " was expected.");
+        }
+    }
+
+    /**
+     * Opens a connection to a remote worker.
+     * @param address Address of the worker as `host:port` or `host`.
+     * @return The connection, after the greetings have been exchanged.
+     * @throws IOException If the worker can not be reached or does not answer
+     * as a worker.
+     */
+    private static Connection open(String address) throws IOException {
+        String host = address;
+        int port = DEFAULT_PORT;
+        int split = address.lastIndexOf(':');
+        if(split > 0) {
+            host = address.substring(0, split);
+            try {
+                port = Integer.parseInt(address.substring(split + 1));
+            } catch(NumberFormatException e) {
+                throw new IOException(address + " does not end in a port number.", e);
+            }
+        }
+        Connection ret = new Connection();
+        ret.address = address;
+        ret.socket = new Socket();
+        try {
+            ret.socket.connect(new InetSocketAddress(host, port), (int) CONNECT_TIMEOUT);
+            ret.socket.setSoTimeout((int) TIMEOUT);
+            ret.socket.setTcpNoDelay(true);
+            ret.inpt = new DataInputStream(new BufferedInputStream(ret.socket.getInputStream()));
+            ret.outpt = new DataOutputStream(new BufferedOutputStream(ret.socket.getOutputStream()));
+            ret.outpt.write(MAGIC.getBytes(Charset.forName("UTF-8")));
+            ret.outpt.writeInt(VERSION);
+            ret.outpt.flush();
+            handshake(ret.inpt, address);
+            ret.slots = ret.inpt.readInt();
+        } catch(IOException e) {
+            ret.close();
+            throw e;
+        }
+        return ret;
+    }
+
+    /**
+     * Runs the shards of a statistics request on the local R workers and on
+     * remote workers.
+     * @param remote Connections from connect(). They are closed before this
+     * method returns.
+     * @param requests The request of each shard.
+     * @param listener Receives the combined progress of the shards, or null.
+     * @return The response of each shard in the same order as the requests,
+     * or null if a shard could not be run.
+     * @throws IOException If a shard could not be run locally or the thread
+     * was interrupted while waiting.
+     */
+    static ScriptProtocol[] run(List<Connection> remote, final List<ScriptProtocol> requests, ProgressListener listener) throws IOException {
+        final Batch batch = new Batch();
+        batch.responses = new ScriptProtocol[requests.size()];
+        for(int i = 0; i < requests.size(); i++) {
+            batch.waiting.add(i);
+        }
+        final ProgressListener[] listeners = ScriptManager.track("stats", requests.size(), listener);
+        ExecutorService slots = Executors.newCachedThreadPool(factory("StatsCluster"));
+        try {
+            for(final Connection connection : remote) {
+                slots.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Integer index = null;
+                        try {
+                            while((index = batch.take()) != null) {
+                                batch.finish(index, connection.run(requests.get(index), listeners[index]));
+                            }
+                        } catch(IOException e) {
+                            ErrorManager.log("StatsCluster.run lost a slot of the worker at " + connection.address + " and moved its shard to another slot.", e);
+                            batch.requeue(index);
+                        } catch(InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            connection.close();
+                        }
+                    }
+                });
+            }
+            for(int i = 0; i < ScriptPool.size(); i++) {
+                slots.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Integer index;
+                            while((index = batch.take()) != null) {
+                                batch.finish(index, ScriptManager.run("stats", requests.get(index), null, listeners[index], JobScheduler.BATCH));
+                            }
+                        } catch(IOException e) {
+                            batch.fail(e);
+                        } catch(InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            batch.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the statistics shards.", e);
+        } finally {
+            slots.shutdownNow();
+            for(Connection connection : remote) {
+                connection.close();
+            }
+        }
+        if(batch.error != null) {
+            throw batch.error;
+        }
+        return batch.failed ? null : batch.responses;
+    }
+
+    /**
+     * Runs this program as a worker for the statistics of other copies.
+     * Connections are accepted until the program is stopped.
+     * @param host Address to listen on.
+     * @param port Port to listen on.
+     * @return False if the worker could not be started. Otherwise this method
+     * does not return.
+     */
+    public static boolean serve(String host, int port) {
+        ServerSocket server;
+        try {
+            server = new ServerSocket(port, 50, InetAddress.getByName(host));
+        } catch(IOException e) {
+            ErrorManager.error("Could not start the worker.", "StatsCluster.serve could not listen on " + host + ":" + port + ".", e);
+            return false;
+        }
+        System.err.println("Worker listening on " + host + ":" + server.getLocalPort() + " with " + ScriptPool.size() + " slots.");
+        ExecutorService connections = Executors.newCachedThreadPool(factory("StatsCluster worker"));
+        while(true) {
+            try {
+                final Socket socket = server.accept();
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch(IOException e) {
+                ErrorManager.log("StatsCluster.serve could not accept a connection.", e);
+            }
+        }
+    }
+}
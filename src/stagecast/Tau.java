@@ -0,0 +1,89 @@
+package stagecast;
+
+import data.ModelObject;
+import data.StatsObject;
+import data.TauObject;
+import java.util.Arrays;
+
+/**
+ * Finds the time at which a share of a population has reached a stage.
+ * This is the same calculation `forecast.r` uses for its stage prediction
+ * figure, done in Java so that it can be answered at once without running a
+ * script. The time is found in closed form from the model parameters, and the
+ * interval around it from the bootstrap draws of the model's statistics.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ */
+public class Tau {
+
+    /**
+     * Finds the time at which a share of a population has reached a stage.
+     * Matches `getTau` in `forecast.r`.
+     * @param xi Share of the population, between 0 and 1.
+     * @param a Parameter of the stage.
+     * @param v Variance parameter of the model.
+     * @return The time in degree days.
+     */
+    public static double calculate(double xi, double a, double v) {
+        double log = Math.log((1 - xi) / xi);
+        double log2 = log * log;
+        double root = 0.5 * log * Math.sqrt(v * (4 * a + v * log2));
+        if(xi <= 0.5) {
+            return a + (v / 2) * log2 - root;
+        }
+        return a + (v / 2) * log2 + root;
+    }
+
+    /**
+     * Finds the time at which a share of a population modelled by a model has
+     * reached a stage.
+     * If the model has statistics the time is also found for every bootstrap
+     * or posterior draw, and the 2.5% and 97.5% quantiles of those times are
+     * returned as the interval, as on the stage prediction figure.
+     * @param model The model.
+     * @param stage Stage counted from 1, among the stages left after the
+     * model's stage map is applied.
+     * @param proportion Share of the population, between 0 and 1.
+     * @return The time and its interval, or null if the stage or proportion is
+     * outside the model.
+     */
+    public static TauObject calculate(ModelObject model, int stage, double proportion) {
+        if((model.params == null) || (stage < 1) || (stage >= model.params.length) || !(proportion > 0) || !(proportion < 1)) {
+            return null;
+        }
+        TauObject ret = new TauObject();
+        ret.stage = stage;
+        ret.proportion = proportion;
+        ret.tau = calculate(proportion, Double.parseDouble(model.params[stage - 1]), Double.parseDouble(model.params[model.params.length - 1]));
+        StatsObject stats = model.stats;
+        if((stats != null) && (stats.aStar != null) && (stats.vStar != null) && (stats.aStar.length > 0) && (stats.aStar.length == stats.vStar.length)) {
+            double[] draws = new double[stats.vStar.length];
+            for(int i = 0; i < draws.length; i++) {
+                draws[i] = calculate(proportion, Double.parseDouble(stats.aStar[i][stage - 1]), Double.parseDouble(stats.vStar[i]));
+            }
+            Arrays.sort(draws);
+            ret.low = quantile(draws, 0.025);
+            ret.high = quantile(draws, 0.975);
+        }
+        return ret;
+    }
+
+    /**
+     * Finds a quantile of sorted values.
+     * Matches R's default `quantile`, which interpolates between the two
+     * values nearest the requested position.
+     * @param sorted Values sorted from smallest to largest.
+     * @param p The quantile, between 0 and 1.
+     * @return The quantile, or NaN if there are no values.
+     */
+    public static double quantile(double[] sorted, double p) {
+        if(sorted.length == 0) {
+            return Double.NaN;
+        }
+        double h = (sorted.length - 1) * p;
+        int low = (int) Math.floor(h);
+        int high = Math.min(low + 1, sorted.length - 1);
+        return sorted[low] + (h - low) * (sorted[high] - sorted[low]);
+    }
+}
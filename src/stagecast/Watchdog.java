@@ -0,0 +1,328 @@
+package stagecast;
+
+import data.ProgressObject;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps script runs inside their time and memory budgets.
+ * A script which never converges, such as an `optim` call which wanders off or
+ * the generations of `differentialEvolution` in `model.r`, would otherwise
+ * hold its R worker and the caller waiting on it forever. While a worker of
+ * ScriptPool runs a job it asks this class for the budget of the script and
+ * checks it about once a second. The memory used by the R process and every
+ * process it started is sampled from the operating system. When a budget is
+ * exceeded the R process and anything it started are killed, a diagnostics
+ * file describing the run is written next to the request, and the job fails
+ * with an IOException naming the budget.
+ * <p>Budgets are kept per script, named without the extension, e.g. "stats".
+ * A script with no budget of its own uses the default budget, which is set
+ * from SettingsObject.scriptTimeout and SettingsObject.scriptMemory.</p>
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @note Memory is read from `/proc` on Linux, from `wmic` on Windows, and
+ * from `ps` elsewhere. If it can not be read the memory budget is not
+ * enforced but the time budget still is.
+ */
+public class Watchdog {
+    /**
+     * @brief Limits placed on a single run of a script.
+     */
+    static class Budget {
+        long megabytes; /*!< Largest resident memory of the R process and its children in megabytes, 0 for no limit. */
+        long seconds; /*!< Longest time the run may take in seconds, 0 for no limit. */
+    }
+
+    private static final HashMap<String, Budget> budgets = new HashMap<>(); /*!< Budgets indexed by script name. The default budget is stored under "". */
+
+    /**
+     * Requests the budget for a script.
+     * @param script Location or name of the script.
+     * @return The script's own budget, or the default budget if it has none.
+     */
+    static synchronized Budget budget(String script) {
+        Budget ret = budgets.get(name(script));
+        if(ret == null) {
+            ret = budgets.get("");
+        }
+        if(ret == null) {
+            ret = new Budget();
+        }
+        return ret;
+    }
+
+    /**
+     * Writes a description of a run which was stopped.
+     * The file is written to the directory of the response as
+     * `watchdog.txt`, next to the request, so that the run can be repeated.
+     * @param script Location of the script.
+     * @param request Location of the request file.
+     * @param response Location the response would have been written to.
+     * @param reason The budget which was exceeded.
+     * @param elapsed Milliseconds the run took.
+     * @param peak Largest memory use seen in bytes, or -1 if it could not be
+     * read.
+     * @param last The last progress reported by the script, or null.
+     * @return Location of the file, or null if it could not be written.
+     */
+    static String diagnose(String script, String request, String response, String reason, long elapsed, long peak, ProgressObject last) {
+        StringBuilder msg = new StringBuilder();
+        msg.append("Date: ").append(new Date()).append("\r\n");
+        msg.append("Script: ").append(script).append("\r\n");
+        msg.append("Request: ").append(request).append("\r\n");
+        msg.append("Stopped: exceeded ").append(reason).append("\r\n");
+        msg.append("Elapsed seconds: ").append(elapsed / 1000).append("\r\n");
+        msg.append("Peak memory (MB): ").append(peak < 0 ? "unknown" : String.valueOf(peak / (1024 * 1024))).append("\r\n");
+        if(last == null) {
+            msg.append("Progress: none reported\r\n");
+        } else {
+            msg.append("Progress: ").append(last.done).append(" of ").append(last.total < 0 ? "unknown" : String.valueOf(last.total)).append("\r\n");
+            msg.append("Last log likelihood: ").append(ScriptProtocol.format(last.logLikelihood)).append("\r\n");
+        }
+        ErrorManager.log("Watchdog stopped " + script + ". " + msg.toString().replace("\r\n", " "), null);
+        File ret = new File(new File(response).getParentFile(), "watchdog.txt");
+        try (BufferedWriter outpt = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ret), "UTF-8"))) {
+            outpt.write(msg.toString());
+        } catch(IOException e) {
+            ErrorManager.log("Watchdog.diagnose could not write " + ret.getPath() + ".", e);
+            return null;
+        }
+        return ret.getAbsolutePath();
+    }
+
+    /**
+     * Kills a process and every process it started.
+     * On Windows `taskkill /T` stops the whole tree. Elsewhere every process in
+     * the tree is first stopped with SIGSTOP, so that none of them can start
+     * another, and the tree is then found again and killed with SIGKILL. The
+     * tree is found before anything is killed because children whose parent
+     * has died are adopted by init and could no longer be traced back to the
+     * worker, as happens to the forks made by `mclapply`.
+     * @param pid Process ID reported by the worker, or 0 if it is not known.
+     * @param process The process.
+     */
+    static void kill(long pid, Process process) {
+        if(pid > 0) {
+            if(System.getProperty("os.name").startsWith("Windows")) {
+                run(new String[] {"taskkill", "/F", "/T", "/PID", String.valueOf(pid)});
+            } else {
+                signal("-STOP", tree(pid, processes()));
+                signal("-KILL", tree(pid, processes()));
+            }
+        }
+        process.destroy();
+    }
+
+    /**
+     * Reads the resident memory of a process and every process it started.
+     * Workers which fork, such as `mclapply` in `model.r`, would otherwise be
+     * measured by the memory of the parent alone.
+     * @param pid The process ID.
+     * @return The memory in bytes, or -1 if it could not be read.
+     */
+    static long memory(long pid) {
+        if(pid <= 0) {
+            return -1;
+        }
+        HashMap<Long, long[]> table = processes();
+        if((table == null) || !table.containsKey(pid)) {
+            return -1;
+        }
+        long ret = 0;
+        for(long child : tree(pid, table)) {
+            long rss = table.get(child)[1];
+            if(rss < 0) {
+                rss = resident(child);
+            }
+            if(rss > 0) {
+                ret += rss;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the name a script's budget is stored under.
+     * @param script Location or name of the script.
+     * @return The file name without the `.r` extension.
+     */
+    private static String name(String script) {
+        String ret = new File(script).getName();
+        if(ret.endsWith(".r")) {
+            ret = ret.substring(0, ret.length() - 2);
+        }
+        return ret;
+    }
+
+    /**
+     * Lists the running processes.
+     * On Linux the parent of each process is read from `/proc/[pid]/stat` and
+     * its memory is left for resident() to read. A process which ends while 
+     * the table is being read is left out. Elsewhere both are read in a 
+     * single call to `wmic` on Windows or `ps`.
+     * @return The parent process ID and resident memory in bytes of every 
+     * process, indexed by process ID. The memory is -1 if it was not read. 
+     * Null if the processes could not be listed.
+     */
+    private static HashMap<Long, long[]> processes() {
+        HashMap<Long, long[]> ret = new HashMap<>();
+        File[] dirs = new File("/proc").listFiles();
+        if((dirs != null) && new File("/proc/self/stat").exists()) {
+            for(File dir : dirs) {
+                if(!dir.getName().matches("[0-9]+")) {
+                    continue;
+                }
+                try (BufferedReader inpt = new BufferedReader(new FileReader(new File(dir, "stat")))) {
+                    String line = inpt.readLine();
+                    String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+                    ret.put(Long.parseLong(dir.getName()), new long[] {Long.parseLong(fields[1]), -1});
+                } catch(IOException | RuntimeException e) {
+                    continue;
+                }
+            }
+            return ret;
+        }
+        boolean windows = System.getProperty("os.name").startsWith("Windows");
+        String[] cmd;
+        if(windows) {
+            cmd = new String[] {"wmic", "process", "get", "ParentProcessId,ProcessId,WorkingSetSize"};
+        } else {
+            cmd = new String[] {"ps", "-A", "-o", "pid=", "-o", "ppid=", "-o", "rss="};
+        }
+        try {
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            try (BufferedReader inpt = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                String line;
+                while((line = inpt.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+");
+                    if((fields.length != 3) || !fields[0].matches("[0-9]+")) {
+                        continue;
+                    }
+                    if(windows) {
+                        ret.put(Long.parseLong(fields[1]), new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[2])});
+                    } else {
+                        ret.put(Long.parseLong(fields[0]), new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2]) * 1024});
+                    }
+                }
+            }
+            p.waitFor();
+        } catch(IOException | NumberFormatException e) {
+            return null;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the resident memory of a single process from `/proc`.
+     * @param pid The process ID.
+     * @return The memory in bytes, or -1 if it could not be read.
+     */
+    private static long resident(long pid) {
+        try (BufferedReader inpt = new BufferedReader(new FileReader("/proc/" + pid + "/status"))) {
+            String line;
+            while((line = inpt.readLine()) != null) {
+                if(line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch(IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Runs a command and waits for it to finish.
+     * @param cmd The command and its arguments.
+     */
+    private static void run(String[] cmd) {
+        try {
+            new ProcessBuilder(cmd).redirectErrorStream(true).start().waitFor();
+        } catch(IOException e) {
+            ErrorManager.log("Watchdog could not run " + cmd[0] + ".", e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets the budget for a script.
+     * @param script Name of the script without the extension, e.g. "stats",
+     * or "" for the default budget used by scripts without one of their own.
+     * @param seconds Longest time a run may take in seconds. 0 or less for no
+     * limit.
+     * @param megabytes Largest memory the R process may use in megabytes. 0 or
+     * less for no limit.
+     */
+    public static synchronized void setBudget(String script, int seconds, int megabytes) {
+        Budget budget = new Budget();
+        budget.seconds = Math.max(0, seconds);
+        budget.megabytes = Math.max(0, megabytes);
+        budgets.put(name(script), budget);
+    }
+
+    /**
+     * Sends a signal to a list of processes with `kill`.
+     * @param signal The signal, e.g. "-KILL".
+     * @param pids The process IDs.
+     */
+    private static void signal(String signal, List<Long> pids) {
+        String[] cmd = new String[pids.size() + 2];
+        cmd[0] = "kill";
+        cmd[1] = signal;
+        for(int i = 0; i < pids.size(); i++) {
+            cmd[i + 2] = String.valueOf(pids.get(i));
+        }
+        run(cmd);
+    }
+
+    /**
+     * Finds a process and every process descended from it.
+     * @param pid The process ID.
+     * @param table The running processes, as listed by processes(), or null.
+     * @return The process followed by its descendants, parents before their 
+     * children. Only the process itself if the table is null.
+     */
+    private static List<Long> tree(long pid, HashMap<Long, long[]> table) {
+        List<Long> ret = new ArrayList<>();
+        ret.add(pid);
+        if(table == null) {
+            return ret;
+        }
+        HashMap<Long, List<Long>> children = new HashMap<>();
+        for(Map.Entry<Long, long[]> entry : table.entrySet()) {
+            List<Long> list = children.get(entry.getValue()[0]);
+            if(list == null) {
+                list = new ArrayList<>();
+                children.put(entry.getValue()[0], list);
+            }
+            list.add(entry.getKey());
+        }
+        for(int i = 0; i < ret.size(); i++) {
+            List<Long> list = children.get(ret.get(i));
+            if(list != null) {
+                for(Long child : list) {
+                    if(!ret.contains(child)) {
+                        ret.add(child);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+}
@@ -5,17 +5,28 @@ import data.ImportationObject;
 import data.ModelObject;
 import data.SettingsObject;
 import data.StatsObject;
+import data.ValidationObject;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -38,10 +49,11 @@ import org.xml.sax.SAXException;
  * This class is used to manipulate XML files used by the program to store or 
  * transfer data. The specific types of files covered are the `[x].about.xml` 
  * files which describe an organism or weather database, the model database, and 
- * information being passed back to the program from called R scripts. The 
- * program does not use a third-party library to manage XML because one of its 
- * design goals is to use only the standard libraries so as to increase the odds 
- * of it running without issue on any computer.
+ * the settings file. Results passed back from the R scripts are handled by 
+ * ScriptProtocol instead. The program does not use a third-party library to 
+ * manage XML because one of its design goals is to use only the standard 
+ * libraries so as to increase the odds of it running without issue on any 
+ * computer.
  * @author Ian Yocum
  * @date 7/17/2013
  * @copyright United States Department of Agriculture Agricultural Research 
@@ -54,7 +66,18 @@ import org.xml.sax.SAXException;
  * cause a crash.
  * @todo Fix crash on trying to load empty xml file.
  */
-public class XmlManager {    
+public class XmlManager {
+    /**
+     * @brief What reconstruct learned about a single member file.
+     */
+    private static class MemberScan {
+        int badRow = 0; /*!< First row whose column count differs from the first row, or 0 if every row agrees. */
+        String checksum = ""; /*!< SHA-256 checksum of the file as a hexadecimal string. */
+        long modified = 0; /*!< Modification time of the file when it was read. */
+        int rows = 0; /*!< Number of non-empty rows in the file. */
+        int stages = 0; /*!< Number of stage columns in the first row of the file. */
+    }
+        
     /**
      * Requests individual values from an XML document.
      * @param n Individual node to request the data from.
@@ -179,7 +202,28 @@ public class XmlManager {
                             }
                             tempModel.logLikelihood = getValue(models.item(i), "log", 0);
                             tempModel.aic = getValue(models.item(i), "aic", 0);
+                            if(((Element)(models.item(i))).getElementsByTagName("lower").getLength() > 0) {
+                                tempModel.lower = getValue(models.item(i), "lower", 0);
+                                tempModel.upper = getValue(models.item(i), "upper", 0);
+                            }
+                            tempModel.fitThresholds = ((Element)(models.item(i))).getElementsByTagName("fitThresholds").getLength() > 0;
+                            if(((Element)(models.item(i))).getElementsByTagName("parent").getLength() > 0) {
+                                tempModel.parent = getValue(models.item(i), "parent", 0);
+                            }
+                            if(((Element)(models.item(i))).getElementsByTagName("joint").getLength() > 0) {
+                                tempModel.joint = getValue(models.item(i), "joint", 0);
+                                tempModel.jointLogLikelihood = getValue(models.item(i), "jointLog", 0);
+                                tempModel.jointAic = getValue(models.item(i), "jointAic", 0);
+                            }
+                            if(((Element)(models.item(i))).getElementsByTagName("starts").getLength() > 0) {
+                                tempModel.starts = getValue(models.item(i), "starts", 0);
+                                tempModel.startsAgreed = getValue(models.item(i), "startsAgreed", 0);
+                            }
                             tempModel.stats = readStatsElements((Element) models.item(i));
+                            NodeList validation = ((Element)(models.item(i))).getElementsByTagName("validation");
+                            if(validation.getLength() > 0) {
+                                tempModel.validation = readValidationElements((Element) validation.item(0));
+                            }
                             ret.add(tempModel);
                         }
                     }
@@ -244,6 +288,27 @@ public class XmlManager {
                 if(!temp.isEmpty()){
                     ret.tooltips = Boolean.valueOf(temp);
                 }
+                temp = getValue(doc, "cacheSize",0);
+                if(!temp.isEmpty()){
+                    ret.cacheSize = Integer.parseInt(temp);
+                }
+                temp = getValue(doc, "workerCount",0);
+                if(!temp.isEmpty()){
+                    ret.workerCount = Integer.parseInt(temp);
+                }
+                temp = getValue(doc, "workerJobs",0);
+                if(!temp.isEmpty()){
+                    ret.workerJobs = Integer.parseInt(temp);
+                }
+                temp = getValue(doc, "scriptTimeout",0);
+                if(!temp.isEmpty()){
+                    ret.scriptTimeout = Integer.parseInt(temp);
+                }
+                temp = getValue(doc, "scriptMemory",0);
+                if(!temp.isEmpty()){
+                    ret.scriptMemory = Integer.parseInt(temp);
+                }
+                ret.statsWorkers = getValue(doc, "statsWorkers",0);
                 NodeList nodes = doc.getElementsByTagName("organismList");
                 if(nodes.getLength() > 0) {
                     ret.organismCount = ((Element) nodes.item(0)).getElementsByTagName("organism").getLength();
@@ -282,39 +347,19 @@ public class XmlManager {
     }
     
     /**
-     * Loads an XML file containing statistical data.
-     * This method is used to retrieve information output by the script 
-     * `stats.r` and feed it back into the main program. The script outputs its 
-     * information as an XML file for easy parsing. See ScriptManager for an 
-     * example of the file produced by the main program to be used as input for 
-     * the script.
-     * @param target String representing the location to attempt to read 
-     * statistics data.
-     * @return A StatsObject containing the results of the calculations by the 
-     * script `stats.r`.
+     * Finds a member file of a database in the database's own directory.
+     * @param directory Directory holding the database's about file.
+     * @param recorded Location of the member as recorded in the about file, 
+     * which may have been written on another computer.
+     * @return Absolute location of the file of the same name in directory, 
+     * or recorded if it is empty.
      */
-    public static StatsObject loadStats(String target) {
-
-        StatsObject ret = new StatsObject();
-        File file = new File(target);
-        if(!file.exists()) {
-            System.out.println("no file");
-            return null;
-        }
-        try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document dom = db.parse(target);
-            Element doc = dom.getDocumentElement();
-            if(!dom.getDocumentElement().getNodeName().equals("stats")) {
-                ErrorManager.error("Could not load statistical output.", "XmlManager.loadStats has found that the XML file does not contain valid statistical data. <stats> tag expected as root element.", null);
-            } else {
-                ret = readStatsElements(doc);
-            }
-        } catch (ParserConfigurationException | SAXException | IOException | NumberFormatException e) {
-            ErrorManager.error("Could not load statistical output.", "XmlManager.loadStats has found that an error occurred while attempting to load the XML file " + target, e);
+    private static String memberFile(File directory, String recorded) {
+        String[] parts = recorded.split("[/\\\\]");
+        if(recorded.isEmpty() || parts.length == 0) {
+            return recorded;
         }
-        return ret;
+        return new File(directory, parts[parts.length - 1]).getAbsolutePath();
     }
     
     /**
@@ -327,12 +372,26 @@ public class XmlManager {
      * @param target The file describing a database. File is expected to be in 
      * the form "[x].about.txt" where "[x]" is the name of the database.
      * @return DatabaseObject containing the contents of the targeted database.
+     * @note Databases are served from DatasetRegistry when the file has not 
+     * changed since it was last read or written.
+     * @note Member files are checked by validateMembers before the database is
+     * returned. Only members whose files have changed since their row count 
+     * and checksum were recorded are read. The file itself is never written
+     * here; the new records are only saved by updateDatabaseFile.
+     * @note The location of the database and of each member are found from 
+     * the directory of target rather than from the paths recorded in it, so
+     * that a dataset which has been moved or copied still finds its own 
+     * files.
      */
     public static DatabaseObject readDatabaseFile(String target) {
         File file = new File(target);
         if(!file.exists()) {
             return null;
         }
+        DatabaseObject cached = DatasetRegistry.get(target);
+        if(cached != null) {
+            return cached;
+        }
         try {
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
             DocumentBuilder db = dbf.newDocumentBuilder();
@@ -346,7 +405,7 @@ public class XmlManager {
             database.name = getValue(doc,"name", 0);
             database.date = getValue(doc,"date", 0);
             database.time = getValue(doc,"time", 0);
-            database.location = getValue(doc,"location", 0);
+            database.location = file.getAbsolutePath();
             database.type = getValue(doc,"type", 0);
             String temp = getValue(doc,"size", 0);
             if(!temp.isEmpty()) {
@@ -367,19 +426,32 @@ public class XmlManager {
                 List<String> nameHolder = new ArrayList<>();
                 int modelsLen = ((Element) nodes.item(0)).getElementsByTagName("member").getLength();
                 for(int i = 0; i < modelsLen; i++) {
-                    locationHolder.add(getValue( nodes.item(0), "location", i ));
+                    locationHolder.add(memberFile(file.getAbsoluteFile().getParentFile(), getValue( nodes.item(0), "location", i )));
                     nameHolder.add(getValue( nodes.item(0), "name", i ));
                 }
                 database.memberLocations = new String[locationHolder.size()];
                 database.memberLocations = locationHolder.toArray(database.memberLocations);
                 database.memberNames = new String[nameHolder.size()];
                 database.memberNames = nameHolder.toArray(database.memberNames);
+                NodeList checksums = ((Element) nodes.item(0)).getElementsByTagName("checksum");
+                if(checksums.getLength() == modelsLen) {
+                    database.memberChecksums = new String[modelsLen];
+                    database.memberModified = new long[modelsLen];
+                    database.memberRows = new int[modelsLen];
+                    for(int i = 0; i < modelsLen; i++) {
+                        database.memberChecksums[i] = getValue( nodes.item(0), "checksum", i );
+                        database.memberModified[i] = Long.parseLong(getValue( nodes.item(0), "modified", i ));
+                        database.memberRows[i] = Integer.parseInt(getValue( nodes.item(0), "rows", i ));
+                    }
+                }
             } else {
                 if(!(nodes.getLength() > 0)) {
                     ErrorManager.error("Tags in the file, " + target + ", are invalid and the file is being reconstructed.","XmlManager.readDatabaseFile has found that the file, " + target + ", does not have any members that the program can identify. File is expected to have the tags \"<Members></Members>\" around its members and these tags may be missing or improperly set. The program will now attempt to reconstruct a valid file.", null);
                     return reconstruct(new File(target).getParent());
                 }
             }
+            validateMembers(database);
+            DatasetRegistry.put(target, database);
             return database;
         } catch(ParserConfigurationException | SAXException | IOException | NumberFormatException e) {
             ErrorManager.error("Could not load database file.","XmlManager.readDatabaseFile has encountered an error. Please review log.txt for details.", e);
@@ -407,10 +479,6 @@ public class XmlManager {
             }
             temp = getValue(doc,"stages", 0);
             int stages;
-            int iter = 0;
-            if(!ret.iterations.isEmpty()) {
-                iter = Integer.parseInt(ret.iterations);
-            }
             nodes = doc.getElementsByTagName("xx");
             if(nodes.getLength() > 0) {
                 ret.xx = getValue(nodes.item(0),"stat",0);
@@ -419,13 +487,26 @@ public class XmlManager {
                 ret.xxLow = getValue(nodes.item(0),"low",0);
             }
             ret.optim = getValue(doc,"optim",0);
-            if ((!temp.isEmpty())&&(iter > 0)){
+            if(doc.getElementsByTagName("method").getLength() > 0) {
+                ret.method = getValue(doc,"method",0);
+            }
+            boolean mcmc = ret.method.equals("MCMC");
+            if(mcmc) {
+                ret.chains = getValue(doc,"chains",0);
+                ret.thin = getValue(doc,"thin",0);
+                ret.accept = getValue(doc,"accept",0);
+            }
+            if (!temp.isEmpty()){
                 ret.stages = temp;
                 stages = Integer.parseInt(temp);
-                ret.aStar = new String[iter][stages];
+                ret.aStar = new String[doc.getElementsByTagName("aStar").getLength()][stages];
                 ret.a = new String[stages];
                 ret.aHigh = new String[stages];
                 ret.aLow = new String[stages];
+                if(mcmc) {
+                    ret.rHat = new String[stages + 1];
+                    ret.ess = new String[stages + 1];
+                }
                 nodes = doc.getElementsByTagName("aparam");
                 int len = nodes.getLength();
                 if(nodes.getLength() > 0) {
@@ -433,6 +514,10 @@ public class XmlManager {
                         ret.a[i] = getValue(nodes.item(i),"val",0);
                         ret.aHigh[i] = getValue(nodes.item(i),"high",0);
                         ret.aLow[i] = getValue(nodes.item(i),"low",0);
+                        if(mcmc) {
+                            ret.rHat[i] = getValue(nodes.item(i),"rhat",0);
+                            ret.ess[i] = getValue(nodes.item(i),"ess",0);
+                        }
                     }
                 }
                 nodes = doc.getElementsByTagName("aStar");
@@ -449,6 +534,10 @@ public class XmlManager {
                 ret.v = getValue(nodes.item(0),"val",0);
                 ret.vHigh = getValue(nodes.item(0),"high",0);
                 ret.vLow = getValue(nodes.item(0),"low",0);
+                if(ret.rHat.length > 0) {
+                    ret.rHat[ret.rHat.length - 1] = getValue(nodes.item(0),"rhat",0);
+                    ret.ess[ret.ess.length - 1] = getValue(nodes.item(0),"ess",0);
+                }
             }
             nodes = doc.getElementsByTagName("vStar");
             if(nodes.getLength() > 0) {
@@ -472,82 +561,214 @@ public class XmlManager {
         return ret;
     }
     
+    /**
+     * Loads the cross-validation of a model.
+     * @param doc The `validation` element to parse.
+     * @return Loaded cross-validation as a ValidationObject.
+     */
+    private static ValidationObject readValidationElements(Element doc) {
+        ValidationObject ret = new ValidationObject();
+        ret.folds = getValue(doc, "folds", 0);
+        ret.converged = getValue(doc, "converged", 0);
+        ret.failed = getValue(doc, "failedFolds", 0).isEmpty() ? "0" : getValue(doc, "failedFolds", 0);
+        ret.log = getValue(doc, "heldOutLog", 0);
+        ret.rmse = getValue(doc, "heldOutRmse", 0);
+        ret.mae = getValue(doc, "heldOutMae", 0);
+        ret.optim = getValue(doc, "validationOptim", 0);
+        int len = doc.getElementsByTagName("fold").getLength();
+        ret.foldDates = new String[len];
+        ret.foldLog = new String[len];
+        ret.foldRmse = new String[len];
+        ret.foldMae = new String[len];
+        for(int i = 0; i < len; i++) {
+            ret.foldDates[i] = getValue(doc, "foldDates", i);
+            ret.foldLog[i] = getValue(doc, "foldLog", i);
+            ret.foldRmse[i] = getValue(doc, "foldRmse", i);
+            ret.foldMae[i] = getValue(doc, "foldMae", i);
+        }
+        return ret;
+    }
+    
     /**
      * Attempts to automatically construct a database file.
      * This method is a way for the program to recover from some user or program 
      * errors. If the database file is in some way unreadable, it is frequently 
      * possible to reconstruct what it should look like given the contents of 
      * the directory.
+     * <p>Every member file is read in full, with the files spread over one 
+     * thread per available processor. Each member has its rows and stages 
+     * counted and a SHA-256 checksum taken. The counts and checksums are written
+     * to the rebuilt file so that later loads can trust members which have not
+     * changed since without reading them again.</p>
      * @param directory The directory to be parsed.
      * @warning It is expected that the database directory will only contain 
      * files which are part of that data set. Improper files will cause the 
-     * reconstruction method to fail.
+     * reconstruction method to fail, as will organism files which do not all 
+     * have the same number of stages.
      */
     private static DatabaseObject reconstruct(String directory) {
         DatabaseObject ret = null;
-        try {
-            String name = new File(directory).getName();
-            File dir = new File(directory);
-            if((!dir.isDirectory()) || (name.equals("")) ) {
-                ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was passed incorrect parameters.", null);
-                return null;
-            }
-            DatabaseObject database = new DatabaseObject();
-            database.name = name;
-            File[] files = dir.listFiles(); 
-            if(files.length < 2) {
-                ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was not given the location of a database.", null);
+        File dir = new File(directory);
+        String name = dir.getName();
+        if((!dir.isDirectory()) || (name.equals("")) ) {
+            ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was passed incorrect parameters.", null);
+            return null;
+        }
+        DatabaseObject database = new DatabaseObject();
+        database.name = name;
+        File[] files = dir.listFiles(); 
+        if((files == null) || (files.length < 2)) {
+            ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was not given the location of a database.", null);
+            return null;
+        }
+        Arrays.sort(files);
+        ArrayList<String> fileNames = new ArrayList<>();
+        final ArrayList<File> members = new ArrayList<>();
+        for (File file : files) {
+            String holder[] = file.getName().split("\\.");
+            if((holder.length < 3) || (!holder[holder.length - 3].equals(name))) {
+                ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was given a folder that contains non-database files. Remove extra files from the directory " + directory + ".", null);
                 return null;
             }
-            ArrayList<String> fileNames = new ArrayList<>();
-            ArrayList<String> fileLocations = new ArrayList<>();
-            for (File file : files) {
-                String[] filePath = file.getAbsolutePath().split("\\\\");
-                String holder[] =  filePath[filePath.length - 1].split("\\.");
-                if((holder.length < 3) || (!holder[holder.length - 3].equals(name))) {
-                    ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was given a folder that contains non-database files. Remove extra files from the directory " + directory + ".", null);
-                    return null;
-                }
-                if (holder[holder.length - 1].equals("txt")) {
-                    if (holder[holder.length - 2].equals("weather")) {
-                        database.type = "Weather";
-                        fileNames.add("weather");
-                        fileLocations.add(file.getAbsolutePath());
-                    } else {
-                        fileNames.add(holder[holder.length - 2]);
-                        fileLocations.add(file.getAbsolutePath());
-                    }
+            if (holder[holder.length - 1].equals("txt")) {
+                if (holder[holder.length - 2].equals("weather")) {
+                    database.type = "Weather";
+                    fileNames.add("weather");
+                } else {
+                    fileNames.add(holder[holder.length - 2]);
                 }
+                members.add(file);
             }
-            database.size = fileNames.size();
-            if(database.type.equals("Unknown")) {
-                database.type = "Organism";
+        }
+        if(members.isEmpty()) {
+            ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct did not find any data files in the directory " + directory + ".", null);
+            return null;
+        }
+        List<MemberScan> scans = scanMembers(members);
+        if(scans == null) {
+            return null;
+        }
+        database.size = fileNames.size();
+        if(database.type.equals("Unknown")) {
+            database.type = "Organism";
+        }
+        database.memberLocations = new String[database.size];
+        database.memberNames = fileNames.toArray(new String[database.size]);
+        database.memberChecksums = new String[database.size];
+        database.memberModified = new long[database.size];
+        database.memberRows = new int[database.size];
+        StringBuilder mismatch = new StringBuilder();
+        for(int i = 0; i < database.size; i++) {
+            MemberScan scan = scans.get(i);
+            database.memberLocations[i] = members.get(i).getAbsolutePath();
+            database.memberChecksums[i] = scan.checksum;
+            database.memberModified[i] = scan.modified;
+            database.memberRows[i] = scan.rows;
+            if(scan.badRow > 0) {
+                mismatch.append(" ").append(members.get(i).getName()).append(" changes its number of columns at row ").append(scan.badRow).append(".");
             }
-            database.location = dir.getAbsolutePath() + "/" + name + ".about.xml";
-            DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-            Date d = new Date();
-            database.date = dateFormat.format(d) + " (R)";
-            dateFormat = new SimpleDateFormat("HH:mm:ss");
-            database.time = dateFormat.format(d) + " (R)";
             if(!database.type.equals("Weather")) {
-                String line;
-                try (BufferedReader inputStream = new BufferedReader(new FileReader(fileLocations.get(0)))) {
-                    line = inputStream.readLine();
+                if(i == 0) {
+                    database.stages = scan.stages;
+                } else if(scan.stages != database.stages) {
+                    mismatch.append(" ").append(members.get(i).getName()).append(" has ").append(scan.stages).append(" stages but ").append(members.get(0).getName()).append(" has ").append(database.stages).append(".");
                 }
-                database.stages = line.split("\t").length - 1;
             }
-            database.memberLocations = new String[database.size];
-            database.memberLocations = fileLocations.toArray(database.memberLocations);
-            database.memberNames = new String[database.size];
-            database.memberNames = fileNames.toArray(database.memberNames);
-            if (writeReconstruction(database)) {
-                ret = database;
-            } else {
-                ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was able to reconstruct a file but the file could not be saved.", null);
+        }
+        if(mismatch.length() > 0) {
+            ErrorManager.error("Program failed to reconstruct database file because its data files do not agree on the number of stages.", "The function XmlManager.reconstruct found inconsistent data in the directory " + directory + "." + mismatch.toString(), null);
+            return null;
+        }
+        database.memberStages = new String[database.stages];
+        for(int i = 0; i < database.stages; i++) {
+            database.memberStages[i] = "Stage " + (i + 1);
+        }
+        database.location = dir.getAbsolutePath() + "/" + name + ".about.xml";
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date d = new Date();
+        database.date = dateFormat.format(d) + " (R)";
+        dateFormat = new SimpleDateFormat("HH:mm:ss");
+        database.time = dateFormat.format(d) + " (R)";
+        if (writeReconstruction(database)) {
+            DatasetRegistry.put(database.location, database);
+            ret = database;
+        } else {
+            ErrorManager.error("Program failed to reconstruct database file.", "The function XmlManager.reconstruct was able to reconstruct a file but the file could not be saved.", null);
+        }
+        return ret;
+    }
+    
+    /**
+     * Reads the member files of a database in parallel.
+     * @param members The data files to read.
+     * @return One MemberScan for each file, in the same order as the files, or
+     * null if any file could not be read.
+     */
+    private static List<MemberScan> scanMembers(List<File> members) {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), members.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<MemberScan>> tasks = new ArrayList<>();
+            for(final File file : members) {
+                tasks.add(new Callable<MemberScan>() {
+                    @Override
+                    public MemberScan call() throws IOException, NoSuchAlgorithmException {
+                        return scanMember(file);
+                    }
+                });
+            }
+            List<MemberScan> ret = new ArrayList<>();
+            for(Future<MemberScan> result : pool.invokeAll(tasks)) {
+                ret.add(result.get());
             }
-        } catch(IOException e){
-            ErrorManager.error("Attempted Database reconstruction failed.", "XmlManager.reconstruct ran into the following error, which caused it to abort operations. See log.txt for details.",e);
+            return ret;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ErrorManager.error("Could not read the data files of a database.", "XmlManager.scanMembers was interrupted while reading the data files.", e);
+        } catch(ExecutionException e) {
+            Exception cause = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            ErrorManager.error("Could not read the data files of a database.", "XmlManager.scanMembers ran into the following error, which caused it to abort operations. See log.txt for details.", cause);
+        } finally {
+            pool.shutdownNow();
         }
+        return null;
+    }
+    
+    /**
+     * Reads a single member file of a database.
+     * The checksum is taken over the bytes of the file as they are read so the 
+     * file is only read once.
+     * @param file The data file to read.
+     * @return The row count, stage count, and checksum of the file.
+     * @throws IOException If the file cannot be read.
+     * @throws NoSuchAlgorithmException If SHA-256 is not available.
+     */
+    private static MemberScan scanMember(File file) throws IOException, NoSuchAlgorithmException {
+        MemberScan ret = new MemberScan();
+        ret.modified = file.lastModified();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        int columns = -1;
+        try (BufferedReader inputStream = new BufferedReader(new InputStreamReader(new DigestInputStream(new FileInputStream(file), digest)))) {
+            String line;
+            while((line = inputStream.readLine()) != null) {
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+                ret.rows++;
+                int len = line.split("\t").length;
+                if(columns < 0) {
+                    columns = len;
+                } else if((len != columns) && (ret.badRow == 0)) {
+                    ret.badRow = ret.rows;
+                }
+            }
+        }
+        ret.stages = Math.max(0, columns - 1);
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        ret.checksum = hex.toString();
         return ret;
     }
     
@@ -628,10 +849,51 @@ public class XmlManager {
                         e = dom.createElement("optim");
                         e.appendChild(dom.createTextNode(model1.optim));
                         model.appendChild(e);
+                        e = dom.createElement("lower");
+                        e.appendChild(dom.createTextNode(model1.lower));
+                        model.appendChild(e);
+                        e = dom.createElement("upper");
+                        e.appendChild(dom.createTextNode(model1.upper));
+                        model.appendChild(e);
+                        if(model1.fitThresholds) {
+                            e = dom.createElement("fitThresholds");
+                            e.appendChild(dom.createTextNode("true"));
+                            model.appendChild(e);
+                        }
+                        if(!model1.parent.isEmpty()) {
+                            e = dom.createElement("parent");
+                            e.appendChild(dom.createTextNode(model1.parent));
+                            model.appendChild(e);
+                        }
+                        if(!model1.joint.isEmpty()) {
+                            e = dom.createElement("joint");
+                            e.appendChild(dom.createTextNode(model1.joint));
+                            model.appendChild(e);
+                            e = dom.createElement("jointLog");
+                            e.appendChild(dom.createTextNode(model1.jointLogLikelihood));
+                            model.appendChild(e);
+                            e = dom.createElement("jointAic");
+                            e.appendChild(dom.createTextNode(model1.jointAic));
+                            model.appendChild(e);
+                        }
+                        if(!model1.starts.isEmpty()) {
+                            e = dom.createElement("starts");
+                            e.appendChild(dom.createTextNode(model1.starts));
+                            model.appendChild(e);
+                            e = dom.createElement("startsAgreed");
+                            e.appendChild(dom.createTextNode(model1.startsAgreed));
+                            model.appendChild(e);
+                        }
                         e = writeStatsElements(dom, model1.stats);
                         if(e != null) {
                             model.appendChild(e);
                         }
+                        if(!model1.validation.folds.equals("0")) {
+                            e = writeValidationElements(dom, model1.validation);
+                            if(e != null) {
+                                model.appendChild(e);
+                            }
+                        }
                         rootEle.appendChild(model);
                     }
                 }
@@ -693,6 +955,24 @@ public class XmlManager {
             e = dom.createElement("tooltips");
             e.appendChild(dom.createTextNode(String.valueOf(settings.tooltips)));
             rootEle.appendChild(e);
+            e = dom.createElement("cacheSize");
+            e.appendChild(dom.createTextNode(String.valueOf(settings.cacheSize)));
+            rootEle.appendChild(e);
+            e = dom.createElement("workerCount");
+            e.appendChild(dom.createTextNode(String.valueOf(settings.workerCount)));
+            rootEle.appendChild(e);
+            e = dom.createElement("workerJobs");
+            e.appendChild(dom.createTextNode(String.valueOf(settings.workerJobs)));
+            rootEle.appendChild(e);
+            e = dom.createElement("scriptTimeout");
+            e.appendChild(dom.createTextNode(String.valueOf(settings.scriptTimeout)));
+            rootEle.appendChild(e);
+            e = dom.createElement("scriptMemory");
+            e.appendChild(dom.createTextNode(String.valueOf(settings.scriptMemory)));
+            rootEle.appendChild(e);
+            e = dom.createElement("statsWorkers");
+            e.appendChild(dom.createTextNode(settings.statsWorkers));
+            rootEle.appendChild(e);
             e = dom.createElement("organismList");
             if (settings.organismLocations.size() > 0) {
                 for(int i = 0; i < settings.organismLocations.size(); i++) {
@@ -737,11 +1017,16 @@ public class XmlManager {
     
     /**
      * Updates a database.
-     * This updates the .about.xml file which describes a database.
+     * This updates the .about.xml file which describes a database and replaces 
+     * the copy held by DatasetRegistry. Members added since the database was 
+     * last validated are read first, so that every member is written with its
+     * row count, checksum, and modification time.
      * @param data The DatabaseObject which describes the .about.xml file for 
-     * the database.
+     * the database. The file is written to its location, which 
+     * readDatabaseFile sets to the file it was read from.
      */
     public static void updateDatabaseFile(DatabaseObject data) {
+        validateMembers(data);
         try {
             Document dom;
             Element e;
@@ -786,6 +1071,7 @@ public class XmlManager {
                 g = dom.createElement("name");
                 g.appendChild(dom.createTextNode(data.memberNames[i]));
                 f.appendChild(g);
+                writeMemberRecord(dom, f, data, i);
                 e.appendChild(f);
             }
             rootEle.appendChild(e);
@@ -796,14 +1082,84 @@ public class XmlManager {
             tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
             tr.transform(new DOMSource(dom), new StreamResult(new FileOutputStream(data.location)));
+            DatasetRegistry.put(data.location, data);
         } catch (ParserConfigurationException | DOMException | TransformerFactoryConfigurationError | IllegalArgumentException | FileNotFoundException | TransformerException e) {
             ErrorManager.error("The program ran in to an error trying to update a database.", "XmlManager.updateDatabaseFile encountered an error." ,(Exception) e);
         }
     }
     
+    /**
+     * Checks the member files of a database against their recorded rows and 
+     * checksums.
+     * A member whose file still has the modification time recorded with its 
+     * checksum is trusted without being read. Every other member is read, in
+     * parallel, and has its row count, checksum, and modification time 
+     * recorded. A member whose file is missing, whose rows do not all have the
+     * same number of columns, or whose number of stages differs from the 
+     * database is reported and left unrecorded, so that it is checked again 
+     * on the next load.
+     * @param database The database to check. Its member records are grown to
+     * match its size and filled in. The database file is not written.
+     */
+    private static void validateMembers(DatabaseObject database) {
+        int size = (database.memberLocations == null) ? 0 : Math.min(database.size, database.memberLocations.length);
+        boolean recorded = (database.memberChecksums != null) && (database.memberModified != null) && (database.memberRows != null);
+        String[] checksums = new String[size];
+        long[] modified = new long[size];
+        int[] rows = new int[size];
+        List<Integer> stale = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        StringBuilder problems = new StringBuilder();
+        for(int i = 0; i < size; i++) {
+            File file = new File(database.memberLocations[i]);
+            if(recorded && (i < database.memberChecksums.length) && (i < database.memberModified.length) && (i < database.memberRows.length)) {
+                checksums[i] = database.memberChecksums[i];
+                modified[i] = database.memberModified[i];
+                rows[i] = database.memberRows[i];
+            } else {
+                checksums[i] = "";
+            }
+            if(!file.isFile()) {
+                problems.append(" ").append(database.memberLocations[i]).append(" is missing.");
+                modified[i] = 0;
+            } else if((modified[i] == 0) || (file.lastModified() != modified[i])) {
+                stale.add(i);
+                files.add(file);
+            }
+        }
+        if(!files.isEmpty()) {
+            List<MemberScan> scans = scanMembers(files);
+            if(scans == null) {
+                return;
+            }
+            for(int k = 0; k < scans.size(); k++) {
+                int i = stale.get(k);
+                MemberScan scan = scans.get(k);
+                if(scan.badRow > 0) {
+                    problems.append(" ").append(files.get(k).getName()).append(" changes its number of columns at row ").append(scan.badRow).append(".");
+                } else if(!database.type.equals("Weather") && (scan.stages != database.stages)) {
+                    problems.append(" ").append(files.get(k).getName()).append(" has ").append(scan.stages).append(" stages but the database has ").append(database.stages).append(".");
+                } else {
+                    checksums[i] = scan.checksum;
+                    modified[i] = scan.modified;
+                    rows[i] = scan.rows;
+                    continue;
+                }
+                modified[i] = 0;
+            }
+        }
+        if(problems.length() > 0) {
+            ErrorManager.warn("Some data files of the database " + database.name + " could not be validated.", "XmlManager.validateMembers found problems with the data files of " + database.location + "." + problems.toString());
+        }
+        database.memberChecksums = checksums;
+        database.memberModified = modified;
+        database.memberRows = rows;
+    }
+    
     /**
      * Records a database.
-     * This method creates a database from an imported data set.
+     * This method creates a database from an imported data set. Any copy of a 
+     * previous database at the same location is dropped from DatasetRegistry.
      * @param target The directory the database should be created in.
      * @param io The ImportationObject which holds all the necessary data to 
      * save the database.
@@ -872,6 +1228,7 @@ public class XmlManager {
             tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             tr.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
             tr.transform(new DOMSource(dom), new StreamResult(new FileOutputStream(target)));
+            DatasetRegistry.invalidate(target);
         } catch(ParserConfigurationException | DOMException | TransformerFactoryConfigurationError | IllegalArgumentException | FileNotFoundException | TransformerException e) {
             ErrorManager.error("Could not save data file " + target, "XmlManager.writeDatabaseFile has found that an error occurred while attempting write to the XML file " + target, (Exception)e);
         }
@@ -907,6 +1264,13 @@ public class XmlManager {
             e = dom.createElement("stages");
             e.appendChild(dom.createTextNode(String.valueOf(database.stages)));
             rootEle.appendChild(e);
+            e = dom.createElement("stageNames");
+            for(int i = 0; i < database.stages; i++) {
+                Element f = dom.createElement("nameVal");
+                f.appendChild(dom.createTextNode(database.memberStages[i]));
+                e.appendChild(f);
+            }
+            rootEle.appendChild(e);
             e = dom.createElement("size");
             e.appendChild(dom.createTextNode(String.valueOf(database.size)));
             rootEle.appendChild(e);
@@ -919,6 +1283,7 @@ public class XmlManager {
                 g = dom.createElement("name");
                 g.appendChild(dom.createTextNode(database.memberNames[i]));
                 f.appendChild(g);
+                writeMemberRecord(dom, f, database, i);
                 e.appendChild(f);
             }
             rootEle.appendChild(e);
@@ -936,6 +1301,51 @@ public class XmlManager {
         return false;
     }
     
+    /**
+     * Adds the recorded row count, checksum, and modification time of a member
+     * to its element.
+     * Nothing is added if the database does not record them.
+     * @param dom Parent document.
+     * @param member The member element to add to.
+     * @param database The database the member belongs to.
+     * @param i Index of the member.
+     */
+    private static void writeMemberRecord(Document dom, Element member, DatabaseObject database, int i) {
+        if((database.memberChecksums == null) || (database.memberRows == null) || (database.memberModified == null) || (database.memberChecksums.length <= i)) {
+            return;
+        }
+        Element g = dom.createElement("rows");
+        g.appendChild(dom.createTextNode(String.valueOf(database.memberRows[i])));
+        member.appendChild(g);
+        g = dom.createElement("checksum");
+        g.appendChild(dom.createTextNode(database.memberChecksums[i]));
+        member.appendChild(g);
+        g = dom.createElement("modified");
+        g.appendChild(dom.createTextNode(String.valueOf(database.memberModified[i])));
+        member.appendChild(g);
+    }
+    
+    /**
+     * Adds the R-hat and effective sample size of a parameter of an MCMC run
+     * to its element.
+     * Nothing is added if the statistics do not record them.
+     * @param dom Parent document.
+     * @param param The `aparam` or `vparam` element to add to.
+     * @param stat Statistics being saved.
+     * @param i Index of the parameter, with V last.
+     */
+    private static void writeDiagnostics(Document dom, Element param, StatsObject stat, int i) {
+        if((stat.rHat.length <= i) || (stat.ess.length <= i)) {
+            return;
+        }
+        Element g = dom.createElement("rhat");
+        g.appendChild(dom.createTextNode(stat.rHat[i]));
+        param.appendChild(g);
+        g = dom.createElement("ess");
+        g.appendChild(dom.createTextNode(stat.ess[i]));
+        param.appendChild(g);
+    }
+    
     /**
      * Write statistics to an element.
      * @param dom Parent document.
@@ -974,6 +1384,19 @@ public class XmlManager {
             e = dom.createElement("optim");
             e.appendChild(dom.createTextNode(stat.optim));
             root.appendChild(e);
+            if(!stat.method.equals("Bootstrap")) {
+                e = dom.createElement("method");
+                e.appendChild(dom.createTextNode(stat.method));
+                root.appendChild(e);
+            }
+            if(stat.method.equals("MCMC")) {
+                String[][] values = {{"chains", stat.chains}, {"thin", stat.thin}, {"accept", stat.accept}};
+                for(String[] value : values) {
+                    e = dom.createElement(value[0]);
+                    e.appendChild(dom.createTextNode(value[1]));
+                    root.appendChild(e);
+                }
+            }
             e = dom.createElement("xx");
             f = dom.createElement("stat");
             f.appendChild(dom.createTextNode(stat.xx));
@@ -1003,6 +1426,7 @@ public class XmlManager {
                     f.appendChild(dom.createTextNode(stat.aHigh[i]));
                     e.appendChild(f);
                 }
+                writeDiagnostics(dom, e, stat, i);
                 root.appendChild(e);
             }
             e = dom.createElement("vparam");
@@ -1015,6 +1439,7 @@ public class XmlManager {
             f = dom.createElement("high");
             f.appendChild(dom.createTextNode(stat.vHigh));
             e.appendChild(f);
+            writeDiagnostics(dom, e, stat, stat.a.length);
             root.appendChild(e);
             for (String[] aStar : stat.aStar) {
                 e = dom.createElement("aStar");
@@ -1041,4 +1466,36 @@ public class XmlManager {
         }
         return root;
     }
+    
+    /**
+     * Creates the elements holding the cross-validation of a model.
+     * @param dom The document the elements belong to.
+     * @param validation The cross-validation.
+     * @return The `validation` element, or null if it could not be created.
+     */
+    private static Element writeValidationElements(Document dom, ValidationObject validation) {
+        Element root = null;
+        try {
+            root = dom.createElement("validation");
+            String[][] values = {{"folds", validation.folds}, {"converged", validation.converged}, {"failedFolds", validation.failed}, {"heldOutLog", validation.log}, {"heldOutRmse", validation.rmse}, {"heldOutMae", validation.mae}, {"validationOptim", validation.optim}};
+            for(String[] value : values) {
+                Element e = dom.createElement(value[0]);
+                e.appendChild(dom.createTextNode(value[1]));
+                root.appendChild(e);
+            }
+            for(int i = 0; i < validation.foldLog.length; i++) {
+                Element fold = dom.createElement("fold");
+                String[][] foldValues = {{"foldDates", validation.foldDates[i]}, {"foldLog", validation.foldLog[i]}, {"foldRmse", validation.foldRmse[i]}, {"foldMae", validation.foldMae[i]}};
+                for(String[] value : foldValues) {
+                    Element e = dom.createElement(value[0]);
+                    e.appendChild(dom.createTextNode(value[1]));
+                    fold.appendChild(e);
+                }
+                root.appendChild(fold);
+            }
+        } catch(DOMException e) {
+           ErrorManager.log("XmlManager.writeValidationElements has encountered an error.", e);
+        }
+        return root;
+    }
 }
@@ -15,6 +15,7 @@
 package windows;
 
 import stagecast.Importer;
+import stagecast.JobScheduler;
 import stagecast.ScriptManager;
 import data.DatabaseObject;
 import data.GraphObject;
@@ -22,7 +23,9 @@ import data.ImportationObject;
 import data.ModelObject;
 import data.SettingsObject;
 import data.StatsObject;
+import data.ValidationObject;
 import data.ForecastObject;
+import data.QueueObject;
 import stagecast.ErrorManager;
 import stagecast.XmlManager;
 
@@ -31,12 +34,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -44,8 +50,10 @@ import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableColumn.CellDataFeatures;
@@ -153,6 +161,7 @@ public class MainWindow {
     private int loadedModel; /*!< Index value of the currently loaded model. */
     private ArrayList<ModelObject> models; /*!< Array that stores all previously created models. */
     private List<ParameterTable> paramTblList; /*!< Constructs the list which holds the actual data inside of tableParams. */
+    private Runnable queueListener; /*!< Updates queueLbl whenever the jobs waiting for R change. */
     private SettingsObject settings; /*!< Record of the current program settings. */
     private Stage stage; /*!< The class which describes an FXML window. This must be non-null before the window is shown. */
     private ObservableList<ParameterTable> tableParams; /*!< Holds the data to be displayed by statsParamTbl. */
@@ -238,16 +247,22 @@ public class MainWindow {
     public TableColumn<ParameterTable,String> paramHighCol; /*!< Holds the high estimates for the model parameters. */
     public TableColumn<ParameterTable,String> paramLowCol; /*!< Holds the low estimates for the model parameters. */
     public Button prevBtn; /*!< Select the image before the currently selected image. */
+    public Label queueLbl; /*!< Shows the jobs waiting for and running on the R workers. */
+    public Button refitModelBtn; /*!< Button to refit the current model to its grown datasets. */
     public Button saveBtn; /*!< Save the currently selected image. */
     public ListView<TextFieldListCell> stageNameList; /*!< An editable list of the stage names for the currently loaded organism dataset. */
     public TextField stagesTxt; /*!< The number of stages in the currently loaded organism dataset. */
     public Button statsCalcBtn; /*!< The button to run the statistical calculations. */
+    public ProgressBar statsProgressBar; /*!< Shows how far the statistical calculations have come. */
+    public Label statsProgressLbl; /*!< Describes the progress of the statistical calculations. */
     public TextField statsMethodTxt; /*!< Which method was used in the statistics function. */
     public ComboBox<String> statsModelCombBx; /*!< Lists all models available to run statistical operations on. */
+    public ComboBox<String> statsMethodCombBx; /*!< How to find the parameter intervals: by the bootstrap, the profile likelihood, or MCMC. */
     public ComboBox<String> statsOrganismCombBx; /*!< Lists all organism datasets available to run statistical operations on. */
     public TableView<ParameterTable> statsParamTbl; /*!< Displays the range of parameter values. */
     public ComboBox<String> statsWeatherCombBox; /*!< Lists all weather datasets available to run statistical operations on. */
     public CheckBox tooltipCheckBx; /*!< Should tooltips be displayed. */
+    public Button validateModelBtn; /*!< Button to cross-validate the current model. */
     public ComboBox<String> weatherGraphCombBx; /*!< Lists all weather datasets available for graphing. */
     public TextField weatherImportTxt; /*!< The default directory to look for weather datasets to import. */
     public ComboBox<String> weatherListBx; /*!< Holds the list of all loaded weather datasets. */
@@ -474,6 +489,7 @@ public class MainWindow {
         modelParamList.setTooltip(null);
         modelWeatherTxt.setTooltip(null);
         newModelBtn.setTooltip(null);
+        refitModelBtn.setTooltip(null);
         newOrgBtn.setTooltip(null);
         newWeatherBtn.setTooltip(null);
         oneGraphPerBtn.setTooltip(null);
@@ -484,10 +500,12 @@ public class MainWindow {
         stageNameList.setTooltip(null);
         stagesTxt.setTooltip(null);
         statsCalcBtn.setTooltip(null);
+        statsMethodCombBx.setTooltip(null);
         statsModelCombBx.setTooltip(null);
         statsOrganismCombBx.setTooltip(null);
         statsParamTbl.setTooltip(null);
         statsWeatherCombBox.setTooltip(null);
+        validateModelBtn.setTooltip(null);
         weatherGraphCombBx.setTooltip(null);
         weatherListBx.setTooltip(null);
         xxHighTxt.setTooltip(null);
@@ -555,21 +573,16 @@ public class MainWindow {
             fo.stageNames = new String[file.memberStages.length];
             System.arraycopy(file.memberStages, 0, fo.stageNames, 0, file.memberStages.length);
         }
-        if(ScriptManager.forecast(fo)) {
-            File folder = new File(settings.defaultTempForecastOutput);
-            if(folder.exists()) {
-                File[] listOfFigures = folder.listFiles(); 
-                forecastFiguresCount = listOfFigures.length;
-                if(forecastFiguresCount > 0) {
-                    forecastFigures = new Image[forecastFiguresCount];
-                    for(int i = 0; i < forecastFiguresCount; i++) {
-                        forecastFigures[i] = new Image("file:" + listOfFigures[i]);
-                    }
-                    forecastCurrentFigure = 0;
-                    if(forecastFiguresCount > 0) {
-                        forecastView.setImage(forecastFigures[forecastCurrentFigure]);
-                    }
+        String[] listOfFigures = ScriptManager.forecast(fo);
+        if(listOfFigures != null) {
+            forecastFiguresCount = listOfFigures.length;
+            if(forecastFiguresCount > 0) {
+                forecastFigures = new Image[forecastFiguresCount];
+                for(int i = 0; i < forecastFiguresCount; i++) {
+                    forecastFigures[i] = new Image(new File(listOfFigures[i]).toURI().toString());
                 }
+                forecastCurrentFigure = 0;
+                forecastView.setImage(forecastFigures[forecastCurrentFigure]);
             }
         }
     }
@@ -698,19 +711,16 @@ public class MainWindow {
             graphSettings.combined = combChartCheckBx.isSelected();
             graphSettings.combHigh = combChartHighTxt.getText();
             graphSettings.combLow = combChartLowTxt.getText();
-            if(ScriptManager.graph(tWeather,organisms,tModel, graphSettings)) {
-                File folder = new File(settings.defaultTempGraphOutput);
-                if(folder.exists()) {
-                    File[] listOfFigures = folder.listFiles(); 
-                    figureCount = listOfFigures.length;
-                    figures = new Image[figureCount];
-                    for(int i = 0; i < figureCount; i++) {
-                        figures[i] = new Image("file:" + listOfFigures[i]);
-                    }
-                    currentFigure = 0;
-                    if(figureCount > 0) {
-                        figureView.setImage(figures[currentFigure]);
-                    }
+            String[] listOfFigures = ScriptManager.graph(tWeather,organisms,tModel, graphSettings);
+            if(listOfFigures != null) {
+                figureCount = listOfFigures.length;
+                figures = new Image[figureCount];
+                for(int i = 0; i < figureCount; i++) {
+                    figures[i] = new Image(new File(listOfFigures[i]).toURI().toString());
+                }
+                currentFigure = 0;
+                if(figureCount > 0) {
+                    figureView.setImage(figures[currentFigure]);
                 }
             }
         }
@@ -790,13 +800,8 @@ public class MainWindow {
      * Starts the creation of a new model.
      */
     public void newModel() {
-        File f = new File("Temp/modelOutput.xml");
-        if(f.exists()) {
-            f.delete();
-        }
         ModelWindow m = new ModelWindow(settings);
-        ModelObject temp = m.show();
-        if(temp != null) {
+        for(ModelObject temp : m.show()) {
             settings.loadedModel = temp.name;
             temp.stats.optim = temp.optim;
             models.add(temp);
@@ -913,6 +918,50 @@ public class MainWindow {
         }
     }
 	
+    /**
+     * Fits the current model again to the current contents of its datasets.
+     * The refitted model is added beside the current one and loaded once it 
+     * is finished. Its progress is shown in the statistics progress bar.
+     */
+    public void refitModel() {
+        if((loadedModel < 0) || (loadedModel >= models.size())) {
+            return;
+        }
+        final ModelObject previous = models.get(loadedModel);
+        int index = settings.weatherNames.indexOf(previous.weatherDatabaseName);
+        if(index < 0) {
+            ErrorManager.warn("Could not refit the model.", "The weather dataset " + previous.weatherDatabaseName + " used by the model is no longer loaded.");
+            return;
+        }
+        final DatabaseObject weather = XmlManager.readDatabaseFile(settings.weatherLocations.get(index));
+        if(weather == null) {
+            return;
+        }
+        final ScriptTask<ModelObject> task = new ScriptTask<ModelObject>() {
+            @Override
+            protected ModelObject call() {
+                return ScriptManager.refit(previous, weather, this);
+            }
+        };
+        task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                ModelObject result = task.getValue();
+                if(result != null) {
+                    settings.loadedModel = result.name;
+                    models.add(result);
+                    loadedModel = models.size() - 1;
+                    updateModelWindow();
+                    updateStats();
+                }
+            }
+        });
+        task.bind(statsProgressBar, statsProgressLbl, refitModelBtn, statsCalcBtn, validateModelBtn);
+        Thread thread = new Thread(task, "MainWindow.refitModel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     /**
      * Creates a new SettingsObject using the default values and repopulates the 
      * GUI with them.
@@ -1073,6 +1122,19 @@ public class MainWindow {
                     }
                 }
             );
+            queueListener = new Runnable() {
+                @Override
+                public void run() {
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateQueue();
+                        }
+                    });
+                }
+            };
+            JobScheduler.addListener(queueListener);
+            updateQueue();
         } catch(Exception e) {
             ErrorManager.log("Error in MainWindow.setupListeners", e);
         }
@@ -1131,7 +1193,7 @@ public class MainWindow {
         log3dSLowTxt.setTooltip(new Tooltip("The low end of the S-axis."));
         log3dTHighTxt.setTooltip(new Tooltip("The high end of the T-axis (0 = all)."));
         log3dTLowTxt.setTooltip(new Tooltip("The low end of the T-axis."));
-        logTxt.setTooltip(new Tooltip("The log likelihood of the model."));
+        logTxt.setTooltip(new Tooltip("The log likelihood of the model, followed by its held out log likelihood and stage proportion error once it has been cross-validated."));
         membersTxt.setTooltip(new Tooltip("Number of organisms in current dataset."));
         modelGraphCombBx.setTooltip(new Tooltip("Choose a model to use."));
         modelListBx.setTooltip(new Tooltip("Choose a model to load."));
@@ -1140,6 +1202,7 @@ public class MainWindow {
         modelParamList.setTooltip(new Tooltip("The model parameters."));
         modelWeatherTxt.setTooltip(new Tooltip("The weather dataset used to create the current model."));
         newModelBtn.setTooltip(new Tooltip("Create a new model."));
+        refitModelBtn.setTooltip(new Tooltip("Fit the current model again to its datasets, starting from its parameters. Use this after adding new samples to a dataset."));
         newOrgBtn.setTooltip(new Tooltip("Create new organism dataset from input data."));
         newWeatherBtn.setTooltip(new Tooltip("Create a new weather dataset from input data."));
         oneGraphPerBtn.setTooltip(new Tooltip("Each graph is put on its own image."));
@@ -1150,10 +1213,12 @@ public class MainWindow {
         stageNameList.setTooltip(new Tooltip("Lists the names of the life stages for the current organism dataset. Double click to edit."));
         stagesTxt.setTooltip(new Tooltip("Number of life stages in the loaded organism dataset."));
         statsCalcBtn.setTooltip(new Tooltip("Run the calculations."));
+        statsMethodCombBx.setTooltip(new Tooltip("How to find the parameter intervals. Profile Likelihood takes seconds but leaves no draws for forecasts. MCMC draws the posterior with several chains side by side, Iterations being the number of draws kept."));
         statsModelCombBx.setTooltip(new Tooltip("Choose a model to use."));
         statsOrganismCombBx.setTooltip(new Tooltip("Choose an organism dataset to use."));
         statsParamTbl.setTooltip(new Tooltip("Table which holds the model parameters as well as the high and low values for the estimated confidence interval for these parameters."));
         statsWeatherCombBox.setTooltip(new Tooltip("Choose a weather dataset to use."));
+        validateModelBtn.setTooltip(new Tooltip("Cross-validate the current model by refitting it without each fifth of its sampling dates and scoring it on the dates left out."));
         weatherGraphCombBx.setTooltip(new Tooltip("Choose a weather dataset to use."));
         weatherListBx.setTooltip(new Tooltip("Choose a weather dataset to load."));
         xxHighTxt.setTooltip(new Tooltip("The high end of the estimated confidence interval for the chi-squared statistic."));
@@ -1202,6 +1267,7 @@ public class MainWindow {
         if(stage != null) {
             updateWindow();
             stage.showAndWait();
+            JobScheduler.removeListener(queueListener);
             XmlManager.saveSettings(settings);
             if(models != null) {
                 XmlManager.saveModels(settings.defaultModelLocation, models);
@@ -1212,21 +1278,19 @@ public class MainWindow {
     /**
      * Runs the currently selected model, organism, and weather datasets through 
      * the further statistical operations provided by ScriptManager.
-     * @note This is a two part process where, after calling ScriptManager the 
-     * program expects the R script to create a new file which contains the
-     * output. The output file expected from the R script is an xml file 
-     * representing a StatsObject.
+     * @note The statistics are returned by ScriptManager as a StatsObject 
+     * built from the response of the R script.
+     * @note The script is run on a background thread and its progress is shown 
+     * under the parameter table. The results are stored with the model that was 
+     * loaded when the calculation started.
      */
     public void stats() {
         try {
             if(!iterTxt.getText().isEmpty()) {
-                File f = new File("Temp/statOutput.xml");
-                if(f.exists()) {
-                    f.delete();
-                }
                 StatsObject stat = new StatsObject();
                 stat.iterations = iterTxt.getText(); 
                 stat.alpha = alphaTxt.getText();
+                stat.method = statsMethodCombBx.getValue();
                 String name = statsOrganismCombBx.getValue();
                 DatabaseObject organism = null;
                 int index = settings.organismNames.indexOf(name);
@@ -1242,11 +1306,36 @@ public class MainWindow {
                 stat.a = models.get(loadedModel).params;
                 stat.stageMap.addAll(models.get(loadedModel).stageMap);
                 stat.optim = models.get(loadedModel).optim;
+                stat.lower = models.get(loadedModel).lower;
+                stat.upper = models.get(loadedModel).upper;
                 if((organism != null)&&(organism.stages == stat.stageMap.size())) {
-                    ScriptManager.stats(organism, weather, stat);
-                    models.get(loadedModel).stats = XmlManager.loadStats("Temp/statOutput.xml");
-                    tableParams.clear();
-                    updateStats();
+                    final DatabaseObject taskOrganism = organism;
+                    final DatabaseObject taskWeather = weather;
+                    final StatsObject request = stat;
+                    final ModelObject target = models.get(loadedModel);
+                    final ScriptTask<StatsObject> task = new ScriptTask<StatsObject>() {
+                        @Override
+                        protected StatsObject call() {
+                            return ScriptManager.stats(taskOrganism, taskWeather, request, this);
+                        }
+                    };
+                    task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+                        @Override
+                        public void handle(WorkerStateEvent event) {
+                            StatsObject result = task.getValue();
+                            if(result != null) {
+                                target.stats = result;
+                                if(models.get(loadedModel) == target) {
+                                    tableParams.clear();
+                                    updateStats();
+                                }
+                            }
+                        }
+                    });
+                    task.bind(statsProgressBar, statsProgressLbl, refitModelBtn, statsCalcBtn, validateModelBtn);
+                    Thread thread = new Thread(task, "MainWindow.stats");
+                    thread.setDaemon(true);
+                    thread.start();
                 } else {
                    if(organism == null) {
                        ErrorManager.warn("Could not run statistics.", "Program did not successfully load the organism dataset: " + statsOrganismCombBx.getValue() + ".");
@@ -1339,8 +1428,11 @@ public class MainWindow {
             if(loadedModel >= 0) {
                 modelListBx.setValue(settings.loadedModel);
                 modelOrganismTxt.setText(models.get(loadedModel).OrganismDatabaseName);
-                modelWeatherTxt.setText(models.get(loadedModel).weatherDatabaseName);
+                modelWeatherTxt.setText(models.get(loadedModel).weatherDatabaseName + " (" + models.get(loadedModel).lower + " to " + models.get(loadedModel).upper + " C)");
                 modelMethodTxt.setText(models.get(loadedModel).optim);
+                if(!models.get(loadedModel).starts.isEmpty()) {
+                    modelMethodTxt.setText(models.get(loadedModel).optim + " (" + models.get(loadedModel).startsAgreed + " of " + models.get(loadedModel).starts + " starts agree)");
+                }
                 ObservableList<String> organisms =  FXCollections.observableArrayList();
                 if(models.get(loadedModel).OrganismFiles != null) {
                     for(String fileName : models.get(loadedModel).OrganismFiles) {
@@ -1351,6 +1443,10 @@ public class MainWindow {
                 modelOrganismList.setItems(organisms);
                 aicTxt.setText(models.get(loadedModel).aic);
                 logTxt.setText(models.get(loadedModel).logLikelihood);
+                ValidationObject validation = models.get(loadedModel).validation;
+                if(!validation.folds.equals("0")) {
+                    logTxt.setText(models.get(loadedModel).logLikelihood + " (held out " + validation.log + ", RMSE " + validation.rmse + ")");
+                }
                 ObservableList<String> options =  FXCollections.observableArrayList();
                 options.addAll(Arrays.asList(models.get(loadedModel).params));
                 modelParamList.setItems(options);
@@ -1404,6 +1500,25 @@ public class MainWindow {
         populateStageNames();
     }
 
+    /**
+     * Shows the state of JobScheduler's queue in queueLbl.
+     * The label is left empty while no jobs are waiting or running.
+     */
+    private void updateQueue() {
+        QueueObject queue = JobScheduler.status();
+        String[] names = {"Graphs", "Models", "Statistics"};
+        StringBuilder text = new StringBuilder();
+        for(int i = JobScheduler.INTERACTIVE; i <= JobScheduler.BATCH; i++) {
+            if((queue.running[i] > 0) || (queue.queued[i] > 0)) {
+                if(text.length() > 0) {
+                    text.append("; ");
+                }
+                text.append(names[i]).append(": ").append(queue.running[i]).append(" running, ").append(queue.queued[i]).append(" waiting");
+            }
+        }
+        queueLbl.setText(text.toString());
+    }
+
     /**
      * Loads the current settings information to the GUI. 
      */
@@ -1446,6 +1561,7 @@ public class MainWindow {
                 }
                 iterTxt.setText(stats.iterations);
                 alphaTxt.setText(stats.alpha);
+                statsMethodCombBx.setValue(stats.method);
                 ggTxt.setText(stats.gg);
                 ggpTxt.setText(stats.ggPval);
                 ggciHighTxt.setText(stats.ggci[0]);
@@ -1512,4 +1628,46 @@ public class MainWindow {
         populateStageNames();
         updateStats();
     }
+
+    /**
+     * Cross-validates the current model over five folds of its sampling 
+     * dates. The result is stored with the model and shown beside its log 
+     * likelihood once it is finished. Its progress is shown in the 
+     * statistics progress bar.
+     */
+    public void validateModel() {
+        if((loadedModel < 0) || (loadedModel >= models.size())) {
+            return;
+        }
+        final ModelObject model = models.get(loadedModel);
+        int index = settings.weatherNames.indexOf(model.weatherDatabaseName);
+        if(index < 0) {
+            ErrorManager.warn("Could not cross-validate the model.", "The weather dataset " + model.weatherDatabaseName + " used by the model is no longer loaded.");
+            return;
+        }
+        final DatabaseObject weather = XmlManager.readDatabaseFile(settings.weatherLocations.get(index));
+        if(weather == null) {
+            return;
+        }
+        final ScriptTask<ValidationObject> task = new ScriptTask<ValidationObject>() {
+            @Override
+            protected ValidationObject call() {
+                return ScriptManager.crossValidate(model, weather, 5, this);
+            }
+        };
+        task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                ValidationObject result = task.getValue();
+                if(result != null) {
+                    model.validation = result;
+                    updateModelWindow();
+                }
+            }
+        });
+        task.bind(statsProgressBar, statsProgressLbl, refitModelBtn, statsCalcBtn, validateModelBtn);
+        Thread thread = new Thread(task, "MainWindow.validateModel");
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,6 +22,8 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
 import javafx.scene.Parent;
@@ -28,8 +31,10 @@ import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.TextField;
@@ -53,14 +58,19 @@ import javafx.util.StringConverter;
  */
 public class ModelWindow {
     private String defaultName; /*!< The pre-determined default name of the model to be created. Based on current date and time. */
-    private ModelObject finalModel; /*!< The model which is returned to the caller.*/
+    private ArrayList<ModelObject> finalModels; /*!< The models which are returned to the caller. A joint fit returns one per organism. */
     private DatabaseObject organism; /*!< Holds the organism data set to be used to make the model. */
     private SettingsObject settings; /*!< Holds the information relating to the default load/save directories. */
     private Stage stage; /*!< The class which describes an FXML window. This must be non-null before the window is shown. */
     private DatabaseObject weather; /*!< Holds the weather data set to be used to make the model. */
     
+    public CheckBox fitThresholdsChckBx; /*!< Fit the thresholds along with the parameters rather than keeping them fixed. */
+    public CheckBox jointChckBx; /*!< Fit each chosen organism with its own A values and a shared V rather than fitting their sum. */
+    public TextField lowerTxt; /*!< Lower developmental threshold in degrees Celsius. */
     public Button modelBtn; /*!< Create the model. */
     public TextField modelNameTxt; /*!< Name of the resultant model. */
+    public ProgressBar progressBar; /*!< Shows how far the model has come while the script runs. */
+    public Label progressLbl; /*!< Describes the progress of the script while it runs. */
     public CheckBox paramChckBx; /*!< Supply your own initial parameters or let them be estimated automatically. */
     public ListView<TextFieldListCell> paramList; /*!< List of custom input parameters. */
     public RadioButton optim1RBtn; /*!< Use Nelder-Mead optimization function. */
@@ -68,10 +78,14 @@ public class ModelWindow {
     public RadioButton optim3RBtn; /*!< Use CG optimization function. */
     public RadioButton optim4RBtn; /*!< Use L-BFGS-B optimization function. */
     public RadioButton optim5RBtn; /*!< Use SANN optimization function. */
+    public RadioButton optim6RBtn; /*!< Use Nelder-Mead from many starting points. */
+    public RadioButton optim7RBtn; /*!< Use differential evolution. */
     public ScrollPane organismScroll; /*!< Lists all organisms included in the currently loaded dataset and allows the user to choose which ones to include in the model. */
     public ComboBox<String> organismListBx; /*!< Lists all available organism datasets. */
+    public Button searchBtn; /*!< Search for the stage map with the lowest AIC. */
     public ListView<DisplayItem> stagesList; /*!< A list of the organism's life stages such that the user can combine and rearrange them as desired. */
     public TextField stagesTxt; /*!< Shows the number of life stages for the currently loaded organism dataset. */
+    public TextField upperTxt; /*!< Upper developmental threshold in degrees Celsius. */
     public ComboBox<String> weatherListBx; /*!< Lists all available weather datasets. */
     
 	
@@ -82,7 +96,7 @@ public class ModelWindow {
     public ModelWindow(SettingsObject so) {
         try {
             settings = so;
-            finalModel = null;
+            finalModels = new ArrayList<>();
             if(!settings.loadedOrganism.equals("")) {
                 organism = XmlManager.readDatabaseFile(settings.loadedOrganism);
             }
@@ -97,6 +111,47 @@ public class ModelWindow {
         }
     }
     
+    /**
+     * Fits the chosen organisms jointly with a shared V.
+     * Each organism keeps its own A values. Initial parameters, if chosen, 
+     * are used as the starting point of every organism. The window closes 
+     * once the models are finished, one for each organism.
+     * @param request The settings of the fit taken from the window.
+     */
+    private void joint(final ModelObject request) {
+        if(request.OrganismFiles.length < 2) {
+            ErrorManager.warn("Joint fit not started.", "Choose at least 2 organisms to fit them jointly.");
+            return;
+        }
+        final String[] names = new String[request.OrganismFiles.length];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = organism.memberNames[Arrays.asList(organism.memberLocations).indexOf(request.OrganismFiles[i])];
+        }
+        request.OrganismDatabaseName = organism.name;
+        request.OrganismDatabaseLocation = organism.location;
+        request.weatherDatabaseName = weather.name;
+        request.name = modelNameTxt.getText().isEmpty() ? defaultName : modelNameTxt.getText();
+        final ScriptTask<ArrayList<ModelObject>> task = new ScriptTask<ArrayList<ModelObject>>() {
+            @Override
+            protected ArrayList<ModelObject> call() {
+                return ScriptManager.jointFit(request, names, this);
+            }
+        };
+        task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                if(task.getValue() != null) {
+                    finalModels.addAll(task.getValue());
+                    stage.close();
+                }
+            }
+        });
+        task.bind(progressBar, progressLbl, modelBtn, searchBtn);
+        Thread thread = new Thread(task, "ModelWindow.joint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     /**
      * Loads an organism dataset.
      * This method allows the user to choose a new organism database to use for 
@@ -140,19 +195,11 @@ public class ModelWindow {
      * This method takes the currently selected options and databases and calls 
      * the R script which produces the model. It then constructs a ModelObject 
      * which describes the created model.
+     * @note The script is run on a background thread so that the window can 
+     * show its progress. The window closes once the model is finished.
      */
     public void model() {
-        VBox box = (VBox) organismScroll.getContent();
-        ObservableList<Node> items = box.getChildren();
-        ArrayList<String> orgList = new ArrayList<>();
-        for(int i = 0; i < items.size(); i++) {
-            CheckBox c = (CheckBox) items.get(i);
-            if (c.isSelected()) {
-                orgList.add(c.getId());
-            }
-        }
-        String o[] = new String[orgList.size()];
-        o = orgList.toArray(o);
+        String o[] = members();
         
         ArrayList<String> stages = new ArrayList<>(Arrays.asList(organism.memberStages));
         
@@ -167,17 +214,11 @@ public class ModelWindow {
                     model.stageMap.add(stages.indexOf(di.name) + ":" + stages.indexOf(content.get(0).name));
                 }
             }
-            if(optim1RBtn.isSelected()) { 
-                model.optim = "Nelder-Mead";
-            } else if(optim2RBtn.isSelected()) { 
-                model.optim = "BFGS";
-            } else if(optim3RBtn.isSelected()) { 
-                model.optim = "CG";
-            } else if(optim4RBtn.isSelected()) { 
-                model.optim = "L-BFGS-B";
-            } else if(optim5RBtn.isSelected()) { 
-                model.optim = "SANN";
+            model.optim = optim();
+            if(!thresholds(model)) {
+                return;
             }
+            model.fitThresholds = fitThresholdsChckBx.isSelected();
             if(paramChckBx.isSelected()) {
                 model.params = new String[paramList.getItems().size()];
                 int i = 0;
@@ -185,10 +226,48 @@ public class ModelWindow {
                     model.params[i++] = t.getText();
                 }
             }
-            ModelObject outputModel = ScriptManager.model(model);
+            if(jointChckBx.isSelected()) {
+                joint(model);
+                return;
+            }
+            final ModelObject request = model;
+            final ScriptTask<ModelObject> task = new ScriptTask<ModelObject>() {
+                @Override
+                protected ModelObject call() {
+                    return ScriptManager.model(request, this);
+                }
+            };
+            task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+                @Override
+                public void handle(WorkerStateEvent event) {
+                    finish(request, task.getValue());
+                }
+            });
+            task.bind(progressBar, progressLbl, modelBtn, searchBtn);
+            Thread thread = new Thread(task, "ModelWindow.model");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (Exception e) {
+            ErrorManager.log("ModelWindow.model() encountered an error as it tried to add the new model to the existing database of models.", e);
+            stage.close();
+        }
+    }
+    
+    /**
+     * Completes the model once the script has finished and closes the window.
+     * @param model The model as it was sent to the script.
+     * @param outputModel The model returned by the script, or null if it 
+     * failed.
+     */
+    private void finish(ModelObject model, ModelObject outputModel) {
+        try {
             model.params = Arrays.copyOf(outputModel.params, outputModel.params.length);
             model.logLikelihood = outputModel.logLikelihood;
             model.aic = outputModel.aic;
+            model.starts = outputModel.starts;
+            model.startsAgreed = outputModel.startsAgreed;
+            model.lower = outputModel.lower;
+            model.upper = outputModel.upper;
             model.paramCount = model.params.length;
             model.OrganismDatabaseName = organism.name;
             model.OrganismDatabaseLocation = organism.location;
@@ -204,13 +283,53 @@ public class ModelWindow {
             model.date = dateFormat.format(d);
             dateFormat = new SimpleDateFormat("HH:mm:ss");
             model.time = dateFormat.format(d);
-            finalModel = model;
+            finalModels.add(model);
         } catch (Exception e) {
             ErrorManager.log("ModelWindow.model() encountered an error as it tried to add the new model to the existing database of models.", e);
         }
         stage.close();
     }
 
+    /**
+     * Finds the organisms chosen to be included in the model.
+     * @return Locations of the checked organism files.
+     */
+    private String[] members() {
+        VBox box = (VBox) organismScroll.getContent();
+        ObservableList<Node> items = box.getChildren();
+        ArrayList<String> orgList = new ArrayList<>();
+        for(int i = 0; i < items.size(); i++) {
+            CheckBox c = (CheckBox) items.get(i);
+            if (c.isSelected()) {
+                orgList.add(c.getId());
+            }
+        }
+        String o[] = new String[orgList.size()];
+        return orgList.toArray(o);
+    }
+    
+    /**
+     * Finds the chosen optimization method.
+     * @return Name of the method as passed to `model.r`.
+     */
+    private String optim() {
+        String ret = "Nelder-Mead";
+        if(optim2RBtn.isSelected()) { 
+            ret = "BFGS";
+        } else if(optim3RBtn.isSelected()) { 
+            ret = "CG";
+        } else if(optim4RBtn.isSelected()) { 
+            ret = "L-BFGS-B";
+        } else if(optim5RBtn.isSelected()) { 
+            ret = "SANN";
+        } else if(optim6RBtn.isSelected()) { 
+            ret = "Multi-start";
+        } else if(optim7RBtn.isSelected()) { 
+            ret = "Differential Evolution";
+        }
+        return ret;
+    }
+    
     /**
      * Populates the lists of organism and weather datasets with their members 
      * as well as filling in organismScroll with the organisms for the currently 
@@ -286,6 +405,47 @@ public class ModelWindow {
         }
     }
     
+    /**
+     * Searches every way of merging neighboring stages for the one with the 
+     * lowest AIC.
+     * The chosen organisms, weather dataset, and method are used. Once the 
+     * search is finished the stages are grouped by the best stage map and 
+     * its fitted parameters are filled in as the initial parameters, so the 
+     * model can be created from it at once.
+     */
+    public void searchStages() {
+        if((organism == null) || (weather == null)) {
+            return;
+        }
+        final ModelObject request = new ModelObject();
+        request.OrganismFiles = members();
+        request.organismCount = request.OrganismFiles.length;
+        request.weatherDatabaseLocation = weather.memberLocations[0];
+        request.optim = optim();
+        if(!thresholds(request)) {
+            return;
+        }
+        final ScriptTask<ArrayList<ModelObject>> task = new ScriptTask<ArrayList<ModelObject>>() {
+            @Override
+            protected ArrayList<ModelObject> call() {
+                return ScriptManager.searchStageMaps(request, this);
+            }
+        };
+        task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                ArrayList<ModelObject> fits = task.getValue();
+                if((fits != null) && !fits.isEmpty()) {
+                    showStageMap(fits.get(0));
+                }
+            }
+        });
+        task.bind(progressBar, progressLbl, searchBtn, modelBtn);
+        Thread thread = new Thread(task, "ModelWindow.searchStages");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     /**
      * Creates and populates the drag-and-drop control used to let the user 
      * reorder and combine stages.
@@ -319,11 +479,18 @@ public class ModelWindow {
         optim3RBtn.setTooltip(new Tooltip("Similar to BFGS but sometimes performs better on bigger problems with many parameters."));
         optim4RBtn.setTooltip(new Tooltip("The BFGS method using upper and lower bounds."));
         optim5RBtn.setTooltip(new Tooltip("Simulated annealing."));
+        optim6RBtn.setTooltip(new Tooltip("Nelder-Mead from many starting points spread around the initial parameters, fitted side by side.  It is slower than a single fit but less likely to stop at a poor local optimum, and records how many starts reached the best fit."));
+        optim7RBtn.setTooltip(new Tooltip("Global search which evolves a population of parameter sets, evaluating each generation on several cores, and polishes the best with Nelder-Mead.  It suits organisms with many stages and takes far less time than SANN."));
         organismListBx.setTooltip(new Tooltip("Choose an organism dataset to use."));
         organismScroll.setTooltip(new Tooltip("Choose which dataset members to include in the model."));
         stagesTxt.setTooltip(new Tooltip("Number of life stages in the organism dataset."));
         weatherListBx.setTooltip(new Tooltip("Choose a weather dataset to use."));
         stagesList.setTooltip(new Tooltip("Drag and drop stages on to one another to combine them in the output."));
+        searchBtn.setTooltip(new Tooltip("Fit every way of merging neighboring stages side by side and group the stages by the one with the lowest AIC."));
+        lowerTxt.setTooltip(new Tooltip("Temperature in degrees Celsius below which the organism does not develop."));
+        upperTxt.setTooltip(new Tooltip("Temperature in degrees Celsius above which the organism develops no faster."));
+        fitThresholdsChckBx.setTooltip(new Tooltip("Estimate the thresholds along with the parameters, starting from the values above.  The global methods keep the thresholds fixed."));
+        jointChckBx.setTooltip(new Tooltip("Fit each chosen organism with its own A values but a single V shared by all of them, instead of fitting their sum.  One model is made for each organism.  The thresholds are kept fixed and the global methods are replaced by Nelder-Mead."));
     }
     
     /**
@@ -347,11 +514,40 @@ public class ModelWindow {
         }
     }
     
+    /**
+     * Groups the stages by the stage map of a model and fills in its 
+     * parameters as the initial parameters.
+     * @param model The model.
+     */
+    private void showStageMap(ModelObject model) {
+        HashMap<String, DisplayItem> groups = new HashMap<>();
+        ObservableList<DisplayItem> items = FXCollections.observableArrayList();
+        for(String map : model.stageMap) {
+            String[] holder = map.split(":");
+            DisplayInfo info = new DisplayInfo(organism.memberStages[Integer.parseInt(holder[0])]);
+            DisplayItem group = groups.get(holder[1]);
+            if(group == null) {
+                group = new DisplayItem(info);
+                groups.put(holder[1], group);
+                items.add(group);
+            } else {
+                group.push(info);
+            }
+        }
+        stagesList.setItems(items);
+        paramChckBx.setSelected(true);
+        toggleParams();
+        for(int i = 0; (i < model.params.length) && (i < paramList.getItems().size()); i++) {
+            paramList.getItems().get(i).setText(model.params[i]);
+        }
+    }
+    
     /**
      * Shows the window to the user.
-     * @return ModelObject holding the calculated model information.
+     * @return The calculated models: one, or one for each organism of a joint 
+     * fit, or none if the window was closed without making a model.
      */
-    public ModelObject show() {
+    public ArrayList<ModelObject> show() {
         setupWindow();
         setupStageList();
         setupCellFactories();
@@ -363,7 +559,27 @@ public class ModelWindow {
             populate();
             stage.showAndWait();
         }
-        return finalModel;
+        return finalModels;
+    }
+    
+    /**
+     * Sets the thresholds of a model from the window.
+     * @param model The model.
+     * @return True if the thresholds are numbers and the upper threshold is 
+     * above the lower, false otherwise.
+     */
+    private boolean thresholds(ModelObject model) {
+        try {
+            if(Double.parseDouble(upperTxt.getText()) > Double.parseDouble(lowerTxt.getText())) {
+                model.lower = lowerTxt.getText().trim();
+                model.upper = upperTxt.getText().trim();
+                return true;
+            }
+        } catch(NumberFormatException e) {
+            // Handled by the warning below.
+        }
+        ErrorManager.warn("Could not create the model.", "The thresholds must be numbers and the upper threshold must be above the lower.");
+        return false;
     }
     
     /**
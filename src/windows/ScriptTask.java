@@ -0,0 +1,105 @@
+package windows;
+
+import data.ProgressObject;
+import stagecast.ErrorManager;
+import stagecast.ProgressListener;
+
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+
+/**
+ * Runs a script operation off the JavaFX application thread and shows its
+ * progress.
+ * The windows call ScriptManager from call() and pass the task itself as the
+ * ProgressListener. Each report is turned in to the task's progress and
+ * message, which JavaFX hands over to the application thread and coalesces,
+ * so a burst of reports never floods the GUI. bind() ties a progress bar and
+ * label to the task and disables every button sharing them until the task
+ * is over.
+ * @date 10/19/2026
+ * @copyright United States Department of Agriculture Agricultural Research
+ * Service (US Government Public Domain)
+ * @param <V> Type of the result of the operation.
+ */
+public abstract class ScriptTask<V> extends Task<V> implements ProgressListener {
+
+    /**
+     * Default constructor.
+     * The task starts with an indeterminate progress until the script sends
+     * its first report. An exception thrown by call() is passed to 
+     * ErrorManager, so that it is shown and logged instead of being lost with
+     * the task. A window may replace this handler with setOnFailed().
+     */
+    public ScriptTask() {
+        updateProgress(-1, -1);
+        updateMessage("Waiting for R...");
+        setOnFailed(new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent event) {
+                Throwable cause = getException();
+                Exception e = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+                ErrorManager.error("The script operation failed.", "ScriptTask.call ran into the following error, which stopped the operation. See log.txt for details.", e);
+            }
+        });
+    }
+
+    /**
+     * Shows the task's progress in a window and disables the buttons that
+     * could start another task while it runs.
+     * The controls are hidden again and the buttons enabled once the task has
+     * finished, failed, or been cancelled. Every button whose task shows its
+     * progress on the same bar must be passed, so that a second task can not
+     * take the bar over while the first still runs.
+     * @param bar Progress bar to show the share of steps finished.
+     * @param label Label to show the progress as text.
+     * @param buttons The button which started the task and every other
+     * button which shares its progress bar.
+     */
+    public void bind(final ProgressBar bar, final Label label, final Button... buttons) {
+        bar.progressProperty().bind(progressProperty());
+        label.textProperty().bind(messageProperty());
+        bar.visibleProperty().bind(runningProperty());
+        label.visibleProperty().bind(runningProperty());
+        for(Button button : buttons) {
+            button.disableProperty().bind(runningProperty());
+        }
+    }
+
+    /**
+     * Formats a number of milliseconds as minutes and seconds.
+     * @param millis The time in milliseconds.
+     * @return The time as "m:ss".
+     */
+    private static String format(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Records a progress report from ScriptManager.
+     * @param progress The latest report.
+     */
+    @Override
+    public void progress(ProgressObject progress) {
+        StringBuilder msg = new StringBuilder();
+        if(progress.total > 0) {
+            updateProgress(progress.done, progress.total);
+            msg.append(progress.done).append(" of ").append(progress.total);
+        } else {
+            updateProgress(-1, -1);
+            msg.append(progress.done).append(" steps");
+        }
+        if(!Double.isNaN(progress.logLikelihood)) {
+            msg.append(String.format(", log likelihood %.3f", progress.logLikelihood));
+        }
+        msg.append(", ").append(format(progress.elapsed)).append(" elapsed");
+        if(progress.eta >= 0) {
+            msg.append(", about ").append(format(progress.eta)).append(" left");
+        }
+        updateMessage(msg.toString());
+    }
+}